@@ -21,10 +21,11 @@ package com.adobe.acs.commons.ccvar.filter;
 import com.adobe.acs.commons.ccvar.PropertyAggregatorService;
 import com.adobe.acs.commons.ccvar.PropertyConfigService;
 import com.adobe.acs.commons.ccvar.util.ContentVariableReplacementUtil;
-import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
 import com.fasterxml.jackson.databind.ObjectMapper;
-import com.fasterxml.jackson.databind.node.ArrayNode;
-import com.fasterxml.jackson.databind.node.ObjectNode;
+import org.apache.commons.io.IOUtils;
 import org.apache.commons.lang3.StringUtils;
 import org.apache.sling.api.SlingHttpServletRequest;
 import org.apache.sling.api.SlingHttpServletResponse;
@@ -47,10 +48,14 @@ import javax.servlet.FilterConfig;
 import javax.servlet.ServletException;
 import javax.servlet.ServletRequest;
 import javax.servlet.ServletResponse;
+import java.io.ByteArrayInputStream;
 import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.Reader;
+import java.io.StringWriter;
+import java.io.Writer;
+import java.nio.charset.Charset;
 import java.util.ArrayList;
-import java.util.Iterator;
-import java.util.LinkedList;
 import java.util.List;
 import java.util.Map;
 import java.util.regex.Pattern;
@@ -74,6 +79,10 @@ public class ContentVariableJsonFilter implements Filter {
 
     private static final Logger LOG = LoggerFactory.getLogger(ContentVariableJsonFilter.class);
 
+    private static final ObjectMapper OBJECT_MAPPER = new ObjectMapper();
+
+    private static final String PLACEHOLDER_MARKER = "((";
+
     @Reference
     private PropertyAggregatorService propertyAggregatorService;
 
@@ -97,20 +106,28 @@ public class ContentVariableJsonFilter implements Filter {
             CapturingResponseWrapper capturingResponseWrapper = new CapturingResponseWrapper((SlingHttpServletResponse) servletResponse);
             filterChain.doFilter(servletRequest, capturingResponseWrapper);
 
-            String currentResponse = capturingResponseWrapper.getCaptureAsString();
-            String toReturn = currentResponse;
+            byte[] currentResponse = capturingResponseWrapper.getCaptureAsBytes();
+            Charset charset = Charset.forName(capturingResponseWrapper.getCharacterEncoding());
+            StringWriter rewritten = null;
             try {
-                Map<String, Object> contentVariableReplacements = propertyAggregatorService.getProperties(slingHttpServletRequest);
-                if (contentVariableReplacements.size() > 0) {
-                    ObjectMapper objectMapper = new ObjectMapper();
-                    JsonNode currentTree = objectMapper.readTree(currentResponse);
-                    replaceInElements(currentTree, contentVariableReplacements);
-                    toReturn = currentTree.toString();
+                // Responses without placeholders pass through without being parsed
+                if (contains(currentResponse, PLACEHOLDER_MARKER.getBytes(charset))) {
+                    Map<String, Object> contentVariableReplacements = propertyAggregatorService.getProperties(slingHttpServletRequest);
+                    if (contentVariableReplacements.size() > 0) {
+                        // Rewrite into a buffer, so invalid JSON or a failing replacement still returns the response as it is
+                        StringWriter buffer = new StringWriter(currentResponse.length);
+                        replaceInTokens(currentResponse, charset, contentVariableReplacements, buffer);
+                        rewritten = buffer;
+                    }
                 }
             } catch (Exception e) {
                 LOG.error("Exception during JSON property replacement", e);
             } finally {
-                servletResponse.getWriter().write(toReturn);
+                if (rewritten != null) {
+                    servletResponse.getWriter().write(rewritten.toString());
+                } else {
+                    IOUtils.copy(newReader(currentResponse, charset), servletResponse.getWriter());
+                }
             }
         } else {
             filterChain.doFilter(servletRequest, servletResponse);
@@ -153,84 +170,49 @@ public class ContentVariableJsonFilter implements Filter {
         return shouldProcess;
     }
 
-    /**
-     * Delegate replacement to different object types.
-     *
-     * @param node Input JSON node
-     * @param contentVariableReplacements current map of content variables
-     */
-    private void replaceInElements(JsonNode node, Map<String, Object> contentVariableReplacements) {
-        if (node.isArray()) {
-            replaceInArray(node, contentVariableReplacements);
-        } else if (node.isObject()) {
-            replaceInObject(node, contentVariableReplacements);
-        }
-    }
-
-    /**
-     * Iterates through array items and replaces any placeholders found.
-     *
-     * @param node Array node
-     * @param contentVariableReplacements current map of content variables
-     */
-    private void replaceInArray(JsonNode node, Map<String, Object> contentVariableReplacements) {
-        if (node.get(0) != null && node.get(0).isTextual()) {
-            List<String> updated = new LinkedList<>();
-            for (JsonNode arrayItem : node) {
-                String current = arrayItem.asText();
-                updated.add(replaceInString(current, contentVariableReplacements));
-            }
-            ((ArrayNode) node).removeAll();
-            for (int i = 0; i < updated.size(); i++) {
-                ((ArrayNode) node).insert(i, updated.get(i));
-            }
-        } else if (node.get(0) != null && node.get(0).isContainerNode()) {
-            for (JsonNode arrayItem : node) {
-                replaceInElements(arrayItem, contentVariableReplacements);
-            }
-        }
+    private static Reader newReader(byte[] json, Charset charset) {
+        return new InputStreamReader(new ByteArrayInputStream(json), charset);
     }
 
     /**
-     * Iterates over keys to replace any placeholders in the values.
+     * Copies the JSON token by token to the writer, replacing placeholders in string values as they pass.
      *
-     * @param node Object node
+     * @param json Captured JSON response
+     * @param charset Encoding of the captured response
      * @param contentVariableReplacements current map of content variables
+     * @param writer Writer to collect the rewritten response in
      */
-    private void replaceInObject(JsonNode node, Map<String, Object> contentVariableReplacements) {
-        Iterator<String> fieldNames = node.fieldNames();
-        while (fieldNames.hasNext()) {
-            String name = fieldNames.next();
-            JsonNode nodeValue = node.get(name);
-            if (nodeValue.isContainerNode()) {
-                replaceInElements(nodeValue, contentVariableReplacements);
-            } else if (nodeValue.isTextual()) {
-                String current = nodeValue.asText();
-                String replaced = replaceInString(current, contentVariableReplacements);
-                if (!StringUtils.equals(current, replaced)) {
-                    ((ObjectNode) node).put(name, replaced);
+    private void replaceInTokens(byte[] json, Charset charset, Map<String, Object> contentVariableReplacements, Writer writer) throws IOException {
+        StringBuilder buffer = new StringBuilder();
+        try (JsonParser parser = OBJECT_MAPPER.getFactory().createParser(newReader(json, charset));
+             JsonGenerator generator = OBJECT_MAPPER.getFactory().createGenerator(writer)
+                     .disable(JsonGenerator.Feature.AUTO_CLOSE_TARGET)) {
+            JsonToken token;
+            while ((token = parser.nextToken()) != null) {
+                if (token == JsonToken.VALUE_STRING) {
+                    buffer.setLength(0);
+                    if (ContentVariableReplacementUtil.replacePlaceholders(parser.getTextCharacters(), parser.getTextOffset(),
+                            parser.getTextLength(), contentVariableReplacements, propertyConfigService, buffer)) {
+                        generator.writeString(buffer.toString());
+                        continue;
+                    }
                 }
+                generator.copyCurrentEvent(parser);
             }
         }
     }
 
-    /**
-     * Reusable method to replace placeholders in the input string./
-     *
-     * @param input String input
-     * @param contentVariableReplacements current map of content variables
-     * @return The replaced or original String
-     */
-    private String replaceInString(String input, Map<String, Object> contentVariableReplacements) {
-        final List<String> keys = ContentVariableReplacementUtil.getKeys(input);
-        for (String key : keys) {
-            // If the placeholder key is in the map then replace it
-            if (ContentVariableReplacementUtil.hasKey(contentVariableReplacements, key)) {
-                String replaceValue = (String) ContentVariableReplacementUtil.getValue(contentVariableReplacements, key);
-                input = ContentVariableReplacementUtil.doReplacement(input, key, replaceValue, propertyConfigService.getAction(key));
+    private static boolean contains(byte[] bytes, byte[] marker) {
+        outer:
+        for (int i = 0; i <= bytes.length - marker.length; i++) {
+            for (int j = 0; j < marker.length; j++) {
+                if (bytes[i + j] != marker[j]) {
+                    continue outer;
+                }
             }
+            return true;
         }
-        return input;
+        return false;
     }
 
     @Override
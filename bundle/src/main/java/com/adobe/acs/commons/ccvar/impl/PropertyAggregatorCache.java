@@ -0,0 +1,176 @@
+/*
+ * ACS AEM Commons
+ *
+ * Copyright (C) 2013 - 2023 Adobe
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.adobe.acs.commons.ccvar.impl;
+
+import com.adobe.granite.jmx.annotation.AnnotatedStandardMBean;
+import com.day.cq.commons.jcr.JcrConstants;
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import org.apache.commons.lang3.StringUtils;
+import org.apache.sling.api.resource.observation.ExternalResourceChangeListener;
+import org.apache.sling.api.resource.observation.ResourceChange;
+import org.apache.sling.api.resource.observation.ResourceChangeListener;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import javax.management.NotCompliantMBeanException;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Cache of the property maps aggregated for the pages requested. A property map is dropped when anything changes
+ * under its page or one of the page's ancestors, as it also holds the inherited page properties. Changes made on other
+ * cluster instances are listened to as well, so every instance drops the property maps that became stale.
+ */
+class PropertyAggregatorCache extends AnnotatedStandardMBean
+        implements PropertyAggregatorCacheMBean, ResourceChangeListener, ExternalResourceChangeListener {
+
+    private static final String JCR_CONTENT = "/" + JcrConstants.JCR_CONTENT;
+
+    private final Cache<Key, Map<String, Object>> cache;
+    private final AtomicLong invalidationCount = new AtomicLong();
+
+    /**
+     * Counts invalidations, so property maps aggregated while content changed are not cached.
+     */
+    private long generation;
+
+    PropertyAggregatorCache(long maxEntries) throws NotCompliantMBeanException {
+        super(PropertyAggregatorCacheMBean.class);
+        cache = CacheBuilder.newBuilder()
+                .maximumSize(maxEntries)
+                .recordStats()
+                .build();
+    }
+
+    @Nullable
+    Map<String, Object> get(@NotNull Key key) {
+        return cache.getIfPresent(key);
+    }
+
+    /**
+     * @return the current generation, to be passed to {@link #put(Key, Map, long)} once the properties are aggregated
+     */
+    synchronized long getGeneration() {
+        return generation;
+    }
+
+    /**
+     * Cache a property map, unless the cache was invalidated since its aggregation started.
+     */
+    synchronized void put(@NotNull Key key, @NotNull Map<String, Object> properties, long aggregationGeneration) {
+        if (aggregationGeneration == generation) {
+            cache.put(key, properties);
+        }
+    }
+
+    @Override
+    public void onChange(@NotNull List<ResourceChange> changes) {
+        synchronized (this) {
+            generation++;
+            for (ResourceChange change : changes) {
+                String pagePath = StringUtils.substringBefore(change.getPath(), JCR_CONTENT);
+                cache.asMap().keySet().removeIf(key -> {
+                    boolean affected = key.isAtOrBelow(pagePath);
+                    if (affected) {
+                        invalidationCount.incrementAndGet();
+                    }
+                    return affected;
+                });
+            }
+        }
+    }
+
+    @Override
+    public synchronized void invalidateAll() {
+        generation++;
+        cache.invalidateAll();
+    }
+
+    @Override
+    public long getSize() {
+        return cache.size();
+    }
+
+    @Override
+    public long getHitCount() {
+        return cache.stats().hitCount();
+    }
+
+    @Override
+    public long getMissCount() {
+        return cache.stats().missCount();
+    }
+
+    @Override
+    public double getHitRate() {
+        return cache.stats().hitRate();
+    }
+
+    @Override
+    public long getEvictionCount() {
+        return cache.stats().evictionCount();
+    }
+
+    @Override
+    public long getInvalidationCount() {
+        return invalidationCount.get();
+    }
+
+    /**
+     * Identifies a property map by the page, the providers that accepted the request and the user, as the inherited
+     * page properties depend on what the user can read.
+     */
+    static final class Key {
+        private final String pagePath;
+        private final String providers;
+        private final String userId;
+
+        Key(@NotNull String pagePath, @NotNull String providers, @Nullable String userId) {
+            this.pagePath = pagePath;
+            this.providers = providers;
+            this.userId = userId;
+        }
+
+        /**
+         * @return whether the key's page is the given page or one of its descendants
+         */
+        boolean isAtOrBelow(String path) {
+            return pagePath.equals(path) || pagePath.startsWith(path + "/");
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) {
+                return true;
+            }
+            if (o == null || getClass() != o.getClass()) {
+                return false;
+            }
+            Key key = (Key) o;
+            return pagePath.equals(key.pagePath) && providers.equals(key.providers) && Objects.equals(userId, key.userId);
+        }
+
+        @Override
+        public int hashCode() {
+            return Objects.hash(pagePath, providers, userId);
+        }
+    }
+}
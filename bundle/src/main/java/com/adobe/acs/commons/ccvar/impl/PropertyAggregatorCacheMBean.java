@@ -0,0 +1,45 @@
+/*
+ * ACS AEM Commons
+ *
+ * Copyright (C) 2013 - 2023 Adobe
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.adobe.acs.commons.ccvar.impl;
+
+import com.adobe.granite.jmx.annotation.Description;
+
+@Description("ACS AEM Commons - Contextual Content Variable Property Cache")
+public interface PropertyAggregatorCacheMBean {
+
+    @Description("Drop all cached property maps")
+    void invalidateAll();
+
+    @Description("Number of cached property maps")
+    long getSize();
+
+    @Description("Requests served from a cached property map")
+    long getHitCount();
+
+    @Description("Requests for which the properties were aggregated")
+    long getMissCount();
+
+    @Description("Share of requests served from a cached property map")
+    double getHitRate();
+
+    @Description("Property maps dropped because the cache was full")
+    long getEvictionCount();
+
+    @Description("Property maps dropped because content of their page or its ancestors changed")
+    long getInvalidationCount();
+}
@@ -19,22 +19,40 @@ package com.adobe.acs.commons.ccvar.impl;
 
 import com.adobe.acs.commons.ccvar.ContentVariableProvider;
 import com.adobe.acs.commons.ccvar.PropertyAggregatorService;
+import com.day.cq.wcm.api.Page;
+import com.day.cq.wcm.api.PageManager;
 import org.apache.sling.api.SlingHttpServletRequest;
+import org.apache.sling.api.resource.Resource;
+import org.apache.sling.api.resource.observation.ResourceChangeListener;
+import org.osgi.framework.BundleContext;
+import org.osgi.framework.ServiceRegistration;
+import org.osgi.service.component.annotations.Activate;
 import org.osgi.service.component.annotations.Component;
 import org.osgi.service.component.annotations.ConfigurationPolicy;
+import org.osgi.service.component.annotations.Deactivate;
 import org.osgi.service.component.annotations.Reference;
 import org.osgi.service.component.annotations.ReferenceCardinality;
 import org.osgi.service.component.annotations.ReferencePolicyOption;
+import org.osgi.service.metatype.annotations.AttributeDefinition;
+import org.osgi.service.metatype.annotations.AttributeType;
+import org.osgi.service.metatype.annotations.Designate;
+import org.osgi.service.metatype.annotations.ObjectClassDefinition;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import javax.management.DynamicMBean;
+import javax.management.NotCompliantMBeanException;
+import java.util.ArrayList;
+import java.util.Dictionary;
 import java.util.HashMap;
+import java.util.Hashtable;
 import java.util.List;
 import java.util.Map;
 
 @Component(service = PropertyAggregatorService.class,
         immediate = true,
         configurationPolicy = ConfigurationPolicy.REQUIRE)
+@Designate(ocd = PropertyAggregatorServiceImpl.Config.class)
 public class PropertyAggregatorServiceImpl implements PropertyAggregatorService {
 
     private static final Logger LOG = LoggerFactory.getLogger(PropertyAggregatorServiceImpl.class);
@@ -42,22 +60,130 @@ public class PropertyAggregatorServiceImpl implements PropertyAggregatorService
     @Reference(policyOption = ReferencePolicyOption.GREEDY, cardinality = ReferenceCardinality.MULTIPLE)
     private List<ContentVariableProvider> variableProviders;
 
+    private PropertyAggregatorCache cache;
+    private ServiceRegistration<?> cacheRegistration;
+
     @Override
     public Map<String, Object> getProperties(final SlingHttpServletRequest request) {
-        Map<String, Object> map = new HashMap<>();
-
-        for (ContentVariableProvider variableProvider : variableProviders) {
-            int sizeBefore = map.size();
+        List<ContentVariableProvider> acceptingProviders = new ArrayList<>();
+        StringBuilder providerKey = new StringBuilder();
+        for (int i = 0; i < variableProviders.size(); i++) {
+            ContentVariableProvider variableProvider = variableProviders.get(i);
             if (variableProvider.accepts(request)) {
-                variableProvider.addProperties(map, request);
+                acceptingProviders.add(variableProvider);
+                providerKey.append(i).append(',');
             } else {
                 LOG.debug(variableProvider.getClass().getName() + " does not accept request for request at {}.", request.getPathInfo());
             }
+        }
+
+        PropertyAggregatorCache currentCache = cache;
+        PropertyAggregatorCache.Key key = currentCache != null ? getCacheKey(request, providerKey.toString()) : null;
+        long generation = 0;
+        if (key != null) {
+            Map<String, Object> cached = currentCache.get(key);
+            if (cached != null) {
+                return new HashMap<>(cached);
+            }
+            generation = currentCache.getGeneration();
+        }
+
+        Map<String, Object> map = new HashMap<>();
+        for (ContentVariableProvider variableProvider : acceptingProviders) {
+            int sizeBefore = map.size();
+            variableProvider.addProperties(map, request);
             if (map.size() == sizeBefore) {
                 LOG.debug(variableProvider.getClass().getName() + " either did not add any properties or replaced existing ones.");
             }
         }
 
+        if (key != null) {
+            currentCache.put(key, new HashMap<>(map), generation);
+        }
         return map;
     }
+
+    /**
+     * @return the key to cache the properties of the request under, null if the request is not for a page
+     */
+    private PropertyAggregatorCache.Key getCacheKey(SlingHttpServletRequest request, String providerKey) {
+        Resource resource = request.getResource();
+        PageManager pageManager = request.getResourceResolver().adaptTo(PageManager.class);
+        Page page = resource != null && pageManager != null ? pageManager.getContainingPage(resource) : null;
+        if (page == null) {
+            return null;
+        }
+        return new PropertyAggregatorCache.Key(page.getPath(), providerKey, request.getResourceResolver().getUserID());
+    }
+
+    @Activate
+    protected void activate(Config config, BundleContext bundleContext) {
+        if (!config.cache_enabled()) {
+            return;
+        }
+        try {
+            cache = new PropertyAggregatorCache(config.cache_max_entries());
+
+            Dictionary<String, Object> serviceProps = new Hashtable<>();
+            serviceProps.put("jmx.objectname", "com.adobe.acs.commons:type=Contextual Content Variable Cache");
+            serviceProps.put(ResourceChangeListener.PATHS, config.cache_paths());
+            cacheRegistration = bundleContext.registerService(
+                    new String[]{DynamicMBean.class.getName(), ResourceChangeListener.class.getName()}, cache, serviceProps);
+        } catch (NotCompliantMBeanException e) {
+            LOG.error("Unable to create property cache", e);
+            cache = null;
+        }
+    }
+
+    @Deactivate
+    protected void deactivate() {
+        if (cacheRegistration != null) {
+            cacheRegistration.unregister();
+            cacheRegistration = null;
+        }
+        cache = null;
+    }
+
+    @ObjectClassDefinition(
+            name = "ACS AEM Commons - Contextual Content Variable Property Aggregator Cache Configuration"
+    )
+    @interface Config {
+
+        /**
+         * Whether to cache the aggregated properties per page.
+         *
+         * @return Whether the cache is enabled
+         */
+        @AttributeDefinition(
+                name = "Cache Enabled",
+                description = "Cache the aggregated properties per page, user and accepting providers. Only enable this "
+                        + "if all content variable providers add properties that depend on the page alone.",
+                type = AttributeType.BOOLEAN
+        )
+        boolean cache_enabled() default false;
+
+        /**
+         * The maximum number of cached property maps.
+         *
+         * @return The maximum number of entries
+         */
+        @AttributeDefinition(
+                name = "Cache Size",
+                description = "Maximum number of cached property maps.",
+                type = AttributeType.INTEGER
+        )
+        int cache_max_entries() default 1000;
+
+        /**
+         * The paths under which content changes invalidate cached properties.
+         *
+         * @return The observed paths
+         */
+        @AttributeDefinition(
+                name = "Cache Invalidation Paths",
+                description = "Changes under these paths drop the cached properties of the changed page and its descendants.",
+                type = AttributeType.STRING
+        )
+        String[] cache_paths() default {"/content"};
+    }
 }
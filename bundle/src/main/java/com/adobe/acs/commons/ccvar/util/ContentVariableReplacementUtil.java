@@ -17,6 +17,7 @@
  */
 package com.adobe.acs.commons.ccvar.util;
 
+import com.adobe.acs.commons.ccvar.PropertyConfigService;
 import com.adobe.acs.commons.ccvar.TransformAction;
 import org.apache.commons.lang3.StringUtils;
 
@@ -123,6 +124,137 @@ public class ContentVariableReplacementUtil {
         return input.replace(getPlaceholder(key), baseEscaping(replacement));
     }
 
+    /**
+     * Replaces all placeholders in the string whose keys are in the map, in a single pass. Like
+     * {@link #doReplacement(String, String, String, TransformAction)} for every key found, but without creating a new
+     * string per key.
+     *
+     * @param input The input string containing the placeholders
+     * @param contentVariableReplacements Current map of content variable keys and values
+     * @param propertyConfigService Service providing the actions found in the placeholder keys
+     * @return The fully replaced value, the input itself if there was nothing to replace
+     */
+    public static String replacePlaceholders(String input, Map<String, Object> contentVariableReplacements,
+                                             PropertyConfigService propertyConfigService) {
+        if (input == null || !input.contains(PLACEHOLDER_BEGIN)) {
+            return input;
+        }
+        char[] chars = input.toCharArray();
+        StringBuilder output = new StringBuilder(input.length() + 16);
+        if (replacePlaceholders(chars, 0, chars.length, contentVariableReplacements, propertyConfigService, output)) {
+            return output.toString();
+        }
+        return input;
+    }
+
+    /**
+     * Replaces all placeholders in a range of characters whose keys are in the map, in a single pass. If anything is
+     * replaced, the whole range with the replacements is appended to the output. Otherwise the output is left
+     * untouched, so callers can keep using the input characters.
+     *
+     * @param ch The input characters containing the placeholders
+     * @param start The start of the range in the input characters
+     * @param length The length of the range
+     * @param contentVariableReplacements Current map of content variable keys and values
+     * @param propertyConfigService Service providing the actions found in the placeholder keys
+     * @param output Buffer the replaced characters are appended to
+     * @return Whether any placeholder was replaced
+     */
+    public static boolean replacePlaceholders(char[] ch, int start, int length,
+                                              Map<String, Object> contentVariableReplacements,
+                                              PropertyConfigService propertyConfigService, StringBuilder output) {
+        final int end = start + length;
+        int copied = start;
+        int i = start;
+        while (i < end - 1) {
+            if (ch[i] != '(' || ch[i + 1] != '(') {
+                i++;
+                continue;
+            }
+            int keyEnd = findKeyEnd(ch, i + 2, end);
+            if (keyEnd < 0) {
+                i++;
+                continue;
+            }
+            String key = new String(ch, i + 2, keyEnd - i - 2);
+            if (hasKey(contentVariableReplacements, key)) {
+                output.append(ch, copied, i - copied);
+                appendReplacement(output, String.valueOf(getValue(contentVariableReplacements, key)),
+                        propertyConfigService.getAction(key));
+                copied = keyEnd + PLACEHOLDER_END.length();
+            }
+            i = keyEnd + PLACEHOLDER_END.length();
+        }
+        if (copied == start) {
+            return false;
+        }
+        output.append(ch, copied, end - copied);
+        return true;
+    }
+
+    /**
+     * Matches a placeholder key like {@link #PLACEHOLDER_PATTERN} does: a property name, an optional action and the
+     * end of the placeholder.
+     *
+     * @return The index of the placeholder end, -1 if there is no valid key at the index
+     */
+    private static int findKeyEnd(char[] ch, int index, int end) {
+        int i = skipKeyCharacters(ch, index, end);
+        if (i == index || i >= end || ch[i] != '.') {
+            return -1;
+        }
+        int nameStart = i + 1;
+        i = skipKeyCharacters(ch, nameStart, end);
+        if (i == nameStart) {
+            return -1;
+        }
+        if (i < end && ch[i] == PARSER_SEPARATOR.charAt(0)) {
+            i = skipKeyCharacters(ch, i + 1, end);
+        }
+        if (i + 1 < end && ch[i] == ')' && ch[i + 1] == ')') {
+            return i;
+        }
+        return -1;
+    }
+
+    private static int skipKeyCharacters(char[] ch, int index, int end) {
+        int i = index;
+        while (i < end && isKeyCharacter(ch[i])) {
+            i++;
+        }
+        return i;
+    }
+
+    private static boolean isKeyCharacter(char c) {
+        return (c >= 'a' && c <= 'z') || (c >= 'A' && c <= 'Z') || (c >= '0' && c <= '9')
+                || c == '_' || c == ':' || c == '-';
+    }
+
+    private static void appendReplacement(StringBuilder output, String replacement, TransformAction action) {
+        if (action == null) {
+            appendEscaped(output, replacement);
+        } else if (action.disableEscaping()) {
+            output.append(action.execute(replacement));
+        } else {
+            appendEscaped(output, action.execute(replacement));
+        }
+    }
+
+    /**
+     * Appends the string with the base level escaping of {@link #baseEscaping(String)}.
+     */
+    private static void appendEscaped(StringBuilder output, String input) {
+        for (int i = 0; i < input.length(); i++) {
+            char c = input.charAt(i);
+            String escaped = c == '"' || c == '\'' || c == '<' || c == '>' ? REQUIRED_ESCAPE.get(String.valueOf(c)) : null;
+            if (escaped != null) {
+                output.append(escaped);
+            } else {
+                output.append(c);
+            }
+        }
+    }
+
     /**
      * Applies the base level escaping unless otherwise overridden.
      *
@@ -51,6 +51,25 @@ public interface ActionManager {
      */
     int withQueryResults(final String queryStatement, final String language, final CheckedBiConsumer<ResourceResolver, String> callback, final CheckedBiFunction<ResourceResolver, String, Boolean>... filters) throws RepositoryException, PersistenceException, Exception;
 
+    /**
+     * Schedule an activity to occur for every node found by a given query, reading the query results only as fast
+     * as the scheduled work is processed. Reading pauses while highWaterMark results are scheduled but not yet
+     * processed, and resumes once half of them are processed. This keeps large query results from being scheduled
+     * all at once. The calling thread is blocked until all results are scheduled, so this should not be called from
+     * work scheduled with this action manager.
+     * @param queryStatement Query string
+     * @param language Query language to use
+     * @param highWaterMark Number of scheduled results which pauses reading further results
+     * @param batchSize Number of results processed one after another by the same unit of work and resolver
+     * @param callback Callback action to perform for every query result
+     * @param filters Optional filters return true if action should be taken
+     * @return Count of items found in query
+     * @throws RepositoryException
+     * @throws PersistenceException
+     * @throws Exception
+     */
+    int withQueryResults(final String queryStatement, final String language, final int highWaterMark, final int batchSize, final CheckedBiConsumer<ResourceResolver, String> callback, final CheckedBiFunction<ResourceResolver, String, Boolean>... filters) throws RepositoryException, PersistenceException, Exception;
+
     /**
      * Perform action at some later time using a provided pooled resolver
      * @param action Action to perform
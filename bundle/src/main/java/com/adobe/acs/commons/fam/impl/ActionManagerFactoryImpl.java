@@ -32,16 +32,24 @@ import javax.management.NotCompliantMBeanException;
 import javax.management.openmbean.CompositeData;
 import javax.management.openmbean.OpenDataException;
 import javax.management.openmbean.TabularDataSupport;
+import org.apache.felix.scr.annotations.Activate;
 import org.apache.felix.scr.annotations.Component;
+import org.apache.felix.scr.annotations.Properties;
 import org.apache.felix.scr.annotations.Property;
 import org.apache.felix.scr.annotations.Reference;
 import org.apache.felix.scr.annotations.Service;
 import org.apache.sling.api.resource.LoginException;
 import org.apache.sling.api.resource.ResourceResolver;
+import org.apache.sling.commons.osgi.PropertiesUtil;
 
-@Component
+@Component(metatype = true,
+           label = "ACS AEM Commons - Action Manager Factory")
 @Service(ActionManagerFactory.class)
-@Property(name = "jmx.objectname", value = "com.adobe.acs.commons:type=Action Manager")
+@Properties({
+    @Property(name = "jmx.objectname", value = "com.adobe.acs.commons:type=Action Manager", propertyPrivate = true),
+    @Property(name = "adaptive.commits", label = "Adaptive commits", description = "Size commit batches by the time commits take, starting at the save interval, and bisect failed commits so only the offending items fail. Failed changes are made again by running their actions again, so actions must be safe to repeat.", boolValue = false),
+    @Property(name = "commit.target.time", label = "Commit target time", description = "Time in ms a commit should take, only used with adaptive commits", longValue = 1000)
+})
 public class ActionManagerFactoryImpl extends AnnotatedStandardMBean implements ActionManagerFactory {
 
 
@@ -49,12 +57,20 @@ public class ActionManagerFactoryImpl extends AnnotatedStandardMBean implements
     ThrottledTaskRunner taskRunner;
     
     private final Map<String, ActionManager> tasks;
+    private boolean adaptiveCommits;
+    private long commitTargetTime;
     
     public ActionManagerFactoryImpl() throws NotCompliantMBeanException {
         super(ActionManagerMBean.class);
         tasks = Collections.synchronizedMap(new LinkedHashMap<>());
     }
 
+    @Activate
+    protected void activate(Map<String, Object> properties) {
+        adaptiveCommits = PropertiesUtil.toBoolean(properties.get("adaptive.commits"), false);
+        commitTargetTime = PropertiesUtil.toLong(properties.get("commit.target.time"), 1000);
+    }
+
     @Override
     public ActionManager createTaskManager(String name, ResourceResolver resourceResolver, int saveInterval) throws LoginException {
         return this.createTaskManager(name, resourceResolver, saveInterval, ActionManagerConstants.DEFAULT_ACTION_PRIORITY);
@@ -65,6 +81,9 @@ public class ActionManagerFactoryImpl extends AnnotatedStandardMBean implements
         String fullName = String.format("%s (%s)", name, UUID.randomUUID().toString());
         
         ActionManagerImpl manager = new ActionManagerImpl(fullName, taskRunner, resourceResolver, saveInterval, priority);
+        if (adaptiveCommits) {
+            manager.enableAdaptiveCommits(commitTargetTime);
+        }
         tasks.put(fullName, manager);
         return manager;
     }
@@ -92,6 +111,17 @@ public class ActionManagerFactoryImpl extends AnnotatedStandardMBean implements
         return stats;
     }
     
+    @Override
+    public TabularDataSupport getLatencyStatistics() throws OpenDataException {
+        TabularDataSupport stats = new TabularDataSupport(RunningStatistic.getStaticsTableType());
+        for (ActionManager task : tasks.values()) {
+            if (task instanceof ActionManagerImpl) {
+                stats.putAll(((ActionManagerImpl) task).getLatencyStatistics().toArray(new CompositeData[0]));
+            }
+        }
+        return stats;
+    }
+
     @Override
     public TabularDataSupport getFailures() throws OpenDataException {
         TabularDataSupport stats = new TabularDataSupport(ActionManagerImpl.getFailuresTableType());
@@ -19,6 +19,7 @@ package com.adobe.acs.commons.fam.impl;
 
 import java.io.Serializable;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collections;
 import java.util.List;
 import java.util.concurrent.CopyOnWriteArrayList;
@@ -70,6 +71,8 @@ class ActionManagerImpl extends CancelHandler implements ActionManager, Serializ
     public static final transient int HESITATION_DELAY = 50;
     // The cleanup task will wait this many milliseconds between its polling to see if the queue has been completely processed
     public static final transient int COMPLETION_CHECK_INTERVAL = 100;
+    // Query result producers paused by backpressure check at least this often in milliseconds whether they can resume
+    public static final transient int BACKPRESSURE_CHECK_INTERVAL = 100;
     private final AtomicInteger tasksAdded = new AtomicInteger();
     private final AtomicInteger tasksCompleted = new AtomicInteger();
     private final AtomicInteger tasksFilteredOut = new AtomicInteger();
@@ -80,6 +83,7 @@ class ActionManagerImpl extends CancelHandler implements ActionManager, Serializ
     private long finished;
     private int saveInterval;
     private int priority;
+    private transient AdaptiveCommitPolicy commitPolicy;
 
     private final transient ResourceResolver baseResolver;
     private final transient List<ReusableResolver> resolvers = Collections.synchronizedList(new ArrayList<>());
@@ -91,6 +95,12 @@ class ActionManagerImpl extends CancelHandler implements ActionManager, Serializ
     private final transient List<CheckedConsumer<ResourceResolver>> successHandlers = new CopyOnWriteArrayList<>();
     private final transient List<CheckedBiConsumer<List<Failure>, ResourceResolver>> errorHandlers = new CopyOnWriteArrayList<>();
     private final transient List<Runnable> finishHandlers = new CopyOnWriteArrayList<>();
+    private final transient AtomicInteger waitingProducers = new AtomicInteger();
+    /** Queries still scheduling their results, the work isn't complete before they are done */
+    private final transient AtomicInteger activeProducers = new AtomicInteger();
+    final transient RunningStatistic waitTime;
+    final transient RunningStatistic throttleTime;
+    final transient RunningStatistic processingTime;
 
     ActionManagerImpl(String name, ThrottledTaskRunner taskRunner, ResourceResolver resolver, int saveInterval) throws LoginException {
         this(name, taskRunner, resolver, saveInterval, ActionManagerConstants.DEFAULT_ACTION_PRIORITY);
@@ -104,6 +114,9 @@ class ActionManagerImpl extends CancelHandler implements ActionManager, Serializ
         currentPath = new ThreadLocal<>();
         failures = new ArrayList<>();
         this.priority =  priority;
+        waitTime = new RunningStatistic(name + ": Queue wait time (ns)", 1);
+        throttleTime = new RunningStatistic(name + ": Throttle time (ns)", 1);
+        processingTime = new RunningStatistic(name + ": Processing time (ns)", 1);
     }
 
     @Override
@@ -158,6 +171,19 @@ class ActionManagerImpl extends CancelHandler implements ActionManager, Serializ
         }, this, priority);
     }
     
+    /**
+     * Schedule several actions as one unit of work, run one after another with the same resolver.
+     * Each action is still counted and reported on its own.
+     */
+    private void deferredWithResolver(final List<CheckedConsumer<ResourceResolver>> actions) {
+        tasksAdded.addAndGet(actions.size());
+        taskRunner.scheduleWork(() -> {
+            for (CheckedConsumer<ResourceResolver> action : actions) {
+                runActionAndLogErrors(action, false);
+            }
+        }, this, priority);
+    }
+
     @SuppressWarnings("squid:S1181")
     private void runActionAndLogErrors(CheckedConsumer<ResourceResolver> action, Boolean closesResolver) {
         started.compareAndSet(0, System.currentTimeMillis());
@@ -189,20 +215,31 @@ class ActionManagerImpl extends CancelHandler implements ActionManager, Serializ
     }
 
     @Override
-    @SuppressWarnings({"squid:S1181", "squid:S1163", "squid:S1143"})
     public void withResolver(CheckedConsumer<ResourceResolver> action) throws Exception {
+        withResolver(action, action);
+    }
+
+    /**
+     * @param replay action to replay the changes of the action if they fail to commit with other changes
+     */
+    @SuppressWarnings({"squid:S1181", "squid:S1163", "squid:S1143"})
+    private void withResolver(CheckedConsumer<ResourceResolver> action, CheckedConsumer<ResourceResolver> replay) throws Exception {
         Actions.setCurrentActionManager(this);
         ReusableResolver resolver = getResourceResolver();
         resolver.setCurrentItem(currentPath.get());
+        resolver.setCurrentAction(null);
         try {
             action.accept(resolver.getResolver());
+            resolver.setCurrentAction(replay);
         } catch (Throwable ex) {
             throw ex;
         } finally {
             try {
+                // The action may have set the item it works on
+                resolver.setCurrentItem(currentPath.get());
                 resolver.free();
             } catch (PersistenceException ex) {
-                logPersistenceException(resolver.getPendingItems(), ex);
+                logPersistenceException(resolver.getFailedItems(), ex);
                 throw ex;
             }
             Actions.setCurrentActionManager(null);
@@ -220,34 +257,145 @@ class ActionManagerImpl extends CancelHandler implements ActionManager, Serializ
             throws RepositoryException, PersistenceException, Exception {
         withResolver((ResourceResolver resolver) -> {
             try {
-                Session session = resolver.adaptTo(Session.class);
-                QueryManager queryManager = session.getWorkspace().getQueryManager();
-                Query query = queryManager.createQuery(queryStatement, language);
-                QueryResult results = query.execute();
-                for (NodeIterator nodeIterator = results.getNodes(); nodeIterator.hasNext();) {
+                for (NodeIterator nodeIterator = executeQuery(resolver, queryStatement, language); nodeIterator.hasNext();) {
                     final String nodePath = nodeIterator.nextNode().getPath();
                     LOG.info("Processing found result {}", nodePath);
-                    deferredWithResolver((ResourceResolver r) -> {
-                        currentPath.set(nodePath);
-                        if (filters != null) {
-                            for (CheckedBiFunction<ResourceResolver, String, Boolean> filter : filters) {
-                                if (!filter.apply(r, nodePath)) {
-                                    logFilteredOutItem(nodePath);
-                                    return;
-                                }
-                            }
-                        }
-                        callback.accept(r, nodePath);
-                    });
+                    deferredWithResolver(queryResultAction(nodePath, callback, filters));
                 }
             } catch (RepositoryException ex) {
                 LOG.error("Repository exception processing query '{}'", queryStatement, ex);
             }
+        }, resolver -> {
+            // Only schedules work, there are no changes to replay
         });
 
         return tasksAdded.get();
     }
 
+    @Override
+    public int withQueryResults(
+            final String queryStatement,
+            final String language,
+            final int highWaterMark,
+            final int batchSize,
+            final CheckedBiConsumer<ResourceResolver, String> callback,
+            final CheckedBiFunction<ResourceResolver, String, Boolean>... filters
+    )
+            throws RepositoryException, PersistenceException, Exception {
+        final int batch = Math.max(1, batchSize);
+        final int limit = Math.max(batch, highWaterMark);
+        final AtomicInteger found = new AtomicInteger();
+        activeProducers.incrementAndGet();
+        try {
+            produceQueryResults(queryStatement, language, batch, limit, found, callback, filters);
+        } finally {
+            if (activeProducers.decrementAndGet() == 0 && tasksAdded.get() > 0 && isComplete()) {
+                // The scheduled work completed while results were still being read
+                finished = System.currentTimeMillis();
+                performAutomaticCleanup();
+            }
+        }
+        return found.get();
+    }
+
+    @SuppressWarnings("squid:S3776")
+    private void produceQueryResults(
+            final String queryStatement,
+            final String language,
+            final int batch,
+            final int limit,
+            final AtomicInteger found,
+            final CheckedBiConsumer<ResourceResolver, String> callback,
+            final CheckedBiFunction<ResourceResolver, String, Boolean>... filters
+    )
+            throws Exception {
+        withResolver((ResourceResolver resolver) -> {
+            List<CheckedConsumer<ResourceResolver>> actions = new ArrayList<>(batch);
+            try {
+                for (NodeIterator nodeIterator = executeQuery(resolver, queryStatement, language); nodeIterator.hasNext() && !isCancelled();) {
+                    final String nodePath = nodeIterator.nextNode().getPath();
+                    LOG.debug("Processing found result {}", nodePath);
+                    found.incrementAndGet();
+                    actions.add(queryResultAction(nodePath, callback, filters));
+                    if (actions.size() >= batch) {
+                        awaitCapacity(limit - batch);
+                        deferredWithResolver(actions);
+                        actions = new ArrayList<>(batch);
+                    }
+                }
+                if (!actions.isEmpty() && !isCancelled()) {
+                    deferredWithResolver(actions);
+                }
+            } catch (RepositoryException ex) {
+                LOG.error("Repository exception processing query '{}'", queryStatement, ex);
+            } catch (InterruptedException ex) {
+                LOG.error("Interrupted while processing query '{}', {} results were scheduled", queryStatement, found.get() - actions.size());
+                Thread.currentThread().interrupt();
+            }
+        }, resolver -> {
+            // Only schedules work, there are no changes to replay
+        });
+    }
+
+    private NodeIterator executeQuery(ResourceResolver resolver, String queryStatement, String language) throws RepositoryException {
+        Session session = resolver.adaptTo(Session.class);
+        QueryManager queryManager = session.getWorkspace().getQueryManager();
+        Query query = queryManager.createQuery(queryStatement, language);
+        QueryResult results = query.execute();
+        return results.getNodes();
+    }
+
+    private CheckedConsumer<ResourceResolver> queryResultAction(
+            final String nodePath,
+            final CheckedBiConsumer<ResourceResolver, String> callback,
+            final CheckedBiFunction<ResourceResolver, String, Boolean>... filters) {
+        return (ResourceResolver r) -> {
+            currentPath.set(nodePath);
+            if (filters != null) {
+                for (CheckedBiFunction<ResourceResolver, String, Boolean> filter : filters) {
+                    if (!filter.apply(r, nodePath)) {
+                        logFilteredOutItem(nodePath);
+                        return;
+                    }
+                }
+            }
+            callback.accept(r, nodePath);
+        };
+    }
+
+    /**
+     * Wait while more than the given number of items are scheduled but not processed yet. Once waiting, waits until
+     * half of them are processed, so the producer doesn't resume for every single item.
+     */
+    private void awaitCapacity(int highWaterMark) throws InterruptedException {
+        if (getInFlightCount() <= highWaterMark) {
+            return;
+        }
+        int lowWaterMark = highWaterMark / 2;
+        waitingProducers.incrementAndGet();
+        try {
+            synchronized (waitingProducers) {
+                while (getInFlightCount() > lowWaterMark && !isCancelled()) {
+                    waitingProducers.wait(BACKPRESSURE_CHECK_INTERVAL);
+                }
+            }
+        } finally {
+            waitingProducers.decrementAndGet();
+        }
+    }
+
+    private int getInFlightCount() {
+        return tasksAdded.get() - tasksCompleted.get();
+    }
+
+    private void signalProducers() {
+        if (waitingProducers.get() > 0) {
+            synchronized (waitingProducers) {
+                waitingProducers.notifyAll();
+            }
+        }
+    }
+
     @Override
     public void cancel(boolean useForce) {
         super.cancel(useForce);
@@ -328,11 +476,22 @@ class ActionManagerImpl extends CancelHandler implements ActionManager, Serializ
         try {
           resolver.commit();
         } catch (PersistenceException e) {
-          logPersistenceException(resolver.getPendingItems(), e);
+          logPersistenceException(resolver.getFailedItems(), e);
         }
       }
     }
 
+    /**
+     * Size commit batches by commit time and bisect failed commits, instead of committing every save interval
+     * changed items. Actions must then be safe to run again, as the changes of a failed commit are made again by
+     * replaying the actions that made them.
+     *
+     * @param targetCommitTime time a commit should take in ms
+     */
+    void enableAdaptiveCommits(long targetCommitTime) {
+        commitPolicy = new AdaptiveCommitPolicy(saveInterval, targetCommitTime);
+    }
+
     @Override
     public void setCurrentItem(String item) {
         currentPath.set(item);
@@ -341,7 +500,7 @@ class ActionManagerImpl extends CancelHandler implements ActionManager, Serializ
     private ReusableResolver getResourceResolver() throws LoginException {
         ReusableResolver resolver = currentResolver.get();
         if (resolver == null || !resolver.getResolver().isLive()) {
-            resolver = new ReusableResolver(baseResolver.clone(null), saveInterval);
+            resolver = new ReusableResolver(baseResolver.clone(null), saveInterval, commitPolicy);
             currentResolver.set(resolver);
             resolvers.add(resolver);
         }
@@ -351,6 +510,7 @@ class ActionManagerImpl extends CancelHandler implements ActionManager, Serializ
     private void logCompletetion() {
         tasksCompleted.incrementAndGet();
         tasksSuccessful.incrementAndGet();
+        signalProducers();
         if (isComplete()) {
             finished = System.currentTimeMillis();
             performAutomaticCleanup();
@@ -365,6 +525,7 @@ class ActionManagerImpl extends CancelHandler implements ActionManager, Serializ
         failures.add(fail);
         tasksCompleted.incrementAndGet();
         tasksError.incrementAndGet();
+        signalProducers();
         if (isComplete()) {
             finished = System.currentTimeMillis();
             performAutomaticCleanup();
@@ -407,13 +568,13 @@ class ActionManagerImpl extends CancelHandler implements ActionManager, Serializ
     @Override
     @SuppressWarnings("squid:S2142")
     public boolean isComplete() {
-        if (tasksCompleted.get() == tasksAdded.get()) {
+        if (activeProducers.get() == 0 && tasksCompleted.get() == tasksAdded.get()) {
             try {
                 Thread.sleep(HESITATION_DELAY);
             } catch (InterruptedException ex) {
                 // no-op
             }
-            return tasksCompleted.get() == tasksAdded.get();
+            return activeProducers.get() == 0 && tasksCompleted.get() == tasksAdded.get();
         } else {
             return false;
         }
@@ -435,6 +596,13 @@ class ActionManagerImpl extends CancelHandler implements ActionManager, Serializ
         );
     }
 
+    /**
+     * @return queue wait, throttle and processing time statistics of the tasks of this action manager
+     */
+    List<CompositeData> getLatencyStatistics() throws OpenDataException {
+        return Arrays.asList(waitTime.getStatistics(), throttleTime.getStatistics(), processingTime.getStatistics());
+    }
+
     @Override
     public synchronized void closeAllResolvers() {
         if (!resolvers.isEmpty()) {
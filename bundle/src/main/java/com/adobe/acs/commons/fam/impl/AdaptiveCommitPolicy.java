@@ -0,0 +1,76 @@
+/*
+ * ACS AEM Commons
+ *
+ * Copyright (C) 2013 - 2023 Adobe
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.adobe.acs.commons.fam.impl;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Sizes the batches of changed items committed at once by the time commits take.
+ * <p>
+ * The commit time per item is averaged over recent commits, and the batch size is set so a commit takes about the
+ * target time. The batch size starts at the configured save interval and stays between 1 and
+ * {@value #MAX_GROWTH} times the save interval.
+ * </p>
+ * <p>
+ * With this policy, a failed commit is bisected by the {@link ReusableResolver}, so only the offending items fail.
+ * </p>
+ */
+public class AdaptiveCommitPolicy {
+
+    /** How far the batch size may grow beyond the save interval */
+    static final int MAX_GROWTH = 4;
+
+    private static final double WEIGHT = 0.3;
+
+    private final int maxBatchSize;
+    private final long targetNanos;
+    private double nanosPerItem = -1;
+    private int batchSize;
+
+    /**
+     * @param saveInterval     initial batch size
+     * @param targetCommitTime time a commit should take in ms
+     */
+    public AdaptiveCommitPolicy(int saveInterval, long targetCommitTime) {
+        this.batchSize = Math.max(1, saveInterval);
+        this.maxBatchSize = batchSize * MAX_GROWTH;
+        this.targetNanos = TimeUnit.MILLISECONDS.toNanos(Math.max(1L, targetCommitTime));
+    }
+
+    /**
+     * @return the number of changed items to commit at once
+     */
+    public synchronized int getBatchSize() {
+        return batchSize;
+    }
+
+    /**
+     * Record a successful commit and adjust the batch size.
+     *
+     * @param items number of changed items committed
+     * @param nanos time the commit took in ns
+     */
+    public synchronized void committed(int items, long nanos) {
+        if (items <= 0) {
+            return;
+        }
+        double sample = (double) Math.max(1L, nanos) / items;
+        nanosPerItem = nanosPerItem < 0 ? sample : nanosPerItem + WEIGHT * (sample - nanosPerItem);
+        batchSize = (int) Math.max(1L, Math.min(maxBatchSize, Math.round(targetNanos / nanosPerItem)));
+    }
+}
@@ -0,0 +1,187 @@
+/*
+ * ACS AEM Commons
+ *
+ * Copyright (C) 2013 - 2023 Adobe
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.adobe.acs.commons.fam.impl;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Limits the number of tasks executing at the same time, adjusting the limit with additive increase / multiplicative
+ * decrease (AIMD).
+ * <p>
+ * While tasks complete without overload, the limit grows by about one per limit completed tasks as long as it is
+ * fully used. Once a task completes under overload, or takes much longer than tasks usually do, the limit shrinks by
+ * a factor. The limit shrinks at most once per round of tasks: tasks which started before the last decrease don't
+ * decrease it again.
+ * </p>
+ * <p>
+ * Tasks over the limit wait until a running task completes or the limit grows, instead of polling.
+ * </p>
+ */
+public class AdaptiveConcurrencyLimiter {
+
+    /** Factor the limit is multiplied with on overload */
+    static final double BACKOFF_RATIO = 0.9;
+    /** A task is considered slow if it takes this many times longer than the long term average */
+    static final double LATENCY_TOLERANCE = 2.0;
+    /** Number of tasks to complete before the latency is considered */
+    static final int LATENCY_WARMUP = 20;
+
+    private static final double SHORT_TERM_WEIGHT = 0.5;
+    private static final double LONG_TERM_WEIGHT = 0.05;
+
+    private final ReentrantLock lock = new ReentrantLock();
+    private final Condition capacity = lock.newCondition();
+
+    private final int minLimit;
+    private int maxLimit;
+    private double limit;
+    private int inFlight;
+
+    private long samples;
+    private double shortTermLatency;
+    private double longTermLatency;
+    private boolean decreased;
+    private long lastDecrease;
+
+    private final AtomicLong throttled = new AtomicLong();
+
+    /**
+     * @param minLimit lowest limit, at least 1
+     * @param maxLimit highest and initial limit
+     */
+    public AdaptiveConcurrencyLimiter(int minLimit, int maxLimit) {
+        this.minLimit = Math.max(1, minLimit);
+        this.maxLimit = Math.max(this.minLimit, maxLimit);
+        this.limit = this.maxLimit;
+    }
+
+    /**
+     * Wait until the task may execute. Every call must be followed by a call to
+     * {@link #release(long, long, boolean)} once the task completes.
+     *
+     * @throws InterruptedException if interrupted while waiting
+     */
+    public void acquire() throws InterruptedException {
+        lock.lockInterruptibly();
+        try {
+            if (inFlight >= (int) limit) {
+                throttled.incrementAndGet();
+                do {
+                    capacity.await();
+                } while (inFlight >= (int) limit);
+            }
+            inFlight++;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Record the completion of a task and adjust the limit.
+     *
+     * @param executed   {@link System#nanoTime()} the task started executing
+     * @param finished   {@link System#nanoTime()} the task completed
+     * @param overloaded whether the system was overloaded when the task completed
+     */
+    public void release(long executed, long finished, boolean overloaded) {
+        lock.lock();
+        try {
+            boolean saturated = inFlight >= (int) limit;
+            inFlight--;
+            long latency = Math.max(0L, finished - executed);
+            boolean slow = isSlow(latency);
+
+            if ((overloaded || slow) && (!decreased || executed - lastDecrease > 0)) {
+                limit = Math.max(minLimit, limit * BACKOFF_RATIO);
+                decreased = true;
+                lastDecrease = finished;
+            } else if (!overloaded && !slow && saturated) {
+                limit = Math.min(maxLimit, limit + 1.0 / limit);
+            }
+            capacity.signalAll();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Update the latency averages with a sample.
+     *
+     * @return true if the sample is slow compared to the long term average
+     */
+    private boolean isSlow(long latency) {
+        samples++;
+        if (samples == 1) {
+            shortTermLatency = latency;
+            longTermLatency = latency;
+            return false;
+        }
+        shortTermLatency += SHORT_TERM_WEIGHT * (latency - shortTermLatency);
+        longTermLatency += LONG_TERM_WEIGHT * (latency - longTermLatency);
+        return samples > LATENCY_WARMUP && shortTermLatency > LATENCY_TOLERANCE * Math.max(1.0, longTermLatency);
+    }
+
+    /**
+     * Change the highest limit, e.g. after the thread pool was resized.
+     *
+     * @param maxLimit highest limit
+     */
+    public void setMaxLimit(int maxLimit) {
+        lock.lock();
+        try {
+            this.maxLimit = Math.max(minLimit, maxLimit);
+            limit = Math.min(limit, this.maxLimit);
+            capacity.signalAll();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * @return the current limit of tasks executing at the same time
+     */
+    public int getLimit() {
+        lock.lock();
+        try {
+            return (int) limit;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * @return the number of tasks currently executing
+     */
+    public int getInFlight() {
+        lock.lock();
+        try {
+            return inFlight;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * @return the number of tasks which had to wait as the limit was reached
+     */
+    public long getThrottledCount() {
+        return throttled.get();
+    }
+}
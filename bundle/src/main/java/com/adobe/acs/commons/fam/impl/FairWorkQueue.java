@@ -0,0 +1,437 @@
+/*
+ * ACS AEM Commons
+ *
+ * Copyright (C) 2013 - 2023 Adobe
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.adobe.acs.commons.fam.impl;
+
+import com.adobe.acs.commons.fam.ActionManager;
+import com.adobe.acs.commons.fam.ActionManagerConstants;
+import com.adobe.acs.commons.fam.CancelHandler;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.management.openmbean.CompositeDataSupport;
+import javax.management.openmbean.CompositeType;
+import javax.management.openmbean.OpenDataException;
+import javax.management.openmbean.OpenType;
+import javax.management.openmbean.SimpleType;
+import javax.management.openmbean.TabularDataSupport;
+import javax.management.openmbean.TabularType;
+import java.util.AbstractQueue;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.PriorityQueue;
+import java.util.Set;
+import java.util.WeakHashMap;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Work queue which keeps a sub-queue per {@link CancelHandler}, i.e. per {@link ActionManager}, and dispatches
+ * between them fairly. Work scheduled without a cancel handler shares the default sub-queue.
+ * <p>
+ * Priorities are kept: the task with the highest priority is always taken first, within a sub-queue in FIFO order.
+ * Sub-queues whose next tasks have the same priority take turns, so a process enqueuing a large number of tasks
+ * doesn't starve the others.
+ * </p>
+ */
+public class FairWorkQueue extends AbstractQueue<Runnable> implements BlockingQueue<Runnable> {
+
+    private static final Logger LOG = LoggerFactory.getLogger(FairWorkQueue.class);
+
+    static final String DEFAULT_QUEUE = "default";
+
+    private static final Object DEFAULT_SOURCE = new Object();
+
+    private final AtomicLong sequence = new AtomicLong();
+
+    private final ReentrantLock lock = new ReentrantLock();
+    private final Condition notEmpty = lock.newCondition();
+
+    /** Sub-queues by source; weak, so the queues of finished processes don't pile up */
+    private final Map<Object, SubQueue> queues = new WeakHashMap<>();
+    /** Sub-queues with pending work, in turn order */
+    private final List<SubQueue> active = new ArrayList<>();
+    private int count;
+
+    @Override
+    public boolean offer(Runnable task) {
+        if (null == task) {
+            throw new NullPointerException();
+        }
+        final TimedRunnable timedRunnable = getTimedRunnable(task);
+        final Object source = null != timedRunnable && timedRunnable.cancelHandler.isPresent()
+                ? timedRunnable.cancelHandler.get() : DEFAULT_SOURCE;
+        final int priority = null != timedRunnable ? timedRunnable.priority : ActionManagerConstants.DEFAULT_ACTION_PRIORITY;
+        final Entry entry = new Entry(task, priority, sequence.getAndIncrement(), System.nanoTime());
+
+        lock.lock();
+        try {
+            SubQueue queue = queues.computeIfAbsent(source, SubQueue::new);
+            if (queue.tasks.isEmpty()) {
+                active.add(queue);
+            }
+            queue.tasks.add(entry);
+            count++;
+            notEmpty.signal();
+        } finally {
+            lock.unlock();
+        }
+        return true;
+    }
+
+    @Override
+    public void put(Runnable task) {
+        offer(task);
+    }
+
+    @Override
+    public boolean offer(Runnable task, long timeout, TimeUnit unit) {
+        return offer(task);
+    }
+
+    @Override
+    public Runnable poll() {
+        Entry entry;
+        SubQueue queue;
+        lock.lock();
+        try {
+            queue = nextQueue();
+            entry = dequeue(queue);
+        } finally {
+            lock.unlock();
+        }
+        return taken(queue, entry);
+    }
+
+    @Override
+    public Runnable take() throws InterruptedException {
+        Entry entry;
+        SubQueue queue;
+        lock.lockInterruptibly();
+        try {
+            while (count == 0) {
+                notEmpty.await();
+            }
+            queue = nextQueue();
+            entry = dequeue(queue);
+        } finally {
+            lock.unlock();
+        }
+        return taken(queue, entry);
+    }
+
+    @Override
+    public Runnable poll(long timeout, TimeUnit unit) throws InterruptedException {
+        long nanos = unit.toNanos(timeout);
+        Entry entry;
+        SubQueue queue;
+        lock.lockInterruptibly();
+        try {
+            while (count == 0 && nanos > 0) {
+                nanos = notEmpty.awaitNanos(nanos);
+            }
+            queue = nextQueue();
+            entry = dequeue(queue);
+        } finally {
+            lock.unlock();
+        }
+        return taken(queue, entry);
+    }
+
+    @Override
+    public Runnable peek() {
+        lock.lock();
+        try {
+            SubQueue queue = nextQueue();
+            return null == queue ? null : queue.tasks.peek().task;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public int size() {
+        lock.lock();
+        try {
+            return count;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public int remainingCapacity() {
+        return Integer.MAX_VALUE;
+    }
+
+    @Override
+    public int drainTo(Collection<? super Runnable> c) {
+        return drainTo(c, Integer.MAX_VALUE);
+    }
+
+    @Override
+    public int drainTo(Collection<? super Runnable> c, int maxElements) {
+        if (c == this) {
+            throw new IllegalArgumentException();
+        }
+        int drained = 0;
+        lock.lock();
+        try {
+            while (drained < maxElements && count > 0) {
+                c.add(dequeue(nextQueue()).task);
+                drained++;
+            }
+        } finally {
+            lock.unlock();
+        }
+        return drained;
+    }
+
+    @Override
+    public boolean remove(Object o) {
+        lock.lock();
+        try {
+            for (SubQueue queue : active) {
+                for (Iterator<Entry> it = queue.tasks.iterator(); it.hasNext(); ) {
+                    if (it.next().task == o) {
+                        it.remove();
+                        count--;
+                        if (queue.tasks.isEmpty()) {
+                            active.remove(queue);
+                        }
+                        return true;
+                    }
+                }
+            }
+            return false;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * @return an iterator over a snapshot of the queued tasks, in no particular order
+     */
+    @Override
+    public Iterator<Runnable> iterator() {
+        final List<Runnable> snapshot = new ArrayList<>();
+        lock.lock();
+        try {
+            for (SubQueue queue : active) {
+                queue.tasks.forEach(entry -> snapshot.add(entry.task));
+            }
+        } finally {
+            lock.unlock();
+        }
+        return new Iterator<Runnable>() {
+            private int cursor;
+            private Runnable last;
+
+            @Override
+            public boolean hasNext() {
+                return cursor < snapshot.size();
+            }
+
+            @Override
+            public Runnable next() {
+                if (!hasNext()) {
+                    throw new NoSuchElementException();
+                }
+                last = snapshot.get(cursor++);
+                return last;
+            }
+
+            @Override
+            public void remove() {
+                if (null == last) {
+                    throw new IllegalStateException();
+                }
+                FairWorkQueue.this.remove(last);
+                last = null;
+            }
+        };
+    }
+
+    /**
+     * @return depth and queue wait time of each sub-queue
+     */
+    public TabularDataSupport getStatistics() {
+        final List<SubQueue> snapshot;
+        lock.lock();
+        try {
+            snapshot = new ArrayList<>(queues.values());
+        } finally {
+            lock.unlock();
+        }
+        TabularDataSupport stats = newStatistics();
+        Set<String> names = new HashSet<>();
+        for (SubQueue queue : snapshot) {
+            String name = queue.name;
+            for (int i = 2; !names.add(name); i++) {
+                name = queue.name + " #" + i;
+            }
+            addStatistics(stats, name, queue.size(), queue.waitTime);
+        }
+        return stats;
+    }
+
+    /**
+     * @return an empty table of queue statistics
+     */
+    static TabularDataSupport newStatistics() {
+        return new TabularDataSupport(tabularType);
+    }
+
+    /**
+     * Add the statistics of a queue to the table.
+     */
+    static void addStatistics(TabularDataSupport stats, String name, int depth, RunningStatistic waitTime) {
+        try {
+            stats.put(new CompositeDataSupport(compositeType, itemNames, new Object[]{
+                name,
+                depth,
+                waitTime.getMax(),
+                waitTime.getMean(),
+                waitTime.getRollingMean()
+            }));
+        } catch (OpenDataException ex) {
+            LOG.error("Error generating queue statistics", ex);
+        }
+    }
+
+    /**
+     * Find the sub-queue to take the next task from: the one with the highest priority task, or, if there are several,
+     * the one whose turn it is.
+     */
+    private SubQueue nextQueue() {
+        SubQueue next = null;
+        for (SubQueue queue : active) {
+            if (null == next || queue.tasks.peek().priority > next.tasks.peek().priority) {
+                next = queue;
+            }
+        }
+        return next;
+    }
+
+    private Entry dequeue(SubQueue queue) {
+        if (null == queue) {
+            return null;
+        }
+        Entry entry = queue.tasks.poll();
+        count--;
+        // Take turns: move the sub-queue to the end of the line, or drop it once it is drained.
+        active.remove(queue);
+        if (!queue.tasks.isEmpty()) {
+            active.add(queue);
+        }
+        return entry;
+    }
+
+    private static Runnable taken(SubQueue queue, Entry entry) {
+        if (null == entry) {
+            return null;
+        }
+        queue.waitTime.log(System.nanoTime() - entry.enqueued);
+        return entry.task;
+    }
+
+    private static TimedRunnable getTimedRunnable(Runnable task) {
+        if (task instanceof TimedRunnable) {
+            return (TimedRunnable) task;
+        } else if (task instanceof TimedRunnableFuture) {
+            return ((TimedRunnableFuture) task).getTimedRunnable();
+        }
+        return null;
+    }
+
+    private final class SubQueue {
+        private final String name;
+        private final PriorityQueue<Entry> tasks = new PriorityQueue<>();
+        private final RunningStatistic waitTime;
+
+        private SubQueue(Object source) {
+            if (source instanceof ActionManager) {
+                name = ((ActionManager) source).getName();
+            } else if (source == DEFAULT_SOURCE) {
+                name = DEFAULT_QUEUE;
+            } else {
+                name = source.getClass().getSimpleName() + "@" + Integer.toHexString(System.identityHashCode(source));
+            }
+            waitTime = new RunningStatistic(name, 1);
+        }
+
+        private int size() {
+            lock.lock();
+            try {
+                return tasks.size();
+            } finally {
+                lock.unlock();
+            }
+        }
+    }
+
+    private static final class Entry implements Comparable<Entry> {
+        private final Runnable task;
+        private final int priority;
+        private final long order;
+        private final long enqueued;
+
+        private Entry(Runnable task, int priority, long order, long enqueued) {
+            this.task = task;
+            this.priority = priority;
+            this.order = order;
+            this.enqueued = enqueued;
+        }
+
+        @Override
+        public int compareTo(Entry other) {
+            int compareResult = Integer.compare(other.priority, this.priority);
+            if (compareResult == 0) {
+                compareResult = Long.compare(this.order, other.order);
+            }
+            return compareResult;
+        }
+    }
+
+    private static String[] itemNames;
+    private static CompositeType compositeType;
+    private static TabularType tabularType;
+
+    static {
+        try {
+            itemNames = new String[]{"queue", "depth", "max wait", "mean wait", "rolling mean wait"};
+            compositeType = new CompositeType(
+                    "Queue Row",
+                    "Statistics of a single work queue",
+                    itemNames,
+                    new String[]{"Queue", "Queued tasks", "Maximum queue wait time (ns)", "Overall average queue wait time (ns)",
+                        "Average queue wait time of recent tasks (ns)"},
+                    new OpenType[]{SimpleType.STRING, SimpleType.INTEGER, SimpleType.LONG, SimpleType.DOUBLE, SimpleType.DOUBLE});
+            tabularType = new TabularType("Queue Statistics", "Work queue statistics", compositeType, new String[]{"queue"});
+        } catch (OpenDataException ex) {
+            LOG.error("Cannot create MBean", ex);
+        }
+    }
+}
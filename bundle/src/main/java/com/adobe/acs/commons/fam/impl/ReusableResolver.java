@@ -20,25 +20,47 @@ package com.adobe.acs.commons.fam.impl;
 import java.util.ArrayList;
 import java.util.Collections;
 import java.util.List;
+
+import com.adobe.acs.commons.functions.CheckedConsumer;
 import org.apache.sling.api.resource.PersistenceException;
 import org.apache.sling.api.resource.ResourceResolver;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 
 /**
  * Encapsulates details about a pooled resource resolver
+ * <p>
+ * With an {@link AdaptiveCommitPolicy}, the number of changed items committed at once follows the policy, and a
+ * failed commit is bisected: the actions of the failed batch are replayed in halves, so only the items which still
+ * fail on their own are reported. Items whose action can't be replayed are reported as failed right away.
+ * </p>
  */
 public class ReusableResolver {
-    
+
+    private static final Logger LOG = LoggerFactory.getLogger(ReusableResolver.class);
+
     private final ResourceResolver resolver;
     private int changeCount;
     private final int saveInterval;
+    private final AdaptiveCommitPolicy commitPolicy;
     private final List<String> pendingItems;
+    private final List<CheckedConsumer<ResourceResolver>> pendingActions;
+    private List<String> failedItems;
     private String currentItem;
+    private CheckedConsumer<ResourceResolver> currentAction;
 
     public ReusableResolver(ResourceResolver res, int save) {
+        this(res, save, null);
+    }
+
+    public ReusableResolver(ResourceResolver res, int save, AdaptiveCommitPolicy policy) {
         resolver = res;
         changeCount = 0;
         saveInterval = save;
+        commitPolicy = policy;
         pendingItems = new ArrayList<>();
+        pendingActions = new ArrayList<>();
+        failedItems = Collections.emptyList();
     }
 
     public void setCurrentItem(String current) {
@@ -49,12 +71,22 @@ public class ReusableResolver {
         return currentItem;
     }
 
+    /**
+     * @param action action which made the changes of the current item and can be replayed if its batch fails to
+     *               commit, null if it can't be replayed
+     */
+    public void setCurrentAction(CheckedConsumer<ResourceResolver> action) {
+        currentAction = action;
+    }
+
     public void free() throws PersistenceException {
         if (getResolver().isLive()) {
             if (getResolver().hasChanges()) {
                 setChangeCount(getChangeCount() + 1);
                 pendingItems.add(getCurrentItem());
+                pendingActions.add(currentAction);
             }
+            currentAction = null;
             if (getChangeCount() >= getSaveInterval()) {
                 commit();
             }
@@ -63,19 +95,96 @@ public class ReusableResolver {
 
     public void commit() throws PersistenceException {
         setChangeCount(0);
+        failedItems = Collections.emptyList();
+        List<String> items = new ArrayList<>(pendingItems);
+        List<CheckedConsumer<ResourceResolver>> actions = new ArrayList<>(pendingActions);
+        pendingItems.clear();
+        pendingActions.clear();
         if (getResolver().isLive() && getResolver().hasChanges()) {
+            long start = System.nanoTime();
             try {
                 getResolver().commit();
+                if (commitPolicy != null) {
+                    commitPolicy.committed(items.size(), System.nanoTime() - start);
+                }
             } catch (PersistenceException e) {
-                getResolver().revert();
-                getResolver().refresh();
-                throw e;
-            } finally {
-                pendingItems.clear();
+                rollback();
+                if (commitPolicy == null || items.isEmpty()) {
+                    // Without replayable items the failure can't be narrowed down
+                    failedItems = items;
+                    throw e;
+                }
+                failedItems = bisect(items, actions);
+                if (!failedItems.isEmpty()) {
+                    throw e;
+                }
             }
         }
     }
 
+    /**
+     * Replay the actions of a failed batch in halves, recursively splitting the halves which fail again.
+     *
+     * @return the items which failed on their own or could not be replayed
+     */
+    private List<String> bisect(List<String> items, List<CheckedConsumer<ResourceResolver>> actions) {
+        List<String> failed = new ArrayList<>();
+        List<String> replayItems = new ArrayList<>();
+        List<CheckedConsumer<ResourceResolver>> replayActions = new ArrayList<>();
+        for (int i = 0; i < items.size(); i++) {
+            if (actions.get(i) == null) {
+                failed.add(items.get(i));
+            } else {
+                replayItems.add(items.get(i));
+                replayActions.add(actions.get(i));
+            }
+        }
+        // A single item already failed on its own
+        if (replayItems.size() == 1) {
+            failed.addAll(replayItems);
+        } else if (!replayItems.isEmpty()) {
+            bisect(replayItems, replayActions, 0, replayItems.size(), failed);
+        }
+        LOG.debug("Bisected failed commit of {} items, {} failed", items.size(), failed.size());
+        return failed;
+    }
+
+    private void bisect(List<String> items, List<CheckedConsumer<ResourceResolver>> actions, int from, int to, List<String> failed) {
+        if (to - from == 1) {
+            failed.add(items.get(from));
+            return;
+        }
+        int middle = (from + to) >>> 1;
+        if (!replay(actions, from, middle)) {
+            bisect(items, actions, from, middle, failed);
+        }
+        if (!replay(actions, middle, to)) {
+            bisect(items, actions, middle, to, failed);
+        }
+    }
+
+    @SuppressWarnings("squid:S2221")
+    private boolean replay(List<CheckedConsumer<ResourceResolver>> actions, int from, int to) {
+        try {
+            for (int i = from; i < to; i++) {
+                actions.get(i).accept(getResolver());
+            }
+            if (getResolver().hasChanges()) {
+                getResolver().commit();
+            }
+            return true;
+        } catch (Exception e) {
+            LOG.debug("Replayed changes failed to commit", e);
+            rollback();
+            return false;
+        }
+    }
+
+    private void rollback() {
+        getResolver().revert();
+        getResolver().refresh();
+    }
+
     public int getChangeCount() {
         return changeCount;
     }
@@ -91,12 +200,22 @@ public class ReusableResolver {
         this.changeCount = changeCount;
     }
 
+    /**
+     * @return the number of changed items committed at once
+     */
     public int getSaveInterval() {
-        return saveInterval;
+        return commitPolicy == null ? saveInterval : commitPolicy.getBatchSize();
     }
 
     public List<String> getPendingItems() {
         return Collections.unmodifiableList(pendingItems);
     }
-    
+
+    /**
+     * @return the items which failed to be saved by the last commit
+     */
+    public List<String> getFailedItems() {
+        return Collections.unmodifiableList(failedItems);
+    }
+
 }
@@ -17,10 +17,10 @@
  */
 package com.adobe.acs.commons.fam.impl;
 
-import java.util.Collections;
-import java.util.LinkedList;
-import java.util.List;
 import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAccumulator;
+import java.util.concurrent.atomic.LongAdder;
 import javax.management.openmbean.CompositeData;
 import javax.management.openmbean.CompositeDataSupport;
 import javax.management.openmbean.CompositeType;
@@ -34,46 +34,55 @@ import org.slf4j.LoggerFactory;
 
 
 /**
- * Collect a numeric series and produce a rolling report on the trend
+ * Collect a numeric series and produce a rolling report on the trend and its percentiles.
+ * Logging values is lock-free, so it can be done from many threads at once.
  */
 public class RunningStatistic {
 
     private static int rollingAverageWidth = 20;
     private final String name;
-    private final AtomicLong counter = new AtomicLong();
-    private final AtomicLong min = new AtomicLong();
-    private final AtomicLong max = new AtomicLong();
-    private double total;
-    private double rollingCounter;
-    private List<Long> rollingSeries;
+    private final LongAdder counter = new LongAdder();
+    private final LongAdder total = new LongAdder();
+    private final LongAccumulator min = new LongAccumulator(Math::min, Long.MAX_VALUE);
+    private final LongAccumulator max = new LongAccumulator(Math::max, Long.MIN_VALUE);
+    private final AtomicLongArray rollingSeries = new AtomicLongArray(rollingAverageWidth);
+    private final AtomicLong rollingPosition = new AtomicLong();
+    private final LatencyHistogram histogram;
 
     private static final Logger LOG = LoggerFactory.getLogger(RunningStatistic.class);
 
     public RunningStatistic(String name) {
+        this(name, Runtime.getRuntime().availableProcessors());
+    }
+
+    /**
+     * @param name        name of the series
+     * @param concurrency expected number of threads logging at the same time
+     */
+    public RunningStatistic(String name, int concurrency) {
         this.name = name;
+        this.histogram = new LatencyHistogram(concurrency);
         reset();
     }
 
-    public synchronized void log(long l) {
-        total += l;
-        counter.incrementAndGet();
-        rollingCounter += l;
-        rollingSeries.add(l);
-        rollingCounter -= rollingSeries.remove(0);
-        min.set(Math.min(min.get(), l));
-        max.set(Math.max(max.get(), l));
+    public void log(long l) {
+        total.add(l);
+        counter.increment();
+        rollingSeries.set((int) (rollingPosition.getAndIncrement() % rollingAverageWidth), l);
+        min.accumulate(l);
+        max.accumulate(l);
+        histogram.record(l);
     }
 
-    public synchronized void reset() {
-        rollingSeries = Collections.synchronizedList(new LinkedList<>());
+    public void reset() {
         for (int i = 0; i < rollingAverageWidth; i++) {
-            rollingSeries.add(0L);
+            rollingSeries.set(i, 0L);
         }
-        counter.set(0);
-        rollingCounter=0;
-        total=0;
-        min.set(Long.MAX_VALUE);
-        max.set(Long.MIN_VALUE);
+        counter.reset();
+        total.reset();
+        min.reset();
+        max.reset();
+        histogram.reset();
     }
 
     public long getMin() {
@@ -84,21 +93,38 @@ public class RunningStatistic {
         return max.get();
     }
 
-    public synchronized double getMean() {
-        return total / counter.get();
+    public double getMean() {
+        return total.doubleValue() / counter.sum();
     }
 
-    public synchronized double getRollingMean() {
+    public double getRollingMean() {
+        double rollingCounter = 0;
+        for (int i = 0; i < rollingAverageWidth; i++) {
+            rollingCounter += rollingSeries.get(i);
+        }
         return rollingCounter / rollingAverageWidth;
     }
 
+    /**
+     * @param percentile percentile between 0 and 100
+     * @return the percentile of the logged values, accurate to ~3%
+     */
+    public long getPercentile(double percentile) {
+        return histogram.snapshot().getPercentile(percentile);
+    }
+
     public CompositeData getStatistics() throws OpenDataException {
+        LatencyHistogram.Snapshot snapshot = histogram.snapshot();
         return new CompositeDataSupport(compositeType,itemNames, new Object[] {
             name, 
             min.get(), 
             max.get(), 
             getMean(), 
-            getRollingMean()
+            getRollingMean(),
+            snapshot.getPercentile(50),
+            snapshot.getPercentile(95),
+            snapshot.getPercentile(99),
+            snapshot.getPercentile(99.9)
         });
     }
 
@@ -112,13 +138,15 @@ public class RunningStatistic {
 
     static {
         try {
-            itemNames = new String[]{"attribute","min", "max", "mean", "rolling mean"};
+            itemNames = new String[]{"attribute","min", "max", "mean", "rolling mean", "p50", "p95", "p99", "p999"};
             compositeType = new CompositeType(
                     "Statics Row",
                     "Single row of statistics",
                     itemNames,
-                    new String[]{"Name", "Minimum value", "Maximum value", "Overall average", "Average of last " + rollingAverageWidth},
-                    new OpenType[]{SimpleType.STRING, SimpleType.LONG, SimpleType.LONG, SimpleType.DOUBLE, SimpleType.DOUBLE});
+                    new String[]{"Name", "Minimum value", "Maximum value", "Overall average", "Average of last " + rollingAverageWidth,
+                        "50th percentile", "95th percentile", "99th percentile", "99.9th percentile"},
+                    new OpenType[]{SimpleType.STRING, SimpleType.LONG, SimpleType.LONG, SimpleType.DOUBLE, SimpleType.DOUBLE,
+                        SimpleType.LONG, SimpleType.LONG, SimpleType.LONG, SimpleType.LONG});
             tabularType = new TabularType("Statistics", "Collected statistics", compositeType, new String[] {"attribute"});
         } catch (OpenDataException ex) {
             LOG.error("Cannot create MBean", ex);
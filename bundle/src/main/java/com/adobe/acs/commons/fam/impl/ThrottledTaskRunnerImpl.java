@@ -44,11 +44,14 @@ import javax.management.ReflectionException;
 import javax.management.openmbean.CompositeData;
 import javax.management.openmbean.OpenDataException;
 import javax.management.openmbean.TabularDataSupport;
+import java.lang.management.GarbageCollectorMXBean;
 import java.lang.management.ManagementFactory;
 import java.util.Dictionary;
 import java.util.List;
 import java.util.concurrent.BlockingQueue;
 import java.util.concurrent.PriorityBlockingQueue;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
 import java.util.concurrent.Semaphore;
 import java.util.concurrent.TimeUnit;
 
@@ -60,7 +63,10 @@ import java.util.concurrent.TimeUnit;
     @Property(name = "max.threads", label = "Max threads", description = "Default is 4, recommended not to exceed the number of CPU cores",value = "4"),
     @Property(name = "max.cpu", label = "Max cpu %", description = "Range is 0..1; -1 means disable this check", doubleValue = 0.75),
     @Property(name = "max.heap", label = "Max heap %", description = "Range is 0..1; -1 means disable this check", doubleValue = 0.85),
-    @Property(name = "cooldown.wait.time", label = "Cooldown time", description="Time to wait for cpu/mem cooldown between checks", value = "100")
+    @Property(name = "cooldown.wait.time", label = "Cooldown time", description="Time to wait for cpu/mem cooldown between checks", value = "100"),
+    @Property(name = "adaptive.concurrency", label = "Adaptive concurrency", description = "Adjust the number of tasks executing at the same time to task latency, cpu, heap and GC load, instead of pausing all tasks while cpu or heap usage is too high", boolValue = false),
+    @Property(name = "max.gc", label = "Max GC %", description = "Share of time spent in garbage collection, only used with adaptive concurrency. Range is 0..1; -1 means disable this check", doubleValue = 0.1),
+    @Property(name = "fair.scheduling", label = "Fair scheduling", description = "Queue the work of each action manager separately and let them take turns, instead of running the work of all action managers in the order it was scheduled. Priorities are respected either way.", boolValue = false)
 })
 public class ThrottledTaskRunnerImpl extends AnnotatedStandardMBean implements ThrottledTaskRunner, ThrottledTaskRunnerStats {
 
@@ -70,12 +76,17 @@ public class ThrottledTaskRunnerImpl extends AnnotatedStandardMBean implements T
     private int maxThreads;
     private double maxCpu;
     private double maxHeap;
+    private double maxGc;
+    private boolean fairScheduling;
+    private AdaptiveConcurrencyLimiter limiter;
     private volatile boolean isPaused;
     private final MBeanServer mbs = ManagementFactory.getPlatformMBeanServer();
     private ObjectName osBeanName;
     private ObjectName memBeanName;
     private PriorityThreadPoolExecutor workerPool;
     private BlockingQueue<Runnable> workQueue;
+    /** Logs a warning for tasks exceeding their timeout, only started once such a task runs */
+    private volatile ScheduledThreadPoolExecutor timeoutTimer;
 
     public ThrottledTaskRunnerImpl() throws NotCompliantMBeanException {
         super(ThrottledTaskRunnerMBean.class);
@@ -111,15 +122,41 @@ public class ThrottledTaskRunnerImpl extends AnnotatedStandardMBean implements T
         }
     }
 
-    RunningStatistic waitTime = new RunningStatistic("Queue wait time");
-    RunningStatistic throttleTime = new RunningStatistic("Throttle time");
-    RunningStatistic processingTime = new RunningStatistic("Processing time");
+    RunningStatistic waitTime = new RunningStatistic("Queue wait time (ns)");
+    RunningStatistic throttleTime = new RunningStatistic("Throttle time (ns)");
+    RunningStatistic processingTime = new RunningStatistic("Processing time (ns)");
 
     @Override
     public void logCompletion(long created, long started, long executed, long finished, boolean successful, Throwable error) {
-        waitTime.log(started - created);
-        throttleTime.log(executed - started);
-        processingTime.log(finished - executed);
+        waitTime.log(TimeUnit.MILLISECONDS.toNanos(started - created));
+        throttleTime.log(TimeUnit.MILLISECONDS.toNanos(executed - started));
+        processingTime.log(TimeUnit.MILLISECONDS.toNanos(finished - executed));
+    }
+
+    /**
+     * Record statistics of a task with {@link System#nanoTime()} precision, also with the action manager that
+     * scheduled it. Timestamps which weren't taken are {@link TimedRunnable#NOT_SET}.
+     */
+    void logCompletionNanos(long created, long started, long executed, long finished, CancelHandler cancelHandler) {
+        ActionManagerImpl actionManager = cancelHandler instanceof ActionManagerImpl ? (ActionManagerImpl) cancelHandler : null;
+        if (started != TimedRunnable.NOT_SET) {
+            waitTime.log(started - created);
+            if (null != actionManager) {
+                actionManager.waitTime.log(started - created);
+            }
+            if (executed != TimedRunnable.NOT_SET) {
+                throttleTime.log(executed - started);
+                if (null != actionManager) {
+                    actionManager.throttleTime.log(executed - started);
+                }
+                if (finished != TimedRunnable.NOT_SET) {
+                    processingTime.log(finished - executed);
+                    if (null != actionManager) {
+                        actionManager.processingTime.log(finished - executed);
+                    }
+                }
+            }
+        }
     }
 
     @Override
@@ -143,6 +180,16 @@ public class ThrottledTaskRunnerImpl extends AnnotatedStandardMBean implements T
         }
     }
 
+    @Override
+    public TabularDataSupport getQueueStatistics() {
+        if (workQueue instanceof FairWorkQueue) {
+            return ((FairWorkQueue) workQueue).getStatistics();
+        }
+        TabularDataSupport stats = FairWorkQueue.newStatistics();
+        FairWorkQueue.addStatistics(stats, FairWorkQueue.DEFAULT_QUEUE, null == workQueue ? 0 : workQueue.size(), waitTime);
+        return stats;
+    }
+
     @Override
     public boolean isRunning() {
         return workerPool != null && !workerPool.isTerminating() && !workerPool.isTerminated();
@@ -241,6 +288,87 @@ public class ThrottledTaskRunnerImpl extends AnnotatedStandardMBean implements T
         }
     }
 
+    private final Semaphore loadLock = new Semaphore(1);
+    private volatile long lastLoadCheck = -1;
+    private volatile boolean overloaded = false;
+    private long lastGcTime = -1;
+
+    /**
+     * Wait until a task may execute: until the adaptive limiter admits it or, without adaptive concurrency, until cpu
+     * and memory usage are low enough. Must be followed by {@link #afterExecute(long, long)}.
+     */
+    void beforeExecute() throws InterruptedException {
+        if (null != limiter) {
+            limiter.acquire();
+        } else {
+            waitForLowCpuAndLowMemory();
+        }
+    }
+
+    /**
+     * Report the completion of a task admitted by {@link #beforeExecute()}.
+     */
+    void afterExecute(long executed, long finished) {
+        if (null != limiter) {
+            limiter.release(executed, finished, isOverloaded());
+        }
+    }
+
+    /**
+     * Check whether cpu, heap or GC load exceed their maximum. Samples at most once per cooldown time and never
+     * blocks: while another thread samples, the previous result is returned.
+     */
+    @SuppressWarnings("squid:S3776")
+    boolean isOverloaded() {
+        long now = System.currentTimeMillis();
+        long timeSinceLastCheck = now - lastLoadCheck;
+        if ((timeSinceLastCheck < 0 || timeSinceLastCheck > cooldownWaitTime) && loadLock.tryAcquire()) {
+            try {
+                double cpuLevel = maxCpu > 0 ? getCpuLevel() : -1;
+                double heapUsage = maxHeap > 0 ? getMemoryUsage() : -1;
+                double gcLevel = maxGc > 0 ? getGcLevel(now) : -1;
+
+                overloaded = ((maxCpu > 0 && cpuLevel >= maxCpu)
+                        || (maxHeap > 0 && heapUsage >= maxHeap)
+                        || (maxGc > 0 && gcLevel >= maxGc));
+            } catch (InstanceNotFoundException ex) {
+                LOG.error("OS MBean Instance not found (should not ever happen)", ex);
+            } catch (ReflectionException ex) {
+                LOG.error("OS MBean Instance reflection error (should not ever happen)", ex);
+            } finally {
+                lastLoadCheck = now;
+                loadLock.release();
+            }
+        }
+        return overloaded;
+    }
+
+    /**
+     * @return share of the time since the last check spent in garbage collection, -1 on the first check
+     */
+    private double getGcLevel(long now) {
+        long gcTime = 0;
+        for (GarbageCollectorMXBean gcBean : ManagementFactory.getGarbageCollectorMXBeans()) {
+            gcTime += Math.max(0L, gcBean.getCollectionTime());
+        }
+        double gcLevel = -1;
+        if (lastGcTime >= 0 && lastLoadCheck >= 0 && now > lastLoadCheck) {
+            gcLevel = (double) (gcTime - lastGcTime) / (double) (now - lastLoadCheck);
+        }
+        lastGcTime = gcTime;
+        return gcLevel;
+    }
+
+    @Override
+    public int getConcurrencyLimit() {
+        return null != limiter ? limiter.getLimit() : maxThreads;
+    }
+
+    @Override
+    public long getThrottledTaskCount() {
+        return null != limiter ? limiter.getThrottledCount() : 0;
+    }
+
     @Override
     public final double getCpuLevel() throws InstanceNotFoundException, ReflectionException {
         // This method will block until CPU usage is low enough            
@@ -282,13 +410,16 @@ public class ThrottledTaskRunnerImpl extends AnnotatedStandardMBean implements T
     @Override
     public void setThreadPoolSize(int newSize) {
         maxThreads = newSize;
+        if (null != limiter) {
+            limiter.setMaxLimit(newSize);
+        }
         initThreadPool();
     }
 
     @SuppressWarnings("squid:S2142")
     private void initThreadPool() {
         if (workQueue == null) {
-            workQueue = new PriorityBlockingQueue<>();
+            workQueue = fairScheduling ? new FairWorkQueue() : new PriorityBlockingQueue<>();
         }
 
         // Terminate pool if the thread size has changed
@@ -321,6 +452,11 @@ public class ThrottledTaskRunnerImpl extends AnnotatedStandardMBean implements T
         maxHeap = PropertiesUtil.toDouble(properties.get("max.heap"), 0.85);
         maxThreads = PropertiesUtil.toInteger(properties.get("max.threads"), defaultThreadCount);
         cooldownWaitTime = PropertiesUtil.toInteger(properties.get("cooldown.wait.time"), 100);
+        fairScheduling = PropertiesUtil.toBoolean(properties.get("fair.scheduling"), false);
+        maxGc = PropertiesUtil.toDouble(properties.get("max.gc"), 0.1);
+        if (PropertiesUtil.toBoolean(properties.get("adaptive.concurrency"), false)) {
+            limiter = new AdaptiveConcurrencyLimiter(1, maxThreads);
+        }
 
         /**
          * #2660 - Remove configurable timeout/watchdog as this can result in repository corruption.
@@ -336,6 +472,24 @@ public class ThrottledTaskRunnerImpl extends AnnotatedStandardMBean implements T
             LOG.error("Error getting OS MBean (shouldn't ever happen)", ex);
         }
 
+        timeoutTimer = new ScheduledThreadPoolExecutor(1, r -> {
+            Thread thread = new Thread(r, "ACS AEM Commons - FAM task timeout");
+            thread.setDaemon(true);
+            return thread;
+        });
+        timeoutTimer.setRemoveOnCancelPolicy(true);
+
         initThreadPool();
     }
+
+    protected void deactivate() {
+        if (timeoutTimer != null) {
+            timeoutTimer.shutdownNow();
+            timeoutTimer = null;
+        }
+    }
+
+    ScheduledExecutorService getTimeoutTimer() {
+        return timeoutTimer;
+    }
 }
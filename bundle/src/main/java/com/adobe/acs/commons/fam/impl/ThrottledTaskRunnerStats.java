@@ -20,6 +20,7 @@ package com.adobe.acs.commons.fam.impl;
 
 import javax.management.InstanceNotFoundException;
 import javax.management.ReflectionException;
+import javax.management.openmbean.TabularDataSupport;
 
 /**
  * Private interface for exposing ThrottledTaskRunner stats
@@ -52,4 +53,10 @@ public interface ThrottledTaskRunnerStats {
      * @return the max number of threads ThrottledTaskRunner will use to execute the work.
      */
     int getMaxThreads();
-}
\ No newline at end of file
+
+    /**
+     * @return the depth and queue wait time of each work queue; with fair scheduling there is a queue per
+     * ActionManager, otherwise a single queue holds all the work.
+     */
+    TabularDataSupport getQueueStatistics();
+}
@@ -18,7 +18,9 @@
 package com.adobe.acs.commons.fam.impl;
 
 import java.util.Optional;
-import java.util.concurrent.Semaphore;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
 import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicLong;
 
@@ -32,6 +34,9 @@ import com.adobe.acs.commons.fam.ThrottledTaskRunner;
  * Runnable task that has a time limit
  */
 public class TimedRunnable implements Runnable, Comparable<TimedRunnable> {
+    /** Marks a {@link System#nanoTime()} timestamp which wasn't taken */
+    static final long NOT_SET = Long.MIN_VALUE;
+
     private static AtomicLong taskCounter = new AtomicLong();
     private Long createOrder = taskCounter.getAndAdd(1);
 
@@ -39,6 +44,10 @@ public class TimedRunnable implements Runnable, Comparable<TimedRunnable> {
     long started = -1;
     long executed = -1;
     long finished = -1;
+    final long createdNanos = System.nanoTime();
+    long startedNanos = NOT_SET;
+    long executedNanos = NOT_SET;
+    long finishedNanos = NOT_SET;
     int priority;
     Runnable work;
     ThrottledTaskRunner runner;
@@ -62,8 +71,8 @@ public class TimedRunnable implements Runnable, Comparable<TimedRunnable> {
     }
 
     /**
-     * Run the underlying runnable but only give it a fixed duration before
-     * throwing an interruption
+     * Run the underlying runnable. If a timeout is configured, a warning is logged once the runnable exceeds it; the
+     * runnable is not interrupted.
      */
     @Override
     @SuppressWarnings("squid:S1181")
@@ -72,47 +81,86 @@ public class TimedRunnable implements Runnable, Comparable<TimedRunnable> {
             return;
         }
         final Thread thisThread = Thread.currentThread();
-        final Semaphore timerSemaphore = new Semaphore(0);
-
-        Thread watchDog = new Thread(watchThread(thisThread, timerSemaphore));
 
         boolean successful = false;
+        boolean admitted = false;
         Throwable error = null;
+        ScheduledFuture<?> timeoutWarning = null;
         try {
-            started = System.currentTimeMillis();
-            runner.waitForLowCpuAndLowMemory();
-            executed = System.currentTimeMillis();
-            if (timeout > 0) {
-                watchDog.start();
-            }
+            startedNanos = System.nanoTime();
+            beforeExecute();
+            admitted = true;
+            executedNanos = System.nanoTime();
+            timeoutWarning = scheduleTimeoutWarning();
             cancelHandler.ifPresent(h->h.trackActiveWork(thisThread));
             work.run();
-            finished = System.currentTimeMillis();
+            finishedNanos = System.nanoTime();
             cancelHandler.ifPresent(h->h.untrackActiveWork(thisThread));
-            timerSemaphore.release();
             successful = true;
         } catch (Throwable ex) {
-            finished = System.currentTimeMillis();
+            finishedNanos = System.nanoTime();
             cancelHandler.ifPresent(h->h.untrackActiveWork(thisThread));
             LOG.error("Task encountered an uncaught exception", ex);
+        } finally {
+            if (null != timeoutWarning) {
+                timeoutWarning.cancel(false);
+            }
+        }
+        started = toMillis(startedNanos);
+        executed = toMillis(executedNanos);
+        finished = toMillis(finishedNanos);
+        if (admitted) {
+            afterExecute();
+        }
+        if (runner instanceof ThrottledTaskRunnerImpl) {
+            ((ThrottledTaskRunnerImpl) runner).logCompletionNanos(createdNanos, startedNanos, executedNanos, finishedNanos,
+                    cancelHandler.orElse(null));
+        } else {
+            runner.logCompletion(created, started, executed, finished, successful, error);
         }
-        runner.logCompletion(created, started, executed, finished, successful, error);
     }
 
-    @SuppressWarnings({"squid:S2142", "CQRules:CWE-676"})
-    private Runnable watchThread(Thread workThread, Semaphore timerSemaphore) {
-        return () -> {
-            boolean finished1 = false;
-            try {
-                finished1 = timerSemaphore.tryAcquire(timeout, timeoutUnit);
-            } catch (InterruptedException ex) {
-                LOG.error("Watchdog thread interrupted", ex);
-            }
-            if (!finished1) {
-                // The watchdog condition should never be met as task.timeout is forced to -1, however just to be safe...
-                LOG.warn("Thread interruption is no longer supported.");
-            }
-        };
+    private void beforeExecute() throws InterruptedException {
+        if (runner instanceof ThrottledTaskRunnerImpl) {
+            ((ThrottledTaskRunnerImpl) runner).beforeExecute();
+        } else {
+            runner.waitForLowCpuAndLowMemory();
+        }
+    }
+
+    private void afterExecute() {
+        if (runner instanceof ThrottledTaskRunnerImpl) {
+            ((ThrottledTaskRunnerImpl) runner).afterExecute(executedNanos, finishedNanos);
+        }
+    }
+
+    /**
+     * Convert a {@link System#nanoTime()} of this task into milliseconds since epoch.
+     */
+    private long toMillis(long nanos) {
+        return nanos == NOT_SET ? -1 : created + TimeUnit.NANOSECONDS.toMillis(nanos - createdNanos);
+    }
+
+    /**
+     * @return the warning to cancel once the task completes, null if no timeout is configured
+     */
+    private ScheduledFuture<?> scheduleTimeoutWarning() {
+        if (timeout <= 0 || timeout == Long.MAX_VALUE || !(runner instanceof ThrottledTaskRunnerImpl)) {
+            return null;
+        }
+        final ScheduledExecutorService timeoutTimer = ((ThrottledTaskRunnerImpl) runner).getTimeoutTimer();
+        if (null == timeoutTimer) {
+            return null;
+        }
+        try {
+            // The timeout is no longer enforced, interrupting the thread can result in repository corruption.
+            return timeoutTimer.schedule(
+                    () -> LOG.warn("Task exceeded its timeout of {} {}. Thread interruption is no longer supported.", timeout, timeoutUnit),
+                    timeout, timeoutUnit);
+        } catch (RejectedExecutionException ex) {
+            // The runner is being deactivated
+            return null;
+        }
     }
 
     @Override
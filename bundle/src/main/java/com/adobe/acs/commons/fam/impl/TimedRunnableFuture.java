@@ -46,6 +46,10 @@ public class TimedRunnableFuture extends FutureTask implements Comparable<TimedR
         }
     }
 
+    TimedRunnable getTimedRunnable() {
+        return timedRunnable;
+    }
+
     @Override
     public int compareTo(TimedRunnableFuture other) {
         TimedRunnable otherTimedRunnable = other.timedRunnable;
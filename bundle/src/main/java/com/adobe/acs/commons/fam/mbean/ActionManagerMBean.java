@@ -31,6 +31,9 @@ public interface ActionManagerMBean {
     @Description("Tasks")
     public TabularDataSupport getStatistics() throws OpenDataException;
     
+    @Description("Queue wait, throttle and processing time percentiles of the tasks of each action manager, in nanoseconds")
+    public TabularDataSupport getLatencyStatistics() throws OpenDataException;
+
     @Description("Purge completed tasks")
     public void purgeCompletedTasks();
     
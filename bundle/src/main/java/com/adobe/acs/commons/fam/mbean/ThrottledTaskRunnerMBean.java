@@ -56,6 +56,12 @@ public interface ThrottledTaskRunnerMBean {
     @Description("Reset job processing statistics")
     public void clearProcessingStatistics();
     
+    @Description("Number of tasks allowed to execute at the same time, adjusted to the load with adaptive concurrency")
+    public int getConcurrencyLimit();
+
+    @Description("Tasks which had to wait as the adaptive concurrency limit was reached")
+    public long getThrottledTaskCount();
+
     @Description("Change thread pool size (preserves running queue)")
     public void setThreadPoolSize(@Name("New size") @Description("4 is the suggested default.") int size);
     
@@ -195,4 +195,16 @@ public interface HttpCacheConfig {
     default long getExpiryForUpdate() {
         return -1L;
     }
+
+    /**
+     * Gets the grace period of a stale cache entry.
+     * If set, an entry which expired or got invalidated is still delivered for the given time while it is
+     * re-rendered in the background, instead of being removed right away.
+     * Value is in miliseconds.
+     *
+     * @return the grace period, lower than 1 means stale entries are not delivered
+     */
+    default long getStaleWhileRevalidate() {
+        return -1L;
+    }
 }
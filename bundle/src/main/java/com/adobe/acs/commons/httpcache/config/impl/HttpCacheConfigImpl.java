@@ -250,6 +250,14 @@ public class HttpCacheConfigImpl implements HttpCacheConfig {
     static final String PROP_EXPIRY_ON_UPDATE = "httpcache.config.expiry.on.update";
     static final long DEFAULT_EXPIRY_ON_UPDATE = 0L;
     private long expiryOnUpdate;
+
+
+    @Property(label = "Stale while revalidate",
+        description = "Grace period in ms during which an expired or invalidated entry is still delivered while it is re-rendered anonymously in the background. Only applies to configs accepting anonymous requests only, stale entries of other configs are treated as misses. Lower then 1 means stale entries are not delivered.",
+        longValue = HttpCacheConfigImpl.DEFAULT_STALE_WHILE_REVALIDATE)
+    static final String PROP_STALE_WHILE_REVALIDATE = "httpcache.config.stale-while-revalidate";
+    static final long DEFAULT_STALE_WHILE_REVALIDATE = -1L;
+    private long staleWhileRevalidate;
     private String cacheConfigExtensionTarget;
     private String cacheKeyFactoryTarget;
 
@@ -283,6 +291,7 @@ public class HttpCacheConfigImpl implements HttpCacheConfig {
         expiryOnCreate = PropertiesUtil.toLong(configs.get(PROP_EXPIRY_ON_CREATE), DEFAULT_EXPIRY_ON_CREATE);
         expiryOnAccess = PropertiesUtil.toLong(configs.get(PROP_EXPIRY_ON_ACCESS), DEFAULT_EXPIRY_ON_ACCESS);
         expiryOnUpdate = PropertiesUtil.toLong(configs.get(PROP_EXPIRY_ON_UPDATE), DEFAULT_EXPIRY_ON_UPDATE);
+        staleWhileRevalidate = PropertiesUtil.toLong(configs.get(PROP_STALE_WHILE_REVALIDATE), DEFAULT_STALE_WHILE_REVALIDATE);
 
         // Cache invalidation paths.
         List<String> cacheInvalidationPathPatterns = Arrays.asList(PropertiesUtil.toStringArray(configs
@@ -456,6 +465,11 @@ public class HttpCacheConfigImpl implements HttpCacheConfig {
         return expiryOnUpdate;
     }
 
+    @Override
+    public long getStaleWhileRevalidate() {
+        return staleWhileRevalidate;
+    }
+
     @Override
     public int getOrder() {
         return this.order;
@@ -19,9 +19,13 @@ package com.adobe.acs.commons.httpcache.engine;
 
 import com.adobe.acs.commons.httpcache.exception.HttpCacheDataStreamException;
 import com.adobe.acs.commons.httpcache.store.TempSink;
+import org.apache.commons.io.IOUtils;
 
 import javax.servlet.http.HttpServletResponse;
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
 import java.io.InputStream;
+import java.io.OutputStream;
 import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.List;
@@ -45,6 +49,9 @@ public class CacheContent {
     private InputStream dataInputStream;
     /** Temp sink attached to this cache content */
     private TempSink tempSink;
+    private boolean stale;
+    /** Content backed by a byte array, written to the response as is */
+    private byte[] bytes;
 
     private HttpCacheServletResponseWrapper.ResponseWriteMethod writeMethod;
 
@@ -121,6 +128,26 @@ public class CacheContent {
         this.dataInputStream = dataInputStream;
     }
 
+    /**
+     * Content backed by a byte array, e.g. from an in-memory cache store. The array is shared, not copied, so it must
+     * not be modified afterwards.
+     *
+     * @param status
+     * @param charEncoding
+     * @param contentType
+     * @param headers
+     * @param bytes
+     * @param writeMethod
+     * @return the cache content
+     */
+    public static CacheContent ofBytes(int status, String charEncoding, String contentType,
+                                       Map<String, List<String>> headers, byte[] bytes,
+                                       HttpCacheServletResponseWrapper.ResponseWriteMethod writeMethod) {
+        final CacheContent content = new CacheContent(status, charEncoding, contentType, headers, null, writeMethod);
+        content.bytes = bytes;
+        return content;
+    }
+
     /**
      * No argument constructor for the build method.
      */
@@ -194,9 +221,27 @@ public class CacheContent {
      * @return
      */
     public InputStream getInputDataStream() {
+        if (null == dataInputStream && null != bytes) {
+            dataInputStream = new ByteArrayInputStream(bytes);
+        }
         return dataInputStream;
     }
 
+    /**
+     * Write the content into the given stream. Content backed by a byte array is written in one go, without copying
+     * it through a buffer.
+     *
+     * @param outputStream the stream to write to
+     * @throws IOException if writing fails
+     */
+    public void writeTo(OutputStream outputStream) throws IOException {
+        if (null != bytes) {
+            outputStream.write(bytes, 0, bytes.length);
+        } else {
+            IOUtils.copy(getInputDataStream(), outputStream);
+        }
+    }
+
     /**
      * Get the temp size attached to this cache content.
      * @return
@@ -208,4 +253,15 @@ public class CacheContent {
     public HttpCacheServletResponseWrapper.ResponseWriteMethod getWriteMethod() {
         return writeMethod;
     }
+
+    /**
+     * @return true if the content expired or got invalidated and is only delivered until it is revalidated
+     */
+    public boolean isStale() {
+        return stale;
+    }
+
+    public void setStale(boolean stale) {
+        this.stale = stale;
+    }
 }
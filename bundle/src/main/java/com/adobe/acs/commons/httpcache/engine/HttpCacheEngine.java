@@ -127,6 +127,18 @@ public interface HttpCacheEngine {
             cacheConfig) throws HttpCacheKeyCreationException, HttpCacheDataStreamException,
             HttpCachePersistenceException;
 
+    /**
+     * Release what is held for a request that missed the cache once its response won't be cached, e.g. as rendering
+     * it failed. Requests waiting for the response to be cached then render it themselves. Does nothing if the
+     * response was handed to {@link #cacheResponse(SlingHttpServletRequest, SlingHttpServletResponse, HttpCacheConfig)}
+     * already.
+     *
+     * @param request the request that missed the cache
+     */
+    default void abandonResponse(SlingHttpServletRequest request) {
+        // nothing held by default
+    }
+
     /**
      * Check if the supplied JCR repository path has the potential to invalidate cache. This can be identified based on
      * the {@link HttpCacheConfig}.
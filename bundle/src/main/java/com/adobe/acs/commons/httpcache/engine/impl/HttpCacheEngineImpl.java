@@ -18,6 +18,7 @@
 package com.adobe.acs.commons.httpcache.engine.impl;
 
 import com.adobe.acs.commons.fam.ThrottledTaskRunner;
+import com.adobe.acs.commons.httpcache.config.AuthenticationStatusConfigConstants;
 import com.adobe.acs.commons.httpcache.config.HttpCacheConfig;
 import com.adobe.acs.commons.httpcache.engine.CacheContent;
 import com.adobe.acs.commons.httpcache.engine.HttpCacheEngine;
@@ -53,20 +54,43 @@ import org.apache.felix.scr.annotations.ReferenceCardinality;
 
 import org.apache.sling.api.SlingHttpServletRequest;
 import org.apache.sling.api.SlingHttpServletResponse;
+import org.apache.sling.api.request.builder.Builders;
+import org.apache.sling.api.request.builder.SlingHttpServletRequestBuilder;
+import org.apache.sling.api.resource.LoginException;
+import org.apache.sling.api.resource.Resource;
+import org.apache.sling.api.resource.ResourceResolver;
+import org.apache.sling.api.resource.ResourceResolverFactory;
+import org.apache.sling.api.servlets.HttpConstants;
+import org.apache.sling.api.wrappers.SlingHttpServletRequestWrapper;
 import org.apache.sling.commons.osgi.PropertiesUtil;
+import org.apache.sling.engine.SlingRequestProcessor;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import javax.management.DynamicMBean;
+import javax.servlet.ServletException;
+import javax.servlet.http.Cookie;
 import javax.management.NotCompliantMBeanException;
 import javax.management.openmbean.OpenDataException;
 import javax.management.openmbean.TabularData;
 import java.io.IOException;
+import java.time.ZonedDateTime;
+import java.time.format.DateTimeFormatter;
+import java.time.format.DateTimeParseException;
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Collections;
+import java.util.Enumeration;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.ListIterator;
 import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
 import java.util.function.Function;
 import java.util.regex.Pattern;
 
@@ -149,13 +173,40 @@ public class HttpCacheEngineImpl extends AnnotatedStandardMBean implements HttpC
     static final String PROP_GLOBAL_RESPONSE_COOKIE_EXCLUSIONS = "httpcache.engine.excluded.response.cookies.global";
     private List<String> globalCookieExclusions;
 
+    @Property(label = "Coalesce cache misses timeout",
+            description = "Time in milliseconds concurrent requests for the same cache key wait for the first request "
+                    + "to render and cache the response, instead of rendering it themselves. Requests still render "
+                    + "themselves when the timeout expires. 0 disables coalescing.",
+            intValue = HttpCacheEngineImpl.DEFAULT_COALESCE_MISSES_TIMEOUT)
+    static final String PROP_COALESCE_MISSES_TIMEOUT = "httpcache.engine.coalesce-misses.timeout";
+    static final int DEFAULT_COALESCE_MISSES_TIMEOUT = 0;
+    private long coalesceMissesTimeout;
+
     // formatter:on
 
+    /** Request attribute holding the in-flight render a request is responsible for */
+    static final String REQUEST_ATTR_IN_FLIGHT_RENDER = HttpCacheEngineImpl.class.getName() + ".inFlightRender";
+
+    /** Request attribute holding the key of the stale entry an internal request revalidates */
+    static final String REQUEST_ATTR_REVALIDATION = HttpCacheEngineImpl.class.getName() + ".revalidation";
+
     @Reference
     private ThrottledTaskRunner throttledTaskRunner;
 
+    @Reference
+    private ResourceResolverFactory resourceResolverFactory;
+
+    @Reference
+    private SlingRequestProcessor slingRequestProcessor;
+
     private final HttpCacheEngineMBeanDelegate mBeanDelegate = new HttpCacheEngineMBeanDelegate();
     private final HttpCacheEngineBindingsDelegate bindingsDelegate = new HttpCacheEngineBindingsDelegate();
+
+    /** Renders of cache misses in progress, used to coalesce concurrent misses of the same key */
+    private final ConcurrentMap<CacheKey, InFlightRender> inFlightRenders = new ConcurrentHashMap<>();
+
+    /** Keys of the stale entries being revalidated */
+    private final Set<CacheKey> revalidations = ConcurrentHashMap.newKeySet();
     //-------------------<OSGi specific methods>---------------//
 
     @Activate
@@ -167,6 +218,8 @@ public class HttpCacheEngineImpl extends AnnotatedStandardMBean implements HttpC
 
         globalHeaderExclusions = ParameterUtil.toPatterns(PropertiesUtil.toStringArray(configs.get(PROP_GLOBAL_RESPONSE_HEADER_EXCLUSIONS), new String[]{}));
         globalCookieExclusions = Arrays.asList(PropertiesUtil.toStringArray(configs.get(PROP_GLOBAL_RESPONSE_COOKIE_EXCLUSIONS), new String[]{}));
+        coalesceMissesTimeout = Math.max(0, PropertiesUtil.toInteger(configs.get(PROP_COALESCE_MISSES_TIMEOUT),
+                DEFAULT_COALESCE_MISSES_TIMEOUT));
 
         ListIterator<String> listIterator = globalCacheHandlingRulesPid.listIterator();
         while (listIterator.hasNext()) {
@@ -181,6 +234,10 @@ public class HttpCacheEngineImpl extends AnnotatedStandardMBean implements HttpC
 
     @Deactivate
     protected void deactivate(Map<String, Object> configs) {
+        // Release requests still waiting for a render.
+        for (InFlightRender render : inFlightRenders.values()) {
+            render.complete();
+        }
         log.info("HttpCacheEngineImpl deactivated.");
     }
 
@@ -250,7 +307,39 @@ public class HttpCacheEngineImpl extends AnnotatedStandardMBean implements HttpC
             HttpCacheKeyCreationException, HttpCachePersistenceException {
 
         // Build a cache key and do a lookup in the configured cache store.
-        return getCacheStore(cacheConfig).contains(cacheConfig.buildCacheKey(request));
+        if (null != request.getAttribute(REQUEST_ATTR_REVALIDATION)) {
+            // Revalidations render the response to replace the stale entry.
+            return false;
+        }
+
+        final HttpCacheStore cacheStore = getCacheStore(cacheConfig);
+        final CacheKey cacheKey = cacheConfig.buildCacheKey(request);
+        if (isDeliverable(cacheStore, cacheKey, cacheConfig)) {
+            return true;
+        } else if (coalesceMissesTimeout <= 0) {
+            return false;
+        }
+
+        // Single-flight: the first request missing the key renders it, concurrent ones wait for it to be cached.
+        final InFlightRender render = new InFlightRender(cacheKey, System.currentTimeMillis() + coalesceMissesTimeout);
+        final InFlightRender leader = inFlightRenders.compute(cacheKey, (key, current) ->
+                null == current || current.isExpired() ? render : current);
+        if (leader == render) {
+            if (isDeliverable(cacheStore, cacheKey, cacheConfig)) {
+                // The previous render was cached in the meantime.
+                render.complete();
+                return true;
+            }
+            request.setAttribute(REQUEST_ATTR_IN_FLIGHT_RENDER, render);
+            return false;
+        }
+
+        if (leader.await() && isDeliverable(cacheStore, cacheKey, cacheConfig)) {
+            log.debug("Cache miss coalesced with in-flight render - {}", request.getRequestURI());
+            return true;
+        }
+        log.debug("In-flight render not cached in time, rendering - {}", request.getRequestURI());
+        return false;
     }
 
     @Override
@@ -258,13 +347,25 @@ public class HttpCacheEngineImpl extends AnnotatedStandardMBean implements HttpC
                                        HttpCacheConfig cacheConfig) throws HttpCacheKeyCreationException,
             HttpCacheDataStreamException, HttpCachePersistenceException {
         // Get the cached content from cache
-        CacheContent cacheContent = getCacheStore(cacheConfig).getIfPresent(cacheConfig.buildCacheKey(request));
-        if (!isRequestDeliverableFromCacheAccordingToHandlingRules(request, response, cacheConfig, cacheContent)){
-            return false;
-        }
+        final CacheKey cacheKey = cacheConfig.buildCacheKey(request);
+        CacheContent cacheContent = getCacheStore(cacheConfig).getIfPresent(cacheKey);
+        try {
+            if (!isRequestDeliverableFromCacheAccordingToHandlingRules(request, response, cacheConfig, cacheContent)){
+                return false;
+            }
+
+            if (null != cacheContent && cacheContent.isStale() && isRevalidatable(cacheConfig)) {
+                scheduleRevalidation(request, cacheKey);
+            }
 
-        prepareCachedResponse(response, cacheContent);
-        return executeCacheContentDeliver(request, response, cacheContent);
+            prepareCachedResponse(response, cacheContent);
+            return executeCacheContentDeliver(request, response, cacheContent);
+        } finally {
+            // Release the content's stream, e.g. a file held open by the disk store, also if it isn't delivered.
+            if (null != cacheContent) {
+                IOUtils.closeQuietly(cacheContent.getInputDataStream());
+            }
+        }
     }
 
 
@@ -286,6 +387,9 @@ public class HttpCacheEngineImpl extends AnnotatedStandardMBean implements HttpC
     public void cacheResponse(SlingHttpServletRequest request, SlingHttpServletResponse response, HttpCacheConfig
             cacheConfig) {
 
+        final InFlightRender render = (InFlightRender) request.getAttribute(REQUEST_ATTR_IN_FLIGHT_RENDER);
+        final Object revalidatedKey = request.getAttribute(REQUEST_ATTR_REVALIDATION);
+
         final HttpCacheServletResponseWrapper responseWrapper;
         if (response instanceof HttpCacheServletResponseWrapper) {
             responseWrapper = (HttpCacheServletResponseWrapper) response;
@@ -300,17 +404,41 @@ public class HttpCacheEngineImpl extends AnnotatedStandardMBean implements HttpC
         // Construct the cache content.
         try {
             final CacheKey cacheKey = cacheConfig.buildCacheKey(request);
+            if (null != revalidatedKey && !revalidatedKey.equals(cacheKey)) {
+                // The internal request doesn't map to the stale entry, e.g. as the key depends on the user.
+                log.debug("Revalidation of {} rendered cache key {}, not caching it", revalidatedKey, cacheKey);
+                return;
+            }
             final CacheContent cacheContent = new CacheContent().build(responseWrapper, status, charEncoding, contentType, extractedHeaders);
         
             // Persist in cache.
             if (isRequestCachableAccordingToHandlingRules(request, response, cacheConfig, cacheContent)) {
-                throttledTaskRunner.scheduleWork(putToStore(cacheConfig, cacheKey, cacheContent));
+                // Storing the response completes the render.
+                request.removeAttribute(REQUEST_ATTR_IN_FLIGHT_RENDER);
+                if (null != revalidatedKey) {
+                    // Already in the background, replace the stale entry before the revalidation completes.
+                    putToStore(cacheConfig, cacheKey, cacheContent, render).run();
+                } else {
+                    throttledTaskRunner.scheduleWork(putToStore(cacheConfig, cacheKey, cacheContent, render));
+                }
                 log.debug("Response for the URI cached - {}", request.getRequestURI());
+                return;
             }
         } catch (HttpCacheException e) {
             log.error("Error creating http cache content", e);
         }
 
+        // Nothing gets cached, let the waiting requests render themselves.
+        abandonResponse(request);
+    }
+
+    @Override
+    public void abandonResponse(SlingHttpServletRequest request) {
+        final InFlightRender render = (InFlightRender) request.getAttribute(REQUEST_ATTR_IN_FLIGHT_RENDER);
+        if (null != render) {
+            request.removeAttribute(REQUEST_ATTR_IN_FLIGHT_RENDER);
+            render.complete();
+        }
     }
 
 
@@ -338,10 +466,11 @@ public class HttpCacheEngineImpl extends AnnotatedStandardMBean implements HttpC
         }
     }
 
-    private Runnable putToStore(final HttpCacheConfig cacheConfig, final CacheKey cacheKey, final CacheContent cacheContent) {
+    private Runnable putToStore(final HttpCacheConfig cacheConfig, final CacheKey cacheKey, final CacheContent cacheContent,
+                                final InFlightRender render) {
         return () -> {
             try {
-                getCacheStore(cacheConfig).put(cacheKey, cacheContent);
+                getCacheStore(cacheConfig).put(cacheKey, cacheContent, cacheConfig);
             } catch (HttpCacheException e) {
                 log.error("Error storing http response in httpcache", e);
             } finally {
@@ -349,10 +478,255 @@ public class HttpCacheEngineImpl extends AnnotatedStandardMBean implements HttpC
                 if (null != cacheContent) {
                     IOUtils.closeQuietly(cacheContent.getInputDataStream());
                 }
+                if (null != render) {
+                    render.complete();
+                }
             }
         };
     }
 
+    /**
+     * @return true if the store holds an entry for the key which may be delivered. Stale entries of configs which can't
+     * be revalidated are treated as misses, so the response is rendered and cached again.
+     */
+    private boolean isDeliverable(HttpCacheStore cacheStore, CacheKey cacheKey, HttpCacheConfig cacheConfig) {
+        if (!cacheStore.contains(cacheKey)) {
+            return false;
+        } else if (cacheConfig.getStaleWhileRevalidate() <= 0 || isRevalidatable(cacheConfig)) {
+            return true;
+        }
+        final CacheContent cacheContent = cacheStore.getIfPresent(cacheKey);
+        if (null == cacheContent) {
+            return false;
+        }
+        IOUtils.closeQuietly(cacheContent.getInputDataStream());
+        return !cacheContent.isStale();
+    }
+
+    /**
+     * Stale entries are re-rendered anonymously, so only entries of configs which accept nothing but anonymous
+     * requests are revalidated. Otherwise the rendered response may not be the one of the requests sharing the entry.
+     */
+    private static boolean isRevalidatable(HttpCacheConfig cacheConfig) {
+        return AuthenticationStatusConfigConstants.ANONYMOUS_REQUEST.equals(cacheConfig.getAuthenticationRequirement());
+    }
+
+    /**
+     * Re-render a stale entry in the background, unless it is already being revalidated.
+     */
+    private void scheduleRevalidation(SlingHttpServletRequest request, CacheKey cacheKey) {
+        if (!revalidations.add(cacheKey)) {
+            return;
+        }
+        final Revalidation revalidation = new Revalidation(request, cacheKey);
+        throttledTaskRunner.scheduleWork(() -> {
+            try {
+                revalidation.run();
+            } finally {
+                revalidations.remove(cacheKey);
+            }
+        });
+        log.debug("Stale cache entry delivered, revalidating - {}", request.getRequestURI());
+    }
+
+    /**
+     * Internal request re-rendering a stale entry. It is processed anonymously, as the original request is gone by
+     * then, and goes through the cache filter which puts the response into the cache store, replacing the stale entry.
+     * The headers, cookies and host of the original request are kept, as the cache key may depend on them.
+     */
+    private final class Revalidation {
+        private final CacheKey cacheKey;
+        private final String resourcePath;
+        private final String[] selectors;
+        private final String extension;
+        private final String suffix;
+        private final Map<String, String[]> parameters = new HashMap<>();
+        private final Map<String, List<String>> headers = new LinkedHashMap<>();
+        private final Cookie[] cookies;
+        private final String scheme;
+        private final String serverName;
+        private final int serverPort;
+        private final boolean secure;
+
+        private Revalidation(SlingHttpServletRequest request, CacheKey cacheKey) {
+            this.cacheKey = cacheKey;
+            this.resourcePath = request.getResource().getPath();
+            this.selectors = request.getRequestPathInfo().getSelectors();
+            this.extension = request.getRequestPathInfo().getExtension();
+            this.suffix = request.getRequestPathInfo().getSuffix();
+            for (Map.Entry<String, String[]> parameter : request.getParameterMap().entrySet()) {
+                parameters.put(parameter.getKey(), parameter.getValue().clone());
+            }
+            final Enumeration<String> headerNames = request.getHeaderNames();
+            while (null != headerNames && headerNames.hasMoreElements()) {
+                final String name = headerNames.nextElement();
+                headers.put(name, Collections.list(request.getHeaders(name)));
+            }
+            this.cookies = null != request.getCookies() ? request.getCookies().clone() : null;
+            this.scheme = request.getScheme();
+            this.serverName = request.getServerName();
+            this.serverPort = request.getServerPort();
+            this.secure = request.isSecure();
+        }
+
+        private void run() {
+            try (ResourceResolver resourceResolver = resourceResolverFactory.getResourceResolver(null)) {
+                final Resource resource = resourceResolver.getResource(resourcePath);
+                if (null == resource) {
+                    log.debug("Resource {} not readable, stale entry {} is not revalidated", resourcePath, cacheKey);
+                    return;
+                }
+
+                final SlingHttpServletRequestBuilder requestBuilder = Builders.newRequestBuilder(resource)
+                        .withRequestMethod(HttpConstants.METHOD_GET)
+                        .withParameters(parameters);
+                if (selectors.length > 0) {
+                    requestBuilder.withSelectors(selectors);
+                }
+                if (null != extension) {
+                    requestBuilder.withExtension(extension);
+                }
+                if (null != suffix) {
+                    requestBuilder.withSuffix(suffix);
+                }
+                final SlingHttpServletRequest internalRequest = new RevalidationRequest(requestBuilder.build());
+                internalRequest.setAttribute(REQUEST_ATTR_REVALIDATION, cacheKey);
+
+                slingRequestProcessor.processRequest(internalRequest, Builders.newResponseBuilder().build(),
+                        resourceResolver);
+            } catch (LoginException | ServletException | IOException e) {
+                log.warn("Could not revalidate stale cache entry {}", cacheKey, e);
+            }
+        }
+
+        /**
+         * Internal request with the headers, cookies and host of the request which delivered the stale entry.
+         */
+        private final class RevalidationRequest extends SlingHttpServletRequestWrapper {
+
+            private RevalidationRequest(SlingHttpServletRequest request) {
+                super(request);
+            }
+
+            @Override
+            public String getHeader(String name) {
+                final List<String> values = getHeaderValues(name);
+                return values.isEmpty() ? null : values.get(0);
+            }
+
+            @Override
+            public Enumeration<String> getHeaders(String name) {
+                return Collections.enumeration(getHeaderValues(name));
+            }
+
+            @Override
+            public Enumeration<String> getHeaderNames() {
+                return Collections.enumeration(headers.keySet());
+            }
+
+            @Override
+            public long getDateHeader(String name) {
+                final String value = getHeader(name);
+                if (null == value) {
+                    return -1;
+                }
+                try {
+                    return ZonedDateTime.parse(value, DateTimeFormatter.RFC_1123_DATE_TIME).toInstant().toEpochMilli();
+                } catch (DateTimeParseException e) {
+                    throw new IllegalArgumentException("Not a date header: " + name, e);
+                }
+            }
+
+            @Override
+            public int getIntHeader(String name) {
+                final String value = getHeader(name);
+                return null == value ? -1 : Integer.parseInt(value);
+            }
+
+            @Override
+            public Cookie[] getCookies() {
+                return null != cookies ? cookies.clone() : null;
+            }
+
+            @Override
+            public Cookie getCookie(String name) {
+                if (null != cookies) {
+                    for (Cookie cookie : cookies) {
+                        if (cookie.getName().equals(name)) {
+                            return cookie;
+                        }
+                    }
+                }
+                return null;
+            }
+
+            @Override
+            public String getScheme() {
+                return scheme;
+            }
+
+            @Override
+            public String getServerName() {
+                return serverName;
+            }
+
+            @Override
+            public int getServerPort() {
+                return serverPort;
+            }
+
+            @Override
+            public boolean isSecure() {
+                return secure;
+            }
+
+            private List<String> getHeaderValues(String name) {
+                for (Map.Entry<String, List<String>> header : headers.entrySet()) {
+                    if (header.getKey().equalsIgnoreCase(name)) {
+                        return header.getValue();
+                    }
+                }
+                return Collections.emptyList();
+            }
+        }
+    }
+
+    /**
+     * Render of a cache miss other requests for the same key can wait for. Expires after the coalescing timeout,
+     * so a render which fails without caching its response only delays requests for that key once.
+     */
+    private final class InFlightRender {
+        private final CacheKey cacheKey;
+        private final long expiresAt;
+        private final CountDownLatch latch = new CountDownLatch(1);
+
+        private InFlightRender(CacheKey cacheKey, long expiresAt) {
+            this.cacheKey = cacheKey;
+            this.expiresAt = expiresAt;
+        }
+
+        private boolean isExpired() {
+            return System.currentTimeMillis() >= expiresAt;
+        }
+
+        /**
+         * @return true if the render completed before it expired
+         */
+        private boolean await() {
+            try {
+                return latch.await(Math.max(0, expiresAt - System.currentTimeMillis()), TimeUnit.MILLISECONDS);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return false;
+            }
+        }
+
+        private void complete() {
+            inFlightRenders.remove(cacheKey, this);
+            latch.countDown();
+        }
+    }
+
 
 
     /**
@@ -481,9 +855,9 @@ public class HttpCacheEngineImpl extends AnnotatedStandardMBean implements HttpC
     private void prepareCachedResponse(SlingHttpServletResponse response, CacheContent cacheContent) {
         response.setStatus(cacheContent.getStatus());
         // Spool header info into the servlet response.
-        for (String headerName : cacheContent.getHeaders().keySet()) {
-            for (String headerValue : cacheContent.getHeaders().get(headerName)) {
-                response.setHeader(headerName, headerValue);
+        for (Map.Entry<String, List<String>> header : cacheContent.getHeaders().entrySet()) {
+            for (String headerValue : header.getValue()) {
+                response.setHeader(header.getKey(), headerValue);
             }
         }
 
@@ -511,7 +885,8 @@ public class HttpCacheEngineImpl extends AnnotatedStandardMBean implements HttpC
             throws IOException {
         if(HttpCacheServletResponseWrapper.ResponseWriteMethod.OUTPUTSTREAM.equals(cacheContent.getWriteMethod())){
             try {
-                IOUtils.copy(cacheContent.getInputDataStream(), response.getOutputStream());
+                // Content held in memory is written straight from its byte array.
+                cacheContent.writeTo(response.getOutputStream());
             } catch(IllegalStateException ex) {
                 // in this case, either the writer has already been obtained or the response doesn't support getOutputStream()
                 IOUtils.copy(cacheContent.getInputDataStream(), response.getWriter(), response.getCharacterEncoding());
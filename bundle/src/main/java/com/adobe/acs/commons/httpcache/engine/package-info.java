@@ -16,6 +16,6 @@
  * limitations under the License.
  */
 
-@org.osgi.annotation.versioning.Version("3.4.0")
+@org.osgi.annotation.versioning.Version("3.5.0")
 package com.adobe.acs.commons.httpcache.engine;
 
@@ -82,10 +82,10 @@ public abstract class AbstractHttpCacheFilter implements Filter {
             log.error("HttpCache exception while dealing with request. Passed on the control to filter chain.", e);
         }
 
-        // Pass on the request to filter chain.
-        chain.doFilter(request, slingResponse);
-
         try {
+            // Pass on the request to filter chain.
+            chain.doFilter(request, slingResponse);
+
             // If the request has the attribute marked, cache the response.
             if (isResponseCacheable) {
                 cacheEngine.cacheResponse(slingRequest, slingResponse, cacheConfig);
@@ -97,6 +97,11 @@ public abstract class AbstractHttpCacheFilter implements Filter {
             }
         } catch (HttpCacheException e) {
             log.error("HttpCache exception while dealing with response. Returned the filter chain response", e);
+        } finally {
+            if (isResponseCacheable) {
+                // Requests waiting for this response render themselves if it isn't cached, e.g. as the chain threw.
+                cacheEngine.abandonResponse(slingRequest);
+            }
         }
     }
 
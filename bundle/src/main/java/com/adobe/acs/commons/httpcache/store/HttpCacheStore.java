@@ -50,6 +50,19 @@ public interface HttpCacheStore {
      */
     void put(CacheKey key, CacheContent content) throws HttpCacheDataStreamException;
 
+    /**
+     * Put an item into the cache for the given cache config. Stores can use the config to look up the items to
+     * invalidate in {@link #invalidate(HttpCacheConfig)}.
+     *
+     * @param key         Object holding the key attributes.
+     * @param content     Object holding the content which needs to be cached.
+     * @param cacheConfig The cache config the key has been built with.
+     * @throws HttpCacheDataStreamException Failure when reading the input stream.
+     */
+    default void put(CacheKey key, CacheContent content, HttpCacheConfig cacheConfig) throws HttpCacheDataStreamException {
+        put(key, content);
+    }
+
     /**
      * Check if there is an entry in cache for the given key.
      *
@@ -62,7 +75,8 @@ public interface HttpCacheStore {
      * Get the Cache item given a key.
      *
      * @param key bject holding the key attributes.
-     * @return Object holding the content which needs to be cached. Null if key not present.
+     * @return Object holding the content which needs to be cached. Null if key not present. The caller closes the
+     * content's input data stream once done with it, as it may hold resources of the store, e.g. an open file.
      */
     CacheContent getIfPresent(CacheKey key);
 
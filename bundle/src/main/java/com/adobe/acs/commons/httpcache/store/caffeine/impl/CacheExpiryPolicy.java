@@ -32,9 +32,25 @@ public class CacheExpiryPolicy implements Expiry<CacheKey, MemCachePersistenceOb
         this.standardTtl = standardTtl;
     }
 
+    /**
+     * Get the time to live of a new entry.
+     *
+     * @param key the cache key
+     * @return the time to live in ms, -1 if the entry doesn't expire
+     */
+    public long getTimeToLive(CacheKey key) {
+        if (key.getExpiryForCreation() > 0) {
+            return key.getExpiryForCreation();
+        }
+        return standardTtl > 0 ? standardTtl : -1L;
+    }
+
     @Override
     public long expireAfterCreate(
             CacheKey key, MemCachePersistenceObject value, long currentTime) {
+        if (value.getStaleWhileRevalidate() > 0) {
+            return getRemainingTime(value);
+        }
         long customExpiryTime = key.getExpiryForCreation();
         if (customExpiryTime > 0) {
             return customExpiryTime * NANOSECOND_MODIFIER;
@@ -50,6 +66,10 @@ public class CacheExpiryPolicy implements Expiry<CacheKey, MemCachePersistenceOb
     @Override
     public long expireAfterUpdate(
             CacheKey key, MemCachePersistenceObject value, long currentTime, long currentDuration) {
+        if (value.getStaleWhileRevalidate() > 0) {
+            // Stale entries are replaced on revalidation and marked stale on invalidation.
+            return getRemainingTime(value);
+        }
         if (key.getExpiryForUpdate() > 0) {
             return key.getExpiryForUpdate() * NANOSECOND_MODIFIER;
         }
@@ -59,9 +79,26 @@ public class CacheExpiryPolicy implements Expiry<CacheKey, MemCachePersistenceOb
     @Override
     public long expireAfterRead(
             CacheKey key, MemCachePersistenceObject value, long currentTime, long currentDuration) {
+        if (value.getStaleWhileRevalidate() > 0) {
+            long now = System.currentTimeMillis();
+            if (key.getExpiryForAccess() > 0 && !value.isStale(now)) {
+                value.setTimeToLive(now, key.getExpiryForAccess());
+            }
+            return getRemainingTime(value);
+        }
         if (key.getExpiryForAccess() > 0) {
             return key.getExpiryForAccess() * NANOSECOND_MODIFIER;
         }
         return currentDuration;
     }
+
+    /**
+     * @return time until the entry expires in ns, including its grace period
+     */
+    private static long getRemainingTime(MemCachePersistenceObject value) {
+        if (value.getExpiresAt() == Long.MAX_VALUE) {
+            return Long.MAX_VALUE;
+        }
+        return Math.max(0L, value.getExpiresAt() - System.currentTimeMillis()) * NANOSECOND_MODIFIER;
+    }
 }
@@ -24,6 +24,7 @@ import com.adobe.acs.commons.httpcache.exception.HttpCacheKeyCreationException;
 import com.adobe.acs.commons.httpcache.keys.CacheKey;
 import com.adobe.acs.commons.httpcache.store.HttpCacheStore;
 import com.adobe.acs.commons.httpcache.store.TempSink;
+import com.adobe.acs.commons.httpcache.store.mem.impl.CacheKeyIndex;
 import com.adobe.acs.commons.httpcache.store.mem.impl.MemCachePersistenceObject;
 import com.adobe.acs.commons.httpcache.store.mem.impl.MemTempSinkImpl;
 import com.adobe.acs.commons.util.impl.AbstractCacheMBean;
@@ -51,7 +52,6 @@ import javax.management.openmbean.SimpleType;
 import java.io.ByteArrayInputStream;
 import java.io.IOException;
 import java.util.Map;
-import java.util.concurrent.ConcurrentMap;
 
 /**
  * In-memory cache store implementation. Uses Caffeine Cache.
@@ -108,7 +108,10 @@ public class CaffeineMemHttpCacheStoreImpl extends AbstractCaffeineCacheMBean<Ca
 
     /** Cache - Uses Caffeine cache */
     private Cache<CacheKey, MemCachePersistenceObject> cache;
-    private Expiry<CacheKey, MemCachePersistenceObject> expiryPolicy;
+    private CacheExpiryPolicy expiryPolicy;
+
+    /** Index of the cache keys by path and cache config, maintained on put and removal */
+    private final CacheKeyIndex<MemCachePersistenceObject> keyIndex = new CacheKeyIndex<>();
 
     @Activate
     protected void activate(Map<String, Object> config) {
@@ -142,7 +145,7 @@ public class CaffeineMemHttpCacheStoreImpl extends AbstractCaffeineCacheMBean<Ca
                 .maximumWeight(maxSizeInMb * MEGABYTE)
                 .weigher(new MemCacheEntryWeigher())
                 .expireAfter(expiryPolicy)
-                .removalListener(new MemCacheEntryRemovalListener())
+                .removalListener(new MemCacheEntryRemovalListener(keyIndex))
                 .recordStats()
                 .build();
     }
@@ -158,13 +161,13 @@ public class CaffeineMemHttpCacheStoreImpl extends AbstractCaffeineCacheMBean<Ca
 
     @Override
     protected long getBytesLength(MemCachePersistenceObject cacheObj) {
-        return cacheObj.getBytes().length;
+        return cacheObj.getLength();
     }
 
     @Override
     protected void addCacheData(Map<String, Object> data, MemCachePersistenceObject cacheObj) {
         int hitCount = cacheObj.getHitCount();
-        long size = cacheObj.getBytes().length;
+        long size = cacheObj.getLength();
         data.put(AbstractCacheMBean.JMX_PN_STATUS, cacheObj.getStatus());
         data.put(AbstractCacheMBean.JMX_PN_SIZE, FileUtils.byteCountToDisplaySize(size));
         data.put(AbstractCacheMBean.JMX_PN_CONTENTTYPE, cacheObj.getContentType());
@@ -201,9 +204,15 @@ public class CaffeineMemHttpCacheStoreImpl extends AbstractCaffeineCacheMBean<Ca
      * Removal listener for cache entry items.
      */
     private static class MemCacheEntryRemovalListener implements RemovalListener<CacheKey, MemCachePersistenceObject> {
+        private final CacheKeyIndex<MemCachePersistenceObject> keyIndex;
+
+        MemCacheEntryRemovalListener(CacheKeyIndex<MemCachePersistenceObject> keyIndex) {
+            this.keyIndex = keyIndex;
+        }
+
         @Override
         public void onRemoval(CacheKey cacheKey, MemCachePersistenceObject memCachePersistenceObject, RemovalCause removalCause) {
-            //do nothing as of now
+            keyIndex.remove(cacheKey, memCachePersistenceObject);
         }
     }
 
@@ -215,21 +224,32 @@ public class CaffeineMemHttpCacheStoreImpl extends AbstractCaffeineCacheMBean<Ca
         @Override
         public int weigh(CacheKey memCacheKey, MemCachePersistenceObject memCachePersistenceObject) {
             // Size of the byte array.
-            return memCachePersistenceObject.getBytes().length;
+            return memCachePersistenceObject.getLength();
         }
     }
 
     //-------------------------<CacheStore interface specific implementation>
     @Override
     public void put(CacheKey key, CacheContent content) throws HttpCacheDataStreamException {
-        cache.put(key, new MemCachePersistenceObject().buildForCaching(content.getStatus(), content.getCharEncoding(),
-                content.getContentType(), content.getHeaders(), content.getInputDataStream(), content.getWriteMethod()));
+        put(key, content, null);
+    }
 
+    @Override
+    public void put(CacheKey key, CacheContent content, HttpCacheConfig cacheConfig) throws HttpCacheDataStreamException {
+        final MemCachePersistenceObject value = new MemCachePersistenceObject().buildForCaching(content)
+                .withStaleWhileRevalidate(null != cacheConfig ? cacheConfig.getStaleWhileRevalidate() : -1L);
+        value.setTimeToLive(System.currentTimeMillis(), expiryPolicy.getTimeToLive(key));
+
+        // Index the key atomically with the cache update, the removal listener drops it again.
+        cache.asMap().compute(key, (k, previous) -> {
+            keyIndex.add(k, cacheConfig, value);
+            return value;
+        });
     }
 
     @Override
     public boolean contains(CacheKey key) {
-        if (null == cache.getIfPresent(key)) {
+        if (null == getIfNotExpired(key, System.currentTimeMillis())) {
             return false;
         }
         return true;
@@ -237,7 +257,8 @@ public class CaffeineMemHttpCacheStoreImpl extends AbstractCaffeineCacheMBean<Ca
 
     @Override
     public CacheContent getIfPresent(CacheKey key) {
-        MemCachePersistenceObject value = cache.getIfPresent(key);
+        final long now = System.currentTimeMillis();
+        MemCachePersistenceObject value = getIfNotExpired(key, now);
         if (null == value) {
             return null;
         }
@@ -245,8 +266,26 @@ public class CaffeineMemHttpCacheStoreImpl extends AbstractCaffeineCacheMBean<Ca
         // Increment hit count
         value.incrementHitCount();
 
-        return new CacheContent(value.getStatus(), value.getCharEncoding(), value.getContentType(), value.getHeaders(), new
-                ByteArrayInputStream(value.getBytes()));
+        CacheContent content = value.toCacheContent();
+        content.setStale(value.isStale(now));
+        return content;
+    }
+
+    private MemCachePersistenceObject getIfNotExpired(CacheKey key, long now) {
+        MemCachePersistenceObject value = cache.getIfPresent(key);
+        if (null != value && value.isExpired(now)) {
+            // Expired by an invalidation, before the expiry policy caught up.
+            cache.asMap().remove(key, value);
+            return null;
+        }
+        return value;
+    }
+
+    /**
+     * Invalidate an entry, it stays deliverable as stale if its cache config has a grace period.
+     */
+    private void invalidate(CacheKey key, long now) {
+        cache.asMap().computeIfPresent(key, (k, value) -> value.markStale(now) ? value : null);
     }
 
     @Override
@@ -256,28 +295,34 @@ public class CaffeineMemHttpCacheStoreImpl extends AbstractCaffeineCacheMBean<Ca
 
     @Override
     public void invalidate(CacheKey invalidationKey) {
-        final ConcurrentMap<CacheKey, MemCachePersistenceObject> cacheAsMap = cache.asMap();
-
-        for (CacheKey key : cacheAsMap.keySet()) {
+        final long now = System.currentTimeMillis();
+        for (CacheKey key : keyIndex.getInvalidationCandidates(invalidationKey)) {
             if (key.isInvalidatedBy(invalidationKey)) {
-                cache.invalidate(key);
+                invalidate(key, now);
             }
         }
     }
 
     @Override
     public void invalidate(HttpCacheConfig cacheConfig) {
-        ConcurrentMap<CacheKey, MemCachePersistenceObject> cacheAsMap = cache.asMap();
-        for (CacheKey key : cacheAsMap.keySet()) {
+        // Keys cached for this config.
+        final long now = System.currentTimeMillis();
+        for (CacheKey key : keyIndex.getKeys(cacheConfig)) {
+            invalidate(key, now);
+        }
+
+        // Keys cached without a config or with another config instance.
+        for (CacheKey key : keyIndex.getKeysNotCachedFor(cacheConfig)) {
             // Match the cache key with cache config.
             try {
                 if (cacheConfig.knows(key)) {
                     // If matches, invalidate that particular key.
-                    cache.invalidate(key);
+                    invalidate(key, now);
                 }
             } catch (HttpCacheKeyCreationException e) {
                 log.error("Could not invalidate HTTP cache. Falling back to full cache invalidation.", e);
                 this.invalidateAll();
+                return;
             }
         }
     }
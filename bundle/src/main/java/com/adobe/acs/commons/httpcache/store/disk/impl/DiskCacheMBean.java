@@ -0,0 +1,34 @@
+/*
+ * ACS AEM Commons
+ *
+ * Copyright (C) 2013 - 2023 Adobe
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.adobe.acs.commons.httpcache.store.disk.impl;
+
+import com.adobe.acs.commons.util.impl.CacheMBean;
+import com.adobe.granite.jmx.annotation.Description;
+
+/**
+ * JMX MBean for DISK cache store.
+ */
+@Description("ACS AEM Commons - Http Cache - Disk Cache")
+public interface DiskCacheMBean extends CacheMBean {
+
+    @Description("Cache TTL in Seconds. -1 value represent no TTL.")
+    long getTtl();
+
+    @Description("Directory holding the cache segment files.")
+    String getDirectory();
+}
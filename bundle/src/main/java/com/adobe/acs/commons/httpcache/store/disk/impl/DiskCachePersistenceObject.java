@@ -0,0 +1,147 @@
+/*
+ * ACS AEM Commons
+ *
+ * Copyright (C) 2013 - 2023 Adobe
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.adobe.acs.commons.httpcache.store.disk.impl;
+
+import com.adobe.acs.commons.httpcache.engine.HttpCacheServletResponseWrapper;
+import com.adobe.acs.commons.httpcache.keys.CacheKey;
+
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Index entry of the disk cache store. Holds the response metadata in memory and the location of the response
+ * body in a segment file.
+ */
+public class DiskCachePersistenceObject {
+    /** Key the entry is stored with */
+    private final CacheKey key;
+    /** Response status **/
+    private final int status;
+    /** Response character encoding */
+    private final String charEncoding;
+    /** Response content type */
+    private final String contentType;
+    /** Response headers */
+    private final Map<String, List<String>> headers;
+    private final HttpCacheServletResponseWrapper.ResponseWriteMethod writeMethod;
+
+    /** Location of the body */
+    private final DiskCacheSegment segment;
+    private final int offset;
+    private final int length;
+
+    private final long created;
+    private final AtomicInteger count = new AtomicInteger(0);
+
+    DiskCachePersistenceObject(CacheKey key, int status, String charEncoding, String contentType,
+                               Map<String, List<String>> headers,
+                               HttpCacheServletResponseWrapper.ResponseWriteMethod writeMethod,
+                               DiskCacheSegment segment, int offset, int length, long created) {
+        this.key = key;
+        this.status = status;
+        this.charEncoding = charEncoding;
+        this.contentType = contentType;
+        this.writeMethod = writeMethod;
+        this.segment = segment;
+        this.offset = offset;
+        this.length = length;
+        this.created = created;
+
+        // Take a copy of the headers.
+        this.headers = new HashMap<>();
+        if (null != headers) {
+            for (Map.Entry<String, List<String>> entry : headers.entrySet()) {
+                if (!"Sling-Tracer-Protocol-Version".equals(entry.getKey()) && !"Sling-Tracer-Request-Id".equals(entry.getKey())) {
+                    // Do NOT cache Sling Tracer headers as this makes debugging difficult and confusing!
+                    this.headers.put(entry.getKey(), new ArrayList<>(entry.getValue()));
+                }
+            }
+        }
+    }
+
+    CacheKey getKey() {
+        return key;
+    }
+
+    public int getStatus() {
+        return status;
+    }
+
+    public String getCharEncoding() {
+        return charEncoding;
+    }
+
+    public String getContentType() {
+        return contentType;
+    }
+
+    /**
+     * @return a copy of the response headers
+     */
+    public Map<String, List<String>> getHeaders() {
+        Map<String, List<String>> map = new HashMap<>();
+        for (Map.Entry<String, List<String>> entry : headers.entrySet()) {
+            map.put(entry.getKey(), new ArrayList<>(entry.getValue()));
+        }
+        return map;
+    }
+
+    public HttpCacheServletResponseWrapper.ResponseWriteMethod getWriteMethod() {
+        return writeMethod;
+    }
+
+    DiskCacheSegment getSegment() {
+        return segment;
+    }
+
+    /**
+     * @return the size of the response body in bytes
+     */
+    public int getLength() {
+        return length;
+    }
+
+    long getCreated() {
+        return created;
+    }
+
+    /**
+     * @return a stream over the response body, read from the segment file, null if the segment has been deleted
+     */
+    public InputStream getInputStream() {
+        return segment.openStream(offset, length);
+    }
+
+    /**
+     * Increments the hit for this cache entry.
+     */
+    public void incrementHitCount() {
+        count.incrementAndGet();
+    }
+
+    /**
+     * @return the number of times this cache entry has been requested
+     */
+    public int getHitCount() {
+        return count.get();
+    }
+}
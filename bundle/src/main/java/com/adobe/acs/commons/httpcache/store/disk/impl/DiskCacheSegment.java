@@ -0,0 +1,298 @@
+/*
+ * ACS AEM Commons
+ *
+ * Copyright (C) 2013 - 2023 Adobe
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.adobe.acs.commons.httpcache.store.disk.impl;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.StandardOpenOption;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Append-only segment file of the disk cache store.
+ * <p>
+ * Response bodies are appended one after another with positional writes and read back with positional reads, so
+ * serving an entry doesn't read the file into the heap. A segment is never rewritten: entries that are invalidated
+ * or replaced become dead space which is reclaimed when the segment is deleted, either once all its entries are gone
+ * or when it is evicted as the oldest one.
+ * </p>
+ * <p>
+ * Every write and every stream handed out opens a channel of its own, so an interrupted request can't close the
+ * channel others read from. A deleted segment's file is unlinked right away, but its disk space is only freed once
+ * the channels still open on it are closed. Until then the segment is not {@link #isReleased() released}.
+ * </p>
+ */
+final class DiskCacheSegment {
+    private static final Logger log = LoggerFactory.getLogger(DiskCacheSegment.class);
+
+    static final String FILE_PREFIX = "segment-";
+    static final String FILE_SUFFIX = ".dat";
+
+    private final File file;
+    private final int capacity;
+
+    /** Entries stored in this segment */
+    private final Set<DiskCachePersistenceObject> entries = ConcurrentHashMap.newKeySet();
+
+    /** Channels open on the file */
+    private final AtomicInteger openChannels = new AtomicInteger();
+
+    /** Guarded by the store's write lock */
+    private int writePosition;
+    private int pendingWrites;
+    private boolean sealed;
+    private volatile boolean deleted;
+
+    private DiskCacheSegment(File file, int capacity) {
+        this.file = file;
+        this.capacity = capacity;
+    }
+
+    /**
+     * Create a new segment file.
+     *
+     * @param file     the segment file, must not exist yet
+     * @param capacity size of the segment in bytes
+     * @return the segment
+     * @throws IOException if the file can't be created
+     */
+    static DiskCacheSegment create(File file, int capacity) throws IOException {
+        try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.CREATE_NEW,
+                StandardOpenOption.WRITE)) {
+            // Extend the file to its capacity, so entries can be written in any order. It stays sparse until then.
+            channel.write(ByteBuffer.allocate(1), capacity - 1L);
+        }
+        return new DiskCacheSegment(file, capacity);
+    }
+
+    File getFile() {
+        return file;
+    }
+
+    int getCapacity() {
+        return capacity;
+    }
+
+    int remaining() {
+        return capacity - writePosition;
+    }
+
+    /**
+     * Reserve space for an entry at the end of the segment.
+     *
+     * @param length number of bytes to reserve, must not exceed {@link #remaining()}
+     * @return the offset of the reserved region
+     */
+    int reserve(int length) {
+        int offset = writePosition;
+        writePosition += length;
+        pendingWrites++;
+        return offset;
+    }
+
+    /**
+     * Write the body of an entry to a region reserved with {@link #reserve(int)}.
+     */
+    void write(DiskTempSinkImpl sink, int offset, int length) throws IOException {
+        FileChannel channel = openChannel(StandardOpenOption.WRITE);
+        if (null == channel) {
+            throw new NoSuchFileException(file.getPath());
+        }
+        try {
+            sink.writeTo(channel, offset, length);
+        } finally {
+            closeChannel(channel);
+        }
+    }
+
+    /**
+     * Finish a write started with {@link #reserve(int)}.
+     *
+     * @param entry the entry that has been written, null if the write failed
+     */
+    void completeWrite(DiskCachePersistenceObject entry) {
+        pendingWrites--;
+        if (null != entry) {
+            entries.add(entry);
+        }
+    }
+
+    /**
+     * Open a stream over a region of this segment.
+     *
+     * @return the stream, null if the segment has been deleted
+     */
+    InputStream openStream(int offset, int length) {
+        try {
+            FileChannel channel = openChannel(StandardOpenOption.READ);
+            return null == channel ? null : new ChannelInputStream(channel, offset, length);
+        } catch (IOException e) {
+            log.warn("Unable to read cache segment {}", file, e);
+            return null;
+        }
+    }
+
+    Set<DiskCachePersistenceObject> getEntries() {
+        return entries;
+    }
+
+    void remove(DiskCachePersistenceObject entry) {
+        entries.remove(entry);
+    }
+
+    void seal() {
+        sealed = true;
+    }
+
+    /**
+     * @return whether the segment takes no more writes and holds no entries, so it can be deleted
+     */
+    boolean isUnused() {
+        return sealed && pendingWrites == 0 && entries.isEmpty();
+    }
+
+    boolean isDeleted() {
+        return deleted;
+    }
+
+    /**
+     * @return whether the segment is deleted and no channel is open on it anymore, so its disk space is free
+     */
+    boolean isReleased() {
+        return deleted && openChannels.get() == 0;
+    }
+
+    void delete() {
+        deleted = true;
+        entries.clear();
+        try {
+            Files.deleteIfExists(file.toPath());
+        } catch (IOException e) {
+            // Some platforms don't allow removing a file that is still open; it is purged on the next start.
+            log.debug("Unable to delete cache segment {}", file, e);
+        }
+    }
+
+    /**
+     * @return a new channel on the file, null if the segment has been deleted
+     */
+    private FileChannel openChannel(StandardOpenOption option) throws IOException {
+        openChannels.incrementAndGet();
+        boolean opened = false;
+        try {
+            if (deleted) {
+                return null;
+            }
+            FileChannel channel = FileChannel.open(file.toPath(), option);
+            opened = true;
+            return channel;
+        } catch (NoSuchFileException e) {
+            // deleted meanwhile
+            return null;
+        } finally {
+            if (!opened) {
+                openChannels.decrementAndGet();
+            }
+        }
+    }
+
+    private void closeChannel(FileChannel channel) {
+        try {
+            channel.close();
+        } catch (IOException e) {
+            log.debug("Unable to close cache segment {}", file, e);
+        } finally {
+            openChannels.decrementAndGet();
+        }
+    }
+
+    /**
+     * Input stream over a region of the segment, which closes its channel once it is read to the end.
+     */
+    private final class ChannelInputStream extends InputStream {
+        private final FileChannel channel;
+        private final AtomicBoolean closed = new AtomicBoolean();
+        private long position;
+        private int remaining;
+
+        ChannelInputStream(FileChannel channel, int offset, int length) {
+            this.channel = channel;
+            this.position = offset;
+            this.remaining = length;
+        }
+
+        @Override
+        public int read() throws IOException {
+            byte[] b = new byte[1];
+            return read(b, 0, 1) < 0 ? -1 : b[0] & 0xff;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            if (len == 0) {
+                return 0;
+            }
+            if (remaining == 0) {
+                close();
+                return -1;
+            }
+            ByteBuffer target = ByteBuffer.wrap(b, off, Math.min(len, remaining));
+            int count = channel.read(target, position);
+            if (count < 0) {
+                close();
+                throw new IOException("Unexpected end of cache segment " + file);
+            }
+            position += count;
+            remaining -= count;
+            if (remaining == 0) {
+                close();
+            }
+            return count;
+        }
+
+        @Override
+        public long skip(long n) {
+            int count = (int) Math.max(0, Math.min(n, remaining));
+            position += count;
+            remaining -= count;
+            return count;
+        }
+
+        @Override
+        public int available() {
+            return remaining;
+        }
+
+        @Override
+        public void close() {
+            if (closed.compareAndSet(false, true)) {
+                closeChannel(channel);
+            }
+        }
+    }
+}
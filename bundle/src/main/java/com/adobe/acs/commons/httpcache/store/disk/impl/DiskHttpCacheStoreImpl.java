@@ -20,65 +20,272 @@ package com.adobe.acs.commons.httpcache.store.disk.impl;
 import com.adobe.acs.commons.httpcache.config.HttpCacheConfig;
 import com.adobe.acs.commons.httpcache.engine.CacheContent;
 import com.adobe.acs.commons.httpcache.exception.HttpCacheDataStreamException;
+import com.adobe.acs.commons.httpcache.exception.HttpCacheKeyCreationException;
 import com.adobe.acs.commons.httpcache.keys.CacheKey;
 import com.adobe.acs.commons.httpcache.store.HttpCacheStore;
 import com.adobe.acs.commons.httpcache.store.TempSink;
-import org.apache.commons.lang3.NotImplementedException;
+import com.adobe.acs.commons.util.impl.AbstractCacheMBean;
+import com.adobe.acs.commons.util.impl.exception.CacheMBeanException;
+import org.apache.commons.io.FileUtils;
+import org.apache.commons.io.IOUtils;
+import org.apache.commons.lang3.StringUtils;
+import org.apache.felix.scr.annotations.Activate;
 import org.apache.felix.scr.annotations.Component;
+import org.apache.felix.scr.annotations.ConfigurationPolicy;
+import org.apache.felix.scr.annotations.Deactivate;
+import org.apache.felix.scr.annotations.Properties;
 import org.apache.felix.scr.annotations.Property;
 import org.apache.felix.scr.annotations.Service;
+import org.apache.sling.commons.osgi.PropertiesUtil;
+import org.osgi.framework.BundleContext;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.management.NotCompliantMBeanException;
+import javax.management.openmbean.CompositeDataSupport;
+import javax.management.openmbean.CompositeType;
+import javax.management.openmbean.OpenDataException;
+import javax.management.openmbean.OpenType;
+import javax.management.openmbean.SimpleType;
+import javax.management.openmbean.TabularData;
+import javax.management.openmbean.TabularDataSupport;
+import javax.management.openmbean.TabularType;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.Iterator;
+import java.util.List;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
 
 /**
  * ACS AEM Commons - HTTP Cache - Disk based cache store implementation.
+ * <p>
+ * Response bodies are appended to segment files of a fixed size; the cache keys and response metadata are indexed
+ * in memory. Entries are streamed straight from the segment files, so cached content doesn't live on the heap.
+ * When the configured maximum size is reached, the oldest segment is evicted as a whole. Deleted segments count
+ * against the maximum size until the last stream reading from them is closed.
+ * </p>
+ * <p>
+ * The index isn't persisted, the directory is purged when the store is activated.
+ * </p>
  */
+@Component(label = "ACS AEM Commons - HTTP Cache - Disk cache store",
+           description = "Cache data store implementation for storage in files on disk.",
+           metatype = true,
+           policy = ConfigurationPolicy.REQUIRE)
+@Properties({
+        @Property(name = HttpCacheStore.KEY_CACHE_STORE_TYPE,
+                    value = HttpCacheStore.VALUE_DISK_CACHE_STORE_TYPE,
+                    propertyPrivate = true),
+        @Property(name = "jmx.objectname",
+                    value = "com.adobe.acs.commons.httpcache:type=HTTP Cache - Disk Cache Store",
+                    propertyPrivate = true),
+        @Property(name = "webconsole.configurationFactory.nameHint",
+                    value = "TTL: {httpcache.cachestore.diskcache.ttl}, "
+                            + "Max size in MB: {httpcache.cachestore.diskcache.maxsize}",
+                    propertyPrivate = true)
+})
+@Service(HttpCacheStore.class)
+public class DiskHttpCacheStoreImpl extends AbstractCacheMBean<CacheKey, DiskCachePersistenceObject> implements HttpCacheStore, DiskCacheMBean {
+    private static final Logger log = LoggerFactory.getLogger(DiskHttpCacheStoreImpl.class);
 
-// TODO - Placeholder component. To be implemented.
-/*
-@Component
-@Service
-@Property(name = HttpCacheStore.KEY_CACHE_STORE_TYPE,
-          value = HttpCacheStore.VALUE_DISK_CACHE_STORE_TYPE,
-          propertyPrivate = true)
-*/
-public class DiskHttpCacheStoreImpl implements HttpCacheStore {
+    /** Megabyte to byte */
+    private static final long MEGABYTE = 1024L * 1024L;
+
+    /** Responses up to this size are buffered on the heap before they are written to a segment */
+    private static final int TEMP_SINK_THRESHOLD = 256 * 1024;
+
+    /** Temp files older than this are left over from responses that didn't get cached */
+    private static final long STALE_TEMP_FILE_AGE = TimeUnit.HOURS.toMillis(1);
+
+    private static final String TEMP_DIRECTORY = "tmp";
+
+    @Property(label = "Directory",
+              description = "Directory for the cache files. Defaults to the bundle's data area. "
+                      + "The directory is purged on activation.")
+    private static final String PROP_DIRECTORY = "httpcache.cachestore.diskcache.directory";
+    private static final String DEFAULT_DIRECTORY = "httpcache";
+
+    @Property(label = "TTL",
+              description = "TTL for all entries in this cache in seconds. Default to -1 meaning no TTL.",
+              longValue = DiskHttpCacheStoreImpl.DEFAULT_TTL)
+    private static final String PROP_TTL = "httpcache.cachestore.diskcache.ttl";
+    private static final long DEFAULT_TTL = -1L; // Defaults to -1 meaning no TTL.
+    private long ttl;
+
+    @Property(label = "Maximum size of this store in MB",
+              description = "Default to 1024MB. If cache size goes beyond this size, the oldest segment and all "
+                      + "entries in it will be evicted from the cache",
+              longValue = DiskHttpCacheStoreImpl.DEFAULT_MAX_SIZE_IN_MB)
+    private static final String PROP_MAX_SIZE_IN_MB = "httpcache.cachestore.diskcache.maxsize";
+    private static final long DEFAULT_MAX_SIZE_IN_MB = 1024L; // Defaults to 1GB.
+    private long maxSize;
+
+    @Property(label = "Segment size in MB",
+              description = "Default to 64MB. Size of the files cache entries are appended to, and the unit of "
+                      + "eviction. Entries larger than this get a segment of their own.",
+              longValue = DiskHttpCacheStoreImpl.DEFAULT_SEGMENT_SIZE_IN_MB)
+    private static final String PROP_SEGMENT_SIZE_IN_MB = "httpcache.cachestore.diskcache.segmentsize";
+    private static final long DEFAULT_SEGMENT_SIZE_IN_MB = 64L; // Defaults to 64MB.
+    private static final long MAX_SEGMENT_SIZE_IN_MB = 1024L;
+    private int segmentSize;
+
+    private File directory;
+    private File tempDirectory;
+
+    /** In-memory index of the cache entries */
+    private final ConcurrentMap<CacheKey, DiskCachePersistenceObject> index = new ConcurrentHashMap<>();
+
+    /** Segments from oldest to newest, guarded by writeLock */
+    private final Deque<DiskCacheSegment> segments = new ArrayDeque<>();
+    /** Deleted segments that are still being read from, guarded by writeLock */
+    private final List<DiskCacheSegment> retiredSegments = new ArrayList<>();
+    private final Object writeLock = new Object();
+    private DiskCacheSegment activeSegment;
+    private long nextSegmentId;
+    private volatile long diskSize;
+
+    private final LongAdder hitCount = new LongAdder();
+    private final LongAdder missCount = new LongAdder();
+    private final LongAdder evictionCount = new LongAdder();
+
+    public DiskHttpCacheStoreImpl() throws NotCompliantMBeanException {
+        super(DiskCacheMBean.class);
+    }
+
+    @Activate
+    protected void activate(BundleContext bundleContext, Map<String, Object> configs) throws IOException {
+        // Read config and populate values.
+        ttl = PropertiesUtil.toLong(configs.get(PROP_TTL), DEFAULT_TTL);
+        maxSize = PropertiesUtil.toLong(configs.get(PROP_MAX_SIZE_IN_MB), DEFAULT_MAX_SIZE_IN_MB) * MEGABYTE;
+        long segmentSizeInMb = PropertiesUtil.toLong(configs.get(PROP_SEGMENT_SIZE_IN_MB), DEFAULT_SEGMENT_SIZE_IN_MB);
+        segmentSize = (int) Math.min(Math.max(1L, Math.min(segmentSizeInMb, MAX_SEGMENT_SIZE_IN_MB)) * MEGABYTE, maxSize);
+
+        String path = PropertiesUtil.toString(configs.get(PROP_DIRECTORY), null);
+        if (StringUtils.isNotBlank(path)) {
+            directory = new File(path);
+        } else if (null != bundleContext && null != bundleContext.getDataFile(DEFAULT_DIRECTORY)) {
+            directory = bundleContext.getDataFile(DEFAULT_DIRECTORY);
+        } else {
+            directory = new File(System.getProperty("java.io.tmpdir"), "acs-commons-" + DEFAULT_DIRECTORY);
+        }
+        tempDirectory = new File(directory, TEMP_DIRECTORY);
+
+        // Entries can't be recovered from the previous run, start with an empty directory.
+        invalidateAll();
+        Files.createDirectories(tempDirectory.toPath());
+        purgeFiles(directory, DiskCacheSegment.FILE_PREFIX, DiskCacheSegment.FILE_SUFFIX, 0);
+        purgeFiles(tempDirectory, DiskTempSinkImpl.TEMP_FILE_PREFIX, DiskTempSinkImpl.TEMP_FILE_SUFFIX, 0);
+
+        log.info("DiskHttpCacheStoreImpl activated / modified, storing cache files in {}", directory);
+    }
+
+    @Deactivate
+    protected void deactivate() {
+        invalidateAll();
+        purgeFiles(tempDirectory, DiskTempSinkImpl.TEMP_FILE_PREFIX, DiskTempSinkImpl.TEMP_FILE_SUFFIX, 0);
+        log.info("DiskHttpCacheStoreImpl deactivated.");
+    }
+
+    //-------------------------<CacheStore interface specific implementation>
     @Override
     public void put(CacheKey key, CacheContent content) throws HttpCacheDataStreamException {
-        throw new NotImplementedException();
+        final DiskTempSinkImpl sink = getSink(content);
+        try {
+            sink.seal();
+            final long length = sink.length();
+            if (length > maxSize || length > Integer.MAX_VALUE) {
+                log.debug("Response for {} is too large for the disk cache ({} bytes)", key, length);
+                return;
+            }
+            write(key, content, sink, (int) length);
+        } catch (IOException e) {
+            throw new HttpCacheDataStreamException("Unable to write cache entry to disk", e);
+        } finally {
+            sink.delete();
+        }
     }
 
     @Override
     public boolean contains(CacheKey key) {
-        throw new NotImplementedException();
+        return null != getEntry(key);
     }
 
     @Override
     public CacheContent getIfPresent(CacheKey key) {
-        throw new NotImplementedException();
+        DiskCachePersistenceObject value = getEntry(key);
+        if (null == value) {
+            missCount.increment();
+            return null;
+        }
+
+        // Increment hit count
+        InputStream in = value.getInputStream();
+        if (null == in) {
+            // Evicted meanwhile.
+            missCount.increment();
+            return null;
+        }
+        value.incrementHitCount();
+        hitCount.increment();
+
+        return new CacheContent(value.getStatus(), value.getCharEncoding(), value.getContentType(), value.getHeaders(),
+                in, value.getWriteMethod());
     }
 
     @Override
     public long size() {
-        throw new NotImplementedException();
+        return index.size();
     }
 
     @Override
-    public void invalidate(CacheKey key) {
-        throw new NotImplementedException();
+    public void invalidate(CacheKey invalidationKey) {
+        for (CacheKey key : index.keySet()) {
+            if (key.isInvalidatedBy(invalidationKey)) {
+                remove(key);
+            }
+        }
     }
 
     @Override
     public void invalidate(HttpCacheConfig cacheConfig) {
-        throw new NotImplementedException();
+        for (CacheKey key : index.keySet()) {
+            // Match the cache key with cache config.
+            try {
+                if (cacheConfig.knows(key)) {
+                    // If matches, invalidate that particular key.
+                    remove(key);
+                }
+            } catch (HttpCacheKeyCreationException e) {
+                log.error("Could not invalidate HTTP cache. Falling back to full cache invalidation.", e);
+                this.invalidateAll();
+            }
+        }
     }
 
     @Override
     public void invalidateAll() {
-        throw new NotImplementedException();
+        synchronized (writeLock) {
+            index.clear();
+            while (!segments.isEmpty()) {
+                deleteSegment(segments.peekFirst());
+            }
+            activeSegment = null;
+        }
     }
 
     @Override
     public TempSink createTempSink() {
-        throw new NotImplementedException();
+        return new DiskTempSinkImpl(tempDirectory, TEMP_SINK_THRESHOLD);
     }
 
     @Override
@@ -86,5 +293,333 @@ public class DiskHttpCacheStoreImpl implements HttpCacheStore {
         return HttpCacheStore.VALUE_DISK_CACHE_STORE_TYPE;
     }
 
+    /**
+     * Get the live entry for the given key, removing it if it has expired.
+     */
+    private DiskCachePersistenceObject getEntry(CacheKey key) {
+        DiskCachePersistenceObject value = index.get(key);
+        if (null != value && ttl > 0 && System.currentTimeMillis() - value.getCreated() > TimeUnit.SECONDS.toMillis(ttl)) {
+            remove(key, value);
+            return null;
+        }
+        return value;
+    }
+
+    private void remove(CacheKey key) {
+        DiskCachePersistenceObject value = index.remove(key);
+        if (null != value) {
+            release(value);
+        }
+    }
+
+    private void remove(CacheKey key, DiskCachePersistenceObject value) {
+        if (index.remove(key, value)) {
+            release(value);
+        }
+    }
+
+    /**
+     * Detach a removed entry from its segment and delete the segment if nothing else is left in it.
+     */
+    private void release(DiskCachePersistenceObject value) {
+        DiskCacheSegment segment = value.getSegment();
+        segment.remove(value);
+        if (segment.getEntries().isEmpty()) {
+            synchronized (writeLock) {
+                if (!segment.isDeleted() && segment.isUnused()) {
+                    deleteSegment(segment);
+                }
+            }
+        }
+    }
+
+    /**
+     * Use the sink the response was captured with, or spool the content into a new one.
+     */
+    private DiskTempSinkImpl getSink(CacheContent content) throws HttpCacheDataStreamException {
+        if (content.getTempSink() instanceof DiskTempSinkImpl) {
+            return (DiskTempSinkImpl) content.getTempSink();
+        }
+        DiskTempSinkImpl sink = new DiskTempSinkImpl(tempDirectory, TEMP_SINK_THRESHOLD);
+        try (InputStream in = content.getInputDataStream()) {
+            if (null != in) {
+                IOUtils.copy(in, sink.createOutputStream());
+            }
+        } catch (IOException e) {
+            sink.delete();
+            throw new HttpCacheDataStreamException("Unable to spool cache content", e);
+        }
+        return sink;
+    }
+
+    /**
+     * Reserve space in the active segment, copy the body outside of the lock and publish the entry.
+     */
+    private void write(CacheKey key, CacheContent content, DiskTempSinkImpl sink, int length) throws IOException {
+        final DiskCacheSegment segment;
+        final int offset;
+        synchronized (writeLock) {
+            segment = allocate(length);
+            offset = segment.reserve(length);
+        }
+
+        DiskCachePersistenceObject value = null;
+        try {
+            segment.write(sink, offset, length);
+            value = new DiskCachePersistenceObject(key, content.getStatus(), content.getCharEncoding(),
+                    content.getContentType(), content.getHeaders(), content.getWriteMethod(),
+                    segment, offset, length, System.currentTimeMillis());
+        } catch (IOException e) {
+            if (!segment.isDeleted()) {
+                throw e;
+            }
+            log.debug("Segment evicted while the response for {} was written", key);
+        } finally {
+            DiskCachePersistenceObject previous = null;
+            synchronized (writeLock) {
+                if (null != value && segment.isDeleted()) {
+                    // Evicted while the body was copied.
+                    value = null;
+                }
+                segment.completeWrite(value);
+                if (null != value) {
+                    previous = index.put(key, value);
+                } else if (!segment.isDeleted() && segment.isUnused()) {
+                    deleteSegment(segment);
+                }
+            }
+            if (null != previous) {
+                release(previous);
+            }
+        }
+    }
+
+    /**
+     * Get a segment with room for the given number of bytes, rolling over to a new one if necessary.
+     * Must be called holding the write lock.
+     */
+    private DiskCacheSegment allocate(int length) throws IOException {
+        if (null != activeSegment && activeSegment.remaining() >= length) {
+            return activeSegment;
+        }
+        if (null != activeSegment) {
+            activeSegment.seal();
+            if (activeSegment.isUnused()) {
+                deleteSegment(activeSegment);
+            }
+            activeSegment = null;
+        }
+
+        int capacity = Math.max(segmentSize, length);
+        releaseRetiredSegments();
+        while (!segments.isEmpty() && diskSize + capacity > maxSize) {
+            evict(segments.peekFirst());
+        }
+        purgeFiles(tempDirectory, DiskTempSinkImpl.TEMP_FILE_PREFIX, DiskTempSinkImpl.TEMP_FILE_SUFFIX, STALE_TEMP_FILE_AGE);
+
+        File file = new File(directory, String.format("%s%010d%s", DiskCacheSegment.FILE_PREFIX, nextSegmentId++, DiskCacheSegment.FILE_SUFFIX));
+        activeSegment = DiskCacheSegment.create(file, capacity);
+        segments.addLast(activeSegment);
+        diskSize += capacity;
+        return activeSegment;
+    }
+
+    /**
+     * Drop a segment together with all entries still stored in it. Must be called holding the write lock.
+     */
+    private void evict(DiskCacheSegment segment) {
+        for (DiskCachePersistenceObject value : new ArrayList<>(segment.getEntries())) {
+            if (index.remove(value.getKey(), value)) {
+                evictionCount.increment();
+            }
+        }
+        deleteSegment(segment);
+    }
+
+    /**
+     * Must be called holding the write lock.
+     */
+    private void deleteSegment(DiskCacheSegment segment) {
+        segment.seal();
+        segment.delete();
+        if (segments.remove(segment)) {
+            if (segment.isReleased()) {
+                diskSize -= segment.getCapacity();
+            } else {
+                // The file is unlinked, but its space is only freed once the streams reading it are closed.
+                retiredSegments.add(segment);
+            }
+        }
+        if (segment == activeSegment) {
+            activeSegment = null;
+        }
+    }
+
+    /**
+     * Stop counting deleted segments whose space has been freed. Must be called holding the write lock.
+     */
+    private void releaseRetiredSegments() {
+        for (Iterator<DiskCacheSegment> it = retiredSegments.iterator(); it.hasNext(); ) {
+            DiskCacheSegment segment = it.next();
+            if (segment.isReleased()) {
+                diskSize -= segment.getCapacity();
+                it.remove();
+            }
+        }
+    }
+
+    /**
+     * Delete the files in the given directory with the given prefix and suffix.
+     *
+     * @param minAge only delete files that have not been modified for this many milliseconds
+     */
+    private static void purgeFiles(File dir, String prefix, String suffix, long minAge) {
+        File[] files = null == dir ? null : dir.listFiles((d, name) -> name.startsWith(prefix) && name.endsWith(suffix));
+        if (null == files) {
+            return;
+        }
+        long threshold = System.currentTimeMillis() - minAge;
+        for (File file : files) {
+            if (minAge <= 0 || file.lastModified() < threshold) {
+                try {
+                    Files.deleteIfExists(file.toPath());
+                } catch (IOException e) {
+                    log.warn("Unable to delete disk cache file {}", file, e);
+                }
+            }
+        }
+    }
+
+    //-------------------------<Mbean specific implementation>
+
+    @Override
+    public long getTtl() {
+        return this.ttl;
+    }
+
+    @Override
+    public String getDirectory() {
+        return null == directory ? null : directory.getAbsolutePath();
+    }
+
+    @Override
+    public void clearCache() {
+        invalidateAll();
+    }
+
+    @Override
+    protected Map<CacheKey, DiskCachePersistenceObject> getCacheAsMap() {
+        return index;
+    }
+
+    @Override
+    protected long getBytesLength(DiskCachePersistenceObject cacheObj) {
+        return cacheObj.getLength();
+    }
+
+    @Override
+    @SuppressWarnings("squid:S1192")
+    protected void addCacheData(Map<String, Object> data, DiskCachePersistenceObject cacheObj) {
+        int hitCount = cacheObj.getHitCount();
+        long size = cacheObj.getLength();
+        data.put(JMX_PN_STATUS, cacheObj.getStatus());
+        data.put(JMX_PN_SIZE, FileUtils.byteCountToDisplaySize(size));
+        data.put(JMX_PN_CONTENTTYPE, cacheObj.getContentType());
+        data.put(JMX_PN_CHARENCODING, cacheObj.getCharEncoding());
+        data.put(JMX_PN_HITS, hitCount);
+        data.put(JMX_PN_TOTALSIZESERVED, FileUtils.byteCountToDisplaySize(hitCount * size));
+    }
+
+    @Override
+    protected String toString(DiskCachePersistenceObject cacheObj) throws CacheMBeanException {
+        try (InputStream in = cacheObj.getInputStream()) {
+            if (null == in) {
+                throw new CacheMBeanException("The cache entry has been evicted");
+            }
+            return IOUtils.toString(in, cacheObj.getCharEncoding());
+        } catch (IOException e) {
+            throw new CacheMBeanException("Error getting the content from the cacheObject", e);
+        }
+    }
 
+    @Override
+    @SuppressWarnings("squid:S1192")
+    protected CompositeType getCacheEntryType() throws OpenDataException {
+        return new CompositeType(JMX_PN_CACHEENTRY, JMX_PN_CACHEENTRY,
+                new String[] { JMX_PN_CACHEKEY, JMX_PN_STATUS, JMX_PN_SIZE, JMX_PN_CONTENTTYPE, JMX_PN_CHARENCODING, JMX_PN_HITS, JMX_PN_TOTALSIZESERVED },
+                new String[] { JMX_PN_CACHEKEY, JMX_PN_STATUS, JMX_PN_SIZE, JMX_PN_CONTENTTYPE, JMX_PN_CHARENCODING, JMX_PN_HITS, JMX_PN_TOTALSIZESERVED },
+                new OpenType[] { SimpleType.STRING, SimpleType.INTEGER, SimpleType.STRING, SimpleType.STRING, SimpleType.STRING, SimpleType.INTEGER, SimpleType.STRING });
+    }
+
+    @Override
+    @SuppressWarnings("squid:S1192")
+    public TabularData getCacheStats() throws OpenDataException {
+        final CompositeType cacheEntryType = new CompositeType(JMX_PN_CACHESTATS, JMX_PN_CACHESTATS,
+                new String[] { JMX_PN_STAT, JMX_PN_VALUE }, new String[] { JMX_PN_STAT, JMX_PN_VALUE },
+                new OpenType[] { SimpleType.STRING, SimpleType.STRING });
+
+        final TabularDataSupport tabularData = new TabularDataSupport(
+                new TabularType(JMX_PN_CACHESTATS, JMX_PN_CACHESTATS, cacheEntryType, new String[] { JMX_PN_STAT }));
+
+        long hits = hitCount.sum();
+        long requests = hits + missCount.sum();
+        int segmentCount;
+        synchronized (writeLock) {
+            releaseRetiredSegments();
+            segmentCount = segments.size();
+        }
+
+        final Map<String, Object> row = new HashMap<>();
+
+        row.put(JMX_PN_STAT, "Request Count");
+        row.put(JMX_PN_VALUE, String.valueOf(requests));
+        tabularData.put(new CompositeDataSupport(cacheEntryType, row));
+
+        row.put(JMX_PN_STAT, "Hit Count");
+        row.put(JMX_PN_VALUE, String.valueOf(hits));
+        tabularData.put(new CompositeDataSupport(cacheEntryType, row));
+
+        row.put(JMX_PN_STAT, "Hit Rate");
+        row.put(JMX_PN_VALUE, String.format("%.0f%%", requests == 0 ? 100d : hits * 100d / requests));
+        tabularData.put(new CompositeDataSupport(cacheEntryType, row));
+
+        row.put(JMX_PN_STAT, "Miss Count");
+        row.put(JMX_PN_VALUE, String.valueOf(requests - hits));
+        tabularData.put(new CompositeDataSupport(cacheEntryType, row));
+
+        row.put(JMX_PN_STAT, "Eviction Count");
+        row.put(JMX_PN_VALUE, String.valueOf(evictionCount.sum()));
+        tabularData.put(new CompositeDataSupport(cacheEntryType, row));
+
+        row.put(JMX_PN_STAT, "Segment Count");
+        row.put(JMX_PN_VALUE, String.valueOf(segmentCount));
+        tabularData.put(new CompositeDataSupport(cacheEntryType, row));
+
+        row.put(JMX_PN_STAT, "Disk Usage");
+        row.put(JMX_PN_VALUE, FileUtils.byteCountToDisplaySize(diskSize));
+        tabularData.put(new CompositeDataSupport(cacheEntryType, row));
+
+        row.put(JMX_PN_STAT, "Maximum Size");
+        row.put(JMX_PN_VALUE, FileUtils.byteCountToDisplaySize(maxSize));
+        tabularData.put(new CompositeDataSupport(cacheEntryType, row));
+
+        return tabularData;
+    }
+
+    int getSegmentCount() {
+        synchronized (writeLock) {
+            return segments.size();
+        }
+    }
+
+    long getDiskSize() {
+        synchronized (writeLock) {
+            releaseRetiredSegments();
+            return diskSize;
+        }
+    }
+
+    long getEvictionCount() {
+        return evictionCount.sum();
+    }
 }
@@ -0,0 +1,274 @@
+/*
+ * ACS AEM Commons
+ *
+ * Copyright (C) 2013 - 2023 Adobe
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.adobe.acs.commons.httpcache.store.disk.impl;
+
+import com.adobe.acs.commons.httpcache.exception.HttpCacheDataStreamException;
+import com.adobe.acs.commons.httpcache.store.TempSink;
+import org.apache.commons.io.IOUtils;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * TempSink implementation for the disk cache store.
+ * <p>
+ * The response is kept in memory up to a threshold and spilled to a temp file beyond that, so large responses
+ * don't end up on the heap. Writing ends when the input stream is created.
+ * </p>
+ */
+public class DiskTempSinkImpl implements TempSink {
+    private static final Logger log = LoggerFactory.getLogger(DiskTempSinkImpl.class);
+
+    static final String TEMP_FILE_PREFIX = "sink-";
+    static final String TEMP_FILE_SUFFIX = ".tmp";
+
+    private final File tempDirectory;
+    private final int threshold;
+
+    private ByteArrayOutputStream memory;
+    private File file;
+    private OutputStream outputStream;
+    private long length = -1;
+
+    /**
+     * @param tempDirectory directory the temp file is created in once the threshold is exceeded
+     * @param threshold     number of bytes kept in memory
+     */
+    public DiskTempSinkImpl(File tempDirectory, int threshold) {
+        this.tempDirectory = tempDirectory;
+        this.threshold = threshold;
+    }
+
+    @Override
+    public synchronized OutputStream createOutputStream() {
+        if (null == outputStream) {
+            memory = new ByteArrayOutputStream();
+            outputStream = new ThresholdOutputStream();
+        }
+        return outputStream;
+    }
+
+    @Override
+    public synchronized InputStream createInputStream() throws HttpCacheDataStreamException {
+        seal();
+        if (null != file) {
+            if (!file.canRead()) {
+                throw new HttpCacheDataStreamException("Unable to read temp file " + file);
+            }
+            return new LazyFileInputStream(file);
+        } else if (null != memory) {
+            return new ByteArrayInputStream(memory.toByteArray());
+        } else {
+            return new ByteArrayInputStream(new byte[0]);
+        }
+    }
+
+    @Override
+    public synchronized long length() {
+        return length;
+    }
+
+    /**
+     * Copy the content of this sink into a region of the given channel.
+     *
+     * @param target   channel to write to
+     * @param position position in the channel to write at
+     * @param length   number of bytes to copy
+     * @throws IOException if the sink holds less data than the given length
+     */
+    synchronized void writeTo(FileChannel target, long position, int length) throws IOException {
+        seal();
+        long written = 0;
+        if (null != file) {
+            try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+                while (written < length) {
+                    long count = target.transferFrom(channel, position + written, length - written);
+                    if (count <= 0) {
+                        throw new EOFException("Unexpected end of temp file " + file);
+                    }
+                    written += count;
+                }
+            }
+        } else if (null != memory) {
+            ByteBuffer source = ByteBuffer.wrap(memory.toByteArray(), 0, length);
+            while (source.hasRemaining()) {
+                target.write(source, position + source.position());
+            }
+        } else if (length > 0) {
+            throw new EOFException("Temp sink is empty");
+        }
+    }
+
+    /**
+     * Remove the temp file, if any.
+     */
+    synchronized void delete() {
+        seal();
+        memory = null;
+        if (null != file) {
+            try {
+                Files.deleteIfExists(file.toPath());
+            } catch (IOException e) {
+                log.debug("Unable to delete temp file {}", file, e);
+            }
+            file = null;
+        }
+    }
+
+    /**
+     * Stop accepting writes and fix the length of the sink.
+     */
+    synchronized void seal() {
+        if (length >= 0) {
+            return;
+        }
+        IOUtils.closeQuietly(outputStream);
+        if (null != file) {
+            length = file.length();
+        } else if (null != memory) {
+            length = memory.size();
+        } else {
+            length = 0;
+        }
+    }
+
+    /**
+     * Writes into memory and switches over to a temp file once the threshold is exceeded.
+     */
+    private class ThresholdOutputStream extends OutputStream {
+        private OutputStream target;
+        private long count;
+        private boolean closed;
+
+        @Override
+        public void write(int b) throws IOException {
+            reserve(1).write(b);
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+            reserve(len).write(b, off, len);
+        }
+
+        @Override
+        public void flush() throws IOException {
+            if (null != target) {
+                target.flush();
+            }
+        }
+
+        @Override
+        public void close() throws IOException {
+            closed = true;
+            if (null != target) {
+                target.close();
+            }
+        }
+
+        private OutputStream reserve(int len) throws IOException {
+            if (closed) {
+                throw new IOException("Temp sink has been sealed");
+            }
+            count += len;
+            if (null == target) {
+                if (count <= threshold) {
+                    return memory;
+                }
+                // Spill what has been buffered so far into a temp file.
+                Files.createDirectories(tempDirectory.toPath());
+                file = File.createTempFile(TEMP_FILE_PREFIX, TEMP_FILE_SUFFIX, tempDirectory);
+                target = new FileOutputStream(file);
+                memory.writeTo(target);
+                memory = null;
+            }
+            return target;
+        }
+    }
+
+    /**
+     * Opens the file on first read and closes it at the end of the stream, so an input stream that is never
+     * consumed doesn't hold a file descriptor.
+     */
+    private static class LazyFileInputStream extends InputStream {
+        private final File file;
+        private InputStream in;
+        private boolean closed;
+
+        LazyFileInputStream(File file) {
+            this.file = file;
+        }
+
+        @Override
+        public int read() throws IOException {
+            return closeAtEof(open().read());
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            return closeAtEof(open().read(b, off, len));
+        }
+
+        @Override
+        public long skip(long n) throws IOException {
+            return open().skip(n);
+        }
+
+        @Override
+        public int available() throws IOException {
+            return null == in ? 0 : in.available();
+        }
+
+        @Override
+        public void close() throws IOException {
+            closed = true;
+            if (null != in) {
+                in.close();
+            }
+        }
+
+        private InputStream open() throws IOException {
+            if (closed) {
+                return new ByteArrayInputStream(new byte[0]);
+            }
+            if (null == in) {
+                in = new FileInputStream(file);
+            }
+            return in;
+        }
+
+        private int closeAtEof(int result) throws IOException {
+            if (result < 0) {
+                close();
+            }
+            return result;
+        }
+    }
+}
@@ -30,6 +30,8 @@ public class JCRHttpCacheStoreConstants
     public static final String PN_ISBUCKETNODE = "isBucketNode";
 
     public static final String PN_EXPIRES_ON = "expiresOn";
+    public static final String PN_STALE_ON = "staleOn";
+    public static final String PN_STALE_WHILE_REVALIDATE = "staleWhileRevalidate";
     public static final String PN_STATUS = "status";
     public static final String PN_CHAR_ENCODING = "char-encoding";
     public static final String PN_CONTENT_TYPE = "content-type";
@@ -63,6 +63,7 @@ import com.adobe.acs.commons.httpcache.store.TempSink;
 import com.adobe.acs.commons.httpcache.store.jcr.impl.exceptions.BucketNodeFactoryException;
 import com.adobe.acs.commons.httpcache.store.jcr.impl.handler.BucketNodeHandler;
 import com.adobe.acs.commons.httpcache.store.jcr.impl.handler.EntryNodeToCacheContentHandler;
+import com.adobe.acs.commons.httpcache.store.jcr.impl.handler.StaleEntryNodeHandler;
 import com.adobe.acs.commons.httpcache.store.jcr.impl.visitor.AllEntryNodesCountVisitor;
 import com.adobe.acs.commons.httpcache.store.jcr.impl.visitor.EntryNodeByStringKeyVisitor;
 import com.adobe.acs.commons.httpcache.store.jcr.impl.visitor.EntryNodeMapVisitor;
@@ -198,6 +199,12 @@ public class JCRHttpCacheStoreImpl extends AbstractJCRCacheMBean<CacheKey, Cache
 
     @Override
     public void put(final CacheKey key, final CacheContent content) throws HttpCacheDataStreamException {
+        put(key, content, null);
+    }
+
+    @Override
+    public void put(final CacheKey key, final CacheContent content, final HttpCacheConfig cacheConfig) throws HttpCacheDataStreamException {
+        final long staleWhileRevalidate = (cacheConfig != null) ? cacheConfig.getStaleWhileRevalidate() : -1L;
         final long currentTime = clock.instant().toEpochMilli();
         incrementLoadCount();
 
@@ -210,7 +217,7 @@ public class JCRHttpCacheStoreImpl extends AbstractJCRCacheMBean<CacheKey, Cache
 
             long expiryTime = (key.getExpiryForCreation() > 0) ? key.getExpiryForCreation() : expireTimeInMilliSeconds;
 
-            createEntryNodeWriter(session, entryNode, key, content, expiryTime).write();
+            createEntryNodeWriter(session, entryNode, key, content, expiryTime, staleWhileRevalidate).write();
 
             session.save();
 
@@ -234,8 +241,8 @@ public class JCRHttpCacheStoreImpl extends AbstractJCRCacheMBean<CacheKey, Cache
 
     /* This is broken out into its own method to allow for easier unit testing */
     protected EntryNodeWriter createEntryNodeWriter(final Session session, final Node entryNode, final CacheKey key,
-            final CacheContent content, long expiryTime) {
-        return new EntryNodeWriter(session, entryNode, key, content, expiryTime,clock);
+            final CacheContent content, long expiryTime, long staleWhileRevalidate) {
+        return new EntryNodeWriter(session, entryNode, key, content, expiryTime, staleWhileRevalidate, clock);
     }
 
     @Override
@@ -279,6 +286,7 @@ public class JCRHttpCacheStoreImpl extends AbstractJCRCacheMBean<CacheKey, Cache
 
                     final CacheContent content = new EntryNodeToCacheContentHandler(entryNode).get();
                     if (content != null) {
+                        content.setStale(new StaleEntryNodeHandler(entryNode, clock).isStale());
                         incrementTotalLookupTime(clock.instant().toEpochMilli() - currentTime);
                         incrementHitCount();
                         return content;
@@ -312,9 +320,14 @@ public class JCRHttpCacheStoreImpl extends AbstractJCRCacheMBean<CacheKey, Cache
             if (bucketNode != null) {
                 final Node entryNode = createBucketNodeHandler(bucketNode).getEntryIfExists(key,true);
                 if (entryNode != null) {
-                    entryNode.remove();
-                    session.save();
-                    incrementEvictionCount(1);
+                    // Entries with a grace period are kept as stale until they expire.
+                    if (new StaleEntryNodeHandler(entryNode, clock).markStale()) {
+                        session.save();
+                    } else {
+                        entryNode.remove();
+                        session.save();
+                        incrementEvictionCount(1);
+                    }
                 }
             }
         });
@@ -323,7 +336,7 @@ public class JCRHttpCacheStoreImpl extends AbstractJCRCacheMBean<CacheKey, Cache
     @Override
     public void invalidate(final HttpCacheConfig cacheConfig) {
         withSession((Session session) -> {
-            final InvalidateByCacheConfigVisitor visitor = new InvalidateByCacheConfigVisitor(11, deltaSaveThreshold, cacheConfig, dclm);
+            final InvalidateByCacheConfigVisitor visitor = new InvalidateByCacheConfigVisitor(11, deltaSaveThreshold, cacheConfig, dclm, clock);
             final Node rootNode = session.getNode(cacheRootPath);
             visitor.visit(rootNode);
             visitor.close();
@@ -54,6 +54,9 @@ public class BucketNodeHandler
         if(null != existingEntryNode) {
             if(key.getExpiryForUpdate() > 0){
                 existingEntryNode.setProperty(PN_EXPIRES_ON, System.currentTimeMillis() + key.getExpiryForUpdate());
+            } else {
+                // the rewritten entry expires like a new one, not at the end of the grace period a stale mark set
+                existingEntryNode.setProperty(PN_EXPIRES_ON, clock.instant().toEpochMilli() + engineDefaultExpiryInMs);
             }
 
             return existingEntryNode;
@@ -0,0 +1,70 @@
+/*
+ * ACS AEM Commons
+ *
+ * Copyright (C) 2013 - 2023 Adobe
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.adobe.acs.commons.httpcache.store.jcr.impl.handler;
+
+import static com.adobe.acs.commons.httpcache.store.jcr.impl.JCRHttpCacheStoreConstants.PN_EXPIRES_ON;
+import static com.adobe.acs.commons.httpcache.store.jcr.impl.JCRHttpCacheStoreConstants.PN_STALE_ON;
+import static com.adobe.acs.commons.httpcache.store.jcr.impl.JCRHttpCacheStoreConstants.PN_STALE_WHILE_REVALIDATE;
+
+import java.time.Clock;
+
+import javax.jcr.Node;
+import javax.jcr.RepositoryException;
+
+/**
+ * Reads and updates the stale state of a cache entry node.
+ * An entry with a grace period turns stale at its stale time and is still delivered until it expires.
+ */
+public class StaleEntryNodeHandler
+{
+    private final Node entryNode;
+    private final Clock clock;
+
+    public StaleEntryNodeHandler(Node entryNode, Clock clock){
+        this.entryNode = entryNode;
+        this.clock = clock;
+    }
+
+    public boolean isStale() throws RepositoryException
+    {
+        return entryNode.hasProperty(PN_STALE_ON)
+                && entryNode.getProperty(PN_STALE_ON).getLong() <= clock.instant().toEpochMilli();
+    }
+
+    /**
+     * Mark the entry as stale, keeping it for its grace period.
+     * @return false if the entry has no grace period and has to be removed
+     * @throws RepositoryException
+     */
+    public boolean markStale() throws RepositoryException
+    {
+        if(!entryNode.hasProperty(PN_STALE_WHILE_REVALIDATE)) {
+            return false;
+        }
+        final long now = clock.instant().toEpochMilli();
+        final long expiresOn = now + entryNode.getProperty(PN_STALE_WHILE_REVALIDATE).getLong();
+
+        if(!isStale()) {
+            entryNode.setProperty(PN_STALE_ON, now);
+        }
+        if(!entryNode.hasProperty(PN_EXPIRES_ON) || entryNode.getProperty(PN_EXPIRES_ON).getLong() > expiresOn) {
+            entryNode.setProperty(PN_EXPIRES_ON, expiresOn);
+        }
+        return true;
+    }
+}
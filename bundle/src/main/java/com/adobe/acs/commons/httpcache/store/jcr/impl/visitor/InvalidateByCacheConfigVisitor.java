@@ -27,8 +27,10 @@ import org.slf4j.LoggerFactory;
 import com.adobe.acs.commons.httpcache.config.HttpCacheConfig;
 import com.adobe.acs.commons.httpcache.keys.CacheKey;
 import com.adobe.acs.commons.httpcache.store.jcr.impl.handler.EntryNodeToCacheKeyHandler;
+import com.adobe.acs.commons.httpcache.store.jcr.impl.handler.StaleEntryNodeHandler;
 
 import java.io.IOException;
+import java.time.Clock;
 
 public class InvalidateByCacheConfigVisitor extends AbstractNodeVisitor
 {
@@ -36,6 +38,7 @@ public class InvalidateByCacheConfigVisitor extends AbstractNodeVisitor
 
     private final HttpCacheConfig cacheConfig;
     private final DynamicClassLoaderManager dclm;
+    private final Clock clock;
 
 
 
@@ -44,10 +47,21 @@ public class InvalidateByCacheConfigVisitor extends AbstractNodeVisitor
             long deltaSaveThreshold,
             final HttpCacheConfig cacheConfig,
             final DynamicClassLoaderManager dclm
+    ){
+        this(maxLevel, deltaSaveThreshold, cacheConfig, dclm, Clock.systemUTC());
+    }
+
+    public InvalidateByCacheConfigVisitor(
+            int maxLevel,
+            long deltaSaveThreshold,
+            final HttpCacheConfig cacheConfig,
+            final DynamicClassLoaderManager dclm,
+            final Clock clock
     ){
         super(maxLevel, deltaSaveThreshold);
         this.cacheConfig = cacheConfig;
         this.dclm = dclm;
+        this.clock = clock;
     }
 
     protected void leaving(final Node node, int level) throws RepositoryException
@@ -57,7 +71,10 @@ public class InvalidateByCacheConfigVisitor extends AbstractNodeVisitor
             try {
                 final CacheKey key = getCacheKey(node);
                 if(cacheConfig.knows(key)) {
-                    node.remove();
+                    // Entries with a grace period are kept as stale until they expire.
+                    if(!new StaleEntryNodeHandler(node, clock).markStale()) {
+                        node.remove();
+                    }
                     persistSession();
                 }
             } catch (Exception e) {
@@ -48,14 +48,20 @@ public class EntryNodeWriter
     private final CacheKey cacheKey;
     private final CacheContent cacheContent;
     private final long expireTimeInMilliSeconds;
+    private final long staleWhileRevalidate;
     private final Clock clock;
 
     public EntryNodeWriter(Session session, Node entryNode, CacheKey cacheKey, CacheContent cacheContent, long expireTimeInMilliSeconds, Clock clock){
+        this(session, entryNode, cacheKey, cacheContent, expireTimeInMilliSeconds, -1L, clock);
+    }
+
+    public EntryNodeWriter(Session session, Node entryNode, CacheKey cacheKey, CacheContent cacheContent, long expireTimeInMilliSeconds, long staleWhileRevalidate, Clock clock){
         this.session = session;
         this.entryNode = entryNode;
         this.cacheKey = cacheKey;
         this.cacheContent = cacheContent;
         this.expireTimeInMilliSeconds = expireTimeInMilliSeconds;
+        this.staleWhileRevalidate = staleWhileRevalidate;
         this.clock = clock;
     }
 
@@ -75,6 +81,7 @@ public class EntryNodeWriter
         if(expireTimeInMilliSeconds > 0) {
             setExpireTime();
         }
+        populateStaleWhileRevalidate();
 
         if(!entryNode.hasProperty(JCRHttpCacheStoreConstants.PN_CACHEKEY)) {
             populateCacheKey();
@@ -86,6 +93,31 @@ public class EntryNodeWriter
         entryNode.setProperty(JCRHttpCacheStoreConstants.PN_EXPIRES_ON,  expireTimeInMilliSeconds + clock.instant().toEpochMilli() );
     }
 
+    /**
+     * Keep the entry for the grace period once it turns stale. A rewritten entry is fresh again.
+     * @throws RepositoryException
+     */
+    private void populateStaleWhileRevalidate() throws RepositoryException
+    {
+        if(staleWhileRevalidate > 0) {
+            entryNode.setProperty(JCRHttpCacheStoreConstants.PN_STALE_WHILE_REVALIDATE, staleWhileRevalidate);
+            if(expireTimeInMilliSeconds > 0) {
+                final long staleOn = expireTimeInMilliSeconds + clock.instant().toEpochMilli();
+                entryNode.setProperty(JCRHttpCacheStoreConstants.PN_STALE_ON, staleOn);
+                entryNode.setProperty(JCRHttpCacheStoreConstants.PN_EXPIRES_ON, staleOn + staleWhileRevalidate);
+            } else if(entryNode.hasProperty(JCRHttpCacheStoreConstants.PN_STALE_ON)) {
+                entryNode.getProperty(JCRHttpCacheStoreConstants.PN_STALE_ON).remove();
+            }
+        } else {
+            if(entryNode.hasProperty(JCRHttpCacheStoreConstants.PN_STALE_WHILE_REVALIDATE)) {
+                entryNode.getProperty(JCRHttpCacheStoreConstants.PN_STALE_WHILE_REVALIDATE).remove();
+            }
+            if(entryNode.hasProperty(JCRHttpCacheStoreConstants.PN_STALE_ON)) {
+                entryNode.getProperty(JCRHttpCacheStoreConstants.PN_STALE_ON).remove();
+            }
+        }
+    }
+
     private void populateMetaData() throws RepositoryException
     {
         entryNode.setProperty(JCRHttpCacheStoreConstants.PN_STATUS, cacheContent.getStatus());
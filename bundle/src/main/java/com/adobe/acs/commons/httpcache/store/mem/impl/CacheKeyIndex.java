@@ -0,0 +1,215 @@
+/*
+ * ACS AEM Commons
+ *
+ * Copyright (C) 2013 - 2023 Adobe
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.adobe.acs.commons.httpcache.store.mem.impl;
+
+import com.adobe.acs.commons.httpcache.config.HttpCacheConfig;
+import com.adobe.acs.commons.httpcache.keys.AbstractCacheKey;
+import com.adobe.acs.commons.httpcache.keys.CacheKey;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * Secondary index over the keys of an in-memory cache store, so invalidations only visit the affected keys.
+ * <p>
+ * Keys are indexed by their hierarchy resource path and by the cache config they were cached with. Keys which
+ * don't use the default {@link AbstractCacheKey#isInvalidatedBy(CacheKey)} implementation, i.e. whose
+ * invalidation can't be derived from the path, are candidates for every invalidation.
+ * </p>
+ * <p>
+ * The store adds a key while it puts the value into the cache and removes it from its removal listener. A key
+ * is only removed when the removed value is the one it was indexed with, so a late notification for a replaced
+ * or evicted value doesn't drop the key of a newer value. Stale keys at worst cause a no-op invalidation.
+ * </p>
+ *
+ * @param <V> type of the cached values
+ */
+public final class CacheKeyIndex<V> {
+
+    /**
+     * Whether a key class inherits the path based invalidation of {@link AbstractCacheKey}.
+     */
+    private static final ClassValue<Boolean> PATH_INVALIDATION = new ClassValue<Boolean>() {
+        @Override
+        protected Boolean computeValue(Class<?> type) {
+            try {
+                return type.getMethod("isInvalidatedBy", CacheKey.class).getDeclaringClass() == AbstractCacheKey.class
+                        && type.getMethod("getHierarchyResourcePath").getDeclaringClass() == AbstractCacheKey.class;
+            } catch (NoSuchMethodException e) {
+                return false;
+            }
+        }
+    };
+
+    private final ConcurrentMap<CacheKey, Registration<V>> registrations = new ConcurrentHashMap<>();
+
+    private final ConcurrentMap<String, Set<CacheKey>> keysByPath = new ConcurrentHashMap<>();
+    private final Set<CacheKey> keysWithoutPath = ConcurrentHashMap.newKeySet();
+
+    private final ConcurrentMap<HttpCacheConfig, Set<CacheKey>> keysByConfig = new ConcurrentHashMap<>();
+    private final Set<CacheKey> keysWithoutConfig = ConcurrentHashMap.newKeySet();
+
+    /**
+     * Index a key. Must be called atomically with putting the value into the cache.
+     *
+     * @param key         the cache key
+     * @param cacheConfig the config the value is cached for, null if unknown
+     * @param value       the cached value
+     */
+    public void add(CacheKey key, HttpCacheConfig cacheConfig, V value) {
+        registrations.compute(key, (k, previous) -> {
+            if (null != previous) {
+                unlink(k, previous);
+            }
+            Registration<V> registration = new Registration<>(value, getPath(k), cacheConfig);
+            link(k, registration);
+            return registration;
+        });
+    }
+
+    /**
+     * Remove a key if it is still indexed with the given value.
+     *
+     * @param key   the cache key
+     * @param value the value removed from the cache
+     */
+    public void remove(CacheKey key, V value) {
+        registrations.computeIfPresent(key, (k, registration) -> {
+            if (registration.value != value) {
+                return registration;
+            }
+            unlink(k, registration);
+            return null;
+        });
+    }
+
+    /**
+     * Get the keys that can be invalidated by the given key.
+     *
+     * @param invalidationKey the key to invalidate with
+     * @return keys to check with {@link CacheKey#isInvalidatedBy(CacheKey)}
+     */
+    public Collection<CacheKey> getInvalidationCandidates(CacheKey invalidationKey) {
+        List<CacheKey> candidates = new ArrayList<>(keysWithoutPath);
+        String path = invalidationKey.getHierarchyResourcePath();
+        if (null != path) {
+            Set<CacheKey> keys = keysByPath.get(path);
+            if (null != keys) {
+                candidates.addAll(keys);
+            }
+        }
+        return candidates;
+    }
+
+    /**
+     * @param cacheConfig the cache config
+     * @return the keys cached for the given config
+     */
+    public Collection<CacheKey> getKeys(HttpCacheConfig cacheConfig) {
+        Set<CacheKey> keys = keysByConfig.get(cacheConfig);
+        return null == keys ? new ArrayList<>() : new ArrayList<>(keys);
+    }
+
+    /**
+     * Get the keys cached without the given config instance. They may still belong to it, e.g. if they were cached
+     * with an equivalent instance before the config was registered again.
+     *
+     * @param cacheConfig the cache config
+     * @return keys to check with {@link HttpCacheConfig#knows(CacheKey)}
+     */
+    public Collection<CacheKey> getKeysNotCachedFor(HttpCacheConfig cacheConfig) {
+        List<CacheKey> keys = new ArrayList<>(keysWithoutConfig);
+        keysByConfig.forEach((config, configKeys) -> {
+            if (config != cacheConfig) {
+                keys.addAll(configKeys);
+            }
+        });
+        return keys;
+    }
+
+    /**
+     * @return the number of indexed keys
+     */
+    public int size() {
+        return registrations.size();
+    }
+
+    private void link(CacheKey key, Registration<V> registration) {
+        if (null != registration.path) {
+            keysByPath.compute(registration.path, (p, keys) -> add(keys, key));
+        } else {
+            keysWithoutPath.add(key);
+        }
+        if (null != registration.cacheConfig) {
+            keysByConfig.compute(registration.cacheConfig, (c, keys) -> add(keys, key));
+        } else {
+            keysWithoutConfig.add(key);
+        }
+    }
+
+    private void unlink(CacheKey key, Registration<V> registration) {
+        if (null != registration.path) {
+            keysByPath.computeIfPresent(registration.path, (p, keys) -> remove(keys, key));
+        } else {
+            keysWithoutPath.remove(key);
+        }
+        if (null != registration.cacheConfig) {
+            keysByConfig.computeIfPresent(registration.cacheConfig, (c, keys) -> remove(keys, key));
+        } else {
+            keysWithoutConfig.remove(key);
+        }
+    }
+
+    private static Set<CacheKey> add(Set<CacheKey> keys, CacheKey key) {
+        Set<CacheKey> result = null == keys ? ConcurrentHashMap.newKeySet() : keys;
+        result.add(key);
+        return result;
+    }
+
+    private static Set<CacheKey> remove(Set<CacheKey> keys, CacheKey key) {
+        keys.remove(key);
+        return keys.isEmpty() ? null : keys;
+    }
+
+    /**
+     * @return the path the key is invalidated by, null if it can't be derived from the key
+     */
+    private static String getPath(CacheKey key) {
+        if (key instanceof AbstractCacheKey && PATH_INVALIDATION.get(key.getClass())) {
+            return key.getHierarchyResourcePath();
+        }
+        return null;
+    }
+
+    private static final class Registration<V> {
+        private final V value;
+        private final String path;
+        private final HttpCacheConfig cacheConfig;
+
+        private Registration(V value, String path, HttpCacheConfig cacheConfig) {
+            this.value = value;
+            this.path = path;
+            this.cacheConfig = cacheConfig;
+        }
+    }
+
+}
@@ -17,11 +17,9 @@
  */
 package com.adobe.acs.commons.httpcache.store.mem.impl;
 
+import com.adobe.acs.commons.httpcache.engine.CacheContent;
 import com.adobe.acs.commons.httpcache.engine.HttpCacheServletResponseWrapper;
 import com.adobe.acs.commons.httpcache.exception.HttpCacheDataStreamException;
-import com.google.common.collect.HashMultimap;
-import com.google.common.collect.Multimap;
-import com.google.common.collect.Multimaps;
 import org.apache.commons.io.IOUtils;
 
 import java.io.IOException;
@@ -29,7 +27,7 @@ import java.io.InputStream;
 import java.io.Serializable;
 import java.util.ArrayList;
 import java.util.Arrays;
-import java.util.Collection;
+import java.util.Collections;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
@@ -46,14 +44,21 @@ public class MemCachePersistenceObject implements Serializable {
     private String charEncoding;
     /** Response content type */
     private String contentType;
-    /** Response headers */
-    transient Multimap<String, String> headers;
+    /** Response headers, copied once and shared with every delivery */
+    transient Map<String, List<String>> headers;
     /** Byte array to hold the data from the stream */
     private byte[] bytes;
     private HttpCacheServletResponseWrapper.ResponseWriteMethod writeMethod;
 
     AtomicInteger count = new AtomicInteger(0);
 
+    /** Grace period in ms the entry is still delivered once stale, lower than 1 if it isn't */
+    private long staleWhileRevalidate = -1L;
+    /** Time the entry turns stale */
+    private volatile long staleAt = Long.MAX_VALUE;
+    /** Time the entry expires, stale or not */
+    private volatile long expiresAt = Long.MAX_VALUE;
+
     /**
      * Create <code>MemCachePersistenceObject</code>. Use <code>buildForCaching</code> method to initialize parameters.
      */
@@ -74,29 +79,54 @@ public class MemCachePersistenceObject implements Serializable {
     public MemCachePersistenceObject buildForCaching(int status, String charEncoding, String contentType, Map<String,
             List<String>> headers, InputStream dataInputStream, HttpCacheServletResponseWrapper.ResponseWriteMethod writeMethod) throws HttpCacheDataStreamException {
 
+        // Read input stream and place it in a byte array.
+        try {
+            return buildForCaching(status, charEncoding, contentType, headers, IOUtils.toByteArray(dataInputStream),
+                    writeMethod);
+        } catch (IOException e) {
+            throw new HttpCacheDataStreamException("Unable to get byte array out of stream", e);
+        }
+    }
+
+    /**
+     * Construct a Mem cache value from cache content. Content captured in a {@link MemTempSinkImpl} shares the byte
+     * array of the sink instead of reading it into another one.
+     *
+     * @param content the content to cache
+     * @throws HttpCacheDataStreamException
+     */
+    public MemCachePersistenceObject buildForCaching(CacheContent content) throws HttpCacheDataStreamException {
+        if (content.getTempSink() instanceof MemTempSinkImpl) {
+            return buildForCaching(content.getStatus(), content.getCharEncoding(), content.getContentType(),
+                    content.getHeaders(), ((MemTempSinkImpl) content.getTempSink()).toByteArray(),
+                    content.getWriteMethod());
+        }
+        return buildForCaching(content.getStatus(), content.getCharEncoding(), content.getContentType(),
+                content.getHeaders(), content.getInputDataStream(), content.getWriteMethod());
+    }
+
+    /**
+     * Construct a Mem cache value taking ownership of the given byte array, which must not be modified afterwards.
+     */
+    MemCachePersistenceObject buildForCaching(int status, String charEncoding, String contentType,
+                                              Map<String, List<String>> headers, byte[] bytes,
+                                              HttpCacheServletResponseWrapper.ResponseWriteMethod writeMethod) {
+
         this.status = status;
         this.charEncoding = charEncoding;
         this.contentType = contentType;
         this.writeMethod = writeMethod;
+        this.bytes = bytes;
 
         // Iterate headers and take a copy.
-        this.headers = HashMultimap.create();
+        this.headers = new HashMap<>();
         for (Map.Entry<String, List<String>> entry : headers.entrySet()) {
-            for (String value : entry.getValue()) {
-                if (!"Sling-Tracer-Protocol-Version".equals(entry.getKey()) && !"Sling-Tracer-Request-Id".equals(entry.getKey())) {
-                    // Do NOT cache Sling Tracer headers as this makes debugging difficult and confusing!
-                    this.headers.put(entry.getKey(), value);
-                }
+            if (!"Sling-Tracer-Protocol-Version".equals(entry.getKey()) && !"Sling-Tracer-Request-Id".equals(entry.getKey())) {
+                // Do NOT cache Sling Tracer headers as this makes debugging difficult and confusing!
+                this.headers.put(entry.getKey(), Collections.unmodifiableList(new ArrayList<>(entry.getValue())));
             }
         }
 
-        // Read input stream and place it in a byte array.
-        try {
-            this.bytes = IOUtils.toByteArray(dataInputStream);
-        } catch (IOException e) {
-            throw new HttpCacheDataStreamException("Unable to get byte array out of stream", e);
-        }
-
         return this;
     }
 
@@ -133,15 +163,8 @@ public class MemCachePersistenceObject implements Serializable {
      * @return Returned in <code>Map<String, List<String>></code> format.
      */
     public Map<String, List<String>> getHeaders() {
-        Map<String, List<String>> map = new HashMap<String, List<String>>();
-
-        // Convert com.google.common.collect.AbstractMapBasedMultimap$WrappedSet to List<String> value to avoid cast
-        // exception
-        for (Map.Entry<String, Collection<String>> entry : Multimaps.asMap(headers).entrySet()) {
-            map.put(entry.getKey(), new ArrayList<String>(entry.getValue()));
-        }
-
-        return map;
+        // The value lists are unmodifiable, so a shallow copy is enough.
+        return new HashMap<>(headers);
     }
 
     /**
@@ -155,6 +178,23 @@ public class MemCachePersistenceObject implements Serializable {
                 .orElse(new byte[0]);
     }
 
+    /**
+     * @return the size of the data in bytes
+     */
+    public int getLength() {
+        return null == bytes ? 0 : bytes.length;
+    }
+
+    /**
+     * Create the cache content to deliver this entry. The content shares the data byte array instead of copying it.
+     *
+     * @return the cache content
+     */
+    public CacheContent toCacheContent() {
+        return CacheContent.ofBytes(status, charEncoding, contentType, getHeaders(),
+                null == bytes ? new byte[0] : bytes, writeMethod);
+    }
+
 
     /**
      * Increments the hit for this cache entry.
@@ -173,4 +213,66 @@ public class MemCachePersistenceObject implements Serializable {
     public HttpCacheServletResponseWrapper.ResponseWriteMethod getWriteMethod() {
         return writeMethod;
     }
+
+    /**
+     * Set the grace period the entry is still delivered once stale.
+     *
+     * @param staleWhileRevalidate grace period in ms, lower than 1 if stale entries are not delivered
+     * @return this
+     */
+    public MemCachePersistenceObject withStaleWhileRevalidate(long staleWhileRevalidate) {
+        this.staleWhileRevalidate = staleWhileRevalidate;
+        return this;
+    }
+
+    public long getStaleWhileRevalidate() {
+        return staleWhileRevalidate;
+    }
+
+    /**
+     * Set the lifetime of the entry. With a grace period, the entry turns stale after the given time to live and
+     * expires once the grace period is over.
+     *
+     * @param now current time in ms
+     * @param ttl time to live in ms, lower than 1 for no expiry
+     */
+    public void setTimeToLive(long now, long ttl) {
+        if (ttl > 0) {
+            staleAt = now + ttl;
+            expiresAt = staleAt + Math.max(0L, staleWhileRevalidate);
+        } else {
+            staleAt = Long.MAX_VALUE;
+            expiresAt = Long.MAX_VALUE;
+        }
+    }
+
+    /**
+     * Mark the entry as stale, keeping it for its grace period.
+     *
+     * @param now current time in ms
+     * @return false if the entry has no grace period and has to be removed
+     */
+    public boolean markStale(long now) {
+        if (staleWhileRevalidate <= 0) {
+            return false;
+        }
+        staleAt = Math.min(staleAt, now);
+        expiresAt = Math.min(expiresAt, now + staleWhileRevalidate);
+        return true;
+    }
+
+    public boolean isStale(long now) {
+        return now >= staleAt;
+    }
+
+    public boolean isExpired(long now) {
+        return now >= expiresAt;
+    }
+
+    /**
+     * @return time the entry expires in ms, {@link Long#MAX_VALUE} if it doesn't
+     */
+    public long getExpiresAt() {
+        return expiresAt;
+    }
 }
@@ -52,11 +52,11 @@ import javax.management.openmbean.SimpleType;
 import java.io.ByteArrayInputStream;
 import java.io.IOException;
 import java.util.Map;
-import java.util.concurrent.ConcurrentMap;
 import java.util.concurrent.TimeUnit;
 
 /**
- * In-memory cache store implementation. Uses Google Guava Cache.
+ * In-memory cache store implementation. Uses Google Guava Cache, which evicts entries once their TTL is over. The
+ * grace period of a cache config keeps invalidated entries deliverable as stale.
  */
 @Component(label = "ACS AEM Commons - HTTP Cache - In-Memory cache store",
            description = "Cache data store implementation for in-memory storage.",
@@ -97,6 +97,9 @@ public class MemHttpCacheStoreImpl extends AbstractGuavaCacheMBean<CacheKey, Mem
     /** Cache - Uses Google Guava's cache */
     private Cache<CacheKey, MemCachePersistenceObject> cache;
 
+    /** Index of the cache keys by path and cache config, maintained on put and removal */
+    private final CacheKeyIndex<MemCachePersistenceObject> keyIndex = new CacheKeyIndex<>();
+
     @Activate
     protected void activate(Map<String, Object> configs) {
         // Read config and populate values.
@@ -116,7 +119,7 @@ public class MemHttpCacheStoreImpl extends AbstractGuavaCacheMBean<CacheKey, Mem
                     .maximumWeight(maxSizeInMb * MEGABYTE)
                     .weigher(new MemCacheEntryWeigher())
                     .expireAfterWrite(ttl, TimeUnit.SECONDS)
-                    .removalListener(new MemCacheEntryRemovalListener())
+                    .removalListener(new MemCacheEntryRemovalListener(keyIndex))
                     .recordStats()
                     .build();
         } else {
@@ -124,7 +127,7 @@ public class MemHttpCacheStoreImpl extends AbstractGuavaCacheMBean<CacheKey, Mem
             cache = CacheBuilder.newBuilder()
                     .maximumWeight(maxSizeInMb * MEGABYTE)
                     .weigher(new MemCacheEntryWeigher())
-                    .removalListener(new MemCacheEntryRemovalListener())
+                    .removalListener(new MemCacheEntryRemovalListener(keyIndex))
                     .recordStats()
                     .build();
         }
@@ -144,8 +147,15 @@ public class MemHttpCacheStoreImpl extends AbstractGuavaCacheMBean<CacheKey, Mem
     private static class MemCacheEntryRemovalListener implements RemovalListener<CacheKey, MemCachePersistenceObject> {
         private static final Logger log = LoggerFactory.getLogger(MemCacheEntryRemovalListener.class);
 
+        private final CacheKeyIndex<MemCachePersistenceObject> keyIndex;
+
+        MemCacheEntryRemovalListener(CacheKeyIndex<MemCachePersistenceObject> keyIndex) {
+            this.keyIndex = keyIndex;
+        }
+
         @Override
         public void onRemoval(RemovalNotification<CacheKey, MemCachePersistenceObject> removalNotification) {
+            keyIndex.remove(removalNotification.getKey(), removalNotification.getValue());
             log.debug("Mem cache entry for uri {} removed due to {}", removalNotification.getKey(),
                     removalNotification.getCause().name());
         }
@@ -159,20 +169,31 @@ public class MemHttpCacheStoreImpl extends AbstractGuavaCacheMBean<CacheKey, Mem
         @Override
         public int weigh(CacheKey memCacheKey, MemCachePersistenceObject memCachePersistenceObject) {
             // Size of the byte array.
-            return memCachePersistenceObject.getBytes().length;
+            return memCachePersistenceObject.getLength();
         }
     }
 
     //-------------------------<CacheStore interface specific implementation>
     @Override
     public void put(CacheKey key, CacheContent content) throws HttpCacheDataStreamException {
-        cache.put(key, new MemCachePersistenceObject().buildForCaching(content.getStatus(), content.getCharEncoding(),
-                content.getContentType(), content.getHeaders(), content.getInputDataStream(), content.getWriteMethod()));
+        put(key, content, null);
+    }
+
+    @Override
+    public void put(CacheKey key, CacheContent content, HttpCacheConfig cacheConfig) throws HttpCacheDataStreamException {
+        final MemCachePersistenceObject value = new MemCachePersistenceObject().buildForCaching(content)
+                .withStaleWhileRevalidate(null != cacheConfig ? cacheConfig.getStaleWhileRevalidate() : -1L);
+
+        // Index the key atomically with the cache update, the removal listener drops it again.
+        cache.asMap().compute(key, (k, previous) -> {
+            keyIndex.add(k, cacheConfig, value);
+            return value;
+        });
     }
 
     @Override
     public boolean contains(CacheKey key) {
-        if (null == cache.getIfPresent(key)) {
+        if (null == getIfNotExpired(key, System.currentTimeMillis())) {
             return false;
         }
         return true;
@@ -180,7 +201,8 @@ public class MemHttpCacheStoreImpl extends AbstractGuavaCacheMBean<CacheKey, Mem
 
     @Override
     public CacheContent getIfPresent(CacheKey key) {
-        MemCachePersistenceObject value = cache.getIfPresent(key);
+        final long now = System.currentTimeMillis();
+        MemCachePersistenceObject value = getIfNotExpired(key, now);
         if (null == value) {
             return null;
         }
@@ -188,8 +210,26 @@ public class MemHttpCacheStoreImpl extends AbstractGuavaCacheMBean<CacheKey, Mem
         // Increment hit count
         value.incrementHitCount();
 
-        return new CacheContent(value.getStatus(), value.getCharEncoding(), value.getContentType(), value.getHeaders(), new
-                ByteArrayInputStream(value.getBytes()), value.getWriteMethod());
+        CacheContent content = value.toCacheContent();
+        content.setStale(value.isStale(now));
+        return content;
+    }
+
+    private MemCachePersistenceObject getIfNotExpired(CacheKey key, long now) {
+        MemCachePersistenceObject value = cache.getIfPresent(key);
+        if (null != value && value.isExpired(now)) {
+            cache.asMap().remove(key, value);
+            return null;
+        }
+        return value;
+    }
+
+    /**
+     * Invalidate an entry, it stays deliverable as stale if its cache config has a grace period. Marking it stale
+     * rewrites it, so the TTL evicts it at the latest one TTL after the invalidation.
+     */
+    private void invalidate(CacheKey key, long now) {
+        cache.asMap().computeIfPresent(key, (k, value) -> value.markStale(now) ? value : null);
     }
 
     @Override
@@ -199,28 +239,34 @@ public class MemHttpCacheStoreImpl extends AbstractGuavaCacheMBean<CacheKey, Mem
 
     @Override
     public void invalidate(CacheKey invalidationKey) {
-        final ConcurrentMap<CacheKey, MemCachePersistenceObject> cacheAsMap = cache.asMap();
-
-        for (CacheKey key : cacheAsMap.keySet()) {
+        final long now = System.currentTimeMillis();
+        for (CacheKey key : keyIndex.getInvalidationCandidates(invalidationKey)) {
             if (key.isInvalidatedBy(invalidationKey)) {
-                cache.invalidate(key);
+                invalidate(key, now);
             }
         }
     }
 
     @Override
     public void invalidate(HttpCacheConfig cacheConfig) {
-        ConcurrentMap<CacheKey, MemCachePersistenceObject> cacheAsMap = cache.asMap();
-        for (CacheKey key : cacheAsMap.keySet()) {
+        // Keys cached for this config.
+        final long now = System.currentTimeMillis();
+        for (CacheKey key : keyIndex.getKeys(cacheConfig)) {
+            invalidate(key, now);
+        }
+
+        // Keys cached without a config or with another config instance.
+        for (CacheKey key : keyIndex.getKeysNotCachedFor(cacheConfig)) {
             // Match the cache key with cache config.
             try {
                 if (cacheConfig.knows(key)) {
                     // If matches, invalidate that particular key.
-                    cache.invalidate(key);
+                    invalidate(key, now);
                 }
             } catch (HttpCacheKeyCreationException e) {
                 log.error("Could not invalidate HTTP cache. Falling back to full cache invalidation.", e);
                 this.invalidateAll();
+                return;
             }
         }
     }
@@ -258,14 +304,14 @@ public class MemHttpCacheStoreImpl extends AbstractGuavaCacheMBean<CacheKey, Mem
 
     @Override
     protected long getBytesLength(MemCachePersistenceObject cacheObj) {
-        return cacheObj.getBytes().length;
+        return cacheObj.getLength();
     }
 
     @Override
     @SuppressWarnings("squid:S1192")
     protected void addCacheData(Map<String, Object> data, MemCachePersistenceObject cacheObj) {
         int hitCount = cacheObj.getHitCount();
-        long size = cacheObj.getBytes().length;
+        long size = cacheObj.getLength();
         data.put(JMX_PN_STATUS, cacheObj.getStatus());
         data.put(JMX_PN_SIZE, FileUtils.byteCountToDisplaySize(size));
         data.put(JMX_PN_CONTENTTYPE, cacheObj.getContentType());
@@ -19,14 +19,15 @@ package com.adobe.acs.commons.httpcache.store.mem.impl;
 
 import com.adobe.acs.commons.httpcache.exception.HttpCacheDataStreamException;
 import com.adobe.acs.commons.httpcache.store.TempSink;
+import org.apache.commons.io.output.ByteArrayOutputStream;
 
 import java.io.ByteArrayInputStream;
-import java.io.ByteArrayOutputStream;
 import java.io.InputStream;
 import java.io.OutputStream;
 
 /**
- * TempSink implementation for In-Mem cache store.
+ * TempSink implementation for In-Mem cache store. The sink grows in chunks while the response is captured and is
+ * copied once into an array of its exact size when it is read.
  */
 public class MemTempSinkImpl implements TempSink {
     /** Byte array as sink */
@@ -44,15 +45,7 @@ public class MemTempSinkImpl implements TempSink {
 
     @Override
     public InputStream createInputStream() throws HttpCacheDataStreamException {
-
-        if (null != byteArrayOutputStream && null == sink) {
-            sink = byteArrayOutputStream.toByteArray();
-        }
-        if (null != sink) {
-            return new ByteArrayInputStream(sink);
-        } else {
-            return new ByteArrayInputStream(new byte[0]);
-        }
+        return new ByteArrayInputStream(toByteArray());
     }
 
     @Override
@@ -62,4 +55,16 @@ public class MemTempSinkImpl implements TempSink {
         }
         return sink.length;
     }
+
+    /**
+     * Get the captured bytes. The array is shared with the streams of this sink, so it must not be modified.
+     *
+     * @return the captured bytes
+     */
+    public byte[] toByteArray() {
+        if (null == sink) {
+            sink = null != byteArrayOutputStream ? byteArrayOutputStream.toByteArray() : new byte[0];
+        }
+        return sink;
+    }
 }
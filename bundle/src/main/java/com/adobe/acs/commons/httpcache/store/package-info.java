@@ -16,6 +16,6 @@
  * limitations under the License.
  */
 
-@org.osgi.annotation.versioning.Version("2.0.0")
+@org.osgi.annotation.versioning.Version("2.1.0")
 package com.adobe.acs.commons.httpcache.store;
 
@@ -0,0 +1,270 @@
+/*
+ * ACS AEM Commons
+ *
+ * Copyright (C) 2013 - 2023 Adobe
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.adobe.acs.commons.images.impl;
+
+import com.adobe.granite.jmx.annotation.AnnotatedStandardMBean;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import javax.management.NotCompliantMBeanException;
+import javax.management.openmbean.CompositeDataSupport;
+import javax.management.openmbean.CompositeType;
+import javax.management.openmbean.OpenDataException;
+import javax.management.openmbean.OpenType;
+import javax.management.openmbean.SimpleType;
+import javax.management.openmbean.TabularData;
+import javax.management.openmbean.TabularDataSupport;
+import javax.management.openmbean.TabularType;
+import java.io.IOException;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Limits the images transformed at once, by number and by the memory their decoded pixels take. Requests wait for
+ * their turn up to a timeout and are rejected after it, so a burst of transformations is shed instead of exhausting
+ * the heap. Concurrent requests for the same transformation wait for the one running as long as it takes and share
+ * its result, or its rejection.
+ */
+class ImageTransformLimiter extends AnnotatedStandardMBean implements ImageTransformLimiterMBean {
+
+    /**
+     * Transforms and encodes an image.
+     */
+    @FunctionalInterface
+    interface Transformation {
+        /**
+         * @return the encoded image, null if there is no image to transform
+         */
+        @Nullable
+        byte[] run() throws IOException;
+    }
+
+    private static final long KB = 1024L;
+    private static final long MB = KB * KB;
+
+    private final int maxConcurrent;
+    private final int memoryBudget;
+    private final long timeout;
+
+    private final Semaphore slots;
+    /** Memory budget in KB */
+    private final Semaphore memory;
+
+    private final AtomicInteger waitingCount = new AtomicInteger();
+    private final LongAdder rejectedCount = new LongAdder();
+    private final LongAdder deduplicatedCount = new LongAdder();
+
+    private final ConcurrentMap<String, CompletableFuture<byte[]>> running = new ConcurrentHashMap<>();
+    private final ConcurrentMap<String, Latency> latencies = new ConcurrentHashMap<>();
+
+    /**
+     * @param maxConcurrent number of images transformed at once
+     * @param memoryBudget  memory the images transformed at once may take in bytes
+     * @param timeout       time a request waits for its turn in ms
+     */
+    ImageTransformLimiter(int maxConcurrent, long memoryBudget, long timeout) throws NotCompliantMBeanException {
+        super(ImageTransformLimiterMBean.class);
+        this.maxConcurrent = Math.max(1, maxConcurrent);
+        this.memoryBudget = (int) Math.max(1L, Math.min(Integer.MAX_VALUE, memoryBudget / KB));
+        this.timeout = Math.max(0L, timeout);
+        this.slots = new Semaphore(this.maxConcurrent, true);
+        this.memory = new Semaphore(this.memoryBudget, true);
+    }
+
+    /**
+     * @return the time a request waits for its turn in ms
+     */
+    long getTimeout() {
+        return timeout;
+    }
+
+    /**
+     * Transform an image once memory and a transformation slot are available, or wait for the same transformation
+     * if it is running already.
+     *
+     * @param key            identifies the transformation for deduplication, null to always transform
+     * @param transformName  name of the transform, to record the latency by
+     * @param estimatedBytes memory the transformation takes; more than the whole budget is limited to it
+     * @param transformation the transformation
+     * @return the encoded image, null if there is no image to transform
+     * @throws RejectedExecutionException if the transformation could not start in time
+     * @throws InterruptedException       if interrupted while waiting
+     */
+    @Nullable
+    byte[] transform(@Nullable String key, @NotNull String transformName, long estimatedBytes,
+                     @NotNull Transformation transformation) throws IOException, InterruptedException {
+        if (key == null) {
+            return transformWithinLimits(transformName, estimatedBytes, transformation);
+        }
+
+        final CompletableFuture<byte[]> result = new CompletableFuture<>();
+        final CompletableFuture<byte[]> other = running.putIfAbsent(key, result);
+        if (other != null) {
+            deduplicatedCount.increment();
+            return await(other);
+        }
+
+        try {
+            final byte[] data = transformWithinLimits(transformName, estimatedBytes, transformation);
+            result.complete(data);
+            return data;
+        } catch (IOException | InterruptedException | RuntimeException | Error e) {
+            result.completeExceptionally(e);
+            throw e;
+        } finally {
+            running.remove(key, result);
+        }
+    }
+
+    private byte[] await(CompletableFuture<byte[]> other) throws IOException, InterruptedException {
+        waitingCount.incrementAndGet();
+        try {
+            // as long as the transformation itself, which is rejected after the timeout if it could not start
+            return other.get();
+        } catch (ExecutionException e) {
+            final Throwable cause = e.getCause();
+            if (cause instanceof RejectedExecutionException) {
+                rejectedCount.increment();
+                throw (RejectedExecutionException) cause;
+            }
+            throw new IOException("The same transformation failed", cause);
+        } finally {
+            waitingCount.decrementAndGet();
+        }
+    }
+
+    private byte[] transformWithinLimits(String transformName, long estimatedBytes, Transformation transformation)
+            throws IOException, InterruptedException {
+        final int permits = (int) Math.max(1L, Math.min(memoryBudget, estimatedBytes / KB));
+        final long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(timeout);
+        boolean memoryAcquired = false;
+        boolean slotAcquired = false;
+        waitingCount.incrementAndGet();
+        try {
+            memoryAcquired = memory.tryAcquire(permits, timeout, TimeUnit.MILLISECONDS);
+            slotAcquired = memoryAcquired && slots.tryAcquire(deadline - System.nanoTime(), TimeUnit.NANOSECONDS);
+        } finally {
+            waitingCount.decrementAndGet();
+            if (memoryAcquired && !slotAcquired) {
+                memory.release(permits);
+            }
+        }
+        if (!slotAcquired) {
+            rejectedCount.increment();
+            throw new RejectedExecutionException("No memory or transformation slot became available in "
+                    + timeout + "ms");
+        }
+
+        final long start = System.nanoTime();
+        try {
+            return transformation.run();
+        } finally {
+            slots.release();
+            memory.release(permits);
+            latencies.computeIfAbsent(transformName, name -> new Latency()).record(System.nanoTime() - start);
+        }
+    }
+
+    @Override
+    public int getWaitingCount() {
+        return waitingCount.get();
+    }
+
+    @Override
+    public int getActiveCount() {
+        return maxConcurrent - slots.availablePermits();
+    }
+
+    @Override
+    public long getMemoryInUse() {
+        return (memoryBudget - memory.availablePermits()) * KB / MB;
+    }
+
+    @Override
+    public long getMemoryBudget() {
+        return memoryBudget * KB / MB;
+    }
+
+    @Override
+    public long getRejectedCount() {
+        return rejectedCount.sum();
+    }
+
+    @Override
+    public long getDeduplicatedCount() {
+        return deduplicatedCount.sum();
+    }
+
+    @Override
+    public TabularData getTransformLatencies() throws OpenDataException {
+        String transform = "Transform";
+        String count = "Count";
+        String mean = "Mean (ms)";
+        String max = "Max (ms)";
+        String latencyStats = "Transform Latencies";
+        CompositeType latencyType = new CompositeType(latencyStats, latencyStats,
+                new String[]{transform, count, mean, max},
+                new String[]{transform, count, mean, max},
+                new OpenType[]{SimpleType.STRING, SimpleType.LONG, SimpleType.DOUBLE, SimpleType.DOUBLE});
+
+        TabularDataSupport tabularData = new TabularDataSupport(
+                new TabularType(latencyStats, latencyStats, latencyType, new String[]{transform}));
+
+        for (Map.Entry<String, Latency> entry : latencies.entrySet()) {
+            Latency latency = entry.getValue();
+            long transformCount = latency.count.sum();
+
+            Map<String, Object> row = new LinkedHashMap<>();
+            row.put(transform, entry.getKey());
+            row.put(count, transformCount);
+            row.put(mean, transformCount == 0 ? 0.0 : latency.total.sum() / (double) transformCount / 1_000_000);
+            row.put(max, latency.max.get() / 1_000_000.0);
+            tabularData.put(new CompositeDataSupport(latencyType, row));
+        }
+        return tabularData;
+    }
+
+    @Override
+    public void resetStatistics() {
+        rejectedCount.reset();
+        deduplicatedCount.reset();
+        latencies.clear();
+    }
+
+    private static final class Latency {
+        private final LongAdder count = new LongAdder();
+        private final LongAdder total = new LongAdder();
+        private final AtomicLong max = new AtomicLong();
+
+        void record(long nanos) {
+            count.increment();
+            total.add(nanos);
+            max.accumulateAndGet(nanos, Math::max);
+        }
+    }
+}
@@ -0,0 +1,51 @@
+/*
+ * ACS AEM Commons
+ *
+ * Copyright (C) 2013 - 2023 Adobe
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.adobe.acs.commons.images.impl;
+
+import com.adobe.granite.jmx.annotation.Description;
+
+import javax.management.openmbean.OpenDataException;
+import javax.management.openmbean.TabularData;
+
+@Description("ACS AEM Commons - Named Transform Image Servlet")
+public interface ImageTransformLimiterMBean {
+
+    @Description("Requests waiting for memory or a free transformation slot")
+    int getWaitingCount();
+
+    @Description("Images being transformed")
+    int getActiveCount();
+
+    @Description("Estimated memory held by the images being transformed in MB")
+    long getMemoryInUse();
+
+    @Description("Memory the images being transformed may hold in MB")
+    long getMemoryBudget();
+
+    @Description("Requests answered with 503 because no memory or transformation slot became free in time")
+    long getRejectedCount();
+
+    @Description("Requests served with the result of the same transformation requested concurrently")
+    long getDeduplicatedCount();
+
+    @Description("Number, mean and maximum duration of the transformations, per named transform")
+    TabularData getTransformLatencies() throws OpenDataException;
+
+    @Description("Reset the counters and latencies")
+    void resetStatistics();
+}
@@ -37,6 +37,7 @@ import org.apache.commons.lang3.ArrayUtils;
 import org.apache.commons.lang3.StringUtils;
 import org.apache.felix.scr.annotations.Activate;
 import org.apache.felix.scr.annotations.Component;
+import org.apache.felix.scr.annotations.Deactivate;
 import org.apache.felix.scr.annotations.Properties;
 import org.apache.felix.scr.annotations.Property;
 import org.apache.felix.scr.annotations.Reference;
@@ -49,26 +50,44 @@ import org.apache.sling.api.SlingHttpServletResponse;
 import org.apache.sling.api.resource.Resource;
 import org.apache.sling.api.resource.ResourceResolver;
 import org.apache.sling.api.resource.ValueMap;
+import org.apache.sling.api.resource.observation.ResourceChangeListener;
 import org.apache.sling.api.servlets.OptingServlet;
 import org.apache.sling.api.servlets.SlingSafeMethodsServlet;
 import org.apache.sling.api.wrappers.ValueMapDecorator;
 import org.apache.sling.commons.mime.MimeTypeService;
 import org.apache.sling.commons.osgi.PropertiesUtil;
+import org.osgi.framework.BundleContext;
+import org.osgi.framework.ServiceRegistration;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import javax.imageio.ImageIO;
 import javax.jcr.RepositoryException;
+import javax.management.DynamicMBean;
+import javax.management.NotCompliantMBeanException;
 import javax.servlet.Servlet;
 import javax.servlet.ServletException;
 import javax.servlet.http.HttpServletResponse;
 
+import java.awt.Dimension;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
 import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
 import java.util.ArrayList;
+import java.util.Calendar;
+import java.util.Dictionary;
+import java.util.Hashtable;
 import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.TreeMap;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 
@@ -159,6 +178,64 @@ public class NamedTransformImageServlet extends SlingSafeMethodsServlet implemen
             value = DEFAULT_ASSET_RENDITION_PICKER_REGEX)
     private static final String PROP_ASSET_RENDITION_PICKER_REGEX = "prop.asset-rendition-picker-regex";
 
+    private static final boolean DEFAULT_CACHE_ENABLED = false;
+
+    @Property(label = "Cache Transformed Images",
+            description = "Keep transformed images on disk and serve repeated requests for the same image and transform from there."
+                    + " [ Default: false ]",
+            boolValue = DEFAULT_CACHE_ENABLED)
+    private static final String PROP_CACHE_ENABLED = "cache.enabled";
+
+    private static final int DEFAULT_CACHE_MAX_SIZE = 256;
+
+    @Property(label = "Cache Size",
+            description = "Maximum size of the transformed images kept on disk in MB. The least recently used images are dropped first."
+                    + " [ Default: 256 ]",
+            intValue = DEFAULT_CACHE_MAX_SIZE)
+    private static final String PROP_CACHE_MAX_SIZE = "cache.max-size";
+
+    private static final String CACHE_DIRECTORY = "named-transform-images";
+
+    private static final String CACHE_INVALIDATION_PATH = "/content";
+
+    private static final int DEFAULT_MAX_CONCURRENT = 0;
+
+    @Property(label = "Concurrent Transformations",
+            description = "Number of images transformed at once. 0 to not limit the number. Transformations are only"
+                    + " limited if this or the transformation memory is set. [ Default: 0 ]",
+            intValue = DEFAULT_MAX_CONCURRENT)
+    private static final String PROP_MAX_CONCURRENT = "transform.max-concurrent";
+
+    private static final int DEFAULT_MEMORY_BUDGET = 0;
+
+    @Property(label = "Transformation Memory",
+            description = "Memory the images transformed at once may take in MB, estimated from the dimensions of"
+                    + " the sources they decode. 0 to not limit the memory. Transformations are only limited if this or"
+                    + " the number of concurrent transformations is set. [ Default: 0 ]",
+            intValue = DEFAULT_MEMORY_BUDGET)
+    private static final String PROP_MEMORY_BUDGET = "transform.memory-budget";
+
+    private static final int DEFAULT_WAIT_TIMEOUT = 10000;
+
+    @Property(label = "Transformation Wait Timeout",
+            description = "Time in ms a request waits for memory to transform its image, before it is answered with"
+                    + " 503 Service Unavailable. [ Default: 10000 ]",
+            intValue = DEFAULT_WAIT_TIMEOUT)
+    private static final String PROP_WAIT_TIMEOUT = "transform.wait-timeout";
+
+    /** Assumed for images whose dimensions can not be read */
+    private static final Dimension DEFAULT_ESTIMATED_SIZE = new Dimension(4000, 3000);
+
+    private static final int BYTES_PER_PIXEL = 4;
+
+    private static final String JMX_OBJECT_NAME = "com.adobe.acs.commons:type=Named Transform Image Servlet";
+
+    private static final String HEADER_RETRY_AFTER = "Retry-After";
+
+    private static final int RENDITION_SIZE_CACHE_MAX_ASSETS = 1000;
+
+    static final String HEADER_TRANSFORM_SOURCE = "X-ACS-Commons-Transform-Source";
+
     private final transient Map<String, NamedImageTransformer> namedImageTransformers =
             new ConcurrentHashMap<String, NamedImageTransformer>();
 
@@ -171,6 +248,17 @@ public class NamedTransformImageServlet extends SlingSafeMethodsServlet implemen
 
     private transient RenditionPatternPicker renditionPatternPicker =
             new RenditionPatternPicker(Pattern.compile(DEFAULT_ASSET_RENDITION_PICKER_REGEX));
+
+    private final transient TransformSourceSelector.RenditionSizeCache renditionSizes =
+            new TransformSourceSelector.RenditionSizeCache(RENDITION_SIZE_CACHE_MAX_ASSETS);
+
+    private transient TransformedImageCache cache;
+
+    private transient ServiceRegistration<?> cacheRegistration;
+
+    private transient ImageTransformLimiter limiter;
+
+    private transient ServiceRegistration<?> limiterRegistration;
     
     /**
      * Only accept requests that.
@@ -211,11 +299,6 @@ public class NamedTransformImageServlet extends SlingSafeMethodsServlet implemen
     protected final void doGet(final SlingHttpServletRequest request, final SlingHttpServletResponse response) throws
             ServletException, IOException {
 
-         // Warn when this servlet is used
-         AVOID_USAGE_LOGGER.warn("An image is transformed on-the-fly, which can be a very resource intensive operation. "
-              + "If done frequently, you should consider switching to dynamic AEM web-optimized images or creating such a rendition upfront using processing profiles. "
-              + "See https://adobe-consulting-services.github.io/acs-aem-commons/features/named-image-transform/index.html for more details.");
-
         // Get the transform names from the suffix
         final List<NamedImageTransformer> selectedNamedImageTransformers = getNamedImageTransformers(request);
 
@@ -224,46 +307,211 @@ public class NamedTransformImageServlet extends SlingSafeMethodsServlet implemen
 
         final Image image = resolveImage(request);
         final String mimeType = getMimeType(request, image);
-        Layer layer = getLayer(image);
+
+        // Get the quality
+        final double quality = this.getQuality(mimeType,
+                imageTransformersWithParams.get(TYPE_QUALITY, EMPTY_PARAMS));
+
+        // Check if the image is a JPEG which has to be encoded progressively
+        final boolean progressiveJpeg = isProgressiveJpeg(mimeType,
+                imageTransformersWithParams.get(TYPE_PROGRESSIVE, EMPTY_PARAMS));
+
+        // Serve the image as it was transformed before, if it did not change since
+        final TransformedImageCache currentCache = cache;
+        final String transformKey = getTransformKey(request, image, imageTransformersWithParams, mimeType, quality,
+                progressiveJpeg);
+        final String cacheKey = currentCache != null ? transformKey : null;
+        if (cacheKey != null && writeCachedImage(currentCache, cacheKey, mimeType, response)) {
+            return;
+        }
+        final List<String> sourcePaths = getSourcePaths(image);
+        final Dimension originalSize = readOriginalSize(image);
+        final TransformSourceSelector.Source source = selectSource(image, imageTransformersWithParams, originalSize);
+
+        final ImageTransformLimiter.Transformation transformation = () -> transformImage(request, image,
+                imageTransformersWithParams, source, mimeType, quality, progressiveJpeg, response);
+        final ImageTransformLimiter currentLimiter = limiter;
+        final byte[] data;
+        try {
+            data = currentLimiter != null
+                    ? currentLimiter.transform(transformKey, getTransformName(selectedNamedImageTransformers),
+                            estimateMemory(source != null ? source.getSize() : originalSize), transformation)
+                    : transformation.run();
+        } catch (RejectedExecutionException e) {
+            log.debug("Rejected transforming image {}: {}", image.getPath(), e.getMessage());
+            sendUnavailable(currentLimiter, response);
+            return;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            sendUnavailable(currentLimiter, response);
+            return;
+        }
+
+        if (data == null) {
+            response.setStatus(HttpServletResponse.SC_NOT_FOUND);
+            return;
+        }
+        if (cacheKey != null) {
+            currentCache.put(cacheKey, sourcePaths, data);
+        }
+
+        response.setContentType(mimeType);
+        response.setContentLength(data.length);
+        response.getOutputStream().write(data);
+        response.flushBuffer();
+    }
+
+    /**
+     * Transforms the image and encodes it.
+     *
+     * @return the encoded image, null if the image has no layer
+     */
+    private byte[] transformImage(final SlingHttpServletRequest request, final Image image,
+                                  final ValueMap imageTransformersWithParams,
+                                  final TransformSourceSelector.Source source, final String mimeType,
+                                  final double quality, final boolean progressiveJpeg,
+                                  final SlingHttpServletResponse response) throws IOException {
+        // Warn when this servlet is used
+        AVOID_USAGE_LOGGER.warn("An image is transformed on-the-fly, which can be a very resource intensive operation. "
+              + "If done frequently, you should consider switching to dynamic AEM web-optimized images or creating such a rendition upfront using processing profiles. "
+              + "See https://adobe-consulting-services.github.io/acs-aem-commons/features/named-image-transform/index.html for more details.");
+
+        Layer layer = getLayer(image, source, response);
 
         // Adjust layer to image orientation
         processImageOrientation(image.getResource(), layer);
         
         if (layer == null) {
-            response.setStatus(HttpServletResponse.SC_NOT_FOUND);
-            return;
+            return null;
         }
         
         // Transform the image
         layer = this.transform(layer, imageTransformersWithParams, request);
 
-        // Get the quality
-        final double quality = this.getQuality(mimeType,
-                imageTransformersWithParams.get(TYPE_QUALITY, EMPTY_PARAMS));
+        final ByteArrayOutputStream output = new ByteArrayOutputStream();
+        writeLayer(layer, mimeType, quality, progressiveJpeg, output);
+        return output.toByteArray();
+    }
 
-        // Check if the image is a JPEG which has to be encoded progressively
-        final boolean progressiveJpeg = isProgressiveJpeg(mimeType,
-                imageTransformersWithParams.get(TYPE_PROGRESSIVE, EMPTY_PARAMS));
+    private String getTransformName(final List<NamedImageTransformer> selectedNamedImageTransformers) {
+        final List<String> names = new ArrayList<String>();
+        for (final NamedImageTransformer namedImageTransformer : selectedNamedImageTransformers) {
+            names.add(namedImageTransformer.getTransformName());
+        }
+        return StringUtils.join(names, "/");
+    }
 
-        response.setContentType(mimeType);
+    /**
+     * Estimates the memory transforming an image takes: its decoded pixels and a transformed copy of them.
+     *
+     * @param decodedSize the size of the image as it is decoded, null if unknown
+     */
+    static long estimateMemory(final Dimension decodedSize) {
+        final Dimension size = decodedSize != null ? decodedSize : DEFAULT_ESTIMATED_SIZE;
+        return 2L * BYTES_PER_PIXEL * size.width * size.height;
+    }
 
+    private void sendUnavailable(final ImageTransformLimiter currentLimiter, final SlingHttpServletResponse response)
+            throws IOException {
+        final long retryAfter = Math.max(1L, TimeUnit.MILLISECONDS.toSeconds(currentLimiter.getTimeout()));
+        response.setHeader(HEADER_RETRY_AFTER, String.valueOf(retryAfter));
+        response.sendError(HttpServletResponse.SC_SERVICE_UNAVAILABLE);
+    }
+
+    private void writeLayer(final Layer layer, final String mimeType, final double quality, final boolean progressiveJpeg,
+                            final OutputStream output) throws IOException {
         if (progressiveJpeg) {
-            ProgressiveJpeg.write(layer, quality, response.getOutputStream());
+            ProgressiveJpeg.write(layer, quality, output);
         } else {
-            layer.write(mimeType, quality, response.getOutputStream());
+            layer.write(mimeType, quality, output);
+        }
+    }
+
+    /**
+     * Computes the key of a transformation from everything the transformed image depends on: the image and its last
+     * modification, its crop, rotation and orientation, the transforms with their params, and the output format.
+     * It identifies the transformed image in the cache and concurrent requests for the same transformation.
+     *
+     * @return the key, or null if the image has no last modified date
+     */
+    private String getTransformKey(final SlingHttpServletRequest request, final Image image,
+                                   final ValueMap imageTransformersWithParams, final String mimeType,
+                                   final double quality, final boolean progressiveJpeg) {
+        Calendar lastModified = null;
+        try {
+            lastModified = image.getLastModified();
+        } catch (RepositoryException e) {
+            log.debug("Could not get last modified date of {}", image.getPath(), e);
+        }
+        if (lastModified == null) {
+            log.debug("Not caching or sharing transformed image {} without a last modified date", image.getPath());
+            return null;
+        }
+
+        final StringBuilder transforms = new StringBuilder();
+        for (final String type : imageTransformersWithParams.keySet()) {
+            final ValueMap transformParams = imageTransformersWithParams.get(type, EMPTY_PARAMS);
+            transforms.append(type).append(this.imageTransformers.containsKey(type));
+            if (transformParams != null) {
+                transforms.append(new TreeMap<String, Object>(transformParams));
+                if (Boolean.valueOf(transformParams.get(PROP_ADD_URL_PARAMETERS, false))) {
+                    transforms.append(getCropParamsFromUrl(request));
+                }
+            }
+        }
+
+        final ValueMap metadata = getImageMetadataValueMap(image.getResource());
+        final String orientation = metadata != null ? metadata.get(TIFF_ORIENTATION, String.class) : null;
+
+        return TransformedImageCache.key(image.getPath(), image.getFileReference(), lastModified.getTimeInMillis(),
+                image.getCropRect(), image.getRotation(), orientation, transforms, mimeType, quality, progressiveJpeg);
+    }
+
+    private List<String> getSourcePaths(final Image image) {
+        final List<String> sourcePaths = new ArrayList<String>();
+        sourcePaths.add(image.getPath());
+        if (StringUtils.isNotBlank(image.getFileReference())) {
+            sourcePaths.add(image.getFileReference());
+        }
+        return sourcePaths;
+    }
+
+    /**
+     * Writes the cached transformed image to the response.
+     *
+     * @return false if the image is not cached
+     */
+    private boolean writeCachedImage(final TransformedImageCache currentCache, final String cacheKey,
+                                     final String mimeType, final SlingHttpServletResponse response) throws IOException {
+        final File file = currentCache.get(cacheKey);
+        if (file == null) {
+            return false;
+        }
+
+        response.setContentType(mimeType);
+        response.setContentLength((int) file.length());
+        try {
+            Files.copy(file.toPath(), response.getOutputStream());
+        } catch (NoSuchFileException e) {
+            // evicted meanwhile, nothing was written yet
+            response.reset();
+            return false;
         }
 
         response.flushBuffer();
+        return true;
     }
 
     /**
      * Execute the ImageTransformers as specified by the Request's suffix segments against the Image layer.
+     * Transforms of single pixels are deferred past crops and shrinking resizes and fused, see {@link TransformPipeline}.
      *
      * @param layer the Image layer
      * @param imageTransformersWithParams the transforms and their params
      * @return the transformed Image layer
      */
     protected final Layer transform(Layer layer, final ValueMap imageTransformersWithParams, SlingHttpServletRequest request) {
+        final TransformPipeline pipeline = new TransformPipeline();
         for (final String type : imageTransformersWithParams.keySet()) {
             if (StringUtils.equals(TYPE_QUALITY, type)) {
                 // Do not process the "quality" transform in the usual manner
@@ -287,11 +535,11 @@ public class NamedTransformImageServlet extends SlingSafeMethodsServlet implemen
                 }
               }
 
-                layer = imageTransformer.transform(layer, transformParams);
+                pipeline.add(type, imageTransformer, transformParams);
             }
         }
 
-        return layer;
+        return pipeline.apply(layer);
     }
 
   /**
@@ -525,6 +773,132 @@ public class NamedTransformImageServlet extends SlingSafeMethodsServlet implemen
       return urlParams;
   }
 
+    /**
+     * Selects the smallest source that still yields the same transformed image. If the transforms start by shrinking
+     * the image, this is the smallest rendition of the asset that is large enough, or the original decoded with
+     * subsampling.
+     *
+     * @param image The Image to transform
+     * @param imageTransformersWithParams the transforms and their params
+     * @param originalSize the size of the image's original, null if unknown
+     * @return the source, null if the image is decoded in full
+     */
+    private TransformSourceSelector.Source selectSource(final Image image, final ValueMap imageTransformersWithParams,
+                                                        final Dimension originalSize) {
+        final String firstTransform = getFirstTransform(imageTransformersWithParams);
+        if (firstTransform == null || originalSize == null) {
+            return null;
+        }
+        final ValueMap metadata = getImageMetadataValueMap(image.getResource());
+        final String orientation = metadata != null ? metadata.get(TIFF_ORIENTATION, String.class) : null;
+        if (image.getCropRect() != null || image.getRotation() != 0
+                || (orientation != null && Short.parseShort(orientation) != OrientationUtil.ORIENTATION_NORMAL)) {
+            return null;
+        }
+
+        final Dimension targetSize = TransformSourceSelector.getTargetSize(firstTransform,
+                imageTransformersWithParams.get(firstTransform, EMPTY_PARAMS), originalSize);
+        return targetSize != null ? TransformSourceSelector.select(getAsset(image), renditionSizes,
+                originalSize, targetSize) : null;
+    }
+
+    /**
+     * Gets the Image layer from the selected source.
+     *
+     * @param image The Image to get the layer from
+     * @param source the source to decode, null to decode the image in full
+     * @param response the response to report the chosen source in, if debug logging is enabled
+     * @return the image's Layer
+     * @throws IOException
+     */
+    private Layer getLayer(final Image image, final TransformSourceSelector.Source source,
+                           final SlingHttpServletResponse response) throws IOException {
+        if (source == null) {
+            return getLayer(image);
+        }
+
+        final Rendition rendition = source.getRendition();
+        if (source.getSubsampling() <= 1 && rendition != null) {
+            reportSource(response, rendition.getPath());
+            image.set(DownloadResource.PN_REFERENCE, rendition.getPath());
+            return getLayer(image);
+        }
+
+        try {
+            final Layer layer = TransformSourceSelector.decodeSubsampled(
+                    rendition != null ? rendition.getStream() : getDataStream(image), source.getSubsampling());
+            if (layer != null) {
+                reportSource(response, (rendition != null ? rendition.getPath() : image.getPath())
+                        + ";subsampling=" + source.getSubsampling());
+                return layer;
+            }
+        } catch (RepositoryException e) {
+            log.debug("Could not read the image data of {}", image.getPath(), e);
+        }
+        return getLayer(image);
+    }
+
+    /**
+     * @return the type of the first transform, if it may be applied to a smaller source
+     */
+    private String getFirstTransform(final ValueMap imageTransformersWithParams) {
+        for (final String type : imageTransformersWithParams.keySet()) {
+            if (StringUtils.equals(TYPE_QUALITY, type) || StringUtils.equals(TYPE_PROGRESSIVE, type)
+                    || !this.imageTransformers.containsKey(type)) {
+                // not applied to the layer
+                continue;
+            }
+            final ValueMap transformParams = imageTransformersWithParams.get(type, EMPTY_PARAMS);
+            if (transformParams == null || Boolean.valueOf(transformParams.get(PROP_ADD_URL_PARAMETERS, false))) {
+                return null;
+            }
+            return type;
+        }
+        return null;
+    }
+
+    /**
+     * @return the referenced asset if the image shows its original, e.g. a page image referencing an asset. Null if the
+     * image shows a rendition picked for the request, which is then treated as the image's original.
+     */
+    private Asset getAsset(final Image image) {
+        final Resource referenced = StringUtils.isNotBlank(image.getFileReference())
+                ? image.getResourceResolver().getResource(image.getFileReference()) : null;
+        final Asset asset = referenced != null ? DamUtil.resolveToAsset(referenced) : null;
+        if (asset == null || DamUtil.isAsset(referenced)) {
+            return asset;
+        }
+        final Rendition original = asset.getOriginal();
+        return original != null && StringUtils.equals(original.getPath(), referenced.getPath()) ? asset : null;
+    }
+
+    /**
+     * @return the size of the asset's original if the image shows it, else of the image itself, null if it can not be
+     * read
+     */
+    private Dimension readOriginalSize(final Image image) {
+        final Asset asset = getAsset(image);
+        final Rendition original = asset != null ? asset.getOriginal() : null;
+        try {
+            return TransformSourceSelector.readSize(original != null ? original.getStream() : getDataStream(image));
+        } catch (RepositoryException e) {
+            log.debug("Could not read the image data of {}", image.getPath(), e);
+            return null;
+        }
+    }
+
+    private InputStream getDataStream(final Image image) throws RepositoryException {
+        final javax.jcr.Property data = image.getData();
+        return data != null ? data.getBinary().getStream() : null;
+    }
+
+    private void reportSource(final SlingHttpServletResponse response, final String source) {
+        log.debug("Transforming image from {}", source);
+        if (log.isDebugEnabled()) {
+            response.setHeader(HEADER_TRANSFORM_SOURCE, source);
+        }
+    }
+
     /**
      * Gets the Image layer.
      *
@@ -609,7 +983,7 @@ public class NamedTransformImageServlet extends SlingSafeMethodsServlet implemen
     }
 
     @Activate
-    protected final void activate(final Map<String, String> properties) {
+    protected final void activate(final BundleContext bundleContext, final Map<String, Object> properties) {
         final String regex = PropertiesUtil.toString(properties.get(PROP_ASSET_RENDITION_PICKER_REGEX),
                 DEFAULT_ASSET_RENDITION_PICKER_REGEX);
         final String fileNameRegex = PropertiesUtil.toString(properties.get(NAMED_IMAGE_FILENAME_PATTERN),
@@ -635,6 +1009,64 @@ public class NamedTransformImageServlet extends SlingSafeMethodsServlet implemen
           log.info("Warnings for the use of the NamedTransfomringImageServlet disabled");
         }
 
+        if (PropertiesUtil.toBoolean(properties.get(PROP_CACHE_ENABLED), DEFAULT_CACHE_ENABLED)) {
+            activateCache(bundleContext,
+                    PropertiesUtil.toInteger(properties.get(PROP_CACHE_MAX_SIZE), DEFAULT_CACHE_MAX_SIZE) * 1024L * 1024L);
+        }
+
+        final int maxConcurrent = PropertiesUtil.toInteger(properties.get(PROP_MAX_CONCURRENT), DEFAULT_MAX_CONCURRENT);
+        final int memoryBudget = PropertiesUtil.toInteger(properties.get(PROP_MEMORY_BUDGET), DEFAULT_MEMORY_BUDGET);
+        if (maxConcurrent > 0 || memoryBudget > 0) {
+            activateLimiter(bundleContext,
+                    maxConcurrent > 0 ? maxConcurrent : Integer.MAX_VALUE,
+                    memoryBudget > 0 ? memoryBudget * 1024L * 1024L : Long.MAX_VALUE,
+                    PropertiesUtil.toInteger(properties.get(PROP_WAIT_TIMEOUT), DEFAULT_WAIT_TIMEOUT));
+            log.info("Transforming up to {} images at once within {} MB, 0 meaning no limit", maxConcurrent,
+                    memoryBudget);
+        }
+    }
+
+    private void activateLimiter(final BundleContext bundleContext, final int maxConcurrent, final long memoryBudget,
+                                 final long timeout) {
+        try {
+            limiter = new ImageTransformLimiter(maxConcurrent, memoryBudget, timeout);
+        } catch (NotCompliantMBeanException e) {
+            log.error("Could not create the image transformation limiter", e);
+            return;
+        }
+        final Dictionary<String, Object> serviceProps = new Hashtable<String, Object>();
+        serviceProps.put("jmx.objectname", JMX_OBJECT_NAME);
+        limiterRegistration = bundleContext.registerService(DynamicMBean.class.getName(), limiter, serviceProps);
+    }
+
+    private void activateCache(final BundleContext bundleContext, final long maxSize) {
+        final File directory = bundleContext.getDataFile(CACHE_DIRECTORY);
+        if (directory == null) {
+            log.warn("Transformed images are not cached, as there is no file system support for the bundle");
+            return;
+        }
+
+        cache = new TransformedImageCache(directory, maxSize);
+        cache.load();
+
+        final Dictionary<String, Object> serviceProps = new Hashtable<String, Object>();
+        serviceProps.put(ResourceChangeListener.PATHS, CACHE_INVALIDATION_PATH);
+        cacheRegistration = bundleContext.registerService(ResourceChangeListener.class.getName(), cache, serviceProps);
+        log.info("Caching transformed images in {}, up to {} bytes", directory, maxSize);
+    }
+
+    @Deactivate
+    protected final void deactivate() {
+        if (cacheRegistration != null) {
+            cacheRegistration.unregister();
+            cacheRegistration = null;
+        }
+        cache = null;
+        if (limiterRegistration != null) {
+            limiterRegistration.unregister();
+            limiterRegistration = null;
+        }
+        limiter = null;
     }
 
     protected final void bindNamedImageTransformers(final NamedImageTransformer service,
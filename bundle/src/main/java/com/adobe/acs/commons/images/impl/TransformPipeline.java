@@ -0,0 +1,125 @@
+/*
+ * ACS AEM Commons
+ *
+ * Copyright (C) 2013 - 2023 Adobe
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.adobe.acs.commons.images.impl;
+
+import com.adobe.acs.commons.images.ImageTransformer;
+import com.adobe.acs.commons.images.transformers.impl.PixelImageTransformer;
+import com.day.image.Layer;
+import org.apache.sling.api.resource.ValueMap;
+import org.jetbrains.annotations.NotNull;
+
+import java.awt.Dimension;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.function.IntUnaryOperator;
+
+/**
+ * Applies a chain of image transforms with as few passes over full size images as possible.
+ * <p>
+ * Linear transforms that change every pixel by its own value only ({@link PixelImageTransformer#isLinear}) are
+ * deferred past crops and resizes that shrink the image, so they run over fewer pixels. Consecutive pixel transforms
+ * that provide a pixel operation are applied in one pass. All other transforms keep their order, as do crops and
+ * resizes among each other: their params refer to the size of the image they get.
+ * </p>
+ */
+final class TransformPipeline {
+
+    static final String TYPE_CROP = "crop";
+
+    private final List<Step> steps = new ArrayList<>();
+
+    /**
+     * Adds a transform to the end of the chain.
+     */
+    void add(@NotNull String type, @NotNull ImageTransformer transformer, @NotNull ValueMap params) {
+        steps.add(new Step(type, transformer, params));
+    }
+
+    @NotNull
+    Layer apply(@NotNull Layer layer) {
+        final List<Step> deferred = new ArrayList<>();
+        Layer result = layer;
+        for (final Step step : steps) {
+            if (step.transformer instanceof PixelImageTransformer) {
+                deferred.add(step);
+                continue;
+            }
+            if (!deferred.isEmpty()) {
+                final int kept = shrinks(step, result) ? countLinearTail(deferred) : 0;
+                final List<Step> applied = deferred.subList(0, deferred.size() - kept);
+                result = applyPixelSteps(result, applied);
+                applied.clear();
+            }
+            result = step.transformer.transform(result, step.params);
+        }
+        return applyPixelSteps(result, deferred);
+    }
+
+    /**
+     * @return true if the step only crops or shrinks the image, so pixel transforms may run after it
+     */
+    private static boolean shrinks(Step step, Layer layer) {
+        return TYPE_CROP.equals(step.type) || TransformSourceSelector.getTargetSize(step.type, step.params,
+                new Dimension(layer.getWidth(), layer.getHeight())) != null;
+    }
+
+    /**
+     * @return the number of linear steps at the end of the list, which may run after the image is shrunk
+     */
+    private static int countLinearTail(List<Step> pixelSteps) {
+        int count = 0;
+        for (int i = pixelSteps.size() - 1; i >= 0; i--) {
+            final Step step = pixelSteps.get(i);
+            if (!((PixelImageTransformer) step.transformer).isLinear(step.params)) {
+                break;
+            }
+            count++;
+        }
+        return count;
+    }
+
+    private static Layer applyPixelSteps(Layer layer, List<Step> pixelSteps) {
+        Layer result = layer;
+        IntUnaryOperator fused = null;
+        for (final Step step : pixelSteps) {
+            final IntUnaryOperator operation = ((PixelImageTransformer) step.transformer).getPixelOperation(step.params);
+            if (operation != null) {
+                fused = fused == null ? operation : fused.andThen(operation);
+                continue;
+            }
+            if (fused != null) {
+                result = PixelImageTransformer.apply(result, fused);
+                fused = null;
+            }
+            result = step.transformer.transform(result, step.params);
+        }
+        return fused != null ? PixelImageTransformer.apply(result, fused) : result;
+    }
+
+    private static final class Step {
+        private final String type;
+        private final ImageTransformer transformer;
+        private final ValueMap params;
+
+        private Step(String type, ImageTransformer transformer, ValueMap params) {
+            this.type = type;
+            this.transformer = transformer;
+            this.params = params;
+        }
+    }
+}
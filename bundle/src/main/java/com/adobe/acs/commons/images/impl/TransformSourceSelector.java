@@ -0,0 +1,322 @@
+/*
+ * ACS AEM Commons
+ *
+ * Copyright (C) 2013 - 2023 Adobe
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.adobe.acs.commons.images.impl;
+
+import com.day.cq.dam.api.Asset;
+import com.day.cq.dam.api.Rendition;
+import com.day.image.Layer;
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import org.apache.commons.lang3.StringUtils;
+import org.apache.sling.api.resource.ValueMap;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.imageio.ImageIO;
+import javax.imageio.ImageReadParam;
+import javax.imageio.ImageReader;
+import javax.imageio.stream.ImageInputStream;
+import java.awt.Dimension;
+import java.awt.image.BufferedImage;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.concurrent.ExecutionException;
+
+/**
+ * Finds a smaller source for named transforms that start by resizing the image, so large originals don't have to be
+ * decoded in full to render a thumbnail. The sizes the resize transforms compute here must match the transforms in
+ * {@code com.adobe.acs.commons.images.transformers.impl}.
+ */
+final class TransformSourceSelector {
+
+    private static final Logger log = LoggerFactory.getLogger(TransformSourceSelector.class);
+
+    static final String TYPE_RESIZE = "resize";
+    static final String TYPE_BOUNDED_RESIZE = "bounded-resize";
+
+    private static final String KEY_WIDTH = "width";
+    private static final String KEY_WIDTH_ALIAS = "w";
+    private static final String KEY_HEIGHT = "height";
+    private static final String KEY_HEIGHT_ALIAS = "h";
+
+    /**
+     * Renditions with an aspect ratio deviating more than this from the original are padded or cropped
+     */
+    private static final double ASPECT_RATIO_TOLERANCE = 0.01;
+
+    /**
+     * The decoded image is kept at least this many times the target size, so the resize still smooths it
+     */
+    private static final int SUBSAMPLING_MARGIN = 2;
+
+    private TransformSourceSelector() {
+    }
+
+    /**
+     * @param type   type of the first transform
+     * @param params params of the first transform
+     * @param size   size of the original image
+     * @return the size the transform resizes the original to, null if it does not shrink it
+     */
+    @Nullable
+    static Dimension getTargetSize(@NotNull String type, @NotNull ValueMap params, @NotNull Dimension size) {
+        int width;
+        int height;
+        if (TYPE_RESIZE.equals(type)) {
+            width = params.get(KEY_WIDTH, params.get(KEY_WIDTH_ALIAS, 0));
+            height = params.get(KEY_HEIGHT, params.get(KEY_HEIGHT_ALIAS, 0));
+            if (width < 1 && height < 1) {
+                return null;
+            } else if (width < 1) {
+                width = Math.round(size.width * ((float) height / size.height));
+            } else if (height < 1) {
+                height = Math.round(size.height * ((float) width / size.width));
+            }
+        } else if (TYPE_BOUNDED_RESIZE.equals(type)) {
+            width = params.get(KEY_WIDTH, params.get(KEY_WIDTH_ALIAS, size.width));
+            height = params.get(KEY_HEIGHT, params.get(KEY_HEIGHT_ALIAS, size.height));
+            if ((float) width / size.width < (float) height / size.height) {
+                height = Math.round(size.height * ((float) width / size.width));
+            } else {
+                width = Math.round(size.width * ((float) height / size.height));
+            }
+            if (width > size.width || height > size.height) {
+                // either not resized at all or upscaled
+                return null;
+            }
+        } else {
+            return null;
+        }
+        if (width >= size.width && height >= size.height) {
+            return null;
+        }
+        return new Dimension(width, height);
+    }
+
+    /**
+     * @param asset          the asset the image shows the original of, null if it is no asset
+     * @param renditionSizes the sizes of the asset's renditions read so far
+     * @param originalSize   size of the original image
+     * @param targetSize     size the first transform resizes the original to
+     * @return the smallest rendition that is large enough, else the original decoded with subsampling, null if only
+     * the original decoded in full is
+     */
+    @Nullable
+    static Source select(@Nullable Asset asset, @NotNull RenditionSizeCache renditionSizes,
+                         @NotNull Dimension originalSize, @NotNull Dimension targetSize) {
+        Source rendition = asset != null ? findRendition(asset, renditionSizes, originalSize, targetSize) : null;
+        if (rendition != null) {
+            return rendition;
+        }
+        int subsampling = getSubsampling(originalSize, targetSize);
+        if (subsampling <= 1) {
+            return null;
+        }
+        return new Source(asset != null ? asset.getOriginal() : null, subsampling, new Dimension(
+                (originalSize.width + subsampling - 1) / subsampling, (originalSize.height + subsampling - 1) / subsampling));
+    }
+
+    /**
+     * @return the smallest rendition with the aspect ratio of the original that is at least the target size, null if
+     * only the original is
+     */
+    @Nullable
+    static Source findRendition(@NotNull Asset asset, @NotNull RenditionSizeCache renditionSizes,
+                                @NotNull Dimension originalSize, @NotNull Dimension targetSize) {
+        Map<String, Dimension> sizes = renditionSizes.get(asset);
+        Rendition smallest = null;
+        Dimension smallestSize = originalSize;
+        for (Rendition rendition : asset.getRenditions()) {
+            Dimension size = sizes.get(rendition.getPath());
+            if (size == null || size.width < targetSize.width || size.height < targetSize.height
+                    || !hasAspectRatio(size, originalSize)) {
+                continue;
+            }
+            if ((long) size.width * size.height < (long) smallestSize.width * smallestSize.height) {
+                smallest = rendition;
+                smallestSize = size;
+            }
+        }
+        return smallest != null ? new Source(smallest, 1, smallestSize) : null;
+    }
+
+    private static boolean hasAspectRatio(Dimension size, Dimension originalSize) {
+        double aspectRatio = (double) originalSize.width / originalSize.height;
+        return Math.abs((double) size.width / size.height - aspectRatio) <= aspectRatio * ASPECT_RATIO_TOLERANCE;
+    }
+
+    /**
+     * Read the sizes of the image renditions besides the original.
+     *
+     * @return the sizes by rendition path, without the renditions that can not be read
+     */
+    @NotNull
+    private static Map<String, Dimension> readRenditionSizes(@NotNull Asset asset) {
+        Rendition original = asset.getOriginal();
+        Map<String, Dimension> sizes = new HashMap<>();
+        for (Rendition rendition : asset.getRenditions()) {
+            if (original != null && StringUtils.equals(rendition.getPath(), original.getPath())
+                    || !StringUtils.startsWith(rendition.getMimeType(), "image/")) {
+                continue;
+            }
+            Dimension size = readSize(rendition.getStream());
+            if (size != null) {
+                sizes.put(rendition.getPath(), size);
+            }
+        }
+        return sizes;
+    }
+
+    /**
+     * Read the size of an image from its header, without decoding it.
+     *
+     * @return the size, or null if the image can not be read
+     */
+    @Nullable
+    static Dimension readSize(@Nullable InputStream stream) {
+        if (stream == null) {
+            return null;
+        }
+        try (InputStream in = stream; ImageInputStream imageStream = ImageIO.createImageInputStream(in)) {
+            ImageReader reader = getReader(imageStream);
+            if (reader == null) {
+                return null;
+            }
+            try {
+                reader.setInput(imageStream, true, true);
+                return new Dimension(reader.getWidth(0), reader.getHeight(0));
+            } finally {
+                reader.dispose();
+            }
+        } catch (IOException | RuntimeException e) {
+            log.debug("Could not read image size", e);
+            return null;
+        }
+    }
+
+    /**
+     * @return the subsampling to decode an image with, so it is still at least twice the target size
+     */
+    static int getSubsampling(@NotNull Dimension size, @NotNull Dimension targetSize) {
+        int subsampling = Math.min(size.width / Math.max(1, targetSize.width), size.height / Math.max(1, targetSize.height));
+        return Math.max(1, subsampling / SUBSAMPLING_MARGIN);
+    }
+
+    /**
+     * Decode an image, reading only every n-th pixel of every n-th row.
+     *
+     * @return the layer, or null if the image can not be read with ImageIO
+     */
+    @Nullable
+    static Layer decodeSubsampled(@NotNull InputStream stream, int subsampling) {
+        try (InputStream in = stream; ImageInputStream imageStream = ImageIO.createImageInputStream(in)) {
+            ImageReader reader = getReader(imageStream);
+            if (reader == null) {
+                return null;
+            }
+            try {
+                reader.setInput(imageStream, true, true);
+                ImageReadParam param = reader.getDefaultReadParam();
+                param.setSourceSubsampling(subsampling, subsampling, 0, 0);
+                BufferedImage image = reader.read(0, param);
+                return new Layer(image);
+            } finally {
+                reader.dispose();
+            }
+        } catch (IOException | RuntimeException e) {
+            log.debug("Could not decode image with subsampling", e);
+            return null;
+        }
+    }
+
+    @Nullable
+    private static ImageReader getReader(@Nullable ImageInputStream imageStream) {
+        if (imageStream == null) {
+            return null;
+        }
+        Iterator<ImageReader> readers = ImageIO.getImageReaders(imageStream);
+        return readers.hasNext() ? readers.next() : null;
+    }
+
+    /**
+     * A smaller source to decode instead of the original: a rendition, or the original with subsampling.
+     */
+    static final class Source {
+        private final Rendition rendition;
+        private final int subsampling;
+        private final Dimension size;
+
+        private Source(@Nullable Rendition rendition, int subsampling, @NotNull Dimension size) {
+            this.rendition = rendition;
+            this.subsampling = subsampling;
+            this.size = size;
+        }
+
+        /**
+         * @return the rendition to decode, null for the data of the image itself
+         */
+        @Nullable
+        Rendition getRendition() {
+            return rendition;
+        }
+
+        /**
+         * @return the subsampling to decode with, 1 for a rendition that is decoded in full
+         */
+        int getSubsampling() {
+            return subsampling;
+        }
+
+        /**
+         * @return the size of the decoded image
+         */
+        @NotNull
+        Dimension getSize() {
+            return size;
+        }
+    }
+
+    /**
+     * Remembers the rendition sizes of recently transformed assets, so the rendition headers are not read on every
+     * request. The sizes are read again once the asset is modified.
+     */
+    static final class RenditionSizeCache {
+        private final Cache<String, Map<String, Dimension>> cache;
+
+        RenditionSizeCache(long maxAssets) {
+            cache = CacheBuilder.newBuilder().maximumSize(maxAssets).build();
+        }
+
+        @NotNull
+        Map<String, Dimension> get(@NotNull Asset asset) {
+            String key = asset.getPath() + "@" + asset.getLastModified();
+            try {
+                return cache.get(key, () -> readRenditionSizes(asset));
+            } catch (ExecutionException e) {
+                log.debug("Could not read rendition sizes of {}", asset.getPath(), e);
+                return Collections.emptyMap();
+            }
+        }
+    }
+}
@@ -0,0 +1,225 @@
+/*
+ * ACS AEM Commons
+ *
+ * Copyright (C) 2013 - 2023 Adobe
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.adobe.acs.commons.images.impl;
+
+import org.apache.commons.codec.digest.DigestUtils;
+import org.apache.commons.lang3.StringUtils;
+import org.apache.sling.api.resource.observation.ResourceChange;
+import org.apache.sling.api.resource.observation.ResourceChangeListener;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Disk cache of the output of the {@link NamedTransformImageServlet}. Each file is named by the hash of everything
+ * the transformed image depends on, so a changed image or transform never hits an old entry. Entries are evicted
+ * least recently used first once the cache exceeds its size, and dropped when their source images change.
+ */
+class TransformedImageCache implements ResourceChangeListener {
+
+    private static final Logger log = LoggerFactory.getLogger(TransformedImageCache.class);
+
+    private static final String TEMP_SUFFIX = ".tmp";
+
+    private final File directory;
+    private final long maxSize;
+
+    /**
+     * Entries in access order, guarded by this
+     */
+    private final LinkedHashMap<String, Entry> entries = new LinkedHashMap<>(16, 0.75f, true);
+    private long size;
+
+    /**
+     * @param directory directory to keep the transformed images in
+     * @param maxSize   maximum size of all transformed images in bytes
+     */
+    TransformedImageCache(@NotNull File directory, long maxSize) {
+        this.directory = directory;
+        this.maxSize = maxSize;
+    }
+
+    /**
+     * Pick up the transformed images kept from earlier runs, oldest first. Their source paths are not known, so they
+     * are only evicted, not invalidated, which is safe as their keys include the last modified time of their images.
+     */
+    synchronized void load() {
+        if (!directory.isDirectory() && !directory.mkdirs()) {
+            log.warn("Could not create transformed image cache at {}", directory);
+            return;
+        }
+        File[] files = directory.listFiles();
+        if (files == null) {
+            return;
+        }
+        Arrays.sort(files, Comparator.comparingLong(File::lastModified));
+        for (File file : files) {
+            if (file.getName().endsWith(TEMP_SUFFIX)) {
+                deleteFile(file);
+            } else {
+                add(file.getName(), new Entry(file, file.length(), Collections.emptyList()));
+            }
+        }
+        log.debug("Loaded {} transformed images ({} bytes) from {}", entries.size(), size, directory);
+    }
+
+    /**
+     * @return the key of a transformed image, computed from everything its output depends on
+     */
+    static String key(Object... parts) {
+        return DigestUtils.sha256Hex(StringUtils.join(parts, '\n'));
+    }
+
+    /**
+     * @return the file with the transformed image, null if it is not cached
+     */
+    @Nullable
+    synchronized File get(@NotNull String key) {
+        Entry entry = entries.get(key);
+        if (entry == null) {
+            return null;
+        }
+        if (!entry.file.isFile()) {
+            remove(key);
+            return null;
+        }
+        return entry.file;
+    }
+
+    /**
+     * Cache a transformed image.
+     *
+     * @param sourcePaths paths of the resources the image was rendered from; changes to these drop the entry
+     */
+    void put(@NotNull String key, @NotNull Collection<String> sourcePaths, byte[] data) {
+        File file = new File(directory, key);
+        File temp = new File(directory, key + "." + Thread.currentThread().getId() + TEMP_SUFFIX);
+        try {
+            Files.write(temp.toPath(), data);
+            Files.move(temp.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } catch (IOException e) {
+            log.warn("Could not cache transformed image {}", file, e);
+            deleteFile(temp);
+            return;
+        }
+        synchronized (this) {
+            remove(key);
+            add(key, new Entry(file, data.length, sourcePaths));
+        }
+    }
+
+    @Override
+    public void onChange(@NotNull List<ResourceChange> changes) {
+        synchronized (this) {
+            Iterator<Map.Entry<String, Entry>> iterator = entries.entrySet().iterator();
+            while (iterator.hasNext()) {
+                Entry entry = iterator.next().getValue();
+                if (changes.stream().anyMatch(change -> entry.isAffectedBy(change.getPath()))) {
+                    iterator.remove();
+                    size -= entry.size;
+                    deleteFile(entry.file);
+                }
+            }
+        }
+    }
+
+    synchronized void clear() {
+        for (Entry entry : entries.values()) {
+            deleteFile(entry.file);
+        }
+        entries.clear();
+        size = 0;
+    }
+
+    synchronized int getEntryCount() {
+        return entries.size();
+    }
+
+    synchronized long getSize() {
+        return size;
+    }
+
+    private void add(String key, Entry entry) {
+        entries.put(key, entry);
+        size += entry.size;
+        Iterator<Entry> eldest = entries.values().iterator();
+        while (size > maxSize && eldest.hasNext()) {
+            Entry evicted = eldest.next();
+            eldest.remove();
+            size -= evicted.size;
+            deleteFile(evicted.file);
+        }
+    }
+
+    /**
+     * Forget an entry, leaving its file as it may already be replaced.
+     */
+    private void remove(String key) {
+        Entry entry = entries.remove(key);
+        if (entry != null) {
+            size -= entry.size;
+        }
+    }
+
+    private static void deleteFile(File file) {
+        try {
+            Files.deleteIfExists(file.toPath());
+        } catch (IOException e) {
+            log.warn("Could not delete transformed image {}", file, e);
+        }
+    }
+
+    private static final class Entry {
+        private final File file;
+        private final long size;
+        private final Collection<String> sourcePaths;
+
+        Entry(File file, long size, Collection<String> sourcePaths) {
+            this.file = file;
+            this.size = size;
+            this.sourcePaths = sourcePaths;
+        }
+
+        /**
+         * @return whether a change at the given path affects a source of this entry, that is, the path is one of
+         * the sources, an ancestor of one or below one, like a rendition of an asset
+         */
+        boolean isAffectedBy(String path) {
+            for (String sourcePath : sourcePaths) {
+                if (sourcePath.equals(path) || sourcePath.startsWith(path + "/") || path.startsWith(sourcePath + "/")) {
+                    return true;
+                }
+            }
+            return false;
+        }
+    }
+}
@@ -27,14 +27,16 @@ import org.apache.sling.api.resource.ValueMap;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import java.util.function.IntUnaryOperator;
+
 /**
  * ACS AEM Commons - Image Transformer - Adjust Brightness and Contrast
  */
 @Component
 @Property(name = ImageTransformer.PROP_TYPE,
           value = AdjustImageTransformerImpl.TYPE)
-@Service
-public class AdjustImageTransformerImpl implements ImageTransformer {
+@Service(ImageTransformer.class)
+public class AdjustImageTransformerImpl implements PixelImageTransformer {
     private static final Logger log = LoggerFactory.getLogger(AdjustImageTransformerImpl.class);
 
     static final String TYPE = "adjust";
@@ -61,4 +63,12 @@ public class AdjustImageTransformerImpl implements ImageTransformer {
 
         return layer;
     }
+
+    /**
+     * Applied to the whole layer by {@link Layer}.
+     */
+    @Override
+    public final IntUnaryOperator getPixelOperation(final ValueMap properties) {
+        return null;
+    }
 }
@@ -28,6 +28,8 @@ import org.apache.sling.api.resource.ValueMap;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import java.util.function.IntUnaryOperator;
+
 /**
  * ACS AEM Commons - Image Transformer - Greyscale
  */
@@ -38,8 +40,8 @@ import org.slf4j.LoggerFactory;
                 value = GreyscaleImageTransformerImpl.TYPE
         )
 })
-@Service
-public class GreyscaleImageTransformerImpl implements ImageTransformer {
+@Service(ImageTransformer.class)
+public class GreyscaleImageTransformerImpl implements PixelImageTransformer {
     private static final Logger log = LoggerFactory.getLogger(GreyscaleImageTransformerImpl.class);
 
     static final String TYPE = "greyscale";
@@ -52,4 +54,17 @@ public class GreyscaleImageTransformerImpl implements ImageTransformer {
 
         return layer;
     }
+
+    /**
+     * Applied to the whole layer by {@link Layer}.
+     */
+    @Override
+    public final IntUnaryOperator getPixelOperation(final ValueMap properties) {
+        return null;
+    }
+
+    @Override
+    public final boolean isLinear(final ValueMap properties) {
+        return true;
+    }
 }
@@ -18,10 +18,8 @@
 
 package com.adobe.acs.commons.images.transformers.impl;
 
-import java.awt.AlphaComposite;
 import java.awt.Color;
-import java.awt.Graphics2D;
-import java.awt.image.BufferedImage;
+import java.util.function.IntUnaryOperator;
 
 import org.apache.felix.scr.annotations.Component;
 import org.apache.felix.scr.annotations.Properties;
@@ -32,7 +30,7 @@ import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import com.adobe.acs.commons.images.ImageTransformer;
-import com.adobe.acs.commons.images.transformers.impl.composites.MultiplyBlendComposite;
+import com.adobe.acs.commons.images.transformers.impl.composites.contexts.MultiplyCompositeContext;
 import com.day.image.Layer;
 
 /**
@@ -46,9 +44,9 @@ import com.day.image.Layer;
                 value = MultiplyBlendImageTransformerImpl.TYPE
         )
 })
-@Service
+@Service(ImageTransformer.class)
 //@formatter:on
-public class MultiplyBlendImageTransformerImpl implements ImageTransformer {
+public class MultiplyBlendImageTransformerImpl implements PixelImageTransformer {
     private static final Logger log = LoggerFactory.getLogger(MultiplyBlendImageTransformerImpl.class);
 
     static final String TYPE = "multiply";
@@ -80,34 +78,25 @@ public class MultiplyBlendImageTransformerImpl implements ImageTransformer {
 
         log.debug("Transforming with [ {} ]", TYPE);
 
-        float alpha = normalizeAlpha(properties.get(KEY_ALPHA, properties.get(KEY_ALPHA_ALIAS, 0.0)).floatValue());
-
-        Color color = getColor(properties);
-        Layer filter = new Layer(layer.getWidth(), layer.getHeight(), color);
-
-        BufferedImage image = merge(layer.getImage(), filter.getImage(), alpha);
-        Layer result = new Layer(image);
-        return result;
+        return PixelImageTransformer.apply(layer, getPixelOperation(properties));
     }
 
-    private BufferedImage merge(final BufferedImage original, final BufferedImage colorBlend, float alpha) {
-        BufferedImage image = new BufferedImage(original.getWidth(), original.getHeight(), BufferedImage.TYPE_INT_ARGB);
-
-        // Create the background
-        Graphics2D graphics = image.createGraphics();
-        graphics.setComposite(AlphaComposite.Clear);
-        graphics.fillRect(0, 0, original.getWidth(), original.getHeight());
+    @Override
+    public final IntUnaryOperator getPixelOperation(final ValueMap properties) {
+        if (properties.isEmpty()) {
+            return null;
+        }
 
-        // Add the original image
-        graphics.setComposite(AlphaComposite.Src);
-        graphics.drawImage(original, 0, 0, null);
+        float alpha = normalizeAlpha(properties.get(KEY_ALPHA, properties.get(KEY_ALPHA_ALIAS, 0.0)).floatValue());
 
-        // Merge in the color filter
-        graphics.setComposite(new MultiplyBlendComposite(alpha));
-        graphics.drawImage(colorBlend, 0, 0, null);
-        graphics.dispose();
+        final int color = getColor(properties).getRGB();
+        final MultiplyCompositeContext context = new MultiplyCompositeContext(alpha);
+        return pixel -> context.blend(color, pixel);
+    }
 
-        return image;
+    @Override
+    public final boolean isLinear(final ValueMap properties) {
+        return true;
     }
 
     private Color getColor(final ValueMap properties) {
@@ -0,0 +1,73 @@
+/*
+ * ACS AEM Commons
+ *
+ * Copyright (C) 2013 - 2023 Adobe
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.adobe.acs.commons.images.transformers.impl;
+
+import com.adobe.acs.commons.images.ImageTransformer;
+import com.day.image.Layer;
+import org.apache.sling.api.resource.ValueMap;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.awt.image.BufferedImage;
+import java.util.function.IntUnaryOperator;
+
+/**
+ * An ImageTransformer that changes every pixel by its own value only. Several of them may be applied in one pass
+ * over the pixels, and linear ones after the image is cropped or shrunk.
+ */
+public interface PixelImageTransformer extends ImageTransformer {
+
+    /**
+     * @param properties the transform params
+     * @return the operation on an INT_ARGB pixel, null if the transform is only applied to the whole layer
+     */
+    @Nullable
+    IntUnaryOperator getPixelOperation(@NotNull ValueMap properties);
+
+    /**
+     * A linear transform gives the same image whether it is applied before or after the pixels are resampled, so it
+     * may be deferred until the image is cropped or shrunk. Transforms that clamp or curve color values may not.
+     *
+     * @param properties the transform params
+     * @return true if the transform is linear in the color values
+     */
+    default boolean isLinear(@NotNull ValueMap properties) {
+        return false;
+    }
+
+    /**
+     * Applies an operation to every pixel of a layer, row by row.
+     *
+     * @return a new INT_ARGB layer with the changed pixels
+     */
+    static Layer apply(@NotNull Layer layer, @NotNull IntUnaryOperator operation) {
+        final BufferedImage original = layer.getImage();
+        final int width = original.getWidth();
+        final int height = original.getHeight();
+        final BufferedImage result = new BufferedImage(width, height, BufferedImage.TYPE_INT_ARGB);
+        final int[] row = new int[width];
+        for (int y = 0; y < height; y++) {
+            original.getRGB(0, y, width, 1, row, 0, width);
+            for (int x = 0; x < width; x++) {
+                row[x] = operation.applyAsInt(row[x]);
+            }
+            result.setRGB(0, y, width, 1, row, 0, width);
+        }
+        return new Layer(result);
+    }
+}
@@ -18,8 +18,7 @@
 
 package com.adobe.acs.commons.images.transformers.impl;
 
-import java.awt.Color;
-import java.awt.image.BufferedImage;
+import java.util.function.IntUnaryOperator;
 
 import org.apache.felix.scr.annotations.Component;
 import org.apache.felix.scr.annotations.Properties;
@@ -43,9 +42,9 @@ import com.day.image.Layer;
                 value = RGBShiftImageTransformerImpl.TYPE
         )
 })
-@Service
+@Service(ImageTransformer.class)
 //@formatter:on
-public class RGBShiftImageTransformerImpl implements ImageTransformer {
+public class RGBShiftImageTransformerImpl implements PixelImageTransformer {
     private static final Logger log = LoggerFactory.getLogger(RGBShiftImageTransformerImpl.class);
 
     static final String TYPE = "rgb-shift";
@@ -66,6 +65,10 @@ public class RGBShiftImageTransformerImpl implements ImageTransformer {
     private static final int MIN_COLOR_VALUE = 0;
     private static final int MAX_COLOR_VALUE = 255;
 
+    private static final int OPAQUE = 0xFF000000;
+    private static final int RED_OFFSET = 16;
+    private static final int GREEN_OFFSET = 8;
+
     @Override
     public final Layer transform(final Layer layer, final ValueMap properties) {
 
@@ -76,6 +79,15 @@ public class RGBShiftImageTransformerImpl implements ImageTransformer {
 
         log.debug("Transforming with [ {} ]", TYPE);
 
+        return PixelImageTransformer.apply(layer, getPixelOperation(properties));
+    }
+
+    @Override
+    public final IntUnaryOperator getPixelOperation(final ValueMap properties) {
+        if (properties.isEmpty()) {
+            return null;
+        }
+
         float red = normalizeRGB(properties.get(KEY_RED, properties.get(KEY_RED_ALIAS, DEFAULT_SHIFT_VALUE))
                 .floatValue());
         float green = normalizeRGB(properties.get(KEY_GREEN, properties.get(KEY_GREEN_ALIAS, DEFAULT_SHIFT_VALUE))
@@ -87,49 +99,26 @@ public class RGBShiftImageTransformerImpl implements ImageTransformer {
         int greenShift = Math.round(green * MAX_COLOR_VALUE);
         int blueShift = Math.round(blue * MAX_COLOR_VALUE);
 
-        BufferedImage image = shift(layer.getImage(), redShift, greenShift, blueShift);
+        return pixel -> shift(pixel, redShift, greenShift, blueShift);
+    }
 
-        Layer result = new Layer(image);
-        return result;
+    /**
+     * Shifts the colors of an INT_ARGB pixel. The shifted pixel is opaque.
+     */
+    private static int shift(final int pixel, final int redShift, final int greenShift, final int blueShift) {
+        int red = clamp(((pixel >> RED_OFFSET) & MAX_COLOR_VALUE) + redShift);
+        int green = clamp(((pixel >> GREEN_OFFSET) & MAX_COLOR_VALUE) + greenShift);
+        int blue = clamp((pixel & MAX_COLOR_VALUE) + blueShift);
+        return OPAQUE | (red << RED_OFFSET) | (green << GREEN_OFFSET) | blue;
     }
 
-    private BufferedImage shift(final BufferedImage original, final int redShift, final int greenShift,
-            final int blueShift) {
-        BufferedImage updated = new BufferedImage(original.getWidth(), original.getHeight(),
-                BufferedImage.TYPE_INT_ARGB);
-
-        for (int x = 0; x < original.getWidth(); x++) {
-            for (int y = 0; y < original.getHeight(); y++) {
-                Color pixel = new Color(original.getRGB(x, y));
-
-                int red = pixel.getRed() + redShift;
-                if (red > MAX_COLOR_VALUE) {
-                    red = MAX_COLOR_VALUE;
-                } else if (red < MIN_COLOR_VALUE) {
-                    red = MIN_COLOR_VALUE;
-                }
-
-                int green = pixel.getGreen() + greenShift;
-                if (green > MAX_COLOR_VALUE) {
-                    green = MAX_COLOR_VALUE;
-                } else if (green < MIN_COLOR_VALUE) {
-                    green = MIN_COLOR_VALUE;
-                }
-
-                int blue = pixel.getBlue() + blueShift;
-                if (blue > MAX_COLOR_VALUE) {
-                    blue = MAX_COLOR_VALUE;
-                } else if (blue < MIN_COLOR_VALUE) {
-                    blue = MIN_COLOR_VALUE;
-                }
-
-                Color shifted = new Color(red, green, blue);
-                updated.setRGB(x, y, shifted.getRGB());
-
-            }
+    private static int clamp(final int color) {
+        if (color > MAX_COLOR_VALUE) {
+            return MAX_COLOR_VALUE;
+        } else if (color < MIN_COLOR_VALUE) {
+            return MIN_COLOR_VALUE;
         }
-
-        return updated;
+        return color;
     }
 
     private float normalizeRGB(float rgbValue) {
@@ -60,34 +60,42 @@ public class MultiplyCompositeContext implements CompositeContext {
             for (int x = 0; x < width; x++) {
 
                 // pixels are stored as INT_ARGB
-                int srcPixel = srcPixels[x];
-                int destPixel = destPixels[x];
-                int result = 0;
-                int tmp = 0;
-
-                for (ColorMask mask : ColorMask.values()) {
-
-                    int srcColor = (srcPixel >> mask.getMask()) & ColorMask.MAX_DEPTH;
-                    int destColor = (destPixel >> mask.getMask()) & ColorMask.MAX_DEPTH;
-                    tmp = blendColor(srcColor, destColor);
-
-                    tmp = processColorOpacity(tmp, destColor);
-                    result = result | (tmp << mask.getMask());
-                }
-
-                int srcAlpha = (srcPixel >> ALPHA_MASK) & ColorMask.MAX_DEPTH;
-                int destAlpha = (destPixel >> ALPHA_MASK) & ColorMask.MAX_DEPTH;
-
-                tmp = blendAlpha(srcAlpha, destAlpha);
-                tmp = processAlphaOpacity(tmp, destAlpha);
-                result = result | (tmp << ALPHA_MASK);
-                destPixels[x] = result;
+                destPixels[x] = blend(srcPixels[x], destPixels[x]);
             }
             dstOut.setDataElements(0, y, width, 1, destPixels);
         }
 
     }
 
+    /**
+     * Blends a single pixel.
+     *
+     * @param srcPixel  the INT_ARGB pixel to blend in
+     * @param destPixel the INT_ARGB pixel to blend into
+     * @return the blended INT_ARGB pixel
+     */
+    public int blend(int srcPixel, int destPixel) {
+        int result = 0;
+        int tmp = 0;
+
+        for (ColorMask mask : ColorMask.values()) {
+
+            int srcColor = (srcPixel >> mask.getMask()) & ColorMask.MAX_DEPTH;
+            int destColor = (destPixel >> mask.getMask()) & ColorMask.MAX_DEPTH;
+            tmp = blendColor(srcColor, destColor);
+
+            tmp = processColorOpacity(tmp, destColor);
+            result = result | (tmp << mask.getMask());
+        }
+
+        int srcAlpha = (srcPixel >> ALPHA_MASK) & ColorMask.MAX_DEPTH;
+        int destAlpha = (destPixel >> ALPHA_MASK) & ColorMask.MAX_DEPTH;
+
+        tmp = blendAlpha(srcAlpha, destAlpha);
+        tmp = processAlphaOpacity(tmp, destAlpha);
+        return result | (tmp << ALPHA_MASK);
+    }
+
     private int blendColor(int src, int dest) {
         return (src * dest) >> BLEND_SHIFT;
 
@@ -0,0 +1,95 @@
+/*
+ * ACS AEM Commons
+ *
+ * Copyright (C) 2013 - 2023 Adobe
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.adobe.acs.commons.redirects.filter;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAccumulator;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Histogram of the time it takes to load a redirect configuration.
+ * <p>
+ * Load times are counted in power-of-two millisecond buckets, i.e. bucket <i>n</i> counts loads that took
+ * up to 2<sup>n</sup> ms. Percentiles are reported as the upper bound of the bucket they fall into.
+ * </p>
+ */
+final class LoadTimeHistogram {
+
+    /**
+     * the last bucket counts everything above 2^(BUCKETS - 2) ms, i.e. above ~9 minutes
+     */
+    private static final int BUCKETS = 21;
+
+    private final AtomicLongArray buckets = new AtomicLongArray(BUCKETS);
+    private final LongAdder count = new LongAdder();
+    private final LongAdder total = new LongAdder();
+    private final LongAccumulator max = new LongAccumulator(Math::max, 0);
+    private volatile long last;
+
+    void record(long millis) {
+        long value = Math.max(millis, 0);
+        int bucket = value <= 1 ? 0 : 64 - Long.numberOfLeadingZeros(value - 1);
+        buckets.incrementAndGet(Math.min(bucket, BUCKETS - 1));
+        count.increment();
+        total.add(value);
+        max.accumulate(value);
+        last = value;
+    }
+
+    long getCount() {
+        return count.sum();
+    }
+
+    long getLast() {
+        return last;
+    }
+
+    long getMax() {
+        return max.get();
+    }
+
+    double getMean() {
+        long n = count.sum();
+        return n == 0 ? 0 : (double) total.sum() / n;
+    }
+
+    /**
+     * @param percentile percentile between 0 and 100
+     * @return the upper bound in ms of the bucket the percentile falls into
+     */
+    long getPercentile(double percentile) {
+        long n = 0;
+        long[] snapshot = new long[BUCKETS];
+        for (int i = 0; i < BUCKETS; i++) {
+            snapshot[i] = buckets.get(i);
+            n += snapshot[i];
+        }
+        if (n == 0) {
+            return 0;
+        }
+        long rank = (long) Math.ceil(percentile / 100 * n);
+        long seen = 0;
+        for (int i = 0; i < BUCKETS - 1; i++) {
+            seen += snapshot[i];
+            if (seen >= rank) {
+                return Math.min(1L << i, getMax());
+            }
+        }
+        return getMax();
+    }
+}
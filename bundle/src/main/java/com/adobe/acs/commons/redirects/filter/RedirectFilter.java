@@ -40,11 +40,16 @@ import java.util.Collections;
 import java.util.Dictionary;
 import java.util.Hashtable;
 import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ExecutionException;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicInteger;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 import java.util.stream.Collectors;
@@ -73,8 +78,10 @@ import org.apache.sling.api.SlingHttpServletRequest;
 import org.apache.sling.api.SlingHttpServletResponse;
 import org.apache.sling.api.request.RequestPathInfo;
 import org.apache.sling.api.resource.AbstractResourceVisitor;
+import org.apache.sling.api.resource.LoginException;
 import org.apache.sling.api.resource.Resource;
 import org.apache.sling.api.resource.ResourceResolver;
+import org.apache.sling.api.resource.ResourceResolverFactory;
 import org.apache.sling.api.resource.ResourceUtil;
 import org.apache.sling.api.resource.ValueMap;
 import org.apache.sling.api.resource.observation.ResourceChange;
@@ -131,6 +138,11 @@ public class RedirectFilter extends AnnotatedStandardMBean
     public static final String ACS_REDIRECTS_RESOURCE_TYPE = "acs-commons/components/utilities/manage-redirects";
     public static final String REDIRECT_RULE_RESOURCE_TYPE = ACS_REDIRECTS_RESOURCE_TYPE + "/redirect-row";
 
+    public static final String SERVICE_NAME = "redirect-manager";
+    static final Map<String, Object> AUTH_INFO = Collections.singletonMap(ResourceResolverFactory.SUBSERVICE, SERVICE_NAME);
+
+    private static final int PRELOAD_THREADS = 4;
+
     public static final String DEFAULT_CONFIG_BUCKET = "settings";
     public static final String DEFAULT_CONFIG_NAME = "redirects";
 
@@ -171,11 +183,24 @@ public class RedirectFilter extends AnnotatedStandardMBean
                 + " which means the default path to store redirects is /conf/global/settings/redirects "
                 + " where 'settings' is the bucket and 'redirects' is the config name", type = AttributeType.STRING)
         String configName() default  DEFAULT_CONFIG_NAME;
+
+        @AttributeDefinition(name = "Incremental Reload", description = "Apply changes of individual redirect rules to the cached configuration "
+                + "instead of dropping it from the cache. Changed rules are read in the background and swapped in atomically, "
+                + "requests keep using the previous rules until then.", type = AttributeType.BOOLEAN)
+        boolean incrementalReload() default false;
+
+        @AttributeDefinition(name = "Preload Rules", description = "Load all redirect configurations in the background when the filter is activated, "
+                + "and reload invalidated configurations in the background. Requests keep being served from the previously loaded rules "
+                + "until the replacement is loaded.", type = AttributeType.BOOLEAN)
+        boolean preloadRules() default false;
     }
 
     @Reference
     ConfigurationResourceResolver configResolver;
 
+    @Reference
+    ResourceResolverFactory resourceResolverFactory;
+
     @Reference(
             cardinality = ReferenceCardinality.OPTIONAL,
             policy = ReferencePolicy.STATIC,
@@ -192,8 +217,15 @@ public class RedirectFilter extends AnnotatedStandardMBean
     private Collection<String> paths = Collections.emptySet();
     private Configuration config;
     private ExecutorService executor;
+    private volatile ExecutorService preloadExecutor;
     Cache<String, RedirectConfiguration> rulesCache;
 
+    /**
+     * configurations with a pending background reload. Further changes are picked up by that reload
+     */
+    private final Set<String> pendingReloads = ConcurrentHashMap.newKeySet();
+    private final Map<String, LoadTimeHistogram> loadTimes = new ConcurrentHashMap<>();
+
     public RedirectFilter() throws NotCompliantMBeanException {
         super(RedirectFilterMBean.class);
     }
@@ -236,6 +268,17 @@ public class RedirectFilter extends AnnotatedStandardMBean
 
             rulesCache = CacheBuilder.newBuilder().build();
 
+            if (config.preloadRules()) {
+                AtomicInteger threadCount = new AtomicInteger();
+                ExecutorService pool = Executors.newFixedThreadPool(PRELOAD_THREADS, r -> {
+                    Thread thread = new Thread(r, "ACS AEM Commons - Redirect Manager preload " + threadCount.incrementAndGet());
+                    thread.setDaemon(true);
+                    return thread;
+                });
+                preloadExecutor = pool;
+                pool.submit(this::preloadAll);
+            }
+
         }
     }
 
@@ -251,6 +294,11 @@ public class RedirectFilter extends AnnotatedStandardMBean
         if(enabled) {
             executor.shutdown();
         }
+        ExecutorService pool = preloadExecutor;
+        preloadExecutor = null;
+        if (pool != null) {
+            pool.shutdownNow();
+        }
         if (listenerRegistration != null) {
             log.debug("unregistering ... ");
             listenerRegistration.unregister();
@@ -274,7 +322,11 @@ public class RedirectFilter extends AnnotatedStandardMBean
                         // loading redirect configurations can be expensive and needs to run
                         // asynchronously,
                         // outside of the Sling event processing chain
-                        executor.submit(() -> invalidate(path));
+                        if (config.incrementalReload() || config.preloadRules()) {
+                            scheduleReload(path);
+                        } else {
+                            executor.submit(() -> invalidate(path));
+                        }
                     }
                 }
             }
@@ -287,12 +339,49 @@ public class RedirectFilter extends AnnotatedStandardMBean
             return;
         }
         String redirectSubPath = config.bucketName() + "/" + config.configName();
+        if (config.incrementalReload()) {
+            Map<String, List<ResourceChange>> changesByConfig = new LinkedHashMap<>();
+            for (ResourceChange e : changes) {
+                String configPath = getConfigPath(e.getPath());
+                if (configPath != null) {
+                    changesByConfig.computeIfAbsent(configPath, p -> new ArrayList<>()).add(e);
+                }
+            }
+            changesByConfig.forEach((configPath, configChanges) -> executor.submit(() -> applyChanges(configPath, configChanges)));
+            return;
+        }
         for(ResourceChange e : changes){
             String path = e.getPath();
             if(path.contains(redirectSubPath)){
-                executor.submit(() -> invalidate(path));
+                if (config.preloadRules()) {
+                    scheduleReload(path);
+                } else {
+                    executor.submit(() -> invalidate(path));
+                }
+            }
+        }
+    }
+
+    /**
+     * Find the redirect configuration an event path belongs to.
+     *
+     * Given an even path, e.g. /conf/global/settings/redirects/redirect-rule-2
+     * this method will return the corresponding configuration (/conf/global/settings/redirects)
+     *
+     * @param changePath    the event path
+     * @return the configuration path or null if the event path is not within a redirect configuration
+     */
+    String getConfigPath(String changePath) {
+        String redirectSubPath = config.bucketName() + "/" + config.configName();
+
+        String configPath = changePath;
+        while( configPath != null){
+            if(configPath.endsWith(redirectSubPath)){
+                return configPath;
             }
+            configPath = ResourceUtil.getParent(configPath);
         }
+        return null;
     }
 
     /**
@@ -305,16 +394,164 @@ public class RedirectFilter extends AnnotatedStandardMBean
      * @param changePath    the event path
      */
     void invalidate(String changePath) {
-        String redirectSubPath = config.bucketName() + "/" + config.configName();
+        String cacheKey = getConfigPath(changePath);
+        if(cacheKey != null){
+            log.debug("invalidating {}", cacheKey);
+            rulesCache.invalidate(cacheKey);
+        }
+    }
+
+    /**
+     * Schedule a background reload of the configuration an event path belongs to,
+     * unless a reload of that configuration is already pending.
+     *
+     * @param changePath    the event path
+     */
+    void scheduleReload(String changePath) {
+        String configPath = getConfigPath(changePath);
+        if (configPath != null && pendingReloads.add(configPath)) {
+            executor.submit(() -> {
+                pendingReloads.remove(configPath);
+                reload(configPath);
+            });
+        }
+    }
+
+    /**
+     * Load all redirect configurations below /conf into the cache
+     */
+    void preloadAll() {
+        String storageSuffix = getBucket() + "/" + getConfigName();
+        List<String> configPaths = new ArrayList<>();
+        try (ResourceResolver resolver = resourceResolverFactory.getServiceResourceResolver(AUTH_INFO)) {
+            new AbstractResourceVisitor() {
+                @Override
+                public void accept(Resource res) {
+                    if (res != null) {
+                        this.visit(res);
+                        if (!res.getPath().endsWith(storageSuffix)) {
+                            this.traverseChildren(res.listChildren());
+                        }
+                    }
+                }
+
+                @Override
+                protected void visit(Resource res) {
+                    if (res.getPath().endsWith(storageSuffix)) {
+                        configPaths.add(res.getPath());
+                    }
+                }
+            }.accept(resolver.getResource("/conf"));
+        } catch (LoginException e) {
+            log.error("failed to preload redirect configurations", e);
+            return;
+        }
+        ExecutorService pool = preloadExecutor;
+        if (pool == null) {
+            // deactivated meanwhile
+            return;
+        }
+        log.debug("preloading redirect configurations: {}", configPaths);
+        try {
+            for (String configPath : configPaths) {
+                pool.submit(() -> preload(configPath));
+            }
+        } catch (RejectedExecutionException e) {
+            log.debug("not preloading redirect configurations after deactivation");
+        }
+    }
 
-        String cacheKey = changePath;
-        while( cacheKey != null){
-            if(cacheKey.endsWith(redirectSubPath)){
-                log.debug("invalidating {}", cacheKey);
-                rulesCache.invalidate(cacheKey);
-                break;
+    private void preload(String configPath) {
+        try (ResourceResolver resolver = resourceResolverFactory.getServiceResourceResolver(AUTH_INFO)) {
+            Resource configResource = resolver.getResource(configPath);
+            if (configResource != null) {
+                rulesCache.get(configPath, () -> loadRules(configResource));
             }
-            cacheKey = ResourceUtil.getParent(cacheKey);
+        } catch (LoginException | ExecutionException e) {
+            log.error("failed to preload redirect rules from {}", configPath, e);
+        }
+    }
+
+    /**
+     * Reload a cached redirect configuration and replace it in the cache once it is loaded.
+     * Requests keep using the previously loaded rules until then.
+     *
+     * @param changePath    the event path
+     */
+    void reload(String changePath) {
+        String configPath = getConfigPath(changePath);
+        if(configPath == null || rulesCache.getIfPresent(configPath) == null){
+            // not loaded yet, the next request loads the current rules
+            return;
+        }
+        try (ResourceResolver resolver = resourceResolverFactory.getServiceResourceResolver(AUTH_INFO)) {
+            Resource configResource = resolver.getResource(configPath);
+            if (configResource == null) {
+                rulesCache.invalidate(configPath);
+            } else {
+                rulesCache.put(configPath, loadRules(configResource));
+            }
+        } catch (LoginException e) {
+            log.error("failed to reload redirect rules from {}", configPath, e);
+            rulesCache.invalidate(configPath);
+        }
+    }
+
+    /**
+     * Apply resource changes within a redirect configuration to the cached rules.
+     * <p>
+     * Only the added, changed and removed redirect-row resources are read. They are applied to a copy of the
+     * cached configuration which then replaces it in the cache, so requests never wait for the rules to load.
+     * Changes of the configuration resource itself, e.g. of the context prefix or default Cache-Control headers,
+     * reload the whole configuration in the background.
+     * </p>
+     *
+     * @param configPath the redirect configuration, e.g. /conf/global/settings/redirects
+     * @param changes    the changes at or below the configuration path
+     */
+    void applyChanges(String configPath, List<ResourceChange> changes) {
+        RedirectConfiguration current = rulesCache.getIfPresent(configPath);
+        if (current == null) {
+            // not loaded yet, the next request loads the current rules
+            return;
+        }
+        long t0 = System.currentTimeMillis();
+        try (ResourceResolver resolver = resourceResolverFactory.getServiceResourceResolver(AUTH_INFO)) {
+            Map<String, RedirectRule> updated = new LinkedHashMap<>();
+            Set<String> removed = new LinkedHashSet<>();
+            for (ResourceChange change : changes) {
+                String path = change.getPath();
+                Resource resource = change.getType() == ResourceChange.ChangeType.REMOVED ? null : resolver.getResource(path);
+                if (path.equals(configPath)) {
+                    if (resource == null) {
+                        rulesCache.invalidate(configPath);
+                    } else {
+                        rulesCache.put(configPath, loadRules(resource));
+                    }
+                    return;
+                }
+                if (resource == null) {
+                    removed.add(path);
+                    updated.keySet().removeIf(p -> p.equals(path) || p.startsWith(path + "/"));
+                    continue;
+                }
+                // the changed row or, for added folders, all rows below it
+                for (Resource row : readRedirects(resource)) {
+                    RedirectRule rule = row.adaptTo(RedirectRule.class);
+                    if (rule != null) {
+                        updated.put(row.getPath(), rule);
+                        removed.remove(row.getPath());
+                    } else {
+                        removed.add(row.getPath());
+                    }
+                }
+            }
+            rulesCache.put(configPath, current.withChanges(updated, removed));
+            log.debug("applied {} changed and {} removed rules to {} in {} ms",
+                    updated.size(), removed.size(), configPath, System.currentTimeMillis() - t0);
+        } catch (LoginException e) {
+            log.error("failed to apply changes to redirect rules from {}", configPath, e);
+            rulesCache.invalidate(configPath);
         }
     }
 
@@ -327,8 +564,10 @@ public class RedirectFilter extends AnnotatedStandardMBean
         long t0 = System.currentTimeMillis();
         String storageSuffix = getBucket() + "/" + getConfigName();
         RedirectConfiguration rules = new RedirectConfiguration(storageResource, storageSuffix);
+        long loadTime = System.currentTimeMillis() - t0;
+        loadTimes.computeIfAbsent(storageResource.getPath(), p -> new LoadTimeHistogram()).record(loadTime);
         log.debug("{} rules loaded from {} in {} ms", rules.getPathRules().size() + rules.getPatternRules().size(),
-                storageResource.getPath(), System.currentTimeMillis() - t0);
+                storageResource.getPath(), loadTime);
         return rules;
     }
 
@@ -735,6 +974,112 @@ public class RedirectFilter extends AnnotatedStandardMBean
         return tabularData;
     }
 
+    /**
+     * JMX Operation: hit rate of the regex rules compiled with a context prefix, per loaded configuration
+     *
+     * @return the cache statistics in a tabular format for the MBean
+     */
+    @Override
+    public TabularData getContextPatternCacheStats() throws OpenDataException {
+        String configPath = "Configuration";
+        String hits = "Hits";
+        String misses = "Misses";
+        String hitRate = "Hit Rate";
+        String cacheStats = "Context Pattern Cache";
+        CompositeType cacheEntryType = new CompositeType(cacheStats, cacheStats,
+                new String[]{configPath, hits, misses, hitRate},
+                new String[]{configPath, hits, misses, hitRate},
+                new OpenType[]{SimpleType.STRING, SimpleType.LONG, SimpleType.LONG, SimpleType.DOUBLE});
+
+        TabularDataSupport tabularData = new TabularDataSupport(
+                new TabularType(cacheStats, cacheStats, cacheEntryType, new String[]{configPath}));
+
+        for (Map.Entry<String, RedirectConfiguration> entry : rulesCache.asMap().entrySet()) {
+            RedirectConfiguration cfg = entry.getValue();
+            long hitCount = cfg.getContextPatternHits();
+            long missCount = cfg.getContextPatternMisses();
+            long requestCount = hitCount + missCount;
+
+            Map<String, Object> row = new LinkedHashMap<>();
+            row.put(configPath, entry.getKey());
+            row.put(hits, hitCount);
+            row.put(misses, missCount);
+            row.put(hitRate, requestCount == 0 ? 0.0 : (double) hitCount / requestCount);
+            tabularData.put(new CompositeDataSupport(cacheEntryType, row));
+        }
+        return tabularData;
+    }
+
+    /**
+     * JMX Operation: requests short-circuited by the negative lookup filter, per loaded configuration
+     *
+     * @return the filter statistics in a tabular format for the MBean
+     */
+    @Override
+    public TabularData getNegativeLookupStats() throws OpenDataException {
+        String configPath = "Configuration";
+        String shortCircuits = "Short Circuits";
+        String falsePositives = "False Positives";
+        String lookupStats = "Negative Lookup Filter";
+        CompositeType cacheEntryType = new CompositeType(lookupStats, lookupStats,
+                new String[]{configPath, shortCircuits, falsePositives},
+                new String[]{configPath, shortCircuits, falsePositives},
+                new OpenType[]{SimpleType.STRING, SimpleType.LONG, SimpleType.LONG});
+
+        TabularDataSupport tabularData = new TabularDataSupport(
+                new TabularType(lookupStats, lookupStats, cacheEntryType, new String[]{configPath}));
+
+        for (Map.Entry<String, RedirectConfiguration> entry : rulesCache.asMap().entrySet()) {
+            Map<String, Object> row = new LinkedHashMap<>();
+            row.put(configPath, entry.getKey());
+            row.put(shortCircuits, entry.getValue().getShortCircuits());
+            row.put(falsePositives, entry.getValue().getFalsePositives());
+            tabularData.put(new CompositeDataSupport(cacheEntryType, row));
+        }
+        return tabularData;
+    }
+
+    /**
+     * JMX Operation: histogram of the time it took to load the rules, per configuration
+     *
+     * @return the load times in a tabular format for the MBean
+     */
+    @Override
+    public TabularData getLoadTimes() throws OpenDataException {
+        String configPath = "Configuration";
+        String loads = "Loads";
+        String last = "Last (ms)";
+        String mean = "Mean (ms)";
+        String p50 = "50th Percentile (ms)";
+        String p90 = "90th Percentile (ms)";
+        String p99 = "99th Percentile (ms)";
+        String max = "Max (ms)";
+        String loadTimeStats = "Load Times";
+        CompositeType cacheEntryType = new CompositeType(loadTimeStats, loadTimeStats,
+                new String[]{configPath, loads, last, mean, p50, p90, p99, max},
+                new String[]{configPath, loads, last, mean, p50, p90, p99, max},
+                new OpenType[]{SimpleType.STRING, SimpleType.LONG, SimpleType.LONG, SimpleType.DOUBLE,
+                        SimpleType.LONG, SimpleType.LONG, SimpleType.LONG, SimpleType.LONG});
+
+        TabularDataSupport tabularData = new TabularDataSupport(
+                new TabularType(loadTimeStats, loadTimeStats, cacheEntryType, new String[]{configPath}));
+
+        for (Map.Entry<String, LoadTimeHistogram> entry : loadTimes.entrySet()) {
+            LoadTimeHistogram histogram = entry.getValue();
+            Map<String, Object> row = new LinkedHashMap<>();
+            row.put(configPath, entry.getKey());
+            row.put(loads, histogram.getCount());
+            row.put(last, histogram.getLast());
+            row.put(mean, histogram.getMean());
+            row.put(p50, histogram.getPercentile(50));
+            row.put(p90, histogram.getPercentile(90));
+            row.put(p99, histogram.getPercentile(99));
+            row.put(max, histogram.getMax());
+            tabularData.put(new CompositeDataSupport(cacheEntryType, row));
+        }
+        return tabularData;
+    }
+
     /**
      * JMX Operation: get a list of loaded configurations,
      * e.g. [/conf/global/settings/redirects, /conf/wknd/settings/redirects]
@@ -18,11 +18,13 @@
 package com.adobe.acs.commons.redirects.filter;
 
 import com.adobe.granite.jmx.annotation.Description;
+import org.osgi.annotation.versioning.ProviderType;
 
 import javax.management.openmbean.OpenDataException;
 import javax.management.openmbean.TabularData;
 import java.util.Collection;
 
+@ProviderType
 @Description("ACS Redirect Manager MBean")
 public interface RedirectFilterMBean {
 
@@ -32,6 +34,15 @@ public interface RedirectFilterMBean {
     @Description("Loaded redirect rules")
     TabularData getRedirectRules(String storagePath) throws OpenDataException;
 
+    @Description("Hits and misses of the per-configuration cache of regex rules compiled with the context prefix")
+    TabularData getContextPatternCacheStats() throws OpenDataException;
+
+    @Description("Requests answered by the per-configuration negative lookup filter and its false positives")
+    TabularData getNegativeLookupStats() throws OpenDataException;
+
+    @Description("Time it took to load the rules of each redirect configuration")
+    TabularData getLoadTimes() throws OpenDataException;
+
     @Description("Known redirect configurations")
     Collection<String> getRedirectConfigurations();
 
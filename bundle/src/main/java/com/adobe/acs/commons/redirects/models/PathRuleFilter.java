@@ -0,0 +1,101 @@
+/*
+ * ACS AEM Commons
+ *
+ * Copyright (C) 2013 - 2023 Adobe
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.adobe.acs.commons.redirects.models;
+
+import com.google.common.hash.BloomFilter;
+import com.google.common.hash.Funnels;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Collection;
+
+/**
+ * Bloom filter over the sources of the exact-path redirect rules.
+ * <p>
+ * {@link #mightContain(String)} returning false means that neither the case-sensitive nor the case-insensitive
+ * rules have the given source, so the map lookups can be skipped. Case-insensitive sources are stored folded
+ * the same way {@link String#CASE_INSENSITIVE_ORDER} compares characters.
+ * </p>
+ * <p>
+ * The filter is built together with the rules of a {@link RedirectConfiguration} and never modified afterwards.
+ * </p>
+ */
+final class PathRuleFilter {
+
+    private static final double FALSE_POSITIVE_PROBABILITY = 0.01;
+
+    private final BloomFilter<CharSequence> sources;
+    private final boolean hasCaseInsensitiveSources;
+
+    /**
+     * the case-folding is done per UTF-16 char, disable the filter if sources contain surrogate pairs
+     */
+    private final boolean enabled;
+
+    PathRuleFilter(Collection<String> caseSensitiveSources, Collection<String> caseInsensitiveSources) {
+        int expectedInsertions = Math.max(caseSensitiveSources.size() + caseInsensitiveSources.size(), 1);
+        sources = BloomFilter.create(Funnels.stringFunnel(StandardCharsets.UTF_8), expectedInsertions, FALSE_POSITIVE_PROBABILITY);
+        boolean foldable = true;
+        for (String source : caseSensitiveSources) {
+            sources.put(source);
+        }
+        for (String source : caseInsensitiveSources) {
+            foldable &= !hasSurrogates(source);
+            sources.put(fold(source));
+        }
+        hasCaseInsensitiveSources = !caseInsensitiveSources.isEmpty();
+        enabled = foldable;
+    }
+
+    /**
+     * @param source the path to look up
+     * @return false if there is definitely no exact-path rule for the given path
+     */
+    boolean mightContain(String source) {
+        if (!enabled || sources.mightContain(source)) {
+            return true;
+        }
+        return hasCaseInsensitiveSources && sources.mightContain(fold(source));
+    }
+
+    /**
+     * Map every char to the representative of its equivalence class in {@link String#CASE_INSENSITIVE_ORDER}.
+     */
+    static String fold(String str) {
+        char[] chars = null;
+        for (int i = 0; i < str.length(); i++) {
+            char c = str.charAt(i);
+            char folded = Character.toLowerCase(Character.toUpperCase(c));
+            if (folded != c) {
+                if (chars == null) {
+                    chars = str.toCharArray();
+                }
+                chars[i] = folded;
+            }
+        }
+        return chars == null ? str : new String(chars);
+    }
+
+    private static boolean hasSurrogates(String str) {
+        for (int i = 0; i < str.length(); i++) {
+            if (Character.isSurrogate(str.charAt(i))) {
+                return true;
+            }
+        }
+        return false;
+    }
+}
@@ -0,0 +1,310 @@
+/*
+ * ACS AEM Commons
+ *
+ * Copyright (C) 2013 - 2023 Adobe
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.adobe.acs.commons.redirects.models;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.regex.Pattern;
+
+/**
+ * Candidate filter for regex redirect rules.
+ * <p>
+ * Every regex rule is indexed by the literal prefix of its (context-prefixed) pattern in a character trie.
+ * A lookup walks the trie along the request path and returns the ordinals of all rules whose literal prefix
+ * is a prefix of the path. Only these rules can possibly match, so {@link RedirectConfiguration} evaluates
+ * their matchers in the original rule order and the first-match-wins semantics are preserved.
+ * </p>
+ * <p>
+ * The index is conservative: a rule whose prefix can't be determined reliably (alternation at the top level,
+ * inline flags, escapes, non-ASCII characters in a case-insensitive pattern) is indexed with an empty prefix
+ * and is a candidate for every path.
+ * </p>
+ */
+final class PatternRuleIndex {
+
+    private static final String META_CHARS = "\\^$.|?*+()[]{}";
+    private static final String QUANTIFIERS = "?*+{";
+
+    private final RedirectRule[] rules;
+    private final Pattern[] patterns;
+    private final String contextPrefix;
+
+    /**
+     * context-prefixed patterns, compiled on first use
+     */
+    private final AtomicReferenceArray<Pattern> contextPatterns;
+
+    /**
+     * tries for rules evaluated against the resource path and the request URI;
+     * index 0 is case-sensitive, index 1 case-insensitive
+     */
+    private final Node[] pathTries = {new Node(), new Node()};
+    private final Node[] uriTries = {new Node(), new Node()};
+    private final boolean hasUriRules;
+
+    /**
+     * @param patternRules  regex rules keyed by their pattern, in evaluation order
+     * @param contextPrefix the context prefix the rules are evaluated with, empty string if none
+     */
+    PatternRuleIndex(Map<Pattern, RedirectRule> patternRules, String contextPrefix) {
+        int size = patternRules.size();
+        rules = new RedirectRule[size];
+        patterns = new Pattern[size];
+        this.contextPrefix = contextPrefix;
+        contextPatterns = new AtomicReferenceArray<>(size);
+        boolean uriRules = false;
+        int ordinal = 0;
+        for (Map.Entry<Pattern, RedirectRule> entry : patternRules.entrySet()) {
+            Pattern pattern = entry.getKey();
+            RedirectRule rule = entry.getValue();
+            rules[ordinal] = rule;
+            patterns[ordinal] = pattern;
+
+            String regex = pattern.pattern();
+            if (!contextPrefix.isEmpty() && !rule.getContextPrefixIgnored() && !regex.startsWith(contextPrefix)) {
+                regex = contextPrefix + regex;
+            }
+            boolean nc = rule.isCaseInsensitive() || (pattern.flags() & Pattern.CASE_INSENSITIVE) != 0;
+            String prefix = (pattern.flags() & ~Pattern.CASE_INSENSITIVE) == 0 ? literalPrefix(regex, nc) : "";
+
+            Node[] tries = rule.getEvaluateURI() ? uriTries : pathTries;
+            tries[nc ? 1 : 0].add(nc ? toLowerCaseAscii(prefix) : prefix, ordinal);
+            uriRules |= rule.getEvaluateURI();
+            ordinal++;
+        }
+        for (int i = 0; i < 2; i++) {
+            pathTries[i].freeze();
+            uriTries[i].freeze();
+        }
+        hasUriRules = uriRules;
+    }
+
+    int size() {
+        return rules.length;
+    }
+
+    RedirectRule getRule(int ordinal) {
+        return rules[ordinal];
+    }
+
+    Pattern getPattern(int ordinal) {
+        return patterns[ordinal];
+    }
+
+    /**
+     * Get the pattern of a rule with the context prefix prepended.
+     * <p>
+     * A pattern might be too broad otherwise, i.e. "/(.*)" would match anything.
+     * The prefixed pattern is compiled once per rule and context prefix and reused afterwards.
+     * </p>
+     *
+     * @param ordinal the rule ordinal
+     * @param hits    incremented when a previously compiled pattern is reused
+     * @param misses  incremented when the pattern has to be compiled
+     * @return the context-prefixed pattern, or the rule pattern if it already starts with the context prefix
+     */
+    Pattern getContextPattern(int ordinal, LongAdder hits, LongAdder misses) {
+        Pattern pattern = patterns[ordinal];
+        if (pattern.pattern().startsWith(contextPrefix)) {
+            return pattern;
+        }
+        Pattern contextPattern = contextPatterns.get(ordinal);
+        if (contextPattern != null) {
+            hits.increment();
+            return contextPattern;
+        }
+        misses.increment();
+        contextPattern = RedirectRule.toRegexForced(contextPrefix + pattern.pattern(), (pattern.flags() & Pattern.CASE_INSENSITIVE) != 0);
+        if (contextPattern == null) {
+            // the context prefix breaks the regex, keep matching the rule without it
+            contextPattern = pattern;
+        }
+        contextPatterns.lazySet(ordinal, contextPattern);
+        return contextPattern;
+    }
+
+    boolean hasUriRules() {
+        return hasUriRules;
+    }
+
+    /**
+     * Collect the rules that can possibly match.
+     *
+     * @param paths resource paths the rules are evaluated against
+     * @param uris  request URIs the rules with evaluateURI=true are evaluated against, may be empty
+     * @return ordinals of the candidate rules
+     */
+    BitSet candidates(String[] paths, String[] uris) {
+        BitSet candidates = new BitSet(rules.length);
+        for (String path : paths) {
+            collect(pathTries, path, candidates);
+        }
+        for (String uri : uris) {
+            collect(uriTries, uri, candidates);
+        }
+        return candidates;
+    }
+
+    private static void collect(Node[] tries, String str, BitSet candidates) {
+        tries[0].collect(str, false, candidates);
+        tries[1].collect(str, true, candidates);
+    }
+
+    /**
+     * Extract the leading characters every string matched by the regex must start with.
+     *
+     * @param regex the regular expression
+     * @param nc    whether the regex is case-insensitive. Java folds only US-ASCII characters in this mode,
+     *              so the prefix is cut at the first non-ASCII character
+     * @return the literal prefix, possibly empty
+     */
+    static String literalPrefix(String regex, boolean nc) {
+        if (hasTopLevelAlternation(regex)) {
+            return "";
+        }
+        int start = regex.startsWith("^") ? 1 : 0;
+        StringBuilder prefix = new StringBuilder();
+        for (int i = start; i < regex.length(); i++) {
+            char c = regex.charAt(i);
+            if (META_CHARS.indexOf(c) != -1) {
+                if (QUANTIFIERS.indexOf(c) != -1 && prefix.length() > 0) {
+                    // the quantified character is optional or repeated
+                    prefix.setLength(prefix.length() - 1);
+                }
+                break;
+            }
+            if (nc && c > 0x7f) {
+                break;
+            }
+            prefix.append(c);
+        }
+        return prefix.toString();
+    }
+
+    /**
+     * @return whether the regex contains a '|' outside of any group or character class
+     */
+    static boolean hasTopLevelAlternation(String regex) {
+        int depth = 0;
+        boolean inClass = false;
+        for (int i = 0; i < regex.length(); i++) {
+            char c = regex.charAt(i);
+            if (c == '\\') {
+                i++;
+            } else if (inClass) {
+                inClass = c != ']';
+            } else if (c == '[') {
+                inClass = true;
+            } else if (c == '(') {
+                depth++;
+            } else if (c == ')') {
+                depth--;
+            } else if (c == '|' && depth <= 0) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    static char toLowerCaseAscii(char c) {
+        return c >= 'A' && c <= 'Z' ? (char) (c + ('a' - 'A')) : c;
+    }
+
+    static String toLowerCaseAscii(String str) {
+        char[] chars = str.toCharArray();
+        for (int i = 0; i < chars.length; i++) {
+            chars[i] = toLowerCaseAscii(chars[i]);
+        }
+        return new String(chars);
+    }
+
+    /**
+     * Trie node with sorted child arrays. The index is built once and read-only afterwards,
+     * so lookups are safe for concurrent use.
+     */
+    private static final class Node {
+        private char[] keys = new char[0];
+        private Node[] children = new Node[0];
+        private final List<Integer> ordinals = new ArrayList<>();
+        private int[] terminal = new int[0];
+
+        void add(String prefix, int ordinal) {
+            Node node = this;
+            for (int i = 0; i < prefix.length(); i++) {
+                node = node.getOrCreateChild(prefix.charAt(i));
+            }
+            node.ordinals.add(ordinal);
+        }
+
+        /**
+         * convert the collected ordinals into arrays once all rules are added
+         */
+        void freeze() {
+            terminal = ordinals.stream().mapToInt(Integer::intValue).toArray();
+            ordinals.clear();
+            for (Node child : children) {
+                child.freeze();
+            }
+        }
+
+        void collect(String str, boolean nc, BitSet candidates) {
+            Node node = this;
+            int i = 0;
+            while (node != null) {
+                for (int ordinal : node.terminal) {
+                    candidates.set(ordinal);
+                }
+                if (i == str.length()) {
+                    break;
+                }
+                char c = str.charAt(i++);
+                node = node.getChild(nc ? toLowerCaseAscii(c) : c);
+            }
+        }
+
+        private Node getChild(char c) {
+            int idx = Arrays.binarySearch(keys, c);
+            return idx < 0 ? null : children[idx];
+        }
+
+        private Node getOrCreateChild(char c) {
+            int idx = Arrays.binarySearch(keys, c);
+            if (idx >= 0) {
+                return children[idx];
+            }
+            int insertAt = -idx - 1;
+            Node child = new Node();
+            char[] newKeys = new char[keys.length + 1];
+            Node[] newChildren = new Node[children.length + 1];
+            System.arraycopy(keys, 0, newKeys, 0, insertAt);
+            System.arraycopy(children, 0, newChildren, 0, insertAt);
+            newKeys[insertAt] = c;
+            newChildren[insertAt] = child;
+            System.arraycopy(keys, insertAt, newKeys, insertAt + 1, keys.length - insertAt);
+            System.arraycopy(children, insertAt, newChildren, insertAt + 1, children.length - insertAt);
+            keys = newKeys;
+            children = newChildren;
+            return child;
+        }
+    }
+}
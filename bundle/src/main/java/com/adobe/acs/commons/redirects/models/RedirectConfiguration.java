@@ -17,14 +17,20 @@
  */
 package com.adobe.acs.commons.redirects.models;
 
-import com.adobe.acs.commons.redirects.filter.RedirectFilter;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.cache.CacheLoader;
+import com.google.common.cache.LoadingCache;
+import org.apache.commons.lang3.StringUtils;
 import org.apache.sling.api.SlingHttpServletRequest;
 import org.apache.sling.api.resource.Resource;
 
+import java.util.BitSet;
 import java.util.Collection;
 import java.util.LinkedHashMap;
+import java.util.List;
 import java.util.Map;
 import java.util.TreeMap;
+import java.util.concurrent.atomic.LongAdder;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 
@@ -49,15 +55,52 @@ public class RedirectConfiguration {
      * regex rules keyed by their regex pattern.
      */
     private Map<Pattern, RedirectRule> patternRules;
+
+    /**
+     * Max number of context prefixes to keep indexes and compiled patterns for.
+     * The context prefix is a property of the configuration, so there are rarely more than two,
+     * i.e. the configured one and the empty one for mapped urls.
+     */
+    private static final int MAX_CONTEXT_PREFIXES = 16;
+
+    /**
+     * literal-prefix indexes of the regex rules keyed by context prefix.
+     * The index for the empty context prefix is built when rules are loaded,
+     * indexes for other context prefixes are built on first use.
+     * Each index also holds the regex rules compiled with its context prefix.
+     */
+    private final LoadingCache<String, PatternRuleIndex> patternRuleIndexes = CacheBuilder.newBuilder()
+            .maximumSize(MAX_CONTEXT_PREFIXES)
+            .build(CacheLoader.from(cp -> new PatternRuleIndex(getPatternRules(), cp)));
+
+    private final LongAdder contextPatternHits = new LongAdder();
+    private final LongAdder contextPatternMisses = new LongAdder();
+
+    /**
+     * "definitely no match" filter over the sources of the path rules. Built when rules are loaded,
+     * invalidation of the configuration drops it together with the rules.
+     */
+    private PathRuleFilter pathRuleFilter;
+    private final LongAdder shortCircuits = new LongAdder();
+    private final LongAdder falsePositives = new LongAdder();
+    /**
+     * all rules keyed by the path of their redirect-row resource, in the order they were read
+     */
+    private final Map<String, RedirectRule> rulesByPath = new LinkedHashMap<>();
     private String path;
     private String name;
 
+    private static final String HTML_EXTENSION = ".html";
+    private static final Pattern HTML_EXTENSION_PATTERN = Pattern.compile("\\.html(\\?.*)?$");
+    private static final String LINE_TERMINATORS = "\n\r\u0085\u2028\u2029";
+
     public static final RedirectConfiguration EMPTY = new RedirectConfiguration();
 
     private RedirectConfiguration(){
         pathRules = new LinkedHashMap<>();
         caseInsensitiveRules = new TreeMap<>(String.CASE_INSENSITIVE_ORDER);
         patternRules = new LinkedHashMap<>();
+        pathRuleFilter = new PathRuleFilter(pathRules.keySet(), caseInsensitiveRules.keySet());
     }
 
     public RedirectConfiguration(Resource resource, String storageSuffix) {
@@ -73,9 +116,54 @@ public class RedirectConfiguration {
         }
     }
 
+    /**
+     * Create a copy of a configuration with changes of individual rules applied.
+     * The rules of the original configuration are reused and are not read again.
+     *
+     * @param original the configuration to copy
+     * @param updated  added or changed rules keyed by the path of their redirect-row resource
+     * @param removed  paths of removed resources. Rules stored at or below these paths are dropped
+     */
+    private RedirectConfiguration(RedirectConfiguration original, Map<String, RedirectRule> updated, Collection<String> removed) {
+        this();
+        path = original.path;
+        name = original.name;
+        rulesByPath.putAll(original.rulesByPath);
+        for (String removedPath : removed) {
+            rulesByPath.keySet().removeIf(p -> p.equals(removedPath) || p.startsWith(removedPath + "/"));
+        }
+        rulesByPath.putAll(updated);
+        indexRules();
+    }
+
+    /**
+     * Copy-on-write update of the rules.
+     * <p>
+     * Added rules are appended to the end of the rule list, i.e. they are evaluated after the existing regex rules
+     * the same way as rules appended to the configuration in JCR.
+     * </p>
+     *
+     * @param updated added or changed rules keyed by the path of their redirect-row resource
+     * @param removed paths of removed resources. Rules stored at or below these paths are dropped
+     * @return a new configuration with the changes applied. This configuration is not modified
+     */
+    public RedirectConfiguration withChanges(Map<String, RedirectRule> updated, Collection<String> removed) {
+        return new RedirectConfiguration(this, updated, removed);
+    }
+
     void loadRules(Resource configResource) {
-        Collection<RedirectRule> rules = RedirectFilter.getRules(configResource);
-        for (RedirectRule rule : rules) {
+        List<Resource> resources = Redirects.readRedirects(configResource);
+        for (Resource resource : resources) {
+            RedirectRule rule = resource.adaptTo(RedirectRule.class);
+            if (rule != null) {
+                rulesByPath.put(resource.getPath(), rule);
+            }
+        }
+        indexRules();
+    }
+
+    private void indexRules() {
+        for (RedirectRule rule : rulesByPath.values()) {
             if (rule.getRegex() != null) {
                 patternRules.put(rule.getRegex(), rule);
             } else {
@@ -88,6 +176,9 @@ public class RedirectConfiguration {
                 }
             }
         }
+        pathRuleFilter = new PathRuleFilter(pathRules.keySet(), caseInsensitiveRules.keySet());
+        patternRuleIndexes.invalidateAll();
+        getPatternRuleIndex("");
     }
 
     /**
@@ -97,7 +188,18 @@ public class RedirectConfiguration {
         int sep = resourcePath.lastIndexOf('.');
         if (sep != -1 && !resourcePath.startsWith("/content/dam/")) {
             // strip off .html extension and query string if present
-            resourcePath = resourcePath.replaceAll("\\.html(\\?.*)?$", "");
+            if (StringUtils.containsAny(resourcePath, LINE_TERMINATORS)) {
+                // '.' and '$' treat line terminators specially, leave it to the regex
+                return HTML_EXTENSION_PATTERN.matcher(resourcePath).replaceAll("");
+            }
+            int idx = resourcePath.indexOf(HTML_EXTENSION);
+            while (idx != -1) {
+                int end = idx + HTML_EXTENSION.length();
+                if (end == resourcePath.length() || resourcePath.charAt(end) == '?') {
+                    return resourcePath.substring(0, idx);
+                }
+                idx = resourcePath.indexOf(HTML_EXTENSION, end);
+            }
         }
         return resourcePath;
     }
@@ -131,7 +233,8 @@ public class RedirectConfiguration {
      * Performs two tries:
      * <ol>
      *     <li>Match by exact path. This is O(1) lookup in a hashtable keyed by path</li>
-     *     <li>Match by a regular expression. This is O(N) linear lookup in a list of rules keyed by their regex patterns</li>
+     *     <li>Match by a regular expression. Rules are pre-selected by the literal prefix of their regex patterns
+     *     and only the candidates are evaluated in the order they are defined</li>
      * </ol>
      *
      * @param requestPath   the request to match
@@ -147,7 +250,8 @@ public class RedirectConfiguration {
      * Performs two tries:
      * <ol>
      *     <li>Match by exact path. This is O(1) lookup in a hashtable keyed by path</li>
-     *     <li>Match by a regular expression. This is O(N) linear lookup in a list of rules keyed by their regex patterns</li>
+     *     <li>Match by a regular expression. Rules are pre-selected by the literal prefix of their regex patterns
+     *     and only the candidates are evaluated in the order they are defined</li>
      * </ol>
      *
      * @param resourcePath   the request to match
@@ -158,20 +262,35 @@ public class RedirectConfiguration {
     public RedirectMatch match(String resourcePath, String contextPrefix, SlingHttpServletRequest request) {
         String normalizedPath = normalizePath(resourcePath);
         RedirectMatch match = null;
-        RedirectRule rule = getPathRule(normalizedPath, contextPrefix);
+        boolean mightMatchPath = mightHavePathRule(normalizedPath, contextPrefix);
+        RedirectRule rule = mightMatchPath ? getPathRule(normalizedPath, contextPrefix) : null;
         if(rule == null && hasNonRegexRequestURIRules()){
             // there are request URI rules. Check is any mathes
             String pathToEvaluate = determinePathToEvaluate(normalizedPath, true, request);
-            rule = getPathRule(pathToEvaluate, contextPrefix);
+            if (mightHavePathRule(pathToEvaluate, contextPrefix)) {
+                mightMatchPath = true;
+                rule = getPathRule(pathToEvaluate, contextPrefix);
+            }
         }
         if (rule != null) {
             match = new RedirectMatch(rule, null);
         } else {
-            for (Map.Entry<Pattern, RedirectRule> entry : getPatternRules().entrySet()) {
-                RedirectRule regexRule = entry.getValue();
+            if (mightMatchPath) {
+                falsePositives.increment();
+            }
+            PatternRuleIndex index = getPatternRuleIndex(contextPrefix);
+            BitSet candidates = index.candidates(
+                    pathsToEvaluate(normalizedPath, contextPrefix),
+                    index.hasUriRules() ? pathsToEvaluate(determinePathToEvaluate(normalizedPath, true, request), contextPrefix) : new String[0]);
+            if (candidates.isEmpty() && !mightMatchPath) {
+                shortCircuits.increment();
+                return null;
+            }
+            for (int i = candidates.nextSetBit(0); i >= 0; i = candidates.nextSetBit(i + 1)) {
+                RedirectRule regexRule = index.getRule(i);
                 boolean evaluateURI = regexRule.getEvaluateURI();
                 String pathToEvaluate = determinePathToEvaluate(normalizedPath, evaluateURI, request);
-                Matcher m = getRuleMatch(entry.getKey(), pathToEvaluate, contextPrefix, regexRule.isCaseInsensitive(), regexRule.getContextPrefixIgnored());
+                Matcher m = getRuleMatch(index, i, pathToEvaluate, contextPrefix, regexRule.getContextPrefixIgnored());
                 if (m.matches()) {
                     match = new RedirectMatch(regexRule, m);
                     break;
@@ -181,22 +300,65 @@ public class RedirectConfiguration {
         return match;
     }
 
+    PatternRuleIndex getPatternRuleIndex(String contextPrefix) {
+        return patternRuleIndexes.getUnchecked(contextPrefix);
+    }
+
+    /**
+     * @return how many lookups were answered by the negative lookup filter without evaluating any rule
+     */
+    public long getShortCircuits() {
+        return shortCircuits.sum();
+    }
+
+    /**
+     * @return how many times the negative lookup filter reported a possible path rule that didn't exist
+     */
+    public long getFalsePositives() {
+        return falsePositives.sum();
+    }
+
+    /**
+     * @return how many times a regex rule compiled with a context prefix was reused
+     */
+    public long getContextPatternHits() {
+        return contextPatternHits.sum();
+    }
+
+    /**
+     * @return how many times a regex rule had to be compiled with a context prefix
+     */
+    public long getContextPatternMisses() {
+        return contextPatternMisses.sum();
+    }
+
+    /**
+     * @return the strings {@link #getRuleMatch(PatternRuleIndex, int, String, String, boolean)} may match a pattern against
+     */
+    private static String[] pathsToEvaluate(String pathToEvaluate, String contextPrefix) {
+        if ("".equals(contextPrefix)) {
+            return new String[]{pathToEvaluate};
+        }
+        String alternatePath = pathToEvaluate.startsWith(contextPrefix)
+                ? pathToEvaluate.replace(contextPrefix, "") : contextPrefix + pathToEvaluate;
+        return new String[]{pathToEvaluate, alternatePath};
+    }
+
     /**
      * Utility method that gets the pattern rule taking an optional context prefix into account
-     * @param rulePattern the regex pattern to match the path
+     * @param index the index the rule was selected from
+     * @param ordinal the ordinal of the rule in the index
      * @param pathToEvaluate the path to evaluate for redirects
      * @param contextPrefix the optional context prefix
      * @return the matcher associated with the rule
      */
-    private Matcher getRuleMatch(Pattern rulePattern, String pathToEvaluate, String contextPrefix, boolean nc, boolean contextPrefixIgnored) {
+    private Matcher getRuleMatch(PatternRuleIndex index, int ordinal, String pathToEvaluate, String contextPrefix, boolean contextPrefixIgnored) {
         if(contextPrefixIgnored || "".equals(contextPrefix)) {
-            return rulePattern.matcher(pathToEvaluate);
+            return index.getPattern(ordinal).matcher(pathToEvaluate);
         } else {
             //we add the context prefix to the pattern since a pattern might be too broad otherwise,
             //i.e. "/(.*)" will match anything
-            if(!rulePattern.toString().startsWith(contextPrefix)) {
-                rulePattern = RedirectRule.toRegex(contextPrefix + rulePattern.toString(), nc);
-            }
+            Pattern rulePattern = index.getContextPattern(ordinal, contextPatternHits, contextPatternMisses);
             Matcher matcher = rulePattern.matcher(pathToEvaluate);
             if(!matcher.matches()) {
                 if (pathToEvaluate.startsWith(contextPrefix)) {
@@ -209,6 +371,20 @@ public class RedirectConfiguration {
         }
     }
 
+    /**
+     * @return false if {@link #getPathRule(String, String)} definitely returns null for the given path
+     */
+    private boolean mightHavePathRule(String normalizedPath, String contextPrefix) {
+        if (pathRuleFilter.mightContain(normalizedPath)) {
+            return true;
+        }
+        if ("".equals(contextPrefix)) {
+            return false;
+        }
+        return pathRuleFilter.mightContain(normalizedPath.startsWith(contextPrefix)
+                ? normalizedPath.replace(contextPrefix, "") : contextPrefix + normalizedPath);
+    }
+
     /**
      * Utility method that gets the path rule taking an optional context prefix into account
      * @param normalizedPath the normalized path
@@ -17,14 +17,19 @@
  */
 package com.adobe.acs.commons.reports.internal;
 
+import java.io.BufferedWriter;
 import java.io.IOException;
+import java.io.OutputStreamWriter;
 import java.io.Writer;
 import java.net.URLEncoder;
+import java.nio.charset.StandardCharsets;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Iterator;
 import java.util.List;
 import java.util.Optional;
 import java.util.stream.Stream;
+import java.util.zip.GZIPOutputStream;
 
 import javax.servlet.Servlet;
 import javax.servlet.ServletException;
@@ -36,8 +41,13 @@ import org.apache.sling.api.resource.Resource;
 import org.apache.sling.api.servlets.SlingSafeMethodsServlet;
 import org.apache.sling.commons.classloader.DynamicClassLoaderManager;
 import org.jetbrains.annotations.NotNull;
+import org.osgi.service.component.annotations.Activate;
 import org.osgi.service.component.annotations.Component;
+import org.osgi.service.component.annotations.Modified;
 import org.osgi.service.component.annotations.Reference;
+import org.osgi.service.metatype.annotations.AttributeDefinition;
+import org.osgi.service.metatype.annotations.Designate;
+import org.osgi.service.metatype.annotations.ObjectClassDefinition;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -54,17 +64,47 @@ import com.day.text.csv.Csv;
 @Component(service = { Servlet.class }, property = {
     "sling.servlet.resourceTypes=acs-commons/components/utilities/report-builder/report-page",
     "sling.servlet.selectors=report", "sling.servlet.extensions=csv", "sling.servlet.methods=GET" })
+@Designate(ocd = ReportCSVExportServlet.Config.class)
 public class ReportCSVExportServlet extends SlingSafeMethodsServlet {
 
   private static final long serialVersionUID = 2794836639686938093L;
   private static final Logger log = LoggerFactory.getLogger(ReportCSVExportServlet.class);
 
+  public static final int DEFAULT_FLUSH_INTERVAL = 1000;
+
+  private static final int BUFFER_SIZE = 64 * 1024;
+
+  @ObjectClassDefinition(name = "ACS Commons - Report CSV Export Configuration")
+  @interface Config {
+    @AttributeDefinition(
+        name = "Flush Interval",
+        description = "Number of rows written before the output is flushed to the client."
+    )
+    int flush_interval() default DEFAULT_FLUSH_INTERVAL;
+
+    @AttributeDefinition(
+        name = "Gzip Compression",
+        description = "Compress the export with gzip if the client accepts it."
+    )
+    boolean gzip_enabled() default false;
+  }
+
   @Reference
   private transient DynamicClassLoaderManager dynamicClassLoaderManager;
 
   @Reference
   private DelimiterConfiguration delimiterConfiguration;
 
+  private int flushInterval = DEFAULT_FLUSH_INTERVAL;
+  private boolean gzipEnabled;
+
+  @Activate
+  @Modified
+  protected void activate(Config config) {
+    flushInterval = Math.max(1, config.flush_interval());
+    gzipEnabled = config.gzip_enabled();
+  }
+
   @Override
   protected void doGet(@NotNull SlingHttpServletRequest request, @NotNull SlingHttpServletResponse response)
       throws ServletException, IOException {
@@ -81,7 +121,7 @@ public class ReportCSVExportServlet extends SlingSafeMethodsServlet {
     Csv csv = null;
 
     try {
-      writer = response.getWriter();
+      writer = openWriter(request, response);
 
       // write the BOM to indicate this is a UTF-8 file
       writer.write("\uFEFF");
@@ -119,6 +159,17 @@ public class ReportCSVExportServlet extends SlingSafeMethodsServlet {
     }
   }
 
+  private Writer openWriter(SlingHttpServletRequest request, SlingHttpServletResponse response) throws IOException {
+    String acceptEncoding = request.getHeader("Accept-Encoding");
+    if (gzipEnabled && StringUtils.containsIgnoreCase(acceptEncoding, "gzip")) {
+      response.setHeader("Content-Encoding", "gzip");
+      response.addHeader("Vary", "Accept-Encoding");
+      return new BufferedWriter(new OutputStreamWriter(new GZIPOutputStream(response.getOutputStream(), BUFFER_SIZE),
+          StandardCharsets.UTF_8), BUFFER_SIZE);
+    }
+    return new BufferedWriter(response.getWriter(), BUFFER_SIZE);
+  }
+
   private List<ReportCellCSVExporter> writeHeaders(SlingHttpServletRequest request, final Csv csv) throws IOException {
     List<String> row = new ArrayList<>();
     List<ReportCellCSVExporter> exporters = new ArrayList<>();
@@ -148,7 +199,7 @@ public class ReportCSVExportServlet extends SlingSafeMethodsServlet {
   }
 
   private void updateCSV(Resource config, SlingHttpServletRequest request, List<ReportCellCSVExporter> exporters,
-      Csv csv, Writer writer) throws ReportException {
+      Csv csv, Writer writer) throws ReportException, IOException {
     Class<?> executorClass = ReportExecutorProvider.INSTANCE.getReportExecutor(dynamicClassLoaderManager, config);
 
     ReportExecutor executor = Optional.ofNullable(request.adaptTo(executorClass))
@@ -159,23 +210,43 @@ public class ReportCSVExportServlet extends SlingSafeMethodsServlet {
     log.debug("Retrieved executor {}", executor);
 
     ResultsPage queryResult = executor.getAllResults();
-    Stream<? extends Object> results = queryResult.getResults();
+    Stream<Object> results = queryResult.getResults();
     log.debug("Retrieved {} results", queryResult.getResultSize());
 
-    results.forEach(r -> {
-      List<String> row = new ArrayList<>();
+    long rows = writeRows(results, exporters, csv, writer, flushInterval);
+    log.debug("{} results written successfully", rows);
+
+  }
+
+  /**
+   * Writes the results as they are read from the stream, flushing the writer
+   * once every flush interval instead of after every row.
+   *
+   * @return the number of rows written
+   */
+  static long writeRows(Stream<Object> results, List<ReportCellCSVExporter> exporters, Csv csv, Writer writer,
+      int flushInterval) throws IOException {
+    String[] row = new String[exporters.size()];
+    long rows = 0;
+    Iterator<Object> iterator = results.iterator();
+    while (iterator.hasNext()) {
+      Object result = iterator.next();
+      Arrays.fill(row, null);
       try {
-        for (ReportCellCSVExporter exporter : exporters) {
-          row.add(exporter.getValue(r));
+        for (int i = 0; i < row.length; i++) {
+          row[i] = exporters.get(i).getValue(result);
         }
-        csv.writeRow(row.toArray(new String[row.size()]));
-        writer.flush();
+        csv.writeRow(row);
+        rows++;
       } catch (Exception e) {
-        log.warn("Exception writing row: " + row, e);
+        log.warn("Exception writing row: " + Arrays.toString(row), e);
+        continue;
       }
-    });
-
-    log.debug("Results written successfully");
-
+      // a failed flush means the client is gone, so it ends the export
+      if (rows % flushInterval == 0) {
+        writer.flush();
+      }
+    }
+    return rows;
   }
 }
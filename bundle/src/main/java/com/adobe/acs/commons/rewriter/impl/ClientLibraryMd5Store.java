@@ -0,0 +1,141 @@
+/*
+ * ACS AEM Commons
+ *
+ * Copyright (C) 2013 - 2023 Adobe
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.adobe.acs.commons.rewriter.impl;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.Properties;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+import org.apache.commons.lang3.StringUtils;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.adobe.granite.ui.clientlibs.LibraryType;
+
+/**
+ * Keeps the md5 checksums of client libraries in a properties file, so they don't have to be computed again after a
+ * restart. A checksum is stored with the last modified time of the library and only returned while that is unchanged.
+ */
+class ClientLibraryMd5Store {
+
+    private static final Logger log = LoggerFactory.getLogger(ClientLibraryMd5Store.class);
+
+    private static final String MIN_SUFFIX = ".min";
+    private static final String SEPARATOR = ":";
+
+    @Nullable
+    private final File file;
+
+    private final ConcurrentMap<String, String> entries = new ConcurrentHashMap<>();
+
+    private volatile boolean dirty;
+
+    /**
+     * @param file file to keep the checksums in, null to keep them in memory only
+     */
+    ClientLibraryMd5Store(@Nullable File file) {
+        this.file = file;
+    }
+
+    void load() {
+        if (file == null || !file.isFile()) {
+            return;
+        }
+        Properties properties = new Properties();
+        try (InputStream in = Files.newInputStream(file.toPath())) {
+            properties.load(in);
+        } catch (IOException e) {
+            log.warn("Could not load client library checksums from {}", file, e);
+            return;
+        }
+        for (String key : properties.stringPropertyNames()) {
+            entries.put(key, properties.getProperty(key));
+        }
+        log.debug("Loaded {} client library checksums from {}", entries.size(), file);
+    }
+
+    /**
+     * Write the checksums to the file if they changed since they were last loaded or saved.
+     */
+    synchronized void save() {
+        if (file == null || !dirty) {
+            return;
+        }
+        dirty = false;
+        Properties properties = new Properties();
+        properties.putAll(entries);
+        File temp = new File(file.getPath() + ".tmp");
+        try {
+            try (OutputStream out = Files.newOutputStream(temp.toPath())) {
+                properties.store(out, "Versioned client library checksums");
+            }
+            Files.move(temp.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING);
+        } catch (IOException e) {
+            dirty = true;
+            log.warn("Could not save client library checksums to {}", file, e);
+        }
+    }
+
+    /**
+     * @return the checksum of the library, null if none is stored or the library changed since
+     */
+    @Nullable
+    String get(@NotNull String libraryPath, @NotNull LibraryType type, boolean minified, long lastModified) {
+        String entry = entries.get(key(libraryPath, type, minified));
+        if (entry != null && StringUtils.substringBefore(entry, SEPARATOR).equals(String.valueOf(lastModified))) {
+            return StringUtils.substringAfter(entry, SEPARATOR);
+        }
+        return null;
+    }
+
+    void put(@NotNull String libraryPath, @NotNull LibraryType type, boolean minified, long lastModified, @NotNull String md5) {
+        String entry = lastModified + SEPARATOR + md5;
+        if (!entry.equals(entries.put(key(libraryPath, type, minified), entry))) {
+            dirty = true;
+        }
+    }
+
+    /**
+     * Remove the checksums of all types and variants of a library.
+     */
+    void remove(@NotNull String libraryPath) {
+        for (LibraryType type : LibraryType.values()) {
+            for (boolean minified : new boolean[] { false, true }) {
+                if (entries.remove(key(libraryPath, type, minified)) != null) {
+                    dirty = true;
+                }
+            }
+        }
+    }
+
+    int size() {
+        return entries.size();
+    }
+
+    private static String key(String libraryPath, LibraryType type, boolean minified) {
+        return minified ? libraryPath + MIN_SUFFIX + type.extension : libraryPath + type.extension;
+    }
+}
@@ -21,7 +21,6 @@ import com.adobe.acs.commons.ccvar.PropertyAggregatorService;
 import com.adobe.acs.commons.ccvar.PropertyConfigService;
 import com.adobe.acs.commons.ccvar.util.ContentVariableReplacementUtil;
 import com.adobe.acs.commons.rewriter.ContentHandlerBasedTransformer;
-import org.apache.commons.lang3.StringUtils;
 import org.apache.sling.api.SlingHttpServletRequest;
 import org.apache.sling.rewriter.ProcessingComponentConfiguration;
 import org.apache.sling.rewriter.ProcessingContext;
@@ -30,8 +29,6 @@ import org.xml.sax.SAXException;
 import org.xml.sax.helpers.AttributesImpl;
 
 import java.io.IOException;
-import java.util.HashMap;
-import java.util.List;
 import java.util.Map;
 
 /**
@@ -43,6 +40,9 @@ public class ContentVariableTransformer extends ContentHandlerBasedTransformer {
     private Map<String, Object> contentVariableReplacements;
     private PropertyAggregatorService aggregatorService;
     private PropertyConfigService propertyConfigService;
+    // Reused for the replaced characters of every text chunk
+    private final StringBuilder buffer = new StringBuilder();
+    private char[] chars = new char[0];
 
     public ContentVariableTransformer() {
     }
@@ -62,50 +62,41 @@ public class ContentVariableTransformer extends ContentHandlerBasedTransformer {
 
     public void startElement(String uri, String localName, String quaName, Attributes atts) throws SAXException {
         if (shouldRun()) {
-            AttributesImpl newAttrs = new AttributesImpl(atts);
-            for (int i = 0; i < newAttrs.getLength(); i++) {
-                String currentAttribute = newAttrs.getValue(i);
-                if (StringUtils.isBlank(currentAttribute)) {
-                    continue;
-                }
-                final List<String> keys = ContentVariableReplacementUtil.getKeys(currentAttribute);
-                for (String key : keys) {
-                    // If the placeholder key is in the map then replace it
-                    if (ContentVariableReplacementUtil.hasKey(contentVariableReplacements, key)) {
-                        String replaceValue =
-                                (String) ContentVariableReplacementUtil.getValue(contentVariableReplacements, key);
-                        String newAttrValue = ContentVariableReplacementUtil.doReplacement(currentAttribute, key,
-                                replaceValue, propertyConfigService.getAction(key));
-                        currentAttribute = newAttrValue;
-                        newAttrs.setValue(i, newAttrValue);
+            // Only copy the attributes once a value actually changes
+            AttributesImpl newAttrs = null;
+            for (int i = 0; i < atts.getLength(); i++) {
+                String currentAttribute = atts.getValue(i);
+                String newAttrValue = ContentVariableReplacementUtil.replacePlaceholders(currentAttribute,
+                        contentVariableReplacements, propertyConfigService);
+                if (newAttrValue != currentAttribute) {
+                    if (newAttrs == null) {
+                        newAttrs = new AttributesImpl(atts);
                     }
+                    newAttrs.setValue(i, newAttrValue);
                 }
             }
-            getContentHandler().startElement(uri, localName, quaName, newAttrs);
+            getContentHandler().startElement(uri, localName, quaName, newAttrs != null ? newAttrs : atts);
         } else {
             getContentHandler().startElement(uri, localName, quaName, atts);
         }
     }
 
     public void characters(char[] ch, int start, int length) throws SAXException {
-        String currentString = new String(ch, start, length);
-
         if (shouldRun()) {
-
-            // Get the current placeholders in the string
-            final List<String> keys = ContentVariableReplacementUtil.getKeys(currentString);
-            for (String key : keys) {
-                // If the placeholder key is in the map then replace it
-                if (ContentVariableReplacementUtil.hasKey(contentVariableReplacements, key)) {
-                    final String placeholderReplacement =
-                            String.valueOf(ContentVariableReplacementUtil.getValue(contentVariableReplacements, key));
-                    currentString = ContentVariableReplacementUtil.doReplacement(currentString, key,
-                            placeholderReplacement, propertyConfigService.getAction(key));
+            buffer.setLength(0);
+            if (ContentVariableReplacementUtil.replacePlaceholders(ch, start, length, contentVariableReplacements,
+                    propertyConfigService, buffer)) {
+                final int replacedLength = buffer.length();
+                if (chars.length < replacedLength) {
+                    chars = new char[Math.max(replacedLength, chars.length * 2)];
                 }
+                buffer.getChars(0, replacedLength, chars, 0);
+                getContentHandler().characters(chars, 0, replacedLength);
+                return;
             }
         }
 
-        getContentHandler().characters(currentString.toCharArray(), 0, currentString.length());
+        getContentHandler().characters(ch, start, length);
     }
 
     private boolean shouldRun() {
@@ -24,8 +24,15 @@ import java.util.Collections;
 import java.util.Dictionary;
 import java.util.Hashtable;
 import java.util.Map;
+import java.util.Set;
 import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 
@@ -117,6 +124,12 @@ public final class VersionedClientlibsTransformerFactory extends AbstractGuavaCa
 
     private static final boolean DEFAULT_ENFORCE_MD5 = false;
 
+    private static final boolean DEFAULT_MD5_PRECOMPUTE = false;
+
+    private static final int DEFAULT_MD5_PRECOMPUTE_THREADS = 2;
+
+    static final String MD5_STORE_FILE = "versioned-clientlibs-md5.properties";
+
     @Property(label="MD5 Cache Size", description="Maximum size of the md5 cache.", intValue = DEFAULT_MD5_CACHE_SIZE)
     private static final String PROP_MD5_CACHE_SIZE = "md5cache.size";
 
@@ -127,6 +140,16 @@ public final class VersionedClientlibsTransformerFactory extends AbstractGuavaCa
         boolValue = DEFAULT_ENFORCE_MD5)
     private static final String PROP_ENFORCE_MD5 = "enforce.md5";
 
+    @Property(label="Precompute MD5", description="Compute the md5 checksums of all client libraries in the background at activation "
+        + "and after client library changes, and keep them across restarts. Requests never compute checksums then; "
+        + "references to a client library are not versioned until its checksum is computed.",
+        boolValue = DEFAULT_MD5_PRECOMPUTE)
+    private static final String PROP_MD5_PRECOMPUTE = "md5.precompute";
+
+    @Property(label="MD5 Precompute Threads", description="Number of client libraries to compute checksums for at the same time",
+        intValue = DEFAULT_MD5_PRECOMPUTE_THREADS)
+    private static final String PROP_MD5_PRECOMPUTE_THREADS = "md5.precompute.threads";
+
     private static final String ATTR_SRC = "src";
     private static final String ATTR_HREF = "href";
 
@@ -149,6 +172,16 @@ public final class VersionedClientlibsTransformerFactory extends AbstractGuavaCa
 
     private boolean enforceMd5;
 
+    private ExecutorService precomputeExecutor;
+
+    private ClientLibraryMd5Store md5Store;
+
+    private final Set<VersionedClientLibraryMd5CacheKey> precomputing = ConcurrentHashMap.newKeySet();
+
+    private final AtomicInteger pendingPrecomputes = new AtomicInteger();
+
+    private final AtomicLong invalidations = new AtomicLong();
+
     @Reference
     private HtmlLibraryManager htmlLibraryManager;
     
@@ -171,6 +204,18 @@ public final class VersionedClientlibsTransformerFactory extends AbstractGuavaCa
         this.md5Cache = CacheBuilder.newBuilder().recordStats().maximumSize(size).build();
         this.disableVersioning = PropertiesUtil.toBoolean(props.get(PROP_DISABLE_VERSIONING), DEFAULT_DISABLE_VERSIONING);
         this.enforceMd5 = PropertiesUtil.toBoolean(props.get(PROP_ENFORCE_MD5), DEFAULT_ENFORCE_MD5);
+        if (PropertiesUtil.toBoolean(props.get(PROP_MD5_PRECOMPUTE), DEFAULT_MD5_PRECOMPUTE)) {
+            final int threads = PropertiesUtil.toInteger(props.get(PROP_MD5_PRECOMPUTE_THREADS), DEFAULT_MD5_PRECOMPUTE_THREADS);
+            this.md5Store = new ClientLibraryMd5Store(bundleContext.getDataFile(MD5_STORE_FILE));
+            this.md5Store.load();
+            final AtomicInteger threadCount = new AtomicInteger();
+            this.precomputeExecutor = Executors.newFixedThreadPool(Math.max(1, threads), r -> {
+                Thread thread = new Thread(r, "ACS AEM Commons - Versioned Clientlibs checksums " + threadCount.incrementAndGet());
+                thread.setDaemon(true);
+                return thread;
+            });
+            this.precomputeExecutor.execute(this::precomputeAll);
+        }
         if (enforceMd5) {
             Dictionary<String, Object> filterProps = new Hashtable<String, Object>();
             filterProps.put("sling.filter.scope", "REQUEST");
@@ -187,6 +232,11 @@ public final class VersionedClientlibsTransformerFactory extends AbstractGuavaCa
             filterReg.unregister();
             filterReg = null;
         }
+        if (precomputeExecutor != null) {
+            precomputeExecutor.shutdownNow();
+            precomputeExecutor = null;
+            md5Store.save();
+        }
         this.md5Cache = null;
         this.clientLibrariesCache = null;
     }
@@ -250,6 +300,12 @@ public final class VersionedClientlibsTransformerFactory extends AbstractGuavaCa
             final HtmlLibrary htmlLibrary = getLibrary(libraryType, libraryPath, request);
 
             if (htmlLibrary != null) {
+                final String md5 = getMd5(htmlLibrary);
+                if (md5 == null) {
+                    log.debug("Checksum of HtmlLibrary at path {} is not computed yet", libraryPath);
+                    return null;
+                }
+
                 StringBuilder builder = new StringBuilder();
                 builder.append(libraryPath);
                 builder.append(".");
@@ -260,7 +316,7 @@ public final class VersionedClientlibsTransformerFactory extends AbstractGuavaCa
                 if (enforceMd5) {
                     builder.append(MD5_PREFIX);
                 }
-                builder.append(getMd5(htmlLibrary));
+                builder.append(md5);
                 builder.append(libraryType.extension);
 
                 return builder.toString();
@@ -326,7 +382,10 @@ public final class VersionedClientlibsTransformerFactory extends AbstractGuavaCa
         return clientLibrariesCache.get(path);
     }
 
-    @NotNull private String getMd5(@NotNull final HtmlLibrary htmlLibrary) throws IOException, ExecutionException {
+    @Nullable private String getMd5(@NotNull final HtmlLibrary htmlLibrary) throws IOException, ExecutionException {
+        if (precomputeExecutor != null) {
+            return getPrecomputedMd5(htmlLibrary);
+        }
         return md5Cache.get(new VersionedClientLibraryMd5CacheKey(htmlLibrary), new Callable<String>() {
 
             @Override
@@ -337,6 +396,106 @@ public final class VersionedClientlibsTransformerFactory extends AbstractGuavaCa
     }
 
 
+    /**
+     * Look up the checksum without computing it. If it is not known yet, it is computed in the background.
+     */
+    @Nullable private String getPrecomputedMd5(@NotNull final HtmlLibrary htmlLibrary) {
+        final VersionedClientLibraryMd5CacheKey key = new VersionedClientLibraryMd5CacheKey(htmlLibrary);
+        String md5 = md5Cache.getIfPresent(key);
+        if (md5 == null) {
+            final boolean minified = htmlLibraryManager.isMinifyEnabled();
+            md5 = md5Store.get(htmlLibrary.getLibraryPath(), htmlLibrary.getType(), minified, htmlLibrary.getLastModified(minified));
+            if (md5 != null) {
+                md5Cache.put(key, md5);
+            } else {
+                schedulePrecompute(htmlLibrary, minified);
+            }
+        }
+        return md5;
+    }
+
+    private void precomputeAll() {
+        final boolean minified = htmlLibraryManager.isMinifyEnabled();
+        final Map<String, ClientLibrary> libraries = Collections.unmodifiableMap(htmlLibraryManager.getLibraries());
+        clientLibrariesCache = libraries;
+        for (ClientLibrary clientLibrary : libraries.values()) {
+            schedulePrecompute(clientLibrary, minified);
+        }
+        log.info("Scheduled checksums of {} client libraries, {} are stored", libraries.size(), md5Store.size());
+    }
+
+    private void schedulePrecompute(@NotNull final ClientLibrary clientLibrary, final boolean minified) {
+        for (LibraryType type : clientLibrary.getTypes()) {
+            if (type == LibraryType.JS || type == LibraryType.CSS) {
+                final HtmlLibrary htmlLibrary = htmlLibraryManager.getLibrary(type, clientLibrary.getPath());
+                if (htmlLibrary != null) {
+                    schedulePrecompute(htmlLibrary, minified);
+                }
+            }
+        }
+    }
+
+    private void schedulePrecompute(@NotNull final HtmlLibrary htmlLibrary, final boolean minified) {
+        final ExecutorService executor = precomputeExecutor;
+        final VersionedClientLibraryMd5CacheKey key = new VersionedClientLibraryMd5CacheKey(htmlLibrary);
+        if (executor == null || !precomputing.add(key)) {
+            return;
+        }
+        pendingPrecomputes.incrementAndGet();
+        try {
+            executor.execute(() -> {
+                final long invalidation = invalidations.get();
+                try {
+                    precompute(htmlLibrary, minified, invalidation);
+                } finally {
+                    precomputeDone(key);
+                }
+                // A client library changed meanwhile, scheduling it again was skipped while this one was computed
+                if (invalidation != invalidations.get()) {
+                    final HtmlLibrary current = htmlLibraryManager.getLibrary(htmlLibrary.getType(), htmlLibrary.getLibraryPath());
+                    if (current != null) {
+                        schedulePrecompute(current, minified);
+                    }
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            log.debug("Not computing the checksum of {} as the factory is deactivated", key);
+            precomputeDone(key);
+        }
+    }
+
+    private void precomputeDone(VersionedClientLibraryMd5CacheKey key) {
+        precomputing.remove(key);
+        if (pendingPrecomputes.decrementAndGet() == 0) {
+            md5Store.save();
+        }
+    }
+
+    private void precompute(@NotNull final HtmlLibrary htmlLibrary, final boolean minified, final long invalidation) {
+        final Cache<VersionedClientLibraryMd5CacheKey, String> cache = md5Cache;
+        try {
+            final String libraryPath = htmlLibrary.getLibraryPath();
+            final long lastModified = htmlLibrary.getLastModified(minified);
+            String md5 = md5Store.get(libraryPath, htmlLibrary.getType(), minified, lastModified);
+            final boolean computed = md5 == null;
+            if (computed) {
+                md5 = calculateMd5(htmlLibrary, minified);
+            }
+            // A checksum computed while a client library changed may be outdated, it is computed again
+            if (invalidation != invalidations.get()) {
+                return;
+            }
+            if (computed) {
+                md5Store.put(libraryPath, htmlLibrary.getType(), minified, lastModified, md5);
+            }
+            if (cache != null) {
+                cache.put(new VersionedClientLibraryMd5CacheKey(htmlLibrary), md5);
+            }
+        } catch (IOException | RuntimeException e) {
+            log.warn("Could not compute the checksum of client library {}", htmlLibrary.getLibraryPath(), e);
+        }
+    }
+
     @SuppressWarnings("squid:S2070") // MD5 not used cryptographically
     @NotNull private String calculateMd5(@NotNull final HtmlLibrary htmlLibrary, boolean isMinified) throws IOException {
         // make sure that the minified version is being request in case minification is globally enabled
@@ -379,7 +538,26 @@ public final class VersionedClientlibsTransformerFactory extends AbstractGuavaCa
         String path = (String) event.getProperty(SlingConstants.PROPERTY_PATH);
         md5Cache.invalidate(new VersionedClientLibraryMd5CacheKey(path, LibraryType.JS));
         md5Cache.invalidate(new VersionedClientLibraryMd5CacheKey(path, LibraryType.CSS));
-        clientLibrariesCache = null;
+        final ExecutorService executor = precomputeExecutor;
+        if (executor == null) {
+            clientLibrariesCache = null;
+            return;
+        }
+        // Keep serving the known client libraries while the changed one is computed again
+        invalidations.incrementAndGet();
+        md5Store.remove(path);
+        try {
+            executor.execute(() -> {
+                final Map<String, ClientLibrary> libraries = Collections.unmodifiableMap(htmlLibraryManager.getLibraries());
+                clientLibrariesCache = libraries;
+                final ClientLibrary clientLibrary = libraries.get(path);
+                if (clientLibrary != null) {
+                    schedulePrecompute(clientLibrary, htmlLibraryManager.isMinifyEnabled());
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            clientLibrariesCache = null;
+        }
     }
 
     @Override
@@ -470,7 +648,17 @@ public final class VersionedClientlibsTransformerFactory extends AbstractGuavaCa
                     // this static value "Invalid cache key parameter." happens when the cache key can't be
                     // found in the cache
                     if ("Invalid cache key parameter.".equals(md5FromCache)) {
-                        md5FromCache = calculateMd5(uriInfo.htmlLibrary, htmlLibraryManager.isMinifyEnabled());
+                        if (precomputeExecutor != null) {
+                            md5FromCache = getPrecomputedMd5(uriInfo.htmlLibrary);
+                            if (md5FromCache == null) {
+                                // e.g. right after an invalidation, it is computed in the background now
+                                log.debug("MD5 for '{}' is not computed yet, allowing {} to pass", uriInfo.cleanedUri, uri);
+                                filterChain.doFilter(request, response);
+                                return;
+                            }
+                        } else {
+                            md5FromCache = calculateMd5(uriInfo.htmlLibrary, htmlLibraryManager.isMinifyEnabled());
+                        }
                     }
 
                     if (md5FromCache == null) {
@@ -38,6 +38,7 @@ import java.util.Map;
 
 import static com.adobe.acs.commons.ccvar.ContextualContentVariableTestUtil.defaultService;
 import static org.hamcrest.Matchers.startsWith;
+import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertTrue;
 import static org.mockito.ArgumentMatchers.any;
 import static org.mockito.Mockito.doAnswer;
@@ -203,6 +204,29 @@ public class ContentVariableJsonFilterTest {
                 .matches(context.response().getOutputAsString()));
     }
 
+    @Test
+    public void testJsonInvalidAfterPlaceholder() throws IOException, ServletException {
+        initServices(null);
+        context.currentResource("/content/we-retail/language-masters/en/experience/arctic-surfing-in-lofoten/jcr:content/root/hero_image");
+        context.request().setResource(context.currentResource());
+        context.request().setPathInfo("/content/we-retail/language-masters/en/experience/arctic-surfing-in-lofoten/jcr:content/root/hero_image.model.json");
+        context.requestPathInfo().setExtension("json");
+
+        FilterChain mocked = mock(MockFilterChain.class);
+        String before = "{\"title\":\"((page_properties.jcr:title))\",\"items\":[1,2,}";
+        doAnswer(invocation -> {
+            HttpServletResponse response =
+                    (HttpServletResponse) invocation.getArguments()[1];
+            response.setCharacterEncoding("utf-8");
+            response.setContentType("application/json");
+            response.getWriter().print(before);
+            return null;
+        }).when(mocked).doFilter(any(), any());
+
+        filter.doFilter(context.request(), context.response(), mocked);
+        assertEquals(before, context.response().getOutputAsString());
+    }
+
     @Test
     public void testExcludeConfig() throws IOException, ServletException {
         Map<String, Object> config = new HashMap<>();
@@ -285,6 +309,54 @@ public class ContentVariableJsonFilterTest {
                 .matches(context.response().getOutputAsString()));
     }
 
+    @Test
+    public void testModelJsonResponseWithNestedArrays() throws IOException, ServletException {
+        initServices(null);
+        context.currentResource("/content/we-retail/language-masters/en/experience/arctic-surfing-in-lofoten/jcr:content/root/hero_image");
+        context.request().setResource(context.currentResource());
+        context.request().setPathInfo("/content/we-retail/language-masters/en/experience/arctic-surfing-in-lofoten/jcr:content/root/hero_image.model.json");
+        context.requestPathInfo().setExtension("json");
+
+        FilterChain mocked = mock(MockFilterChain.class);
+        String before = "{\"count\":3,\"visible\":true,\"items\":[1,[\"((page_properties.jcr:title))\",null],{\"titles\":[\"Title: ((page_properties.pageTitle))\"]}]}";
+        doAnswer(invocation -> {
+            HttpServletResponse response =
+                    (HttpServletResponse) invocation.getArguments()[1];
+            response.setCharacterEncoding("utf-8");
+            response.setContentType("application/json");
+            response.getWriter().println(before);
+            return null;
+        }).when(mocked).doFilter(any(), any());
+
+        String after = "{\"count\":3,\"visible\":true,\"items\":[1,[\"Arctic Surfing In Lofoten\",null],{\"titles\":[\"Title: Surfing In Arctic Lofoten\"]}]}";
+        filter.doFilter(context.request(), context.response(), mocked);
+        assertTrue(startsWith(after)
+                .matches(context.response().getOutputAsString()));
+    }
+
+    @Test
+    public void testJsonResponseWithoutPlaceholders() throws IOException, ServletException {
+        initServices(null);
+        context.currentResource("/content/we-retail/language-masters/en/experience/arctic-surfing-in-lofoten/jcr:content/root/hero_image");
+        context.request().setResource(context.currentResource());
+        context.request().setPathInfo("/content/we-retail/language-masters/en/experience/arctic-surfing-in-lofoten/jcr:content/root/hero_image.model.json");
+        context.requestPathInfo().setExtension("json");
+
+        FilterChain mocked = mock(MockFilterChain.class);
+        String before = "{\n  \"title\" : \"Arctic (Surfing)\",\n  \"price\" : 1.50\n}";
+        doAnswer(invocation -> {
+            HttpServletResponse response =
+                    (HttpServletResponse) invocation.getArguments()[1];
+            response.setCharacterEncoding("utf-8");
+            response.setContentType("application/json");
+            response.getWriter().print(before);
+            return null;
+        }).when(mocked).doFilter(any(), any());
+
+        filter.doFilter(context.request(), context.response(), mocked);
+        assertEquals(before, context.response().getOutputAsString());
+    }
+
     @Test
     public void testInit() throws IOException, ServletException {
         initServices(null);
@@ -19,7 +19,11 @@ package com.adobe.acs.commons.ccvar.impl;
 
 import com.adobe.acs.commons.ccvar.PropertyAggregatorService;
 import io.wcm.testing.mock.aem.junit.AemContext;
+import org.apache.sling.api.resource.ModifiableValueMap;
+import org.apache.sling.api.resource.PersistenceException;
 import org.apache.sling.api.resource.Resource;
+import org.apache.sling.api.resource.observation.ExternalResourceChangeListener;
+import org.apache.sling.api.resource.observation.ResourceChange;
 import org.apache.sling.testing.mock.sling.ResourceResolverType;
 import org.junit.Before;
 import org.junit.Rule;
@@ -27,12 +31,15 @@ import org.junit.Test;
 import org.junit.runner.RunWith;
 import org.mockito.junit.MockitoJUnitRunner;
 
+import javax.management.DynamicMBean;
+import java.util.Collections;
 import java.util.HashMap;
 import java.util.Map;
 
 import static com.adobe.acs.commons.ccvar.ContextualContentVariableTestUtil.defaultConfigMap;
 import static com.adobe.acs.commons.ccvar.ContextualContentVariableTestUtil.defaultService;
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
 
 @RunWith(MockitoJUnitRunner.class)
 public class PropertyAggregatorServiceImplTest {
@@ -99,6 +106,50 @@ public class PropertyAggregatorServiceImplTest {
         assertEquals(expected, properties);
     }
 
+    @Test
+    public void testCachedAggregation() throws PersistenceException {
+        context.registerInjectActivateService(new PropertyConfigServiceImpl(), defaultConfigMap());
+        context.registerInjectActivateService(new AllPagePropertiesContentVariableProvider());
+        Map<String, Object> config = new HashMap<>();
+        config.put("cache.enabled", true);
+        service = context.registerInjectActivateService(new PropertyAggregatorServiceImpl(), config);
+        PropertyAggregatorCache cache = (PropertyAggregatorCache) context.getServices(DynamicMBean.class,
+                "(jmx.objectname=com.adobe.acs.commons:type=Contextual Content Variable Cache)")[0];
+
+        Resource heroImage = context.resourceResolver().getResource("/content/we-retail/language-masters/en/experience/arctic-surfing-in-lofoten/jcr:content/root/hero_image");
+        context.request().setResource(heroImage);
+        assertEquals(defaultPropertyMap(), service.getProperties(context.request()));
+        Map<String, Object> properties = service.getProperties(context.request());
+        assertEquals(defaultPropertyMap(), properties);
+        assertEquals(1, cache.getHitCount());
+        assertEquals(1, cache.getMissCount());
+
+        // Changes to the returned map or to other pages don't affect cached properties
+        properties.put("page_properties.jcr:title", "Changed");
+        cache.onChange(Collections.singletonList(new ResourceChange(ResourceChange.ChangeType.CHANGED,
+                "/content/we-retail/language-masters/en/experience/other-page/jcr:content", false)));
+        assertEquals(defaultPropertyMap(), service.getProperties(context.request()));
+        assertEquals(2, cache.getHitCount());
+
+        // Changes to an ancestor invalidate the properties of the page
+        Resource parentContent = context.resourceResolver().getResource("/content/we-retail/language-masters/en/experience/jcr:content");
+        parentContent.adaptTo(ModifiableValueMap.class).put("inheritedProperty", "changedValue");
+        context.resourceResolver().commit();
+        cache.onChange(Collections.singletonList(new ResourceChange(ResourceChange.ChangeType.CHANGED,
+                parentContent.getPath(), false)));
+        assertEquals(1, cache.getInvalidationCount());
+        assertEquals("changedValue", service.getProperties(context.request()).get("inherited_page_properties.inheritedProperty"));
+        assertEquals(2, cache.getMissCount());
+
+        // Changes made on other cluster instances invalidate the properties as well
+        assertTrue(cache instanceof ExternalResourceChangeListener);
+        cache.onChange(Collections.singletonList(new ResourceChange(ResourceChange.ChangeType.CHANGED,
+                parentContent.getPath(), true)));
+        assertEquals(2, cache.getInvalidationCount());
+        service.getProperties(context.request());
+        assertEquals(3, cache.getMissCount());
+    }
+
     private Map<String, Object> defaultPropertyMap() {
         Map<String, Object> map = new HashMap<>();
         map.put("inherited_page_properties.jcr:primaryType", "cq:PageContent");
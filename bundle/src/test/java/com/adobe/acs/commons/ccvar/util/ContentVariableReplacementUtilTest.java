@@ -0,0 +1,106 @@
+/*
+ * ACS AEM Commons
+ *
+ * Copyright (C) 2013 - 2023 Adobe
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.adobe.acs.commons.ccvar.util;
+
+import com.adobe.acs.commons.ccvar.PropertyConfigService;
+import com.adobe.acs.commons.ccvar.TransformAction;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.HashMap;
+import java.util.Map;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+public class ContentVariableReplacementUtilTest {
+
+    private final Map<String, Object> replacements = new HashMap<>();
+    private PropertyConfigService propertyConfigService;
+
+    @Before
+    public void setUp() {
+        replacements.put("page_properties.jcr:title", "Arctic <Surfing>");
+        replacements.put("page_properties.count", 42L);
+        replacements.put("inherited_page_properties.prop-name", "inherited");
+
+        TransformAction upperCase = mock(TransformAction.class);
+        when(upperCase.execute(anyString())).then(i -> ((String) i.getArgument(0)).toUpperCase());
+        when(upperCase.disableEscaping()).thenReturn(true);
+        propertyConfigService = mock(PropertyConfigService.class);
+        when(propertyConfigService.getAction(anyString())).then(i ->
+                ((String) i.getArgument(0)).endsWith("!upper") ? upperCase : null);
+    }
+
+    @Test
+    public void testSinglePassMatchesPerKeyReplacement() {
+        String[] inputs = {
+            "((page_properties.jcr:title))",
+            "Title: ((page_properties.jcr:title)) and ((inherited_page_properties.prop-name)).",
+            "(((page_properties.count)))",
+            "((page_properties.jcr:title!upper)) ((page_properties.jcr:title))",
+            "((page_properties.nonexisting)) and ((page_properties.count))",
+            "((page_properties.jcr:title) ((page_properties)) ((.count)) ((page_properties.count!))",
+            "((page_properties.count))((page_properties.count))",
+            "(("
+        };
+        for (String input : inputs) {
+            assertEquals(input, perKeyReplacement(input),
+                    ContentVariableReplacementUtil.replacePlaceholders(input, replacements, propertyConfigService));
+        }
+    }
+
+    @Test
+    public void testRange() {
+        char[] chars = "xx((page_properties.count)) and ((page_properties.count))yy".toCharArray();
+        StringBuilder output = new StringBuilder();
+
+        assertTrue(ContentVariableReplacementUtil.replacePlaceholders(chars, 2, chars.length - 4, replacements,
+                propertyConfigService, output));
+        assertEquals("42 and 42", output.toString());
+    }
+
+    @Test
+    public void testNothingToReplace() {
+        String input = "Nothing (to) replace ((page_properties.nonexisting))";
+        char[] chars = input.toCharArray();
+        StringBuilder output = new StringBuilder();
+
+        assertFalse(ContentVariableReplacementUtil.replacePlaceholders(chars, 0, chars.length, replacements,
+                propertyConfigService, output));
+        assertEquals(0, output.length());
+        assertSame(input, ContentVariableReplacementUtil.replacePlaceholders(input, replacements, propertyConfigService));
+    }
+
+    private String perKeyReplacement(String input) {
+        String output = input;
+        for (String key : ContentVariableReplacementUtil.getKeys(input)) {
+            if (ContentVariableReplacementUtil.hasKey(replacements, key)) {
+                output = ContentVariableReplacementUtil.doReplacement(output, key,
+                        String.valueOf(ContentVariableReplacementUtil.getValue(replacements, key)),
+                        propertyConfigService.getAction(key));
+            }
+        }
+        return output;
+    }
+}
@@ -23,6 +23,8 @@ import com.adobe.acs.commons.fam.ThrottledTaskRunner;
 import com.adobe.acs.commons.mcp.form.AbstractResourceImpl;
 
 import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Iterator;
 import java.util.LinkedList;
 import java.util.List;
 import java.util.Map;
@@ -30,6 +32,15 @@ import java.util.Queue;
 import java.util.concurrent.Executor;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import javax.jcr.Node;
+import javax.jcr.NodeIterator;
+import javax.jcr.Session;
+import javax.jcr.Workspace;
+import javax.jcr.query.Query;
+import javax.jcr.query.QueryManager;
+import javax.jcr.query.QueryResult;
 import org.apache.sling.api.resource.LoginException;
 import org.apache.sling.api.resource.PersistenceException;
 import org.apache.sling.api.resource.Resource;
@@ -266,4 +277,94 @@ public class ActionManagerTest {
       inOrder.verify(rr, times(2)).close();   // We expect one call for the one background resolver opened, and one for the base resolver.
       inOrder.verifyNoMoreInteractions();
     }
+
+    @Test
+    public void queryResultsAreStreamedTest() throws Exception {
+      assertQueryResultsAreStreamed(20, 5);
+    }
+
+    @Test
+    public void queryResultsAreStreamedInSingleBatchesTest() throws Exception {
+      // The producer waits for all scheduled results to complete before scheduling the next batch
+      assertQueryResultsAreStreamed(5, 5);
+    }
+
+    private void assertQueryResultsAreStreamed(int highWaterMark, int batchSize) throws Exception {
+      final int resultCount = 200;
+
+      final ResourceResolver rr = getFreshMockResolver();
+      Iterator<Node> nodes = mockQueryResults(rr, resultCount);
+      NodeIterator nodeIterator = mock(NodeIterator.class);
+      when(nodeIterator.hasNext()).then(i -> nodes.hasNext());
+      AtomicInteger read = new AtomicInteger();
+      when(nodeIterator.nextNode()).then(i -> {
+        // Reading a result takes a while, the results scheduled so far complete in the meantime
+        if (read.incrementAndGet() == highWaterMark + 1) {
+          Thread.sleep(ActionManagerImpl.HESITATION_DELAY * 4L);
+        }
+        return nodes.next();
+      });
+      QueryResult queryResult = rr.adaptTo(Session.class).getWorkspace().getQueryManager().createQuery("query", Query.JCR_SQL2).execute();
+      when(queryResult.getNodes()).thenReturn(nodeIterator);
+
+      ExecutorService executor = Executors.newFixedThreadPool(2);
+      ThrottledTaskRunner runner = mock(ThrottledTaskRunner.class);
+      List<ActionManager> managers = new ArrayList<>();
+      AtomicInteger scheduled = new AtomicInteger();
+      AtomicInteger maxInFlight = new AtomicInteger();
+      doAnswer(i -> {
+        ActionManager manager = managers.get(0);
+        maxInFlight.accumulateAndGet(manager.getAddedCount() - manager.getCompletedCount(), Math::max);
+        scheduled.incrementAndGet();
+        Runnable r = i.getArgument(0);
+        executor.submit(r);
+        return null;
+      }).when(runner).scheduleWork(any(Runnable.class), any(CancelHandler.class), anyInt());
+      // The cleanup task runs once all work is complete
+      doAnswer(i -> {
+        Runnable r = i.getArgument(0);
+        r.run();
+        return null;
+      }).when(runner).scheduleWork(any(Runnable.class), anyInt());
+
+      ActionManager manager = new ActionManagerImpl("test", runner, rr, 10);
+      managers.add(manager);
+      List<String> processed = Collections.synchronizedList(new ArrayList<>());
+      List<Integer> processedOnFinish = Collections.synchronizedList(new ArrayList<>());
+      manager.onFinish(() -> processedOnFinish.add(processed.size()));
+      int found = manager.withQueryResults("query", Query.JCR_SQL2, highWaterMark, batchSize, (r, path) -> {
+        Thread.sleep(1);
+        processed.add(path);
+      });
+      executor.shutdown();
+      executor.awaitTermination(1, TimeUnit.MINUTES);
+
+      assertEquals(resultCount, found);
+      assertEquals(resultCount, processed.size());
+      assertEquals(resultCount / batchSize, scheduled.get());
+      assertTrue("Too many results in flight: " + maxInFlight.get(), maxInFlight.get() <= highWaterMark);
+      assertEquals(resultCount, manager.getSuccessCount());
+      assertTrue(manager.isComplete());
+      assertEquals(Collections.singletonList(resultCount), processedOnFinish);
+    }
+
+    private static Iterator<Node> mockQueryResults(ResourceResolver rr, int resultCount) throws Exception {
+      List<Node> nodes = new ArrayList<>();
+      for (int i = 0; i < resultCount; i++) {
+        Node node = mock(Node.class);
+        when(node.getPath()).thenReturn("/content/result" + i);
+        nodes.add(node);
+      }
+      Session session = mock(Session.class);
+      Workspace workspace = mock(Workspace.class);
+      QueryManager queryManager = mock(QueryManager.class);
+      Query query = mock(Query.class);
+      QueryResult queryResult = mock(QueryResult.class);
+      when(rr.adaptTo(Session.class)).thenReturn(session);
+      when(session.getWorkspace()).thenReturn(workspace);
+      when(workspace.getQueryManager()).thenReturn(queryManager);
+      when(queryManager.createQuery(anyString(), anyString())).thenReturn(query);
+      when(query.execute()).thenReturn(queryResult);
+      return nodes.iterator();
+    }
 }
@@ -0,0 +1,114 @@
+/*
+ * ACS AEM Commons
+ *
+ * Copyright (C) 2013 - 2023 Adobe
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.adobe.acs.commons.fam.impl;
+
+import org.junit.Test;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class AdaptiveConcurrencyLimiterTest {
+
+    @Test
+    public void testBackoffOnOverload() throws InterruptedException {
+        AdaptiveConcurrencyLimiter limiter = new AdaptiveConcurrencyLimiter(1, 10);
+        assertEquals(10, limiter.getLimit());
+
+        limiter.acquire();
+        limiter.acquire();
+        limiter.release(1000, 1010, true);
+        assertEquals(9, limiter.getLimit());
+
+        // Started before the decrease, doesn't decrease again.
+        limiter.release(1000, 1020, true);
+        assertEquals(9, limiter.getLimit());
+
+        for (int i = 0; i < 100; i++) {
+            limiter.acquire();
+            limiter.release(2000 + i * 10, 2005 + i * 10, true);
+        }
+        assertEquals(1, limiter.getLimit());
+        assertEquals(0, limiter.getInFlight());
+    }
+
+    @Test
+    public void testGrowWhenSaturated() throws InterruptedException {
+        AdaptiveConcurrencyLimiter limiter = new AdaptiveConcurrencyLimiter(1, 4);
+        limiter.acquire();
+        limiter.release(0, 10, true);
+        assertEquals(3, limiter.getLimit());
+
+        // Not using the limit, doesn't grow.
+        limiter.acquire();
+        limiter.release(100, 110, false);
+        assertEquals(3, limiter.getLimit());
+
+        for (int i = 0; i < 10; i++) {
+            limiter.acquire();
+            limiter.acquire();
+            limiter.acquire();
+            limiter.release(200, 210, false);
+            limiter.release(200, 210, false);
+            limiter.release(200, 210, false);
+        }
+        assertEquals(4, limiter.getLimit());
+    }
+
+    @Test
+    public void testBackoffOnSlowTasks() throws InterruptedException {
+        AdaptiveConcurrencyLimiter limiter = new AdaptiveConcurrencyLimiter(1, 10);
+        long time = 0;
+        for (int i = 0; i <= AdaptiveConcurrencyLimiter.LATENCY_WARMUP; i++) {
+            limiter.acquire();
+            limiter.release(time, time + 10, false);
+            time += 10;
+        }
+        assertEquals(10, limiter.getLimit());
+
+        limiter.acquire();
+        limiter.release(time, time + 1000, false);
+        assertEquals(9, limiter.getLimit());
+    }
+
+    @Test
+    public void testWaitForCapacity() throws InterruptedException {
+        AdaptiveConcurrencyLimiter limiter = new AdaptiveConcurrencyLimiter(1, 1);
+        limiter.acquire();
+
+        CountDownLatch admitted = new CountDownLatch(1);
+        Thread waiting = new Thread(() -> {
+            try {
+                limiter.acquire();
+                admitted.countDown();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        });
+        waiting.start();
+
+        assertFalse(admitted.await(100, TimeUnit.MILLISECONDS));
+        limiter.release(0, 10, false);
+        assertTrue(admitted.await(5, TimeUnit.SECONDS));
+        assertEquals(1, limiter.getThrottledCount());
+        assertEquals(1, limiter.getInFlight());
+    }
+}
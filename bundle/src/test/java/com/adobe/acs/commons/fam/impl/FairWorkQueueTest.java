@@ -0,0 +1,132 @@
+/*
+ * ACS AEM Commons
+ *
+ * Copyright (C) 2013 - 2023 Adobe
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.adobe.acs.commons.fam.impl;
+
+import com.adobe.acs.commons.fam.CancelHandler;
+import org.junit.Test;
+
+import javax.management.openmbean.CompositeData;
+import javax.management.openmbean.TabularDataSupport;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+public class FairWorkQueueTest {
+
+    private final FairWorkQueue queue = new FairWorkQueue();
+
+    @Test
+    public void testTakeTurns() {
+        CancelHandler bulk = new CancelHandler();
+        CancelHandler other = new CancelHandler();
+        List<Runnable> bulkTasks = new ArrayList<>();
+        for (int i = 0; i < 100; i++) {
+            bulkTasks.add(task(bulk, 0));
+        }
+        bulkTasks.forEach(queue::offer);
+        Runnable otherTask = task(other, 0);
+        Runnable defaultTask = task(null, 0);
+        queue.offer(otherTask);
+        queue.offer(defaultTask);
+
+        // The tasks queued after the bulk of work don't wait for it.
+        assertSame(bulkTasks.get(0), queue.poll());
+        assertSame(otherTask, queue.poll());
+        assertSame(defaultTask, queue.poll());
+        for (Runnable bulkTask : bulkTasks.subList(1, bulkTasks.size())) {
+            assertSame(bulkTask, queue.poll());
+        }
+        assertNull(queue.poll());
+    }
+
+    @Test
+    public void testPriority() {
+        CancelHandler handler = new CancelHandler();
+        Runnable low = task(handler, 1);
+        Runnable lowest = task(null, Integer.MIN_VALUE);
+        Runnable high = task(null, 5);
+        Runnable low2 = task(handler, 1);
+        queue.offer(low);
+        queue.offer(lowest);
+        queue.offer(high);
+        queue.offer(low2);
+
+        assertSame(high, queue.poll());
+        assertSame(low, queue.poll());
+        assertSame(low2, queue.poll());
+        assertSame(lowest, queue.poll());
+    }
+
+    @Test
+    public void testPoolTasks() throws InterruptedException {
+        // The pool queues the submitted tasks wrapped in futures.
+        TimedRunnableFuture low = new TimedRunnableFuture(task(null, 0), null);
+        TimedRunnableFuture high = new TimedRunnableFuture(task(new CancelHandler(), 1), null);
+        queue.offer(low);
+        queue.offer(high);
+
+        assertEquals(2, queue.size());
+        assertSame(high, queue.take());
+        assertSame(low, queue.poll(1, TimeUnit.SECONDS));
+        assertNull(queue.poll(1, TimeUnit.MILLISECONDS));
+    }
+
+    @Test
+    public void testDrainAndRemove() {
+        CancelHandler handler = new CancelHandler();
+        Runnable first = task(handler, 0);
+        Runnable second = task(handler, 0);
+        Runnable third = task(null, 0);
+        queue.offer(first);
+        queue.offer(second);
+        queue.offer(third);
+
+        assertTrue(queue.remove(second));
+        List<Runnable> drained = new ArrayList<>();
+        assertEquals(2, queue.drainTo(drained));
+        assertSame(first, drained.get(0));
+        assertSame(third, drained.get(1));
+        assertTrue(queue.isEmpty());
+    }
+
+    @Test
+    public void testStatistics() {
+        queue.offer(task(new CancelHandler(), 0));
+        queue.offer(task(null, 0));
+        queue.offer(task(null, 0));
+        queue.poll();
+
+        TabularDataSupport stats = queue.getStatistics();
+        assertEquals(2, stats.size());
+        CompositeData defaultQueue = stats.get(new Object[]{FairWorkQueue.DEFAULT_QUEUE});
+        assertEquals(2, defaultQueue.get("depth"));
+    }
+
+    private static TimedRunnable task(CancelHandler cancelHandler, int priority) {
+        Runnable work = () -> { };
+        if (null == cancelHandler) {
+            return new TimedRunnable(work, null, -1, TimeUnit.MILLISECONDS, priority);
+        }
+        return new TimedRunnable(work, null, -1, TimeUnit.MILLISECONDS, cancelHandler, priority);
+    }
+}
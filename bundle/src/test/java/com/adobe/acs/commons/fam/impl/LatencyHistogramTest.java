@@ -0,0 +1,90 @@
+/*
+ * ACS AEM Commons
+ *
+ * Copyright (C) 2013 - 2023 Adobe
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.adobe.acs.commons.fam.impl;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class LatencyHistogramTest {
+
+    @Test
+    public void testBuckets() {
+        long[] values = {0, 1, 31, 32, 33, 63, 64, 65, 1000, 123456789, TimeUnit.HOURS.toNanos(30)};
+        for (long value : values) {
+            long highest = LatencyHistogram.highestValueOf(LatencyHistogram.bucketOf(value));
+            assertTrue("bucket of " + value + " ends before it", highest >= value);
+            assertTrue("bucket of " + value + " is too wide", highest - value <= value / LatencyHistogram.SUB_BUCKETS);
+        }
+        for (int bucket = 1; bucket < LatencyHistogram.bucketOf(Long.MAX_VALUE); bucket++) {
+            assertEquals(bucket, LatencyHistogram.bucketOf(LatencyHistogram.highestValueOf(bucket - 1) + 1));
+        }
+    }
+
+    @Test
+    public void testPercentiles() throws InterruptedException {
+        LatencyHistogram histogram = new LatencyHistogram(4);
+        List<Thread> threads = new ArrayList<>();
+        for (int t = 0; t < 4; t++) {
+            Thread thread = new Thread(() -> {
+                for (int i = 1; i <= 1000; i++) {
+                    histogram.record(i * 1000L);
+                }
+            });
+            threads.add(thread);
+            thread.start();
+        }
+        for (Thread thread : threads) {
+            thread.join();
+        }
+
+        LatencyHistogram.Snapshot snapshot = histogram.snapshot();
+        assertEquals(4000, snapshot.getCount());
+        assertWithin(500_000, snapshot.getPercentile(50));
+        assertWithin(950_000, snapshot.getPercentile(95));
+        assertWithin(990_000, snapshot.getPercentile(99));
+        assertWithin(999_000, snapshot.getPercentile(99.9));
+
+        histogram.reset();
+        assertEquals(0, histogram.snapshot().getCount());
+        assertEquals(0, histogram.snapshot().getPercentile(99));
+    }
+
+    @Test
+    public void testRunningStatistic() {
+        RunningStatistic statistic = new RunningStatistic("test");
+        for (int i = 1; i <= 100; i++) {
+            statistic.log(i);
+        }
+        assertEquals(1, statistic.getMin());
+        assertEquals(100, statistic.getMax());
+        assertEquals(50.5, statistic.getMean(), 0.001);
+        assertEquals(90.5, statistic.getRollingMean(), 0.001);
+        assertWithin(99, statistic.getPercentile(99));
+    }
+
+    private static void assertWithin(long expected, long actual) {
+        assertTrue("expected ~" + expected + " but was " + actual,
+                actual >= expected && actual <= expected + expected / LatencyHistogram.SUB_BUCKETS);
+    }
+}
@@ -0,0 +1,167 @@
+/*
+ * ACS AEM Commons
+ *
+ * Copyright (C) 2013 - 2023 Adobe
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.adobe.acs.commons.fam.impl;
+
+import com.adobe.acs.commons.functions.CheckedConsumer;
+import org.apache.sling.api.resource.PersistenceException;
+import org.apache.sling.api.resource.ResourceResolver;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertThrows;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+public class ReusableResolverTest {
+
+    private ResourceResolver resourceResolver;
+    private final List<String> changes = new ArrayList<>();
+    private final List<String> saved = new ArrayList<>();
+
+    @Before
+    public void setUp() throws PersistenceException {
+        // Simulates a session: changes are saved all at once, or not at all if one of them is "bad"
+        resourceResolver = mock(ResourceResolver.class);
+        when(resourceResolver.isLive()).thenReturn(true);
+        when(resourceResolver.hasChanges()).thenAnswer(invocation -> !changes.isEmpty());
+        doAnswer(invocation -> {
+            if (changes.stream().anyMatch(change -> change.startsWith("bad"))) {
+                throw new PersistenceException("Conflict");
+            }
+            saved.addAll(changes);
+            changes.clear();
+            return null;
+        }).when(resourceResolver).commit();
+        doAnswer(invocation -> {
+            changes.clear();
+            return null;
+        }).when(resourceResolver).revert();
+    }
+
+    @Test
+    public void testFixedSaveInterval() throws PersistenceException {
+        ReusableResolver resolver = new ReusableResolver(resourceResolver, 2);
+
+        change(resolver, "a");
+        assertEquals(Collections.singletonList("a"), resolver.getPendingItems());
+        change(resolver, "b");
+
+        assertEquals(Arrays.asList("a", "b"), saved);
+        assertTrue(resolver.getPendingItems().isEmpty());
+    }
+
+    @Test
+    public void testFailedBatchWithoutPolicy() {
+        ReusableResolver resolver = new ReusableResolver(resourceResolver, 4);
+
+        try {
+            for (String item : Arrays.asList("a", "bad", "c", "d")) {
+                change(resolver, item);
+            }
+            fail("Commit should have failed");
+        } catch (PersistenceException e) {
+            assertEquals(Arrays.asList("a", "bad", "c", "d"), resolver.getFailedItems());
+        }
+        assertTrue(saved.isEmpty());
+    }
+
+    @Test
+    public void testFailedCommitWithoutItemsIsThrown() {
+        ReusableResolver withoutPolicy = new ReusableResolver(resourceResolver, 4);
+        changes.add("bad");
+        assertThrows(PersistenceException.class, withoutPolicy::commit);
+        assertTrue(withoutPolicy.getFailedItems().isEmpty());
+
+        ReusableResolver withPolicy = new ReusableResolver(resourceResolver, 4, new AdaptiveCommitPolicy(4, 60000));
+        changes.add("bad");
+        assertThrows(PersistenceException.class, withPolicy::commit);
+        assertTrue(changes.isEmpty());
+    }
+
+    @Test
+    public void testFailedBatchIsBisected() {
+        ReusableResolver resolver = new ReusableResolver(resourceResolver, 8, new AdaptiveCommitPolicy(8, 60000));
+        List<String> items = Arrays.asList("a", "b", "bad1", "c", "d", "e", "bad2", "f");
+
+        try {
+            for (String item : items) {
+                change(resolver, item);
+            }
+            fail("Commit should have failed");
+        } catch (PersistenceException e) {
+            assertEquals(Arrays.asList("bad1", "bad2"), resolver.getFailedItems());
+        }
+        assertEquals(Arrays.asList("a", "b", "c", "d", "e", "f"), saved);
+        assertTrue(changes.isEmpty());
+    }
+
+    @Test
+    public void testItemsWithoutReplayFail() {
+        ReusableResolver resolver = new ReusableResolver(resourceResolver, 3, new AdaptiveCommitPolicy(3, 60000));
+
+        try {
+            change(resolver, "a");
+            changes.add("x");
+            resolver.setCurrentItem("x");
+            resolver.free();
+            change(resolver, "bad");
+            fail("Commit should have failed");
+        } catch (PersistenceException e) {
+            assertEquals(Arrays.asList("x", "bad"), resolver.getFailedItems());
+        }
+        assertEquals(Collections.singletonList("a"), saved);
+    }
+
+    @Test
+    public void testBatchSizeFollowsCommitTime() {
+        AdaptiveCommitPolicy policy = new AdaptiveCommitPolicy(10, 100);
+        assertEquals(10, policy.getBatchSize());
+
+        // 10ms per item
+        policy.committed(10, TimeUnit.MILLISECONDS.toNanos(100));
+        assertEquals(10, policy.getBatchSize());
+        // Fast commits grow the batch up to its limit
+        for (int i = 0; i < 20; i++) {
+            policy.committed(10, TimeUnit.MICROSECONDS.toNanos(100));
+        }
+        assertEquals(10 * AdaptiveCommitPolicy.MAX_GROWTH, policy.getBatchSize());
+        // Slow commits shrink it
+        for (int i = 0; i < 20; i++) {
+            policy.committed(10, TimeUnit.SECONDS.toNanos(1));
+        }
+        assertEquals(1, policy.getBatchSize());
+    }
+
+    private void change(ReusableResolver resolver, String item) throws PersistenceException {
+        CheckedConsumer<ResourceResolver> action = r -> changes.add(item);
+        changes.add(item);
+        resolver.setCurrentItem(item);
+        resolver.setCurrentAction(action);
+        resolver.free();
+    }
+}
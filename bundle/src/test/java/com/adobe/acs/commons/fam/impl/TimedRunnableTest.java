@@ -0,0 +1,103 @@
+/*
+ * ACS AEM Commons
+ *
+ * Copyright (C) 2013 - 2023 Adobe
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.adobe.acs.commons.fam.impl;
+
+import com.adobe.acs.commons.fam.ThrottledTaskRunner;
+import org.junit.Test;
+import org.osgi.service.component.ComponentContext;
+
+import javax.management.NotCompliantMBeanException;
+import javax.management.openmbean.CompositeData;
+import java.util.Hashtable;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.ArgumentMatchers.anyLong;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.ArgumentMatchers.isNull;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+public class TimedRunnableTest {
+
+    @Test
+    public void testNanosecondStatistics() throws NotCompliantMBeanException {
+        ThrottledTaskRunnerImpl runner = new ThrottledTaskRunnerImpl();
+        AtomicInteger runs = new AtomicInteger();
+
+        for (int i = 0; i < 10; i++) {
+            new TimedRunnable(runs::incrementAndGet, runner, Long.MAX_VALUE, TimeUnit.MILLISECONDS, 0).run();
+        }
+
+        assertEquals(10, runs.get());
+        // Sub-millisecond work is still measured.
+        CompositeData processingTime = runner.getStatistics().get(new Object[]{"Processing time (ns)"});
+        assertTrue((Long) processingTime.get("max") > 0);
+    }
+
+    @Test
+    public void testTimeoutDoesNotInterrupt() throws NotCompliantMBeanException {
+        ThrottledTaskRunnerImpl runner = new ThrottledTaskRunnerImpl();
+        AtomicInteger completed = new AtomicInteger();
+
+        new TimedRunnable(() -> {
+            try {
+                Thread.sleep(50);
+                completed.incrementAndGet();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }, runner, 1, TimeUnit.MILLISECONDS, 0).run();
+
+        assertEquals(1, completed.get());
+    }
+
+    @Test
+    public void testOtherRunner() throws InterruptedException {
+        ThrottledTaskRunner runner = mock(ThrottledTaskRunner.class);
+
+        new TimedRunnable(() -> { }, runner, Long.MAX_VALUE, TimeUnit.MILLISECONDS, 0).run();
+
+        verify(runner).waitForLowCpuAndLowMemory();
+        verify(runner).logCompletion(anyLong(), anyLong(), anyLong(), anyLong(), eq(true), isNull());
+    }
+
+    @Test
+    public void testTimeoutTimerShutDownOnDeactivate() throws NotCompliantMBeanException {
+        ThrottledTaskRunnerImpl runner = new ThrottledTaskRunnerImpl();
+        ComponentContext componentContext = mock(ComponentContext.class);
+        when(componentContext.getProperties()).thenReturn(new Hashtable<>());
+        runner.activate(componentContext);
+        ScheduledExecutorService timeoutTimer = runner.getTimeoutTimer();
+        AtomicInteger runs = new AtomicInteger();
+
+        new TimedRunnable(runs::incrementAndGet, runner, 1, TimeUnit.MINUTES, 0).run();
+        runner.deactivate();
+
+        assertTrue(timeoutTimer.isShutdown());
+        assertNull(runner.getTimeoutTimer());
+        // Tasks still run once the timer is gone
+        new TimedRunnable(runs::incrementAndGet, runner, 1, TimeUnit.MINUTES, 0).run();
+        assertEquals(2, runs.get());
+    }
+}
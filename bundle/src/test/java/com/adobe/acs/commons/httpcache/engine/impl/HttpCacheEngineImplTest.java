@@ -18,9 +18,11 @@
 package com.adobe.acs.commons.httpcache.engine.impl;
 
 import com.adobe.acs.commons.fam.ThrottledTaskRunner;
+import com.adobe.acs.commons.httpcache.config.AuthenticationStatusConfigConstants;
 import com.adobe.acs.commons.httpcache.config.HttpCacheConfig;
 import com.adobe.acs.commons.httpcache.engine.CacheContent;
 import com.adobe.acs.commons.httpcache.engine.HttpCacheServletResponseWrapper;
+import com.adobe.acs.commons.httpcache.exception.HttpCacheDataStreamException;
 import com.adobe.acs.commons.httpcache.exception.HttpCacheException;
 import com.adobe.acs.commons.httpcache.keys.CacheKey;
 import com.adobe.acs.commons.httpcache.store.HttpCacheStore;
@@ -30,8 +32,13 @@ import org.apache.commons.collections4.map.SingletonMap;
 import org.apache.commons.io.IOUtils;
 import org.apache.sling.api.SlingHttpServletRequest;
 import org.apache.sling.api.SlingHttpServletResponse;
+import org.apache.sling.api.resource.Resource;
+import org.apache.sling.api.resource.ResourceResolver;
+import org.apache.sling.api.resource.ResourceResolverFactory;
 import org.apache.sling.commons.testing.sling.MockSlingHttpServletRequest;
 import org.apache.sling.commons.testing.sling.MockSlingHttpServletResponse;
+import org.apache.sling.engine.SlingRequestProcessor;
+import org.apache.sling.servlethelpers.MockRequestPathInfo;
 import org.junit.After;
 import org.junit.Before;
 import org.junit.Rule;
@@ -46,20 +53,36 @@ import org.mockito.junit.MockitoRule;
 import org.mockito.stubbing.Answer;
 
 import javax.management.NotCompliantMBeanException;
+import javax.servlet.ServletOutputStream;
+import javax.servlet.http.Cookie;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import java.io.ByteArrayInputStream;
 import java.io.ByteArrayOutputStream;
 import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
 import java.io.PrintWriter;
 import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
 import java.util.Collections;
 import java.util.HashMap;
 import java.util.Map;
 import java.util.List;
 import java.util.Arrays;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.regex.Pattern;
 import java.util.stream.Collectors;
 
+import static com.adobe.acs.commons.httpcache.engine.impl.HttpCacheEngineImpl.PROP_COALESCE_MISSES_TIMEOUT;
 import static com.adobe.acs.commons.httpcache.engine.impl.HttpCacheEngineImpl.PROP_GLOBAL_RESPONSE_COOKIE_EXCLUSIONS;
 import static com.adobe.acs.commons.httpcache.engine.impl.HttpCacheEngineImpl.PROP_GLOBAL_RESPONSE_HEADER_EXCLUSIONS;
+import static com.adobe.acs.commons.httpcache.engine.impl.HttpCacheEngineImpl.REQUEST_ATTR_IN_FLIGHT_RENDER;
+import static com.adobe.acs.commons.httpcache.engine.impl.HttpCacheEngineImpl.REQUEST_ATTR_REVALIDATION;
 import static com.adobe.acs.commons.httpcache.store.HttpCacheStore.VALUE_JCR_CACHE_STORE_TYPE;
 import static com.adobe.acs.commons.httpcache.store.HttpCacheStore.VALUE_MEM_CACHE_STORE_TYPE;
 import static java.util.Collections.emptyMap;
@@ -87,6 +110,12 @@ public class HttpCacheEngineImplTest {
     @Mock
     ThrottledTaskRunner throttledTaskRunner;
 
+    @Mock
+    ResourceResolverFactory resourceResolverFactory;
+
+    @Mock
+    SlingRequestProcessor slingRequestProcessor;
+
     @InjectMocks
     HttpCacheEngineImpl systemUnderTest;
 
@@ -199,6 +228,7 @@ public class HttpCacheEngineImplTest {
         when(mockedCacheContent.getWriteMethod()).thenReturn(HttpCacheServletResponseWrapper.ResponseWriteMethod.OUTPUTSTREAM);
         when(mockedCacheContent.getInputDataStream()).thenReturn(getClass().getResourceAsStream("cachecontent.html"));
         when(mockedCacheContent.getCharEncoding()).thenReturn("utf-8");
+        doCallRealMethod().when(mockedCacheContent).writeTo(any(OutputStream.class));
         //cacheConfig.buildCacheKey(request)
         when(jcrCacheConfig.buildCacheKey(request)).thenReturn(mockedCacheKey);
         when(jcrCacheStore.getIfPresent(mockedCacheKey)).thenReturn(mockedCacheContent);
@@ -212,6 +242,50 @@ public class HttpCacheEngineImplTest {
         assertEquals(IOUtils.toString(getClass().getResourceAsStream("cachecontent.html"), StandardCharsets.UTF_8), response.getString());
     }
 
+    @Test
+    public void test_deliver_cache_content_from_bytes() throws HttpCacheException, IOException {
+        SlingHttpServletRequest request = new MockSlingHttpServletRequest("/content/acs-commons/home", "my-selector", "html", "", "");
+        byte[] bytes = "cached-html".getBytes(StandardCharsets.UTF_8);
+        CacheKey mockedCacheKey = mock(CacheKey.class);
+        when(jcrCacheConfig.buildCacheKey(request)).thenReturn(mockedCacheKey);
+        when(jcrCacheStore.getIfPresent(mockedCacheKey)).thenReturn(CacheContent.ofBytes(200, "utf-8", "text/html",
+                new HashMap<>(), bytes, HttpCacheServletResponseWrapper.ResponseWriteMethod.OUTPUTSTREAM));
+
+        SlingHttpServletResponse response = mock(SlingHttpServletResponse.class);
+        ServletOutputStream outputStream = mock(ServletOutputStream.class);
+        when(response.getOutputStream()).thenReturn(outputStream);
+
+        assertTrue(systemUnderTest.deliverCacheContent(request, response, jcrCacheConfig));
+
+        // The stored array is written as is, in a single call.
+        verify(outputStream).write(same(bytes), eq(0), eq(bytes.length));
+        verify(outputStream, never()).write(anyInt());
+    }
+
+    @Test
+    public void test_deliver_cache_content_closes_stream_on_failure() throws HttpCacheException, IOException {
+        SlingHttpServletRequest request = new MockSlingHttpServletRequest("/content/acs-commons/home", "my-selector", "html", "", "");
+        AtomicBoolean closed = new AtomicBoolean();
+        InputStream stream = new ByteArrayInputStream("cached-html".getBytes(StandardCharsets.UTF_8)) {
+            @Override
+            public void close() {
+                closed.set(true);
+            }
+        };
+        CacheKey mockedCacheKey = mock(CacheKey.class);
+        when(jcrCacheConfig.buildCacheKey(request)).thenReturn(mockedCacheKey);
+        when(jcrCacheStore.getIfPresent(mockedCacheKey)).thenReturn(new CacheContent(200, "utf-8", "text/html",
+                new HashMap<>(), stream, HttpCacheServletResponseWrapper.ResponseWriteMethod.PRINTWRITER));
+
+        // The client went away
+        SlingHttpServletResponse response = mock(SlingHttpServletResponse.class);
+        when(response.getWriter()).thenThrow(new IOException("Broken pipe"));
+
+        assertThrows(HttpCacheDataStreamException.class,
+                () -> systemUnderTest.deliverCacheContent(request, response, jcrCacheConfig));
+        assertTrue(closed.get());
+    }
+
     @Test
     public void test_cache_response() throws HttpCacheException, IOException {
 
@@ -276,7 +350,7 @@ public class HttpCacheEngineImplTest {
         HttpCacheConfig foundConfig = systemUnderTest.getCacheConfig(request, HttpCacheConfig.FilterScope.REQUEST);
         assertSame(jcrCacheConfig, foundConfig);
 
-        verify(jcrCacheStore,atLeastOnce()).put(eq(mockedCacheKey), cacheContentCaptor.capture());
+        verify(jcrCacheStore,atLeastOnce()).put(eq(mockedCacheKey), cacheContentCaptor.capture(), eq(jcrCacheConfig));
 
         final CacheContent capturedContent = cacheContentCaptor.getValue();
         assertEquals("utf-8", capturedContent.getCharEncoding());
@@ -300,4 +374,215 @@ public class HttpCacheEngineImplTest {
         assertEquals("rendered-html", cachedHTML);
     }
 
+
+    @Test
+    public void test_coalesce_cache_miss() throws Exception {
+        systemUnderTest.activate(Collections.singletonMap(PROP_COALESCE_MISSES_TIMEOUT, 10000));
+
+        SlingHttpServletRequest leaderRequest = newRequest();
+        SlingHttpServletRequest followerRequest = newRequest();
+        CacheKey cacheKey = mock(CacheKey.class);
+        AtomicBoolean cached = new AtomicBoolean();
+        when(jcrCacheConfig.buildCacheKey(any(SlingHttpServletRequest.class))).thenReturn(cacheKey);
+        when(jcrCacheStore.contains(cacheKey)).thenAnswer(invocation -> cached.get());
+        when(jcrCacheStore.createTempSink()).thenReturn(new MemTempSinkImpl());
+        doAnswer(invocation -> {
+            cached.set(true);
+            return null;
+        }).when(jcrCacheStore).put(eq(cacheKey), any(CacheContent.class), eq(jcrCacheConfig));
+
+        assertFalse(systemUnderTest.isCacheHit(leaderRequest, jcrCacheConfig));
+
+        ExecutorService executor = Executors.newSingleThreadExecutor();
+        try {
+            Future<Boolean> follower = executor.submit(() -> systemUnderTest.isCacheHit(followerRequest, jcrCacheConfig));
+            Thread.sleep(100);
+            assertFalse(follower.isDone());
+
+            HttpCacheServletResponseWrapper wrappedResponse = systemUnderTest.wrapResponse(leaderRequest, mockResponse(), jcrCacheConfig);
+            wrappedResponse.getWriter().write("rendered-html");
+            systemUnderTest.cacheResponse(leaderRequest, wrappedResponse, jcrCacheConfig);
+
+            assertTrue(follower.get(5, TimeUnit.SECONDS));
+        } finally {
+            executor.shutdownNow();
+        }
+        verify(jcrCacheStore, times(1)).put(eq(cacheKey), any(CacheContent.class), eq(jcrCacheConfig));
+    }
+
+    @Test
+    public void test_coalesce_cache_miss_timeout() throws Exception {
+        systemUnderTest.activate(Collections.singletonMap(PROP_COALESCE_MISSES_TIMEOUT, 50));
+
+        SlingHttpServletRequest leaderRequest = newRequest();
+        SlingHttpServletRequest followerRequest = newRequest();
+        SlingHttpServletRequest laterRequest = newRequest();
+        CacheKey cacheKey = mock(CacheKey.class);
+        when(jcrCacheConfig.buildCacheKey(any(SlingHttpServletRequest.class))).thenReturn(cacheKey);
+        when(jcrCacheStore.contains(cacheKey)).thenReturn(false);
+
+        assertFalse(systemUnderTest.isCacheHit(leaderRequest, jcrCacheConfig));
+        assertNotNull(leaderRequest.getAttribute(REQUEST_ATTR_IN_FLIGHT_RENDER));
+
+        // The leader never caches its response, the follower renders itself once the timeout expires.
+        assertFalse(systemUnderTest.isCacheHit(followerRequest, jcrCacheConfig));
+        assertNull(followerRequest.getAttribute(REQUEST_ATTR_IN_FLIGHT_RENDER));
+
+        // The expired render is replaced by the next request.
+        assertFalse(systemUnderTest.isCacheHit(laterRequest, jcrCacheConfig));
+        assertNotNull(laterRequest.getAttribute(REQUEST_ATTR_IN_FLIGHT_RENDER));
+    }
+
+    @Test
+    public void test_abandoned_render_releases_waiting_requests() throws Exception {
+        systemUnderTest.activate(Collections.singletonMap(PROP_COALESCE_MISSES_TIMEOUT, 60000));
+
+        SlingHttpServletRequest leaderRequest = newRequest();
+        SlingHttpServletRequest followerRequest = newRequest();
+        CacheKey cacheKey = mock(CacheKey.class);
+        when(jcrCacheConfig.buildCacheKey(any(SlingHttpServletRequest.class))).thenReturn(cacheKey);
+        when(jcrCacheStore.contains(cacheKey)).thenReturn(false);
+
+        assertFalse(systemUnderTest.isCacheHit(leaderRequest, jcrCacheConfig));
+
+        ExecutorService executor = Executors.newSingleThreadExecutor();
+        try {
+            Future<Boolean> follower = executor.submit(() -> systemUnderTest.isCacheHit(followerRequest, jcrCacheConfig));
+            Thread.sleep(100);
+            assertFalse(follower.isDone());
+
+            // The leader's render threw, so its response is abandoned instead of cached.
+            systemUnderTest.abandonResponse(leaderRequest);
+
+            assertFalse(follower.get(5, TimeUnit.SECONDS));
+        } finally {
+            executor.shutdownNow();
+        }
+        assertNull(leaderRequest.getAttribute(REQUEST_ATTR_IN_FLIGHT_RENDER));
+    }
+
+    @Test
+    public void test_cache_miss_not_coalesced_by_default() throws Exception {
+        SlingHttpServletRequest request = newRequest();
+        CacheKey cacheKey = mock(CacheKey.class);
+        when(jcrCacheConfig.buildCacheKey(request)).thenReturn(cacheKey);
+        when(jcrCacheStore.contains(cacheKey)).thenReturn(false);
+
+        assertFalse(systemUnderTest.isCacheHit(request, jcrCacheConfig));
+        assertFalse(systemUnderTest.isCacheHit(request, jcrCacheConfig));
+        assertNull(request.getAttribute(REQUEST_ATTR_IN_FLIGHT_RENDER));
+    }
+
+    @Test
+    public void test_revalidate_stale_content() throws Exception {
+        org.apache.sling.servlethelpers.MockSlingHttpServletRequest request = newRequest();
+        Resource requestedResource = mock(Resource.class);
+        when(requestedResource.getPath()).thenReturn("/content/acs-commons/home");
+        request.setResource(requestedResource);
+        ((MockRequestPathInfo) request.getRequestPathInfo()).setSelectorString("my-selector");
+        ((MockRequestPathInfo) request.getRequestPathInfo()).setExtension("html");
+        request.setQueryString("page=2");
+        request.addHeader("Accept-Language", "de");
+        request.addCookie(new Cookie("variant", "b"));
+        request.setServerName("www.example.com");
+        CacheKey cacheKey = mock(CacheKey.class);
+        when(jcrCacheConfig.buildCacheKey(request)).thenReturn(cacheKey);
+        when(jcrCacheConfig.getAuthenticationRequirement()).thenReturn(AuthenticationStatusConfigConstants.ANONYMOUS_REQUEST);
+        when(jcrCacheStore.getIfPresent(cacheKey)).thenAnswer(invocation -> staleContent());
+
+        List<Runnable> scheduled = new ArrayList<>();
+        doAnswer(invocation -> scheduled.add(invocation.getArgument(0))).when(throttledTaskRunner).scheduleWork(any(Runnable.class));
+
+        // The stale content is delivered, a single revalidation is scheduled.
+        assertTrue(systemUnderTest.deliverCacheContent(request, new MockSlingHttpServletResponse(), jcrCacheConfig));
+        assertTrue(systemUnderTest.deliverCacheContent(request, new MockSlingHttpServletResponse(), jcrCacheConfig));
+        assertEquals(1, scheduled.size());
+
+        ResourceResolver resourceResolver = mock(ResourceResolver.class);
+        Resource resource = mock(Resource.class);
+        when(resourceResolverFactory.getResourceResolver(null)).thenReturn(resourceResolver);
+        when(resourceResolver.getResource("/content/acs-commons/home")).thenReturn(resource);
+        when(resource.getPath()).thenReturn("/content/acs-commons/home");
+        when(resource.getResourceResolver()).thenReturn(resourceResolver);
+        scheduled.remove(0).run();
+
+        ArgumentCaptor<HttpServletRequest> internalRequest = ArgumentCaptor.forClass(HttpServletRequest.class);
+        verify(slingRequestProcessor).processRequest(internalRequest.capture(), any(HttpServletResponse.class), eq(resourceResolver));
+        SlingHttpServletRequest revalidation = (SlingHttpServletRequest) internalRequest.getValue();
+        assertSame(cacheKey, revalidation.getAttribute(REQUEST_ATTR_REVALIDATION));
+        assertEquals("my-selector", revalidation.getRequestPathInfo().getSelectorString());
+        assertEquals("html", revalidation.getRequestPathInfo().getExtension());
+        assertEquals("2", revalidation.getParameter("page"));
+        assertEquals("de", revalidation.getHeader("accept-language"));
+        assertEquals("b", revalidation.getCookie("variant").getValue());
+        assertEquals("www.example.com", revalidation.getServerName());
+        verify(resourceResolver).close();
+
+        // The internal request renders instead of being served the stale entry.
+        assertFalse(systemUnderTest.isCacheHit(revalidation, jcrCacheConfig));
+
+        // Once completed, the next stale delivery revalidates again.
+        assertTrue(systemUnderTest.deliverCacheContent(request, new MockSlingHttpServletResponse(), jcrCacheConfig));
+        assertEquals(1, scheduled.size());
+    }
+
+    @Test
+    public void test_stale_content_of_authenticated_config_is_a_miss() throws Exception {
+        SlingHttpServletRequest request = newRequest();
+        CacheKey cacheKey = mock(CacheKey.class);
+        when(jcrCacheConfig.buildCacheKey(request)).thenReturn(cacheKey);
+        when(jcrCacheConfig.getAuthenticationRequirement())
+                .thenReturn(AuthenticationStatusConfigConstants.BOTH_ANONYMOUS_AUTHENTICATED_REQUESTS);
+        when(jcrCacheConfig.getStaleWhileRevalidate()).thenReturn(5000L);
+        when(jcrCacheStore.contains(cacheKey)).thenReturn(true);
+        when(jcrCacheStore.getIfPresent(cacheKey)).thenAnswer(invocation -> staleContent());
+
+        // The entry can't be revalidated anonymously, it is rendered again instead.
+        assertFalse(systemUnderTest.isCacheHit(request, jcrCacheConfig));
+
+        CacheContent fresh = staleContent();
+        fresh.setStale(false);
+        when(jcrCacheStore.getIfPresent(cacheKey)).thenReturn(fresh);
+        assertTrue(systemUnderTest.isCacheHit(request, jcrCacheConfig));
+    }
+
+    @Test
+    public void test_revalidation_not_cached_for_other_key() throws Exception {
+        SlingHttpServletRequest request = newRequest();
+        request.setAttribute(REQUEST_ATTR_REVALIDATION, mock(CacheKey.class));
+        when(jcrCacheConfig.buildCacheKey(request)).thenReturn(mock(CacheKey.class));
+        when(jcrCacheStore.createTempSink()).thenReturn(new MemTempSinkImpl());
+
+        HttpCacheServletResponseWrapper wrappedResponse = systemUnderTest.wrapResponse(request, mockResponse(), jcrCacheConfig);
+        wrappedResponse.getWriter().write("rendered-html");
+        systemUnderTest.cacheResponse(request, wrappedResponse, jcrCacheConfig);
+
+        verify(jcrCacheStore, never()).put(any(CacheKey.class), any(CacheContent.class), any(HttpCacheConfig.class));
+    }
+
+    private CacheContent staleContent() {
+        CacheContent content = new CacheContent(200, "utf-8", "text/html", new HashMap<>(),
+                getClass().getResourceAsStream("cachecontent.html"),
+                HttpCacheServletResponseWrapper.ResponseWriteMethod.PRINTWRITER);
+        content.setStale(true);
+        return content;
+    }
+
+    /**
+     * @return a request which keeps its attributes
+     */
+    private org.apache.sling.servlethelpers.MockSlingHttpServletRequest newRequest() {
+        return new org.apache.sling.servlethelpers.MockSlingHttpServletRequest(null);
+    }
+
+    private SlingHttpServletResponse mockResponse() throws IOException {
+        SlingHttpServletResponse response = mock(SlingHttpServletResponse.class);
+        when(response.getStatus()).thenReturn(200);
+        when(response.getCharacterEncoding()).thenReturn("utf-8");
+        when(response.getContentType()).thenReturn("text/html");
+        when(response.getHeaderNames()).thenReturn(Collections.emptyList());
+        when(response.getWriter()).thenReturn(new PrintWriter(new ByteArrayOutputStream()));
+        return response;
+    }
+
 }
@@ -0,0 +1,103 @@
+/*
+ * ACS AEM Commons
+ *
+ * Copyright (C) 2013 - 2023 Adobe
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.adobe.acs.commons.httpcache.filter.impl;
+
+import com.adobe.acs.commons.httpcache.config.HttpCacheConfig;
+import com.adobe.acs.commons.httpcache.engine.HttpCacheEngine;
+import com.adobe.acs.commons.httpcache.engine.HttpCacheServletResponseWrapper;
+import com.adobe.acs.commons.httpcache.exception.HttpCacheException;
+import org.apache.sling.api.SlingHttpServletRequest;
+import org.apache.sling.api.SlingHttpServletResponse;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.mockito.InOrder;
+import org.mockito.Mock;
+import org.mockito.junit.MockitoJUnitRunner;
+
+import javax.servlet.FilterChain;
+import javax.servlet.ServletException;
+import javax.servlet.ServletRequest;
+import javax.servlet.ServletResponse;
+import java.io.IOException;
+
+import static org.junit.Assert.assertThrows;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.doThrow;
+import static org.mockito.Mockito.inOrder;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+@RunWith(MockitoJUnitRunner.class)
+public class AbstractHttpCacheFilterTest {
+
+    @Mock
+    private HttpCacheEngine cacheEngine;
+
+    @Mock
+    private HttpCacheConfig cacheConfig;
+
+    @Mock
+    private SlingHttpServletRequest request;
+
+    @Mock
+    private SlingHttpServletResponse response;
+
+    @Mock
+    private HttpCacheServletResponseWrapper wrappedResponse;
+
+    @Mock
+    private FilterChain chain;
+
+    private final AbstractHttpCacheFilter filter = new AbstractHttpCacheFilter() {
+        @Override
+        public void doFilter(ServletRequest request, ServletResponse response, FilterChain chain)
+                throws IOException, ServletException {
+            doFilter(request, response, chain, cacheEngine, HttpCacheConfig.FilterScope.REQUEST);
+        }
+    };
+
+    @Before
+    public void setUp() throws HttpCacheException {
+        when(cacheEngine.getCacheConfig(request, HttpCacheConfig.FilterScope.REQUEST)).thenReturn(cacheConfig);
+        when(cacheEngine.isRequestCacheable(request, cacheConfig)).thenReturn(true);
+        when(cacheEngine.isCacheHit(request, cacheConfig)).thenReturn(false);
+        when(cacheEngine.wrapResponse(request, response, cacheConfig)).thenReturn(wrappedResponse);
+    }
+
+    @Test
+    public void testResponseIsAbandonedWhenTheChainThrows() throws Exception {
+        doThrow(new ServletException("rendering failed")).when(chain).doFilter(request, wrappedResponse);
+
+        assertThrows(ServletException.class, () -> filter.doFilter(request, response, chain));
+
+        verify(cacheEngine, never()).cacheResponse(any(), any(), any());
+        verify(cacheEngine).abandonResponse(request);
+    }
+
+    @Test
+    public void testResponseIsAbandonedAfterItIsCached() throws Exception {
+        filter.doFilter(request, response, chain);
+
+        InOrder order = inOrder(chain, cacheEngine);
+        order.verify(chain).doFilter(request, wrappedResponse);
+        order.verify(cacheEngine).cacheResponse(request, wrappedResponse, cacheConfig);
+        order.verify(cacheEngine).abandonResponse(request);
+    }
+}
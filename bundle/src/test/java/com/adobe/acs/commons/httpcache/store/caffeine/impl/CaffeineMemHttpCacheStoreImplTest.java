@@ -18,6 +18,7 @@
 package com.adobe.acs.commons.httpcache.store.caffeine.impl;
 
 import com.adobe.acs.commons.httpcache.config.HttpCacheConfig;
+import com.adobe.acs.commons.httpcache.config.impl.keys.ResourcePathCacheKey;
 import com.adobe.acs.commons.httpcache.engine.CacheContent;
 import com.adobe.acs.commons.httpcache.engine.HttpCacheServletResponseWrapper;
 import com.adobe.acs.commons.httpcache.exception.HttpCacheDataStreamException;
@@ -118,6 +119,28 @@ public class CaffeineMemHttpCacheStoreImplTest {
         assertFalse("doesn't contain entry we just removed", caffeine.contains(key));
     }
 
+    @Test
+    public void test_stale_while_revalidate() throws Exception {
+        HttpCacheConfig config = mock(HttpCacheConfig.class);
+        when(config.getStaleWhileRevalidate()).thenReturn(60000L);
+        CacheKey key = new ResourcePathCacheKey("/content/site/page.html", config);
+        caffeine.put(key, content(), config);
+
+        // The entry turns stale once its TTL passed, but is still delivered.
+        Thread.sleep(100);
+        assertTrue(caffeine.contains(key));
+        assertTrue(caffeine.getIfPresent(key).isStale());
+
+        // Revalidation replaces the stale entry.
+        caffeine.put(key, content(), config);
+        assertFalse(caffeine.getIfPresent(key).isStale());
+
+        caffeine.invalidate(key);
+        assertTrue(caffeine.getIfPresent(key).isStale());
+        caffeine.invalidateAll();
+        assertFalse(caffeine.contains(key));
+    }
+
     @Test
     public void test_get_cache_entry_type() throws OpenDataException {
         CompositeType compositeType = caffeine.getCacheEntryType();
@@ -151,4 +174,10 @@ public class CaffeineMemHttpCacheStoreImplTest {
         TabularData data = caffeine.getCacheStats();
         assertEquals(12, data.size());
     }
+
+    private CacheContent content() {
+        CacheContent content = mock(CacheContent.class);
+        when(content.getInputDataStream()).thenReturn(getClass().getResourceAsStream("cachecontent.html"));
+        return content;
+    }
 }
@@ -0,0 +1,322 @@
+/*
+ * ACS AEM Commons
+ *
+ * Copyright (C) 2013 - 2023 Adobe
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.adobe.acs.commons.httpcache.store.disk.impl;
+
+import com.adobe.acs.commons.httpcache.config.HttpCacheConfig;
+import com.adobe.acs.commons.httpcache.engine.CacheContent;
+import com.adobe.acs.commons.httpcache.engine.HttpCacheServletResponseWrapper;
+import com.adobe.acs.commons.httpcache.exception.HttpCacheDataStreamException;
+import com.adobe.acs.commons.httpcache.exception.HttpCacheKeyCreationException;
+import com.adobe.acs.commons.httpcache.keys.CacheKey;
+import org.apache.commons.io.IOUtils;
+import org.apache.commons.lang3.StringUtils;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.junit.runner.RunWith;
+import org.mockito.junit.MockitoJUnitRunner;
+
+import javax.management.openmbean.CompositeType;
+import javax.management.openmbean.OpenDataException;
+import javax.management.openmbean.TabularData;
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.Mockito.lenient;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+@RunWith(MockitoJUnitRunner.class)
+public class DiskHttpCacheStoreImplTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    DiskHttpCacheStoreImpl systemUnderTest;
+    private File directory;
+
+    @Before
+    public void init() throws Exception {
+        directory = folder.newFolder("httpcache");
+        systemUnderTest = new DiskHttpCacheStoreImpl();
+        systemUnderTest.activate(null, config(1L, 4L));
+    }
+
+    @After
+    public void tearDown() {
+        systemUnderTest.deactivate();
+    }
+
+    @Test
+    public void test_put() throws HttpCacheDataStreamException, IOException {
+        CacheKey key = mock(CacheKey.class);
+        Map<String, List<String>> headers = new HashMap<>();
+        headers.put("Cache-Control", Collections.singletonList("max-age=60"));
+        headers.put("Sling-Tracer-Request-Id", Collections.singletonList("1"));
+        CacheContent content = new CacheContent(200, "utf-8", "text/html", headers,
+                IOUtils.toInputStream("Hello world!", StandardCharsets.UTF_8),
+                HttpCacheServletResponseWrapper.ResponseWriteMethod.OUTPUTSTREAM);
+        systemUnderTest.put(key, content);
+
+        assertTrue("contains entry we just put in", systemUnderTest.contains(key));
+        assertEquals(1, systemUnderTest.size());
+
+        CacheContent retrievedContent = systemUnderTest.getIfPresent(key);
+        assertEquals("Hello world!", IOUtils.toString(retrievedContent.getInputDataStream(), StandardCharsets.UTF_8));
+        assertEquals(200, retrievedContent.getStatus());
+        assertEquals("text/html", retrievedContent.getContentType());
+        assertEquals(HttpCacheServletResponseWrapper.ResponseWriteMethod.OUTPUTSTREAM, retrievedContent.getWriteMethod());
+        assertEquals(Collections.singletonList("max-age=60"), retrievedContent.getHeaders().get("Cache-Control"));
+        assertFalse(retrievedContent.getHeaders().containsKey("Sling-Tracer-Request-Id"));
+
+        // every read gets its own stream
+        assertEquals("Hello world!", IOUtils.toString(systemUnderTest.getIfPresent(key).getInputDataStream(), StandardCharsets.UTF_8));
+    }
+
+    @Test
+    public void test_put_from_temp_sink() throws Exception {
+        byte[] body = StringUtils.repeat("0123456789", 100_000).getBytes(StandardCharsets.UTF_8);
+        DiskTempSinkImpl sink = (DiskTempSinkImpl) systemUnderTest.createTempSink();
+        try (OutputStream out = sink.createOutputStream()) {
+            out.write(body);
+        }
+        InputStream sinkStream = sink.createInputStream();
+        assertEquals(body.length, sink.length());
+        assertEquals("spilled to a temp file", 1, tempFiles().length);
+
+        CacheContent content = mock(CacheContent.class);
+        when(content.getTempSink()).thenReturn(sink);
+        CacheKey key = mock(CacheKey.class);
+        systemUnderTest.put(key, content);
+
+        assertEquals("temp file removed once the entry is stored", 0, tempFiles().length);
+        sinkStream.close();
+        assertTrue(Arrays.equals(body, IOUtils.toByteArray(systemUnderTest.getIfPresent(key).getInputDataStream())));
+    }
+
+    @Test
+    public void test_replace() throws HttpCacheDataStreamException, IOException {
+        CacheKey key = mock(CacheKey.class);
+        systemUnderTest.put(key, content("first"));
+        systemUnderTest.put(key, content("second"));
+
+        assertEquals(1, systemUnderTest.size());
+        assertEquals("second", IOUtils.toString(systemUnderTest.getIfPresent(key).getInputDataStream(), StandardCharsets.UTF_8));
+    }
+
+    @Test
+    public void test_remove() throws HttpCacheDataStreamException {
+        CacheKey key = mock(CacheKey.class);
+        systemUnderTest.put(key, content("Hello world!"));
+
+        assertTrue("contains entry we just put in", systemUnderTest.contains(key));
+
+        CacheKey secondKey = mock(CacheKey.class);
+        lenient().when(key.isInvalidatedBy(secondKey)).thenReturn(true);
+
+        systemUnderTest.invalidate(secondKey);
+
+        assertFalse("doesn't contain entry we just removed", systemUnderTest.contains(key));
+        assertNull(systemUnderTest.getIfPresent(key));
+    }
+
+    @Test
+    public void test_remove_by_cacheconfig() throws HttpCacheDataStreamException, HttpCacheKeyCreationException {
+        HttpCacheConfig config = mock(HttpCacheConfig.class);
+        CacheKey key = mock(CacheKey.class);
+        CacheKey otherKey = mock(CacheKey.class);
+        systemUnderTest.put(key, content("Hello world!"));
+        systemUnderTest.put(otherKey, content("Hello world!"));
+
+        when(config.knows(key)).thenReturn(true);
+        assertTrue("contains entry we just put in", systemUnderTest.contains(key));
+
+        systemUnderTest.invalidate(config);
+
+        assertFalse("doesn't contain entry we just removed", systemUnderTest.contains(key));
+        assertTrue("keeps entries of other configs", systemUnderTest.contains(otherKey));
+    }
+
+    @Test
+    public void test_eviction() throws Exception {
+        // 4 segments of 1MB at most, every entry takes up 3/4 of a segment
+        byte[] body = new byte[768 * 1024];
+        CacheKey[] keys = new CacheKey[6];
+        for (int i = 0; i < keys.length; i++) {
+            keys[i] = mock(CacheKey.class);
+            Arrays.fill(body, (byte) i);
+            systemUnderTest.put(keys[i], content(body));
+        }
+
+        assertEquals(4, systemUnderTest.getSegmentCount());
+        assertEquals(2, systemUnderTest.getEvictionCount());
+        assertFalse(systemUnderTest.contains(keys[0]));
+        assertFalse(systemUnderTest.contains(keys[1]));
+        for (int i = 2; i < keys.length; i++) {
+            byte[] stored = IOUtils.toByteArray(systemUnderTest.getIfPresent(keys[i]).getInputDataStream());
+            assertEquals(body.length, stored.length);
+            assertEquals((byte) i, stored[0]);
+        }
+        assertEquals(4, segmentFiles().length);
+    }
+
+    @Test
+    public void test_segment_removed_when_empty() throws Exception {
+        byte[] body = new byte[768 * 1024];
+        CacheKey first = mock(CacheKey.class);
+        CacheKey second = mock(CacheKey.class);
+        systemUnderTest.put(first, content(body));
+        systemUnderTest.put(second, content(body));
+        assertEquals(2, segmentFiles().length);
+
+        CacheKey invalidationKey = mock(CacheKey.class);
+        when(first.isInvalidatedBy(invalidationKey)).thenReturn(true);
+        systemUnderTest.invalidate(invalidationKey);
+
+        assertEquals(1, segmentFiles().length);
+        assertEquals(0, systemUnderTest.getEvictionCount());
+    }
+
+    @Test
+    public void test_oversized_entry() throws Exception {
+        byte[] body = new byte[(int) (1.5 * 1024 * 1024)];
+        body[body.length - 1] = 1;
+        CacheKey key = mock(CacheKey.class);
+        systemUnderTest.put(key, content(body));
+
+        assertTrue(Arrays.equals(body, IOUtils.toByteArray(systemUnderTest.getIfPresent(key).getInputDataStream())));
+
+        CacheKey tooLarge = mock(CacheKey.class);
+        systemUnderTest.put(tooLarge, content(new byte[5 * 1024 * 1024]));
+        assertFalse(systemUnderTest.contains(tooLarge));
+    }
+
+    @Test
+    public void test_ttl() throws Exception {
+        Map<String, Object> config = config(1L, 4L);
+        config.put("httpcache.cachestore.diskcache.ttl", 1L);
+        systemUnderTest.activate(null, config);
+
+        CacheKey key = mock(CacheKey.class);
+        systemUnderTest.put(key, content("Hello world!"));
+        assertTrue(systemUnderTest.contains(key));
+
+        Thread.sleep(1100);
+        assertNull(systemUnderTest.getIfPresent(key));
+        assertEquals(0, systemUnderTest.size());
+    }
+
+    @Test
+    public void test_activate_purges_directory() throws Exception {
+        systemUnderTest.put(mock(CacheKey.class), content("Hello world!"));
+        assertEquals(1, segmentFiles().length);
+
+        systemUnderTest = new DiskHttpCacheStoreImpl();
+        systemUnderTest.activate(null, config(1L, 4L));
+        assertEquals(0, segmentFiles().length);
+        assertEquals(0, systemUnderTest.size());
+    }
+
+    @Test
+    public void test_invalidate_all() throws Exception {
+        CacheKey key = mock(CacheKey.class);
+        systemUnderTest.put(key, content("Hello world!"));
+        CacheContent retrievedContent = systemUnderTest.getIfPresent(key);
+
+        systemUnderTest.clearCache();
+
+        assertEquals(0, systemUnderTest.size());
+        assertEquals(0, segmentFiles().length);
+        // content handed out before stays readable
+        assertEquals("Hello world!", IOUtils.toString(retrievedContent.getInputDataStream(), StandardCharsets.UTF_8));
+    }
+
+    @Test
+    public void test_deleted_segment_counts_until_read() throws Exception {
+        CacheKey key = mock(CacheKey.class);
+        systemUnderTest.put(key, content("Hello world!"));
+        CacheContent retrievedContent = systemUnderTest.getIfPresent(key);
+
+        systemUnderTest.clearCache();
+        assertEquals(0, segmentFiles().length);
+        assertEquals(1024 * 1024, systemUnderTest.getDiskSize());
+
+        assertEquals("Hello world!", IOUtils.toString(retrievedContent.getInputDataStream(), StandardCharsets.UTF_8));
+        assertEquals(0, systemUnderTest.getDiskSize());
+    }
+
+    @Test
+    public void test_get_cache_entry_type() throws OpenDataException {
+        CompositeType compositeType = systemUnderTest.getCacheEntryType();
+        assertEquals(7, compositeType.keySet().size());
+    }
+
+    @Test
+    public void test_getCacheStats() throws Exception {
+        CacheKey key = mock(CacheKey.class);
+        systemUnderTest.put(key, content("Hello world!"));
+        assertNotNull(systemUnderTest.getIfPresent(key));
+        assertNull(systemUnderTest.getIfPresent(mock(CacheKey.class)));
+
+        TabularData data = systemUnderTest.getCacheStats();
+        assertEquals(8, data.size());
+        assertEquals("1", data.get(new Object[]{"Hit Count"}).get("Value"));
+        assertEquals("1", data.get(new Object[]{"Miss Count"}).get("Value"));
+        assertEquals("12 bytes", systemUnderTest.getCacheSize());
+    }
+
+    private Map<String, Object> config(long segmentSize, long maxSize) {
+        Map<String, Object> config = new HashMap<>();
+        config.put("httpcache.cachestore.diskcache.directory", directory.getAbsolutePath());
+        config.put("httpcache.cachestore.diskcache.segmentsize", segmentSize);
+        config.put("httpcache.cachestore.diskcache.maxsize", maxSize);
+        return config;
+    }
+
+    private static CacheContent content(String body) {
+        return content(body.getBytes(StandardCharsets.UTF_8));
+    }
+
+    private static CacheContent content(byte[] body) {
+        return new CacheContent("utf-8", "text/html", Collections.emptyMap(), new ByteArrayInputStream(body));
+    }
+
+    private File[] segmentFiles() {
+        return directory.listFiles((dir, name) -> name.startsWith(DiskCacheSegment.FILE_PREFIX));
+    }
+
+    private File[] tempFiles() {
+        return new File(directory, "tmp").listFiles();
+    }
+}
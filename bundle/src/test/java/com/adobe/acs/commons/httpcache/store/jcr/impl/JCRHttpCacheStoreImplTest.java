@@ -38,6 +38,7 @@ import org.junit.Test;
 import org.junit.runner.RunWith;
 import org.mockito.junit.MockitoJUnitRunner;
 
+import com.adobe.acs.commons.httpcache.config.HttpCacheConfig;
 import com.adobe.acs.commons.httpcache.engine.CacheContent;
 import com.adobe.acs.commons.httpcache.exception.HttpCacheDataStreamException;
 import com.adobe.acs.commons.httpcache.keys.CacheKey;
@@ -159,4 +160,50 @@ public class JCRHttpCacheStoreImplTest {
 
     }
 
+    @Test
+    public void staleWhileRevalidate() throws HttpCacheDataStreamException {
+        context.registerInjectActivateService(store, config);
+        HttpCacheConfig cacheConfig = mock(HttpCacheConfig.class);
+        when(cacheConfig.getStaleWhileRevalidate()).thenReturn(5000L);
+        CacheKey key1 = new CacheKeyMock("http://localhost/content/geometrixx/en.html", "/content/geometrixx/en", 1234,
+                "example");
+        store.put(key1, new CacheContent("UTF-8", "text/html", cacheContentHeaders,
+                new ByteArrayInputStream(INPUT.getBytes())), cacheConfig);
+        assertFalse(store.getIfPresent(key1).isStale());
+
+        // fast forward : 12 seconds, the entry is stale but within its grace period
+        setTime(currentInstant.plus(12, ChronoUnit.SECONDS));
+        assertTrue(store.contains(key1));
+        assertTrue(store.getIfPresent(key1).isStale());
+
+        // fast forward : 16 seconds, the grace period is over
+        setTime(currentInstant.plus(16, ChronoUnit.SECONDS));
+        assertFalse(store.contains(key1));
+    }
+
+    @Test
+    public void invalidateKeepsStaleEntry() throws HttpCacheDataStreamException {
+        context.registerInjectActivateService(store, config);
+        HttpCacheConfig cacheConfig = mock(HttpCacheConfig.class);
+        when(cacheConfig.getStaleWhileRevalidate()).thenReturn(5000L);
+        CacheKey key1 = new CacheKeyMock("http://localhost/content/geometrixx/en.html", "/content/geometrixx/en", 1234,
+                "example");
+        store.put(key1, new CacheContent("UTF-8", "text/html", cacheContentHeaders,
+                new ByteArrayInputStream(INPUT.getBytes())), cacheConfig);
+
+        store.invalidate(key1);
+        assertEquals(1, store.size());
+        assertTrue(store.getIfPresent(key1).isStale());
+
+        // revalidation replaces the stale entry
+        store.put(key1, new CacheContent("UTF-8", "text/html", cacheContentHeaders,
+                new ByteArrayInputStream(INPUT.getBytes())), cacheConfig);
+        assertFalse(store.getIfPresent(key1).isStale());
+
+        // the grace period applies from the invalidation on
+        store.invalidate(key1);
+        setTime(currentInstant.plus(6, ChronoUnit.SECONDS));
+        assertFalse(store.contains(key1));
+    }
+
 }
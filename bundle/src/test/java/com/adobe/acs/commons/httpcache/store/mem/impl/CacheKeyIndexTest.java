@@ -0,0 +1,94 @@
+/*
+ * ACS AEM Commons
+ *
+ * Copyright (C) 2013 - 2023 Adobe
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.adobe.acs.commons.httpcache.store.mem.impl;
+
+import com.adobe.acs.commons.httpcache.config.HttpCacheConfig;
+import com.adobe.acs.commons.httpcache.config.impl.keys.ResourcePathCacheKey;
+import com.adobe.acs.commons.httpcache.keys.CacheKey;
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.Mockito.mock;
+
+public class CacheKeyIndexTest {
+
+    private final HttpCacheConfig config = mock(HttpCacheConfig.class);
+    private final HttpCacheConfig otherConfig = mock(HttpCacheConfig.class);
+    private final CacheKeyIndex<Object> index = new CacheKeyIndex<>();
+
+    @Test
+    public void testInvalidationCandidatesByPath() {
+        CacheKey page = key("/content/site/en/page.html");
+        CacheKey pageContent = key("/content/site/en/page/jcr:content/par.json");
+        CacheKey otherPage = key("/content/site/en/other.html");
+        CacheKey custom = mock(CacheKey.class);
+        index.add(page, config, new Object());
+        index.add(pageContent, config, new Object());
+        index.add(otherPage, config, new Object());
+        index.add(custom, config, new Object());
+
+        assertEquals(new HashSet<>(Arrays.asList(page, pageContent, custom)),
+                new HashSet<>(index.getInvalidationCandidates(key("/content/site/en/page/jcr:content"))));
+        assertEquals(Collections.singletonList(custom),
+                index.getInvalidationCandidates(key("/content/site/fr/page/jcr:content")));
+    }
+
+    @Test
+    public void testKeysByConfig() {
+        CacheKey first = key("/content/first.html");
+        CacheKey second = key("/content/second.html");
+        CacheKey third = key("/content/third.html");
+        index.add(first, config, new Object());
+        index.add(second, otherConfig, new Object());
+        index.add(third, null, new Object());
+
+        assertEquals(Collections.singletonList(first), index.getKeys(config));
+        assertEquals(Collections.singletonList(second), index.getKeys(otherConfig));
+        assertEquals(new HashSet<>(Arrays.asList(second, third)), new HashSet<>(index.getKeysNotCachedFor(config)));
+        assertTrue(index.getKeys(mock(HttpCacheConfig.class)).isEmpty());
+    }
+
+    @Test
+    public void testRemoveOnlyCurrentValue() {
+        CacheKey key = key("/content/page.html");
+        Object evicted = new Object();
+        Object current = new Object();
+        index.add(key, config, evicted);
+        index.add(key, otherConfig, current);
+
+        // late removal notification for the replaced value
+        index.remove(key, evicted);
+        assertEquals(1, index.size());
+        assertTrue(index.getKeys(config).isEmpty());
+        assertEquals(Collections.singletonList(key), index.getKeys(otherConfig));
+
+        index.remove(key, current);
+        assertEquals(0, index.size());
+        assertTrue(index.getKeys(otherConfig).isEmpty());
+        assertTrue(index.getInvalidationCandidates(key).isEmpty());
+    }
+
+    private CacheKey key(String uri) {
+        return new ResourcePathCacheKey(uri, config);
+    }
+}
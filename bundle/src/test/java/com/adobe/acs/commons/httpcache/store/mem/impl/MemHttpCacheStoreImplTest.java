@@ -18,6 +18,7 @@
 package com.adobe.acs.commons.httpcache.store.mem.impl;
 
 import com.adobe.acs.commons.httpcache.config.HttpCacheConfig;
+import com.adobe.acs.commons.httpcache.config.impl.keys.ResourcePathCacheKey;
 import com.adobe.acs.commons.httpcache.engine.CacheContent;
 import com.adobe.acs.commons.httpcache.engine.HttpCacheServletResponseWrapper;
 import com.adobe.acs.commons.httpcache.exception.HttpCacheDataStreamException;
@@ -34,17 +35,26 @@ import javax.management.NotCompliantMBeanException;
 import javax.management.openmbean.CompositeType;
 import javax.management.openmbean.OpenDataException;
 import javax.management.openmbean.TabularData;
+import java.io.ByteArrayOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.nio.charset.StandardCharsets;
 import java.util.Collections;
 import java.util.HashMap;
 import java.util.Map;
+import java.util.function.BooleanSupplier;
 
+import static org.junit.Assert.assertArrayEquals;
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertTrue;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyInt;
+import static org.mockito.ArgumentMatchers.eq;
 import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.spy;
+import static org.mockito.Mockito.verify;
 import static org.mockito.Mockito.when;
 
 @RunWith(MockitoJUnitRunner.class)
@@ -84,6 +94,28 @@ public class MemHttpCacheStoreImplTest {
     }
 
 
+    @Test
+    public void test_put_from_temp_sink() throws HttpCacheDataStreamException, IOException {
+        CacheKey key = mock(CacheKey.class);
+        byte[] expected = IOUtils.toByteArray(getClass().getResourceAsStream("cachecontent.html"));
+        MemTempSinkImpl tempSink = new MemTempSinkImpl();
+        tempSink.createOutputStream().write(expected);
+        CacheContent content = mock(CacheContent.class);
+        when(content.getTempSink()).thenReturn(tempSink);
+        when(content.getWriteMethod()).thenReturn(HttpCacheServletResponseWrapper.ResponseWriteMethod.OUTPUTSTREAM);
+        systemUnderTest.put(key, content);
+
+        CacheContent retrievedContent = systemUnderTest.getIfPresent(key);
+        assertEquals(HttpCacheServletResponseWrapper.ResponseWriteMethod.OUTPUTSTREAM, retrievedContent.getWriteMethod());
+
+        // The stored bytes are delivered in a single write.
+        ByteArrayOutputStream out = spy(new ByteArrayOutputStream());
+        retrievedContent.writeTo(out);
+        verify(out).write(any(byte[].class), eq(0), eq(expected.length));
+        verify(out, never()).write(anyInt());
+        assertArrayEquals(expected, out.toByteArray());
+    }
+
     @Test
     public void test_remove() throws HttpCacheDataStreamException {
         CacheKey key = mock(CacheKey.class);
@@ -119,6 +151,95 @@ public class MemHttpCacheStoreImplTest {
         assertFalse("doesn't contain entry we just removed",systemUnderTest.contains(key));
     }
 
+    @Test
+    public void test_indexed_invalidation() throws HttpCacheDataStreamException, HttpCacheKeyCreationException {
+        HttpCacheConfig config = mock(HttpCacheConfig.class);
+        HttpCacheConfig otherConfig = mock(HttpCacheConfig.class);
+        CacheKey page = new ResourcePathCacheKey("/content/site/page.html", config);
+        CacheKey pageContent = new ResourcePathCacheKey("/content/site/page/jcr:content/par.json", config);
+        CacheKey otherPage = new ResourcePathCacheKey("/content/site/other.html", otherConfig);
+        systemUnderTest.put(page, content(), config);
+        systemUnderTest.put(pageContent, content(), config);
+        systemUnderTest.put(otherPage, content(), otherConfig);
+
+        systemUnderTest.invalidate(new ResourcePathCacheKey("/content/site/page/jcr:content", config));
+        assertFalse(systemUnderTest.contains(page));
+        assertFalse(systemUnderTest.contains(pageContent));
+        assertTrue(systemUnderTest.contains(otherPage));
+
+        systemUnderTest.put(page, content(), config);
+        systemUnderTest.invalidate(config);
+        assertFalse(systemUnderTest.contains(page));
+        assertTrue(systemUnderTest.contains(otherPage));
+        verify(config, never()).knows(page);
+    }
+
+    @Test
+    public void test_invalidation_by_equivalent_config() throws HttpCacheDataStreamException, HttpCacheKeyCreationException {
+        HttpCacheConfig config = mock(HttpCacheConfig.class);
+        HttpCacheConfig registeredAgain = mock(HttpCacheConfig.class);
+        CacheKey page = new ResourcePathCacheKey("/content/site/page.html", config);
+        CacheKey otherPage = new ResourcePathCacheKey("/content/site/other.html", config);
+        systemUnderTest.put(page, content(), config);
+        systemUnderTest.put(otherPage, content(), config);
+        when(registeredAgain.knows(page)).thenReturn(true);
+
+        systemUnderTest.invalidate(registeredAgain);
+        assertFalse(systemUnderTest.contains(page));
+        assertTrue(systemUnderTest.contains(otherPage));
+    }
+
+    @Test
+    public void test_stale_while_revalidate() throws HttpCacheDataStreamException {
+        HttpCacheConfig config = mock(HttpCacheConfig.class);
+        HttpCacheConfig otherConfig = mock(HttpCacheConfig.class);
+        when(config.getStaleWhileRevalidate()).thenReturn(60000L);
+        CacheKey page = new ResourcePathCacheKey("/content/site/page.html", config);
+        CacheKey otherPage = new ResourcePathCacheKey("/content/site/other.html", otherConfig);
+        systemUnderTest.put(page, content(), config);
+        systemUnderTest.put(otherPage, content(), otherConfig);
+        assertFalse(systemUnderTest.getIfPresent(page).isStale());
+
+        // The entry with a grace period is kept as stale, the other one is removed.
+        systemUnderTest.invalidate(new ResourcePathCacheKey("/content/site/page.html", config));
+        systemUnderTest.invalidate(new ResourcePathCacheKey("/content/site/other.html", otherConfig));
+        assertTrue(systemUnderTest.contains(page));
+        assertTrue(systemUnderTest.getIfPresent(page).isStale());
+        assertFalse(systemUnderTest.contains(otherPage));
+
+        // Revalidation replaces the stale entry.
+        systemUnderTest.put(page, content(), config);
+        assertFalse(systemUnderTest.getIfPresent(page).isStale());
+
+        systemUnderTest.invalidate(config);
+        assertTrue(systemUnderTest.getIfPresent(page).isStale());
+        systemUnderTest.invalidateAll();
+        assertFalse(systemUnderTest.contains(page));
+    }
+
+    @Test
+    public void test_stale_entry_expires_after_grace_period() throws HttpCacheDataStreamException {
+        HttpCacheConfig config = mock(HttpCacheConfig.class);
+        when(config.getStaleWhileRevalidate()).thenReturn(1L);
+        CacheKey page = new ResourcePathCacheKey("/content/site/page.html", config);
+        systemUnderTest.put(page, content(), config);
+
+        systemUnderTest.invalidate(page);
+        await(() -> !systemUnderTest.contains(page));
+        assertEquals(0, systemUnderTest.size());
+    }
+
+    @Test
+    public void test_ttl_evicts_entries() throws HttpCacheDataStreamException {
+        properties.put("httpcache.cachestore.memcache.ttl", 0L);
+        systemUnderTest.activate(properties);
+        CacheKey page = new ResourcePathCacheKey("/content/site/page.html", mock(HttpCacheConfig.class));
+        systemUnderTest.put(page, content());
+
+        assertFalse(systemUnderTest.contains(page));
+        assertEquals(0, systemUnderTest.size());
+    }
+
     @Test
     public void test_get_cache_entry_type() throws OpenDataException {
         CompositeType compositeType = systemUnderTest.getCacheEntryType();
@@ -152,4 +273,18 @@ public class MemHttpCacheStoreImplTest {
         TabularData data = systemUnderTest.getCacheStats();
         assertEquals(12, data.size());
     }
+
+    private CacheContent content() {
+        CacheContent content = mock(CacheContent.class);
+        when(content.getInputDataStream()).thenReturn(getClass().getResourceAsStream("cachecontent.html"));
+        return content;
+    }
+
+    private static void await(BooleanSupplier condition) {
+        long timeout = System.currentTimeMillis() + 5000;
+        while (!condition.getAsBoolean()) {
+            assertTrue("condition not met in time", System.currentTimeMillis() < timeout);
+            Thread.yield();
+        }
+    }
 }
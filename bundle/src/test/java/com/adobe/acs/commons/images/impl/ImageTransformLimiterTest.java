@@ -0,0 +1,159 @@
+/*
+ * ACS AEM Commons
+ *
+ * Copyright (C) 2013 - 2023 Adobe
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.adobe.acs.commons.images.impl;
+
+import org.junit.Test;
+
+import javax.management.openmbean.CompositeData;
+import javax.management.openmbean.TabularData;
+import java.awt.Dimension;
+import java.io.InterruptedIOException;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class ImageTransformLimiterTest {
+
+    private static final long MB = 1024L * 1024L;
+
+    @Test
+    public void testRejectedWhenMemoryIsExhausted() throws Exception {
+        ImageTransformLimiter limiter = new ImageTransformLimiter(4, 100 * MB, 50);
+        CountDownLatch started = new CountDownLatch(1);
+        CountDownLatch release = new CountDownLatch(1);
+        ExecutorService executor = Executors.newSingleThreadExecutor();
+        try {
+            Future<byte[]> large = executor.submit(() -> limiter.transform(null, "large", 80 * MB, () -> {
+                started.countDown();
+                await(release);
+                return new byte[]{1};
+            }));
+            assertTrue(started.await(5, TimeUnit.SECONDS));
+            assertEquals(1, limiter.getActiveCount());
+            assertEquals(80, limiter.getMemoryInUse());
+
+            try {
+                limiter.transform(null, "other", 40 * MB, () -> new byte[]{2});
+                fail("Transformation should have been rejected");
+            } catch (RejectedExecutionException e) {
+                assertEquals(1, limiter.getRejectedCount());
+            }
+            assertArrayEquals(new byte[]{3}, limiter.transform(null, "small", 20 * MB, () -> new byte[]{3}));
+
+            release.countDown();
+            assertArrayEquals(new byte[]{1}, large.get(5, TimeUnit.SECONDS));
+        } finally {
+            release.countDown();
+            executor.shutdownNow();
+        }
+        assertEquals(0, limiter.getActiveCount());
+        assertEquals(0, limiter.getMemoryInUse());
+        // more than the budget runs once nothing else does
+        assertArrayEquals(new byte[]{4}, limiter.transform(null, "huge", 500 * MB, () -> new byte[]{4}));
+    }
+
+    @Test
+    public void testConcurrentRequestsShareTheTransformation() throws Exception {
+        ImageTransformLimiter limiter = new ImageTransformLimiter(4, 100 * MB, 5000);
+        AtomicInteger transformations = new AtomicInteger();
+        CountDownLatch started = new CountDownLatch(1);
+        CountDownLatch release = new CountDownLatch(1);
+        ImageTransformLimiter.Transformation transformation = () -> {
+            transformations.incrementAndGet();
+            started.countDown();
+            await(release);
+            return new byte[]{1, 2};
+        };
+        ExecutorService executor = Executors.newFixedThreadPool(2);
+        try {
+            Future<byte[]> first = executor.submit(() -> limiter.transform("key", "thumbnail", MB, transformation));
+            assertTrue(started.await(5, TimeUnit.SECONDS));
+            Future<byte[]> second = executor.submit(() -> limiter.transform("key", "thumbnail", MB, transformation));
+            while (limiter.getDeduplicatedCount() == 0) {
+                Thread.sleep(5);
+            }
+            release.countDown();
+
+            assertArrayEquals(new byte[]{1, 2}, first.get(5, TimeUnit.SECONDS));
+            assertArrayEquals(new byte[]{1, 2}, second.get(5, TimeUnit.SECONDS));
+        } finally {
+            release.countDown();
+            executor.shutdownNow();
+        }
+        assertEquals(1, transformations.get());
+
+        TabularData latencies = limiter.getTransformLatencies();
+        CompositeData row = latencies.get(new Object[]{"thumbnail"});
+        assertEquals(1L, row.get("Count"));
+
+        limiter.resetStatistics();
+        assertEquals(0, limiter.getDeduplicatedCount());
+        assertTrue(limiter.getTransformLatencies().isEmpty());
+    }
+
+    @Test
+    public void testConcurrentRequestsWaitAsLongAsTheTransformation() throws Exception {
+        ImageTransformLimiter limiter = new ImageTransformLimiter(4, 100 * MB, 50);
+        CountDownLatch started = new CountDownLatch(1);
+        ImageTransformLimiter.Transformation transformation = () -> {
+            started.countDown();
+            try {
+                Thread.sleep(500);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            return new byte[]{1};
+        };
+        ExecutorService executor = Executors.newFixedThreadPool(2);
+        try {
+            Future<byte[]> first = executor.submit(() -> limiter.transform("key", "thumbnail", MB, transformation));
+            assertTrue(started.await(5, TimeUnit.SECONDS));
+            Future<byte[]> second = executor.submit(() -> limiter.transform("key", "thumbnail", MB, transformation));
+
+            assertArrayEquals(new byte[]{1}, first.get(5, TimeUnit.SECONDS));
+            assertArrayEquals(new byte[]{1}, second.get(5, TimeUnit.SECONDS));
+        } finally {
+            executor.shutdownNow();
+        }
+        assertEquals(0, limiter.getRejectedCount());
+    }
+
+    @Test
+    public void testEstimateMemory() {
+        assertEquals(2L * 4 * 1000 * 500, NamedTransformImageServlet.estimateMemory(new Dimension(1000, 500)));
+        assertEquals(2L * 4 * 4000 * 3000, NamedTransformImageServlet.estimateMemory(null));
+    }
+
+    private static void await(CountDownLatch latch) throws InterruptedIOException {
+        try {
+            latch.await();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException();
+        }
+    }
+}
@@ -0,0 +1,224 @@
+/*
+ * ACS AEM Commons
+ *
+ * Copyright (C) 2013 - 2023 Adobe
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.adobe.acs.commons.images.impl;
+
+import com.adobe.acs.commons.images.ImageTransformer;
+import com.adobe.acs.commons.images.transformers.impl.AdjustImageTransformerImpl;
+import com.adobe.acs.commons.images.transformers.impl.GreyscaleImageTransformerImpl;
+import com.adobe.acs.commons.images.transformers.impl.MultiplyBlendImageTransformerImpl;
+import com.adobe.acs.commons.images.transformers.impl.PixelImageTransformer;
+import com.adobe.acs.commons.images.transformers.impl.RGBShiftImageTransformerImpl;
+import com.adobe.acs.commons.images.transformers.impl.ResizeImageTransformerImpl;
+import com.adobe.acs.commons.images.transformers.impl.composites.MultiplyBlendComposite;
+import com.day.image.Layer;
+import org.apache.sling.api.resource.ValueMap;
+import org.apache.sling.api.wrappers.ValueMapDecorator;
+import org.junit.Test;
+import org.mockito.InOrder;
+
+import java.awt.AlphaComposite;
+import java.awt.Color;
+import java.awt.Graphics2D;
+import java.awt.image.BufferedImage;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Random;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.inOrder;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+public class TransformPipelineTest {
+
+    private static final int WIDTH = 40;
+    private static final int HEIGHT = 30;
+
+    @Test
+    public void testFusedPixelTransforms() {
+        BufferedImage image = randomImage();
+        ValueMap shiftParams = params("red", 0.2, "blue", -0.5);
+        ValueMap multiplyParams = params("alpha", 0.6, "color", "3399cc");
+
+        TransformPipeline pipeline = new TransformPipeline();
+        pipeline.add("rgb-shift", new RGBShiftImageTransformerImpl(), shiftParams);
+        pipeline.add("multiply", new MultiplyBlendImageTransformerImpl(), multiplyParams);
+        Layer fused = pipeline.apply(new Layer(image));
+
+        BufferedImage expected = multiply(shift(image, 51, 0, -127), new Color(0x33, 0x99, 0xcc), 0.6f);
+        assertArrayEquals(pixels(expected), pixels(fused.getImage()));
+    }
+
+    @Test
+    public void testPixelTransformsAreDeferredPastShrinkingResize() {
+        Layer layer = new Layer(randomImage());
+        PixelImageTransformer greyscale = mock(PixelImageTransformer.class);
+        when(greyscale.isLinear(any(ValueMap.class))).thenReturn(true);
+        when(greyscale.transform(any(Layer.class), any(ValueMap.class))).then(i -> i.getArgument(0));
+        ImageTransformer resize = mock(ImageTransformer.class);
+        when(resize.transform(any(Layer.class), any(ValueMap.class))).then(i -> i.getArgument(0));
+        ImageTransformer rotate = mock(ImageTransformer.class);
+        when(rotate.transform(any(Layer.class), any(ValueMap.class))).then(i -> i.getArgument(0));
+
+        TransformPipeline pipeline = new TransformPipeline();
+        pipeline.add("greyscale", greyscale, params());
+        pipeline.add("resize", resize, params("width", WIDTH / 2));
+        pipeline.add("rotate", rotate, params("degrees", 90));
+        pipeline.apply(layer);
+
+        InOrder order = inOrder(greyscale, resize, rotate);
+        order.verify(resize).transform(any(Layer.class), any(ValueMap.class));
+        order.verify(greyscale).transform(any(Layer.class), any(ValueMap.class));
+        order.verify(rotate).transform(any(Layer.class), any(ValueMap.class));
+    }
+
+    @Test
+    public void testPixelTransformsAreNotDeferredPastEnlargingResize() {
+        Layer layer = new Layer(randomImage());
+        PixelImageTransformer greyscale = mock(PixelImageTransformer.class);
+        when(greyscale.transform(any(Layer.class), any(ValueMap.class))).then(i -> i.getArgument(0));
+        ImageTransformer resize = mock(ImageTransformer.class);
+        when(resize.transform(any(Layer.class), any(ValueMap.class))).then(i -> i.getArgument(0));
+
+        TransformPipeline pipeline = new TransformPipeline();
+        pipeline.add("greyscale", greyscale, params());
+        pipeline.add("resize", resize, params("width", WIDTH * 2));
+        pipeline.apply(layer);
+
+        InOrder order = inOrder(greyscale, resize);
+        order.verify(greyscale).transform(any(Layer.class), any(ValueMap.class));
+        order.verify(resize).transform(any(Layer.class), any(ValueMap.class));
+    }
+
+    @Test
+    public void testNonLinearPixelTransformsAreNotDeferredPastShrinkingResize() {
+        ValueMap shiftParams = params("red", 0.4, "green", -0.3);
+        ValueMap adjustParams = params("brightness", 40, "contrast", 1.6);
+        ValueMap resizeParams = params("width", WIDTH / 2);
+
+        TransformPipeline pipeline = new TransformPipeline();
+        pipeline.add("rgb-shift", new RGBShiftImageTransformerImpl(), shiftParams);
+        pipeline.add("adjust", new AdjustImageTransformerImpl(), adjustParams);
+        pipeline.add("resize", new ResizeImageTransformerImpl(), resizeParams);
+        Layer piped = pipeline.apply(new Layer(randomImage()));
+
+        Layer expected = new RGBShiftImageTransformerImpl().transform(new Layer(randomImage()), shiftParams);
+        expected = new AdjustImageTransformerImpl().transform(expected, adjustParams);
+        expected = new ResizeImageTransformerImpl().transform(expected, resizeParams);
+        assertArrayEquals(pixels(expected.getImage()), pixels(piped.getImage()));
+    }
+
+    @Test
+    public void testDeferredLinearPixelTransformsKeepTheImage() {
+        ValueMap multiplyParams = params("alpha", 0.5, "color", "ff8040");
+        ValueMap resizeParams = params("width", WIDTH / 2);
+
+        TransformPipeline pipeline = new TransformPipeline();
+        pipeline.add("greyscale", new GreyscaleImageTransformerImpl(), params());
+        pipeline.add("multiply", new MultiplyBlendImageTransformerImpl(), multiplyParams);
+        pipeline.add("resize", new ResizeImageTransformerImpl(), resizeParams);
+        Layer piped = pipeline.apply(new Layer(gradientImage()));
+
+        Layer expected = new GreyscaleImageTransformerImpl().transform(new Layer(gradientImage()), params());
+        expected = new MultiplyBlendImageTransformerImpl().transform(expected, multiplyParams);
+        expected = new ResizeImageTransformerImpl().transform(expected, resizeParams);
+        assertEquals(expected.getWidth(), piped.getWidth());
+        assertEquals(expected.getHeight(), piped.getHeight());
+        int[] expectedPixels = pixels(expected.getImage());
+        int[] pipedPixels = pixels(piped.getImage());
+        for (int i = 0; i < expectedPixels.length; i++) {
+            for (int shift = 0; shift < 32; shift += 8) {
+                int difference = Math.abs((expectedPixels[i] >> shift & 0xff) - (pipedPixels[i] >> shift & 0xff));
+                assertTrue("Pixel " + i + " differs by " + difference, difference <= 2);
+            }
+        }
+    }
+
+    private static BufferedImage randomImage() {
+        Random random = new Random(42);
+        BufferedImage image = new BufferedImage(WIDTH, HEIGHT, BufferedImage.TYPE_INT_ARGB);
+        for (int y = 0; y < HEIGHT; y++) {
+            for (int x = 0; x < WIDTH; x++) {
+                image.setRGB(x, y, random.nextInt());
+            }
+        }
+        return image;
+    }
+
+    private static BufferedImage gradientImage() {
+        BufferedImage image = new BufferedImage(WIDTH, HEIGHT, BufferedImage.TYPE_INT_ARGB);
+        for (int y = 0; y < HEIGHT; y++) {
+            for (int x = 0; x < WIDTH; x++) {
+                image.setRGB(x, y, new Color(x * 255 / WIDTH, y * 255 / HEIGHT, (x + y) * 255 / (WIDTH + HEIGHT)).getRGB());
+            }
+        }
+        return image;
+    }
+
+    /**
+     * The RGB shift as it was applied pixel by pixel
+     */
+    private static BufferedImage shift(BufferedImage original, int redShift, int greenShift, int blueShift) {
+        BufferedImage updated = new BufferedImage(original.getWidth(), original.getHeight(), BufferedImage.TYPE_INT_ARGB);
+        for (int x = 0; x < original.getWidth(); x++) {
+            for (int y = 0; y < original.getHeight(); y++) {
+                Color pixel = new Color(original.getRGB(x, y));
+                Color shifted = new Color(clamp(pixel.getRed() + redShift), clamp(pixel.getGreen() + greenShift),
+                        clamp(pixel.getBlue() + blueShift));
+                updated.setRGB(x, y, shifted.getRGB());
+            }
+        }
+        return updated;
+    }
+
+    private static int clamp(int color) {
+        return Math.max(0, Math.min(255, color));
+    }
+
+    /**
+     * The multiply blend as it was applied with a composite
+     */
+    private static BufferedImage multiply(BufferedImage original, Color color, float alpha) {
+        Layer filter = new Layer(original.getWidth(), original.getHeight(), color);
+        BufferedImage image = new BufferedImage(original.getWidth(), original.getHeight(), BufferedImage.TYPE_INT_ARGB);
+        Graphics2D graphics = image.createGraphics();
+        graphics.setComposite(AlphaComposite.Clear);
+        graphics.fillRect(0, 0, original.getWidth(), original.getHeight());
+        graphics.setComposite(AlphaComposite.Src);
+        graphics.drawImage(original, 0, 0, null);
+        graphics.setComposite(new MultiplyBlendComposite(alpha));
+        graphics.drawImage(filter.getImage(), 0, 0, null);
+        graphics.dispose();
+        return image;
+    }
+
+    private static int[] pixels(BufferedImage image) {
+        return image.getRGB(0, 0, image.getWidth(), image.getHeight(), null, 0, image.getWidth());
+    }
+
+    private static ValueMap params(Object... keysAndValues) {
+        Map<String, Object> map = new HashMap<>();
+        for (int i = 0; i < keysAndValues.length; i += 2) {
+            map.put((String) keysAndValues[i], keysAndValues[i + 1]);
+        }
+        return new ValueMapDecorator(map);
+    }
+}
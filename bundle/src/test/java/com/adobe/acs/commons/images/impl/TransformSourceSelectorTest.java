@@ -0,0 +1,175 @@
+/*
+ * ACS AEM Commons
+ *
+ * Copyright (C) 2013 - 2023 Adobe
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.adobe.acs.commons.images.impl;
+
+import com.day.cq.dam.api.Asset;
+import com.day.cq.dam.api.Rendition;
+import com.day.image.Layer;
+import org.apache.sling.api.resource.ValueMap;
+import org.apache.sling.api.wrappers.ValueMapDecorator;
+import org.junit.Test;
+
+import javax.imageio.ImageIO;
+import java.awt.Dimension;
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+public class TransformSourceSelectorTest {
+
+    private static final Dimension ORIGINAL = new Dimension(4000, 3000);
+
+    @Test
+    public void testTargetSizeOfResize() {
+        assertEquals(new Dimension(200, 150), TransformSourceSelector.getTargetSize("resize", params("width", "200"), ORIGINAL));
+        assertEquals(new Dimension(400, 300), TransformSourceSelector.getTargetSize("resize", params("h", "300"), ORIGINAL));
+        assertEquals(new Dimension(100, 100),
+                TransformSourceSelector.getTargetSize("resize", params("width", "100", "height", "100"), ORIGINAL));
+        assertNull(TransformSourceSelector.getTargetSize("resize", params("width", "0"), ORIGINAL));
+        assertNull(TransformSourceSelector.getTargetSize("resize", params("width", "8000"), ORIGINAL));
+    }
+
+    @Test
+    public void testTargetSizeOfBoundedResize() {
+        assertEquals(new Dimension(200, 150),
+                TransformSourceSelector.getTargetSize("bounded-resize", params("width", "200", "height", "200"), ORIGINAL));
+        assertEquals(new Dimension(400, 300),
+                TransformSourceSelector.getTargetSize("bounded-resize", params("height", "300"), ORIGINAL));
+        assertNull(TransformSourceSelector.getTargetSize("bounded-resize",
+                params("width", "8000", "upscale", "true"), ORIGINAL));
+        assertNull(TransformSourceSelector.getTargetSize("greyscale", params("width", "200"), ORIGINAL));
+    }
+
+    @Test
+    public void testSubsampling() {
+        assertEquals(10, TransformSourceSelector.getSubsampling(ORIGINAL, new Dimension(200, 150)));
+        assertEquals(1, TransformSourceSelector.getSubsampling(ORIGINAL, new Dimension(2000, 1500)));
+        assertEquals(1, TransformSourceSelector.getSubsampling(ORIGINAL, new Dimension(3000, 2250)));
+    }
+
+    @Test
+    public void testSmallestLargeEnoughRenditionIsFound() throws IOException {
+        Rendition original = rendition("original", 800, 600);
+        Rendition web = rendition("cq5dam.web.400.300.png", 400, 300);
+        Rendition small = rendition("cq5dam.thumbnail.140.100.png", 133, 100);
+        Rendition square = rendition("cq5dam.thumbnail.319.319.png", 319, 319);
+        Asset asset = mock(Asset.class);
+        when(asset.getOriginal()).thenReturn(original);
+        when(asset.getRenditions()).thenReturn(Arrays.asList(original, web, small, square));
+
+        TransformSourceSelector.RenditionSizeCache renditionSizes = new TransformSourceSelector.RenditionSizeCache(10);
+        TransformSourceSelector.Source source = TransformSourceSelector.findRendition(asset, renditionSizes,
+                new Dimension(800, 600), new Dimension(300, 225));
+        assertEquals(web, source.getRendition());
+        assertEquals(new Dimension(400, 300), source.getSize());
+        assertNull(TransformSourceSelector.findRendition(asset, renditionSizes, new Dimension(800, 600),
+                new Dimension(600, 450)));
+    }
+
+    @Test
+    public void testRenditionSizesAreReadOncePerModification() throws IOException {
+        Rendition original = rendition("original", 800, 600);
+        Rendition web = rendition("cq5dam.web.400.300.png", 400, 300);
+        Asset asset = mock(Asset.class);
+        when(asset.getPath()).thenReturn("/content/dam/image.png");
+        when(asset.getLastModified()).thenReturn(1L);
+        when(asset.getOriginal()).thenReturn(original);
+        when(asset.getRenditions()).thenReturn(Arrays.asList(original, web));
+
+        TransformSourceSelector.RenditionSizeCache renditionSizes = new TransformSourceSelector.RenditionSizeCache(10);
+        for (int i = 0; i < 3; i++) {
+            assertEquals(web, TransformSourceSelector.findRendition(asset, renditionSizes, new Dimension(800, 600),
+                    new Dimension(300, 225)).getRendition());
+        }
+        verify(web, times(1)).getStream();
+        verify(original, never()).getStream();
+
+        when(asset.getLastModified()).thenReturn(2L);
+        assertEquals(web, TransformSourceSelector.findRendition(asset, renditionSizes, new Dimension(800, 600),
+                new Dimension(200, 150)).getRendition());
+        verify(web, times(2)).getStream();
+    }
+
+    @Test
+    public void testOriginalIsSubsampledWithoutLargeEnoughRendition() throws IOException {
+        Rendition original = rendition("original", 2000, 1500);
+        Rendition small = rendition("cq5dam.thumbnail.140.100.png", 133, 100);
+        Asset asset = mock(Asset.class);
+        when(asset.getOriginal()).thenReturn(original);
+        when(asset.getRenditions()).thenReturn(Arrays.asList(original, small));
+
+        TransformSourceSelector.RenditionSizeCache renditionSizes = new TransformSourceSelector.RenditionSizeCache(10);
+        TransformSourceSelector.Source source = TransformSourceSelector.select(asset, renditionSizes,
+                new Dimension(2001, 1500), new Dimension(200, 150));
+        assertEquals(original, source.getRendition());
+        assertEquals(5, source.getSubsampling());
+        assertEquals(new Dimension(401, 300), source.getSize());
+        assertNull(TransformSourceSelector.select(null, renditionSizes, new Dimension(800, 600),
+                new Dimension(600, 450)));
+    }
+
+    @Test
+    public void testDecodeSubsampled() throws IOException {
+        byte[] png = png(800, 600);
+        assertEquals(new Dimension(800, 600), TransformSourceSelector.readSize(new ByteArrayInputStream(png)));
+
+        Layer layer = TransformSourceSelector.decodeSubsampled(new ByteArrayInputStream(png), 4);
+        assertNotNull(layer);
+        assertEquals(200, layer.getWidth());
+        assertEquals(150, layer.getHeight());
+
+        assertNull(TransformSourceSelector.readSize(new ByteArrayInputStream(new byte[]{1, 2, 3})));
+        assertNull(TransformSourceSelector.decodeSubsampled(new ByteArrayInputStream(new byte[]{1, 2, 3}), 4));
+    }
+
+    private static ValueMap params(String... keysAndValues) {
+        Map<String, Object> map = new HashMap<>();
+        for (int i = 0; i < keysAndValues.length; i += 2) {
+            map.put(keysAndValues[i], keysAndValues[i + 1]);
+        }
+        return new ValueMapDecorator(map);
+    }
+
+    private static Rendition rendition(String name, int width, int height) throws IOException {
+        byte[] png = png(width, height);
+        Rendition rendition = mock(Rendition.class);
+        when(rendition.getPath()).thenReturn("/content/dam/image.png/jcr:content/renditions/" + name);
+        when(rendition.getMimeType()).thenReturn("image/png");
+        when(rendition.getStream()).then(invocation -> new ByteArrayInputStream(png));
+        return rendition;
+    }
+
+    private static byte[] png(int width, int height) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        ImageIO.write(new BufferedImage(width, height, BufferedImage.TYPE_INT_RGB), "png", out);
+        return out.toByteArray();
+    }
+}
@@ -0,0 +1,100 @@
+/*
+ * ACS AEM Commons
+ *
+ * Copyright (C) 2013 - 2023 Adobe
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.adobe.acs.commons.images.impl;
+
+import org.apache.sling.api.resource.observation.ResourceChange;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.Arrays;
+import java.util.Collections;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+
+public class TransformedImageCacheTest {
+
+    private static final String IMAGE_PATH = "/content/dam/image.png";
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void testKeyDependsOnAllParts() {
+        String key = TransformedImageCache.key(IMAGE_PATH, 1000L, "resize{width=100}", "image/png", 0.82);
+        assertEquals(key, TransformedImageCache.key(IMAGE_PATH, 1000L, "resize{width=100}", "image/png", 0.82));
+        assertNotEquals(key, TransformedImageCache.key(IMAGE_PATH, 2000L, "resize{width=100}", "image/png", 0.82));
+        assertNotEquals(key, TransformedImageCache.key(IMAGE_PATH, 1000L, "resize{width=200}", "image/png", 0.82));
+        assertNotEquals(key, TransformedImageCache.key(IMAGE_PATH, 1000L, "resize{width=100}", "image/jpeg", 0.82));
+    }
+
+    @Test
+    public void testLeastRecentlyUsedAreEvicted() throws IOException {
+        TransformedImageCache cache = new TransformedImageCache(folder.getRoot(), 30);
+        cache.load();
+
+        cache.put("a", Collections.singletonList(IMAGE_PATH), new byte[10]);
+        cache.put("b", Collections.singletonList(IMAGE_PATH), new byte[10]);
+        cache.put("c", Collections.singletonList(IMAGE_PATH), new byte[10]);
+        assertNotNull(cache.get("a"));
+        cache.put("d", Collections.singletonList(IMAGE_PATH), new byte[10]);
+
+        assertNull(cache.get("b"));
+        assertEquals(3, cache.getEntryCount());
+        assertEquals(30, cache.getSize());
+        assertArrayEquals(new byte[10], Files.readAllBytes(cache.get("a").toPath()));
+        assertEquals(3, folder.getRoot().list().length);
+    }
+
+    @Test
+    public void testChangedSourcesAreInvalidated() {
+        TransformedImageCache cache = new TransformedImageCache(folder.getRoot(), 1000);
+        cache.load();
+        cache.put("asset", Arrays.asList("/content/page/jcr:content/image", IMAGE_PATH), new byte[10]);
+        cache.put("other", Collections.singletonList("/content/dam/other.png"), new byte[10]);
+
+        cache.onChange(Collections.singletonList(new ResourceChange(ResourceChange.ChangeType.CHANGED,
+                IMAGE_PATH + "/jcr:content/renditions/original/jcr:content", false)));
+
+        assertNull(cache.get("asset"));
+        assertNotNull(cache.get("other"));
+        assertEquals(10, cache.getSize());
+        assertEquals(1, folder.getRoot().list().length);
+    }
+
+    @Test
+    public void testCachedImagesAreKeptAcrossRestarts() throws IOException {
+        TransformedImageCache cache = new TransformedImageCache(folder.getRoot(), 1000);
+        cache.load();
+        cache.put("a", Collections.singletonList(IMAGE_PATH), new byte[]{1, 2, 3});
+        new File(folder.getRoot(), "b.1.tmp").createNewFile();
+
+        TransformedImageCache restarted = new TransformedImageCache(folder.getRoot(), 1000);
+        restarted.load();
+
+        assertEquals(1, restarted.getEntryCount());
+        assertArrayEquals(new byte[]{1, 2, 3}, Files.readAllBytes(restarted.get("a").toPath()));
+    }
+}
@@ -37,6 +37,7 @@ import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
 import java.util.stream.Collectors;
+import javax.management.openmbean.CompositeData;
 import javax.management.openmbean.TabularData;
 import javax.servlet.FilterChain;
 import javax.servlet.ServletException;
@@ -47,6 +48,8 @@ import org.apache.sling.api.resource.ModifiableValueMap;
 import org.apache.sling.api.resource.NonExistingResource;
 import org.apache.sling.api.resource.PersistenceException;
 import org.apache.sling.api.resource.Resource;
+import org.apache.sling.api.resource.ResourceResolver;
+import org.apache.sling.api.resource.ResourceResolverFactory;
 import org.apache.sling.api.resource.observation.ResourceChange;
 import org.apache.sling.caconfig.resource.ConfigurationResourceResolver;
 import org.apache.sling.resourcebuilder.api.ResourceBuilder;
@@ -65,6 +68,7 @@ import static com.adobe.acs.commons.redirects.filter.RedirectFilter.getRules;
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNotSame;
 import static org.junit.Assert.assertNull;
 import static org.junit.Assert.assertTrue;
 import static org.mockito.ArgumentMatchers.any;
@@ -815,6 +819,91 @@ public class RedirectFilterTest {
         verify(rulesCache, times(1)).invalidate(eq("/conf/my-site/en/settings/redirects"));
     }
 
+    @Test
+    public void testIncrementalReload() throws Exception {
+        ResourceResolver serviceResolver = spy(context.resourceResolver());
+        doNothing().when(serviceResolver).close();
+        filter.resourceResolverFactory = mock(ResourceResolverFactory.class);
+        when(filter.resourceResolverFactory.getServiceResourceResolver(any())).thenReturn(serviceResolver);
+
+        withRules(
+            new RedirectResourceBuilder(context)
+                    .setSource("/content/geometrixx/en/one")
+                    .setTarget("/content/geometrixx/en/two")
+                    .setNodeName("redirect-1")
+                    .setStatusCode(302).build(),
+            new RedirectResourceBuilder(context)
+                    .setSource("/content/geometrixx/en/old/(.*)")
+                    .setTarget("/content/geometrixx/en/new/$1")
+                    .setNodeName("redirect-2")
+                    .setStatusCode(302).build()
+        );
+        assertEquals("/content/geometrixx/en/two.html", navigate("/content/geometrixx/en/one.html").getHeader("Location"));
+        RedirectConfiguration loaded = filter.getRulesCache().getIfPresent(redirectStoragePath);
+
+        new RedirectResourceBuilder(context)
+                .setSource("/content/geometrixx/en/three")
+                .setTarget("/content/geometrixx/en/four")
+                .setNodeName("redirect-3")
+                .setStatusCode(301).build();
+        context.resourceResolver().delete(context.resourceResolver().getResource(redirectStoragePath + "/redirect-1"));
+
+        filter.applyChanges(redirectStoragePath, Arrays.asList(
+                new ResourceChange(ResourceChange.ChangeType.ADDED, redirectStoragePath + "/redirect-3", false),
+                new ResourceChange(ResourceChange.ChangeType.REMOVED, redirectStoragePath + "/redirect-1", false)));
+
+        RedirectConfiguration updated = filter.getRulesCache().getIfPresent(redirectStoragePath);
+        assertNotSame(loaded, updated);
+        // the previously loaded rules are not modified
+        assertEquals(1, loaded.getPathRules().size());
+        assertNotNull(loaded.match("/content/geometrixx/en/one"));
+
+        assertNull(updated.match("/content/geometrixx/en/one"));
+        assertEquals(301, updated.match("/content/geometrixx/en/three").getRule().getStatusCode());
+        assertNotNull(updated.match("/content/geometrixx/en/old/page"));
+    }
+
+    @Test
+    public void testPreloadRules() throws Exception {
+        ResourceResolver serviceResolver = spy(context.resourceResolver());
+        doNothing().when(serviceResolver).close();
+        filter.resourceResolverFactory = mock(ResourceResolverFactory.class);
+        when(filter.resourceResolverFactory.getServiceResourceResolver(any())).thenReturn(serviceResolver);
+
+        withRules(
+            new RedirectResourceBuilder(context)
+                    .setSource("/content/geometrixx/en/one")
+                    .setTarget("/content/geometrixx/en/two")
+                    .setStatusCode(302).build()
+        );
+        new RedirectResourceBuilder(context, "/conf/my-site/settings/redirects")
+                .setSource("/content/my-site/en/one")
+                .setTarget("/content/my-site/en/two")
+                .setStatusCode(302).build();
+
+        when(configuration.preloadRules()).thenReturn(true);
+        filter.deactivate();
+        filter.activate(configuration, context.bundleContext());
+
+        long deadline = System.currentTimeMillis() + 5000;
+        while (filter.getRulesCache().size() < 2 && System.currentTimeMillis() < deadline) {
+            Thread.sleep(10);
+        }
+        assertEquals(new HashSet<>(Arrays.asList(redirectStoragePath, "/conf/my-site/settings/redirects")),
+                new HashSet<>(filter.getRedirectConfigurations()));
+
+        // a reload keeps serving the previously loaded rules until the replacement is in place
+        RedirectConfiguration loaded = filter.getRulesCache().getIfPresent(redirectStoragePath);
+        filter.reload(redirectStoragePath + "/rule-1");
+        RedirectConfiguration reloaded = filter.getRulesCache().getIfPresent(redirectStoragePath);
+        assertNotNull(reloaded);
+        assertNotSame(loaded, reloaded);
+
+        TabularData data = filter.getLoadTimes();
+        assertEquals(2, data.size());
+        assertEquals(2L, data.get(new Object[]{redirectStoragePath}).get("Loads"));
+    }
+
     @Test
     public void testNoopRewrite() throws Exception {
         withRules(
@@ -1051,6 +1140,29 @@ public class RedirectFilterTest {
         assertEquals(2, data.size());
     }
 
+    @Test
+    public void testNegativeLookupStats() throws Exception {
+        withRules(
+            new RedirectResourceBuilder(context)
+                    .setSource("/content/geometrixx/en/one")
+                    .setTarget("/content/geometrixx/en/two")
+                    .setStatusCode(302).build(),
+            new RedirectResourceBuilder(context)
+                    .setSource("/content/geometrixx/en/old/(.*)")
+                    .setTarget("/content/geometrixx/en/new/$1")
+                    .setStatusCode(302).build()
+        );
+
+        assertEquals("/content/geometrixx/en/two.html", navigate("/content/geometrixx/en/one.html").getHeader("Location"));
+        assertEquals("/content/geometrixx/en/new/page.html", navigate("/content/geometrixx/en/old/page.html").getHeader("Location"));
+        assertNull(navigate("/content/we-retail/en/page.html").getHeader("Location"));
+
+        TabularData data = filter.getNegativeLookupStats();
+        assertEquals(1, data.size());
+        CompositeData row = data.get(new Object[]{redirectStoragePath});
+        assertEquals(1L, row.get("Short Circuits"));
+    }
+
     @Test
     public void testNotEnabledDeactivate() throws Exception {
         RedirectFilter.Configuration configuration = mock(RedirectFilter.Configuration.class);
@@ -1101,6 +1213,29 @@ public class RedirectFilterTest {
                 .doFilter(any(SlingHttpServletRequest.class), any(SlingHttpServletResponse.class));
     }
 
+    @Test
+    public void testContextPrefixPatternCache() throws Exception {
+        withRules(
+            new RedirectResourceBuilder(context)
+                    .setSource("/en/old/(.*)")
+                    .setTarget("/en/new/$1")
+                    .setStatusCode(302).build()
+        );
+
+        Resource configResource = context.resourceResolver().getResource(redirectStoragePath);
+        configResource.adaptTo(ModifiableValueMap.class).put(Redirects.CFG_PROP_CONTEXT_PREFIX, "/content/geometrixx");
+
+        assertEquals("/content/geometrixx/en/new/one.html", navigate("/content/geometrixx/en/old/one.html").getHeader("Location"));
+        assertEquals("/content/geometrixx/en/new/two.html", navigate("/content/geometrixx/en/old/two.html").getHeader("Location"));
+        assertEquals("/content/geometrixx/en/new/three.html", navigate("/content/geometrixx/en/old/three.html").getHeader("Location"));
+
+        TabularData data = filter.getContextPatternCacheStats();
+        assertEquals(1, data.size());
+        CompositeData row = data.get(new Object[]{redirectStoragePath});
+        assertEquals(2L, row.get("Hits"));
+        assertEquals(1L, row.get("Misses"));
+    }
+
     @Test
     public void testContextPrefixFullPathRedirectRule() throws Exception {
         withRules(
@@ -0,0 +1,141 @@
+/*
+ * ACS AEM Commons
+ *
+ * Copyright (C) 2013 - 2023 Adobe
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.adobe.acs.commons.redirects.models;
+
+import org.junit.Test;
+
+import java.util.BitSet;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Random;
+import java.util.regex.Pattern;
+
+import static com.adobe.acs.commons.redirects.models.PatternRuleIndex.literalPrefix;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.Mockito.doReturn;
+import static org.mockito.Mockito.mock;
+
+public class PatternRuleIndexTest {
+
+    @Test
+    public void testLiteralPrefix() {
+        assertEquals("/content/we-retail/", literalPrefix("/content/we-retail/(.*)", false));
+        assertEquals("/content/we-retail/en", literalPrefix("^/content/we-retail/en(.*)", false));
+        assertEquals("/content/we-retail", literalPrefix("/content/we-retail\\.html(.*)", false));
+        assertEquals("/content/we-retai", literalPrefix("/content/we-retail?(.*)", false));
+        assertEquals("/content/we-retai", literalPrefix("/content/we-retail*(.*)", false));
+        assertEquals("/content/", literalPrefix("/content/[a-z]+/(.*)", false));
+        assertEquals("", literalPrefix("/content/one(.*)|/content/two(.*)", false));
+        assertEquals("/content/", literalPrefix("/content/(one|two)(.*)", false));
+        assertEquals("", literalPrefix("(?i)/content/(.*)", false));
+        assertEquals("/content/caf", literalPrefix("/content/café/(.*)", true));
+        assertEquals("/content/café/", literalPrefix("/content/café/(.*)", false));
+    }
+
+    @Test
+    public void testCandidates() {
+        Map<Pattern, RedirectRule> rules = new LinkedHashMap<>();
+        put(rules, "/content/we-retail/(.*)", false);
+        put(rules, "/content/geometrixx/(.*)", false);
+        put(rules, "/CONTENT/We-Retail/en/(.*)", true);
+        put(rules, "(.*)/old/(.*)", false);
+
+        PatternRuleIndex index = new PatternRuleIndex(rules, "");
+        BitSet candidates = index.candidates(new String[]{"/content/we-retail/en/page"}, new String[0]);
+        assertTrue(candidates.get(0));
+        assertFalse(candidates.get(1));
+        assertTrue(candidates.get(2));
+        assertTrue(candidates.get(3));
+    }
+
+    @Test
+    public void testContextPrefix() {
+        Map<Pattern, RedirectRule> rules = new LinkedHashMap<>();
+        put(rules, "/en/(.*)", false);
+
+        BitSet noPrefix = new PatternRuleIndex(rules, "").candidates(new String[]{"/content/geometrixx/en/page"}, new String[0]);
+        assertFalse(noPrefix.get(0));
+
+        BitSet withPrefix = new PatternRuleIndex(rules, "/content/geometrixx")
+                .candidates(new String[]{"/content/geometrixx/en/page", "/en/page"}, new String[0]);
+        assertTrue(withPrefix.get(0));
+    }
+
+    /**
+     * the first candidate that matches must be the first rule a linear scan would match
+     */
+    @Test
+    public void testSameResultAsLinearScan() {
+        Random random = new Random(42);
+        String[] segments = {"en", "fr", "de", "products", "about", "news", "old", "Archive"};
+        Map<Pattern, RedirectRule> rules = new LinkedHashMap<>();
+        for (int i = 0; i < 1000; i++) {
+            String segment = segments[random.nextInt(segments.length)];
+            String regex;
+            switch (random.nextInt(4)) {
+                case 0:
+                    regex = "/content/site" + (i % 50) + "/" + segment + "/(.*)";
+                    break;
+                case 1:
+                    regex = "/content/site" + (i % 50) + "/(.*)/" + segment;
+                    break;
+                case 2:
+                    regex = "(.*)/" + segment + "/page" + i;
+                    break;
+                default:
+                    regex = "/content/site" + (i % 50) + "/" + segment + "?/(.+)";
+                    break;
+            }
+            put(rules, regex, random.nextBoolean());
+        }
+        PatternRuleIndex index = new PatternRuleIndex(rules, "");
+        for (int i = 0; i < 5000; i++) {
+            String path = "/content/" + (random.nextBoolean() ? "site" : "SITE") + random.nextInt(60)
+                    + "/" + segments[random.nextInt(segments.length)]
+                    + "/" + (random.nextBoolean() ? segments[random.nextInt(segments.length)] : "page" + random.nextInt(1000));
+
+            int expected = -1;
+            int ordinal = 0;
+            for (Pattern pattern : rules.keySet()) {
+                if (pattern.matcher(path).matches()) {
+                    expected = ordinal;
+                    break;
+                }
+                ordinal++;
+            }
+
+            int actual = -1;
+            BitSet candidates = index.candidates(new String[]{path}, new String[0]);
+            for (int c = candidates.nextSetBit(0); c >= 0; c = candidates.nextSetBit(c + 1)) {
+                if (index.getPattern(c).matcher(path).matches()) {
+                    actual = c;
+                    break;
+                }
+            }
+            assertEquals(path, expected, actual);
+        }
+    }
+
+    private static void put(Map<Pattern, RedirectRule> rules, String regex, boolean nc) {
+        RedirectRule rule = mock(RedirectRule.class);
+        doReturn(nc).when(rule).isCaseInsensitive();
+        rules.put(Pattern.compile(regex, nc ? Pattern.CASE_INSENSITIVE : 0), rule);
+    }
+}
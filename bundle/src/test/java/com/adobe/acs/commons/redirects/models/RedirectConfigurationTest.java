@@ -20,9 +20,13 @@ package com.adobe.acs.commons.redirects.models;
 import org.apache.sling.api.SlingHttpServletRequest;
 import org.junit.Test;
 
+import java.util.Arrays;
+
 import static com.adobe.acs.commons.redirects.models.RedirectConfiguration.determinePathToEvaluate;
 import static com.adobe.acs.commons.redirects.models.RedirectConfiguration.normalizePath;
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
 import static org.mockito.Mockito.doReturn;
 import static org.mockito.Mockito.mock;
 
@@ -34,6 +38,21 @@ public class RedirectConfigurationTest {
         assertEquals("/content/we-retail/en", normalizePath("/content/we-retail/en.html"));
         assertEquals("/content/dam/we-retail/en.html", normalizePath("/content/dam/we-retail/en.html"));
         assertEquals("/content/dam/we-retail/en.pdf", normalizePath("/content/dam/we-retail/en.pdf"));
+        assertEquals("/content/we-retail/en", normalizePath("/content/we-retail/en.html?a=b.html"));
+        assertEquals("/content/we-retail/en.html.json", normalizePath("/content/we-retail/en.html.json"));
+        assertEquals("/content/we-retail/en.htmlx", normalizePath("/content/we-retail/en.htmlx"));
+        assertEquals("/content/we-retail/en.htmlx/page", normalizePath("/content/we-retail/en.htmlx/page.html"));
+        assertEquals("/content/we-retail/en\n", normalizePath("/content/we-retail/en.html\n"));
+    }
+
+    @Test
+    public void testPathRuleFilter(){
+        PathRuleFilter filter = new PathRuleFilter(
+                Arrays.asList("/content/we-retail/en/one"), Arrays.asList("/content/we-retail/en/Two"));
+        assertTrue(filter.mightContain("/content/we-retail/en/one"));
+        assertTrue(filter.mightContain("/content/we-retail/en/Two"));
+        assertTrue(filter.mightContain("/CONTENT/WE-RETAIL/EN/TWO"));
+        assertFalse(filter.mightContain("/content/we-retail/en/three"));
     }
 
     @Test
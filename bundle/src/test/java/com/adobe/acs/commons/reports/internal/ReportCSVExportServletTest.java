@@ -0,0 +1,80 @@
+/*
+ * ACS AEM Commons
+ *
+ * Copyright (C) 2013 - 2023 Adobe
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.adobe.acs.commons.reports.internal;
+
+import com.adobe.acs.commons.reports.api.ReportCellCSVExporter;
+import com.day.text.csv.Csv;
+import org.junit.Test;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.StringWriter;
+import java.io.Writer;
+import java.util.Arrays;
+import java.util.List;
+import java.util.stream.IntStream;
+import java.util.stream.Stream;
+
+import static org.junit.Assert.assertEquals;
+
+public class ReportCSVExportServletTest {
+
+    private int flushes;
+
+    private final StringWriter writer = new StringWriter() {
+        @Override
+        public void flush() {
+            flushes++;
+        }
+    };
+
+    @Test
+    public void testRowsAreWrittenInOrder() throws IOException {
+        List<ReportCellCSVExporter> exporters = Arrays.asList(String::valueOf, r -> "row " + r);
+        Writer out = new BufferedWriter(writer);
+        Csv csv = new Csv();
+        csv.writeInit(out);
+
+        Stream<Object> results = IntStream.range(0, 25).boxed().map(Object.class::cast);
+        assertEquals(25, ReportCSVExportServlet.writeRows(results, exporters, csv, out, 10));
+        assertEquals(2, flushes);
+        out.flush();
+
+        String[] lines = writer.toString().split("\\r?\\n");
+        assertEquals(25, lines.length);
+        assertEquals("\"0\",\"row 0\"", lines[0]);
+        assertEquals("\"24\",\"row 24\"", lines[24]);
+    }
+
+    @Test
+    public void testFailingRowsAreSkipped() throws IOException {
+        List<ReportCellCSVExporter> exporters = Arrays.asList(String::valueOf, r -> {
+            if ("bad".equals(r)) {
+                throw new IllegalStateException("Cannot export " + r);
+            }
+            return "ok";
+        });
+        Writer out = new BufferedWriter(writer);
+        Csv csv = new Csv();
+        csv.writeInit(out);
+
+        assertEquals(2, ReportCSVExportServlet.writeRows(Stream.of("a", "bad", "b"), exporters, csv, out, 1));
+        assertEquals("\"a\",\"ok\"\n\"b\",\"ok\"", writer.toString().trim().replace("\r", ""));
+        assertEquals(2, flushes);
+    }
+}
@@ -34,7 +34,9 @@ import org.apache.sling.rewriter.ProcessingContext;
 import org.apache.sling.rewriter.Transformer;
 import org.junit.After;
 import org.junit.Before;
+import org.junit.Rule;
 import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
 import org.junit.runner.RunWith;
 import org.mockito.ArgumentCaptor;
 import org.mockito.Mock;
@@ -51,13 +53,17 @@ import javax.servlet.FilterChain;
 import javax.servlet.ServletException;
 import javax.servlet.http.HttpServletResponse;
 import java.io.ByteArrayInputStream;
+import java.io.File;
 import java.io.IOException;
 import java.io.UnsupportedEncodingException;
 import java.util.Collections;
 import java.util.HashMap;
 import java.util.Hashtable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
 
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
 import static org.mockito.ArgumentMatchers.any;
 import static org.mockito.ArgumentMatchers.anyInt;
 import static org.mockito.ArgumentMatchers.eq;
@@ -67,6 +73,7 @@ import static org.mockito.Mockito.never;
 import static org.mockito.Mockito.only;
 import static org.mockito.Mockito.reset;
 import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.timeout;
 import static org.mockito.Mockito.verify;
 import static org.mockito.Mockito.verifyNoInteractions;
 import static org.mockito.Mockito.verifyNoMoreInteractions;
@@ -98,6 +105,9 @@ public class VersionedClientlibsTransformerFactoryTest {
     @Mock
     private FilterChain filterChain;
 
+    @Rule
+    public TemporaryFolder temporaryFolder = new TemporaryFolder();
+
     private VersionedClientlibsTransformerFactory factory;
 
     private Filter filter;
@@ -860,6 +870,127 @@ public class VersionedClientlibsTransformerFactoryTest {
         assertEquals(PATH +".css", attributesCaptor.getValue().getValue(0));
     }
 
+    @Test
+    public void testPrecomputedMd5IsStored() throws Exception {
+        final File store = new File(temporaryFolder.getRoot(), VersionedClientlibsTransformerFactory.MD5_STORE_FILE);
+        final ClientLibrary clientLibrary = mock(ClientLibrary.class);
+        when(clientLibrary.getPath()).thenReturn(PATH);
+        when(clientLibrary.getTypes()).thenReturn(Collections.singleton(LibraryType.CSS));
+        when(htmlLibraryManager.getLibraries()).thenReturn(Collections.singletonMap(PATH, clientLibrary));
+        when(htmlLibraryManager.getLibrary(eq(LibraryType.CSS), eq(PATH))).thenReturn(htmlLibrary);
+        when(htmlLibrary.getType()).thenReturn(LibraryType.CSS);
+        when(htmlLibrary.getLastModified(false)).thenReturn(1L);
+
+        activateWithPrecompute(factory, store);
+        for (int i = 0; i < 100 && !store.exists(); i++) {
+            Thread.sleep(50);
+        }
+        assertEquals(PATH + "." + FAKE_STREAM_CHECKSUM + ".css", rewriteCss(factory));
+        factory.deactivate();
+
+        // After a restart the stored checksum is used without computing it again
+        final VersionedClientlibsTransformerFactory restarted = new VersionedClientlibsTransformerFactory();
+        PrivateAccessor.setField(restarted, "htmlLibraryManager", htmlLibraryManager);
+        activateWithPrecompute(restarted, store);
+        assertEquals(PATH + "." + FAKE_STREAM_CHECKSUM + ".css", rewriteCss(restarted));
+        restarted.deactivate();
+        verify(htmlLibrary, times(1)).getInputStream(false);
+    }
+
+    @Test
+    public void testPrecomputedMd5IsNotComputedByRequests() throws Exception {
+        when(htmlLibraryManager.getLibraries()).thenReturn(Collections.emptyMap());
+        when(htmlLibraryManager.getLibrary(eq(LibraryType.CSS), eq(PATH))).thenReturn(htmlLibrary);
+        when(htmlLibrary.getType()).thenReturn(LibraryType.CSS);
+        when(htmlLibrary.getLastModified(false)).thenReturn(1L);
+
+        activateWithPrecompute(factory, new File(temporaryFolder.getRoot(), VersionedClientlibsTransformerFactory.MD5_STORE_FILE));
+        // The reference is left as is until the checksum is computed in the background
+        String path = rewriteCss(factory);
+        assertEquals(PATH + ".css", path);
+        for (int i = 0; i < 100 && path.equals(PATH + ".css"); i++) {
+            Thread.sleep(50);
+            path = rewriteCss(factory);
+        }
+        factory.deactivate();
+        assertEquals(PATH + "." + FAKE_STREAM_CHECKSUM + ".css", path);
+    }
+
+    @Test
+    public void testPrecomputeAgainWhenInvalidatedMeanwhile() throws Exception {
+        final ClientLibrary clientLibrary = mock(ClientLibrary.class);
+        when(clientLibrary.getPath()).thenReturn(PATH);
+        when(clientLibrary.getTypes()).thenReturn(Collections.singleton(LibraryType.CSS));
+        when(htmlLibraryManager.getLibraries()).thenReturn(Collections.singletonMap(PATH, clientLibrary));
+        when(htmlLibraryManager.getLibrary(eq(LibraryType.CSS), eq(PATH))).thenReturn(htmlLibrary);
+        when(htmlLibrary.getType()).thenReturn(LibraryType.CSS);
+        when(htmlLibrary.getLastModified(false)).thenReturn(1L);
+        final CountDownLatch computing = new CountDownLatch(1);
+        final CountDownLatch changed = new CountDownLatch(1);
+        when(htmlLibrary.getInputStream(false)).then(i -> {
+            computing.countDown();
+            changed.await(5, TimeUnit.SECONDS);
+            return new ByteArrayInputStream("I love strings".getBytes());
+        }).thenReturn(new ByteArrayInputStream("I love strings when they are proxied".getBytes()));
+
+        activateWithPrecompute(factory, new File(temporaryFolder.getRoot(), VersionedClientlibsTransformerFactory.MD5_STORE_FILE));
+        assertTrue(computing.await(5, TimeUnit.SECONDS));
+        // The client library changes while its checksum is computed
+        factory.handleEvent(new Event("com/adobe/granite/ui/librarymanager/INVALIDATED", Collections.singletonMap(SlingConstants.PROPERTY_PATH, PATH)));
+        verify(htmlLibraryManager, timeout(5000).times(2)).getLibrary(LibraryType.CSS, PATH);
+        changed.countDown();
+
+        verify(htmlLibrary, timeout(5000).times(2)).getInputStream(false);
+        String path = rewriteCss(factory);
+        for (int i = 0; i < 100 && path.equals(PATH + ".css"); i++) {
+            Thread.sleep(50);
+            path = rewriteCss(factory);
+        }
+        factory.deactivate();
+        assertEquals(PATH + "." + PROXIED_FAKE_STREAM_CHECKSUM + ".css", path);
+    }
+
+    @Test
+    public void doFilter_notPrecomputedYet() throws Exception {
+        when(htmlLibraryManager.getLibraries()).thenReturn(Collections.emptyMap());
+        when(htmlLibraryManager.getLibrary(LibraryType.JS, "/etc/clientlibs/some")).thenReturn(htmlLibrary);
+        when(htmlLibrary.getType()).thenReturn(LibraryType.JS);
+        when(htmlLibrary.getLastModified(false)).thenReturn(1L);
+        when(slingRequest.getRequestURI()).thenReturn("/etc/clientlibs/some.min.foobar.js");
+
+        activateWithPrecompute(factory, new File(temporaryFolder.getRoot(), VersionedClientlibsTransformerFactory.MD5_STORE_FILE));
+        // The checksum is computed in the background, the request passes meanwhile
+        factory.new BadMd5VersionedClientLibsFilter().doFilter(slingRequest, slingResponse, filterChain);
+        factory.deactivate();
+
+        verifyNo404();
+    }
+
+    private void activateWithPrecompute(VersionedClientlibsTransformerFactory factory, File store) {
+        Hashtable<String, Object> props = new Hashtable<String, Object>();
+        props.put("md5.precompute", Boolean.TRUE);
+        when(componentContext.getProperties()).thenReturn(props);
+        when(bundleContext.getDataFile(VersionedClientlibsTransformerFactory.MD5_STORE_FILE)).thenReturn(store);
+        factory.activate(componentContext);
+    }
+
+    private String rewriteCss(VersionedClientlibsTransformerFactory factory) throws Exception {
+        final ContentHandler contentHandler = mock(ContentHandler.class);
+        final Transformer cssTransformer = factory.createTransformer();
+        cssTransformer.init(processingContext, null);
+        cssTransformer.setContentHandler(contentHandler);
+
+        final AttributesImpl in = new AttributesImpl();
+        in.addAttribute("", "href", "", "CDATA", PATH + ".css");
+        in.addAttribute("", "type", "", "CDATA", "text/css");
+        in.addAttribute("", "rel", "", "CDATA", "stylesheet");
+        cssTransformer.startElement(null, "link", null, in);
+
+        ArgumentCaptor<Attributes> attributesCaptor = ArgumentCaptor.forClass(Attributes.class);
+        verify(contentHandler).startElement(isNull(), eq("link"), isNull(), attributesCaptor.capture());
+        return attributesCaptor.getValue().getValue(0);
+    }
+
     private void verifyNothingHappened() throws IOException, ServletException {
         verifyNoInteractions(htmlLibraryManager);
         verifyNo404();